@@ -0,0 +1,180 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.apache.http.util.Args;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * AS2 Append Journal
+ *
+ * <p>
+ * Persists the records of an in memory store to a file: every change is
+ * appended to the file and the file is rewritten with the records held by
+ * the store once it holds more than twice as many records. The rewritten
+ * file replaces the old one by an atomic rename, so that a crash leaves
+ * either of them. Reading and writing the records is left to subclasses,
+ * which synchronize the calls.
+ *
+ * @param <R> - the type of the appended records.
+ */
+abstract class AS2AppendJournal<R> {
+
+    static final int COMPACTION_THRESHOLD = 1024;
+
+    private static final Logger LOG = LoggerFactory.getLogger(AS2AppendJournal.class);
+
+    private final File file;
+    private final String name;
+    private DataOutputStream out;
+    private int records;
+
+    /**
+     * @param file - the file the records are appended to.
+     * @param name - the name of the store in log and error messages.
+     */
+    AS2AppendJournal(File file, String name) {
+        this.file = Args.notNull(file, "file");
+        this.name = name;
+    }
+
+    /**
+     * Reads the records of the file, if it exists, with {@link #read(InputStream)}.
+     * The journal is opened by the first compaction.
+     *
+     * @throws IOException if the file can not be read.
+     */
+    void load() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            read(in);
+        }
+    }
+
+    /**
+     * Appends a record, unless the journal is closed. A record which can not
+     * be written is logged and dropped.
+     */
+    void append(R record) {
+        if (out == null) {
+            return;
+        }
+        try {
+            write(out, record);
+            out.flush();
+            records++;
+        } catch (IOException e) {
+            LOG.warn("Failed to write " + name + " '" + file + "': " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Rewrites the file if it holds more than twice the records of the
+     * store. The file is appended to again if it can not be rewritten.
+     *
+     * @param size - the number of records held by the store.
+     */
+    void compactIfNeeded(int size) {
+        if (out == null || records <= COMPACTION_THRESHOLD || records <= 2 * size) {
+            return;
+        }
+        try {
+            compact(size);
+        } catch (IOException e) {
+            LOG.warn("Failed to compact " + name + " '" + file + "': " + e.getMessage(), e);
+            // else changes would no longer be persisted
+            try {
+                open();
+            } catch (IOException ex) {
+                LOG.error("Failed to reopen " + name + " '" + file + "': changes are no longer persisted", ex);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the file with the records written by {@link #writeAll(DataOutputStream)}
+     * and opens the journal to append to it.
+     *
+     * @param size - the number of records written.
+     * @throws IOException if the file can not be rewritten.
+     */
+    void compact(int size) throws IOException {
+        close();
+        File compacted = new File(file.getPath() + ".tmp");
+        try (DataOutputStream tmp = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compacted)))) {
+            writeAll(tmp);
+        }
+        Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        Util.syncDirectory(file.getAbsoluteFile().getParentFile());
+        open();
+        records = size;
+    }
+
+    boolean isOpen() {
+        return out != null;
+    }
+
+    void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                LOG.debug("Failed to close " + name + ": " + e.getMessage(), e);
+            }
+            out = null;
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    private void open() throws IOException {
+        if (out == null) {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        }
+    }
+
+    /**
+     * Reads the records of the file into the store.
+     */
+    protected abstract void read(InputStream in) throws IOException;
+
+    /**
+     * Writes one record.
+     */
+    protected abstract void write(DataOutputStream out, R record) throws IOException;
+
+    /**
+     * Writes all the records held by the store.
+     */
+    protected abstract void writeAll(DataOutputStream out) throws IOException;
+}
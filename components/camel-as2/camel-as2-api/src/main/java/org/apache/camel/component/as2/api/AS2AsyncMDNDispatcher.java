@@ -0,0 +1,688 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.camel.component.as2.api.io.AS2BHttpClientConnection;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.DefaultBHttpClientConnection;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.protocol.HttpProcessor;
+import org.apache.http.protocol.HttpProcessorBuilder;
+import org.apache.http.protocol.HttpRequestExecutor;
+import org.apache.http.protocol.RequestConnControl;
+import org.apache.http.protocol.RequestContent;
+import org.apache.http.protocol.RequestDate;
+import org.apache.http.protocol.RequestTargetHost;
+import org.apache.http.protocol.RequestUserAgent;
+import org.apache.http.util.Args;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * AS2 Asynchronous MDN Dispatcher
+ *
+ * <p>
+ * Delivers Message Disposition Notifications (MDNs) to the address requested
+ * by a trading partner in the <code>Receipt-Delivery-Option</code> header of an
+ * AS2 message. Receipts are queued and delivered in batches by a single
+ * dispatcher thread over persistent connections kept open per receipt host, so
+ * the inbound connection is answered without waiting on receipt generation.
+ *
+ * <p>
+ * Failed deliveries are retried with exponential backoff up to a maximum number
+ * of attempts. If a queue directory is configured, every receipt is built and
+ * synced to that directory when it is queued, and removed once delivered;
+ * receipts still pending when the dispatcher is stopped or the process dies
+ * are reloaded when it is started again. A receipt which can not be persisted
+ * is not queued, so the message it acknowledges can be refused. Without a
+ * queue directory receipts are built on the dispatcher thread and only kept
+ * in memory.
+ */
+public class AS2AsyncMDNDispatcher {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 10;
+    public static final long DEFAULT_INITIAL_BACKOFF = 1000;
+    public static final long DEFAULT_MAX_BACKOFF = 5 * 60 * 1000;
+    public static final int DEFAULT_BATCH_SIZE = 32;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 30 * 1000;
+    public static final int DEFAULT_SOCKET_TIMEOUT = 60 * 1000;
+
+    private static final Logger LOG = LoggerFactory.getLogger(AS2AsyncMDNDispatcher.class);
+
+    private static final String DISPATCHER_THREAD_NAME_PREFIX = "AS2MdnDsp-";
+    private static final String PENDING_FILE_SUFFIX = ".mdn";
+    private static final String FAILED_FILE_SUFFIX = ".failed";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final String CRLF = "\r\n";
+
+    /**
+     * A receipt waiting for delivery.
+     */
+    static class PendingMDN implements Delayed {
+
+        private final URI receiptAddress;
+        private final HttpHost targetHost;
+        private final String requestUri;
+        private Callable<HttpEntityEnclosingRequest> receiptFactory;
+        private HttpEntityEnclosingRequest receipt;
+        private File file;
+        private int attempts;
+        private long dueTime;
+
+        PendingMDN(URI receiptAddress, Callable<HttpEntityEnclosingRequest> receiptFactory) {
+            this.receiptAddress = receiptAddress;
+            this.targetHost = new HttpHost(receiptAddress.getHost(), receiptAddress.getPort(), receiptAddress.getScheme());
+            String path = receiptAddress.getRawPath();
+            if (path == null || path.isEmpty()) {
+                path = "/";
+            }
+            if (receiptAddress.getRawQuery() != null) {
+                path = path + "?" + receiptAddress.getRawQuery();
+            }
+            this.requestUri = path;
+            this.receiptFactory = receiptFactory;
+            this.dueTime = System.currentTimeMillis();
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueTime - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(getDelay(TimeUnit.MILLISECONDS), other.getDelay(TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private final String userAgent;
+    private final File queueDirectory;
+    private final HttpProcessor httpProcessor;
+    private final DelayQueue<PendingMDN> queue = new DelayQueue<PendingMDN>();
+    // only accessed by the dispatcher thread
+    private final Map<HttpHost, DefaultBHttpClientConnection> connections = new HashMap<HttpHost, DefaultBHttpClientConnection>();
+
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private long initialBackoff = DEFAULT_INITIAL_BACKOFF;
+    private long maxBackoff = DEFAULT_MAX_BACKOFF;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private int socketTimeout = DEFAULT_SOCKET_TIMEOUT;
+    private volatile AS2MessageArchive archive;
+
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong retriedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private volatile Thread dispatcherThread;
+    // stopped but possibly still ending its last delivery
+    private Thread stoppedThread;
+
+    /**
+     * Creates a dispatcher.
+     *
+     * @param userAgent - the value of the <code>User-Agent</code> header sent with receipts.
+     * @param queueDirectory - the directory receipts are persisted to until delivered, or <code>null</code> to only queue receipts in memory.
+     */
+    public AS2AsyncMDNDispatcher(String userAgent, File queueDirectory) {
+        this.userAgent = Args.notNull(userAgent, "userAgent");
+        this.queueDirectory = queueDirectory;
+        if (queueDirectory != null && !queueDirectory.isDirectory() && !queueDirectory.mkdirs()) {
+            throw new IllegalArgumentException("Failed to create MDN queue directory '" + queueDirectory + "'");
+        }
+
+        httpProcessor = HttpProcessorBuilder.create()
+                .add(new RequestTargetHost())
+                .add(new RequestUserAgent(this.userAgent))
+                .add(new RequestDate())
+                .add(new RequestContent(true))
+                .add(new RequestConnControl()).build();
+    }
+
+    public File getQueueDirectory() {
+        return queueDirectory;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public long getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    public void setInitialBackoff(long initialBackoff) {
+        this.initialBackoff = initialBackoff;
+    }
+
+    public long getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    public void setMaxBackoff(long maxBackoff) {
+        this.maxBackoff = maxBackoff;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    public void setSocketTimeout(int socketTimeout) {
+        this.socketTimeout = socketTimeout;
+    }
+
+    public AS2MessageArchive getArchive() {
+        return archive;
+    }
+
+    /**
+     * Sets the archive keeping the receipts delivered.
+     *
+     * @param archive - the archive, or <code>null</code> to not archive receipts.
+     */
+    public void setArchive(AS2MessageArchive archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * @return The number of receipts waiting for delivery.
+     */
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    /**
+     * @return The number of receipts delivered.
+     */
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    /**
+     * @return The number of failed delivery attempts which were rescheduled.
+     */
+    public long getRetriedCount() {
+        return retriedCount.get();
+    }
+
+    /**
+     * @return The number of receipts given up on after the maximum number of attempts.
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Queues a receipt for asynchronous delivery.
+     *
+     * @param receiptDeliveryOption - the value of the <code>Receipt-Delivery-Option</code> header of the acknowledged message.
+     * @param receiptFactory - creates the receipt request; invoked on the dispatcher thread.
+     * @throws HttpException if the receipt delivery option is not a supported address, or
+     *                       the receipt could not be persisted to the queue directory.
+     */
+    public void dispatch(String receiptDeliveryOption, Callable<HttpEntityEnclosingRequest> receiptFactory) throws HttpException {
+        Args.notNull(receiptFactory, "receiptFactory");
+        URI receiptAddress = parseReceiptAddress(receiptDeliveryOption);
+        PendingMDN pendingMDN = new PendingMDN(receiptAddress, receiptFactory);
+        start();
+        if (queueDirectory == null) {
+            queue.add(pendingMDN);
+            return;
+        }
+
+        // persist the receipt before the message is acknowledged
+        try {
+            build(pendingMDN);
+        } catch (Exception e) {
+            failedCount.incrementAndGet();
+            throw new HttpException("Failed to create receipt for '" + receiptAddress + "': " + e.getMessage(), e);
+        }
+        File tempFile;
+        try {
+            tempFile = persist(pendingMDN);
+        } catch (IOException e) {
+            failedCount.incrementAndGet();
+            throw new HttpException("Failed to persist receipt for '" + receiptAddress + "': " + e.getMessage(), e);
+        }
+        File file = new File(queueDirectory, tempFile.getName().substring(0, tempFile.getName().length() - TEMP_FILE_SUFFIX.length()));
+        synchronized (this) {
+            // not reloaded by a concurrent restart once renamed
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+                failedCount.incrementAndGet();
+                throw new HttpException("Failed to persist receipt file '" + file + "'");
+            }
+            pendingMDN.file = file;
+            queue.add(pendingMDN);
+        }
+        try {
+            Util.syncDirectory(queueDirectory);
+        } catch (IOException e) {
+            LOG.warn("Failed to sync MDN queue directory '" + queueDirectory + "': " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Starts the dispatcher thread, reloading any receipts persisted in the queue directory.
+     */
+    public synchronized void start() {
+        if (dispatcherThread != null) {
+            return;
+        }
+        // receipts the stopped thread is still delivering must not be reloaded and sent twice
+        awaitStoppedThread();
+        if (queueDirectory != null) {
+            // persisted receipts left queued by stop() are reloaded from their files
+            Iterator<PendingMDN> it = queue.iterator();
+            while (it.hasNext()) {
+                if (it.next().file != null) {
+                    it.remove();
+                }
+            }
+        }
+        reloadPendingReceipts();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatchLoop();
+            }
+        }, DISPATCHER_THREAD_NAME_PREFIX + System.identityHashCode(this));
+        thread.setDaemon(true);
+        dispatcherThread = thread;
+        thread.start();
+    }
+
+    /**
+     * Stops the dispatcher thread. Receipts not yet delivered remain queued,
+     * and in the queue directory if configured, and are delivered on next
+     * start, which waits for a receipt still being delivered by the stopped
+     * thread.
+     */
+    public synchronized void stop() {
+        Thread thread = dispatcherThread;
+        if (thread == null) {
+            return;
+        }
+        dispatcherThread = null;
+        stoppedThread = thread;
+        thread.interrupt();
+        try {
+            thread.join(connectTimeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void awaitStoppedThread() {
+        Thread thread = stoppedThread;
+        if (thread == null) {
+            return;
+        }
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        stoppedThread = null;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void dispatchLoop() {
+        try {
+            while (dispatcherThread == Thread.currentThread()) {
+                List<PendingMDN> batch = new ArrayList<PendingMDN>(batchSize);
+                batch.add(queue.take());
+                queue.drainTo(batch, batchSize - 1);
+
+                // Group batch by receipt host so each host's receipts share one connection.
+                Map<HttpHost, List<PendingMDN>> batchByHost = new LinkedHashMap<HttpHost, List<PendingMDN>>();
+                for (PendingMDN pendingMDN : batch) {
+                    if (!prepare(pendingMDN)) {
+                        continue;
+                    }
+                    List<PendingMDN> hostBatch = batchByHost.get(pendingMDN.targetHost);
+                    if (hostBatch == null) {
+                        hostBatch = new ArrayList<PendingMDN>();
+                        batchByHost.put(pendingMDN.targetHost, hostBatch);
+                    }
+                    hostBatch.add(pendingMDN);
+                }
+
+                for (Map.Entry<HttpHost, List<PendingMDN>> entry : batchByHost.entrySet()) {
+                    deliver(entry.getKey(), entry.getValue());
+                }
+            }
+        } catch (InterruptedException e) {
+            // dispatcher stopped
+        } finally {
+            for (DefaultBHttpClientConnection connection : connections.values()) {
+                closeQuietly(connection);
+            }
+            connections.clear();
+        }
+    }
+
+    private boolean prepare(PendingMDN pendingMDN) {
+        if (pendingMDN.receipt != null) {
+            return true;
+        }
+        try {
+            build(pendingMDN);
+        } catch (Exception e) {
+            LOG.warn("Failed to create receipt for '" + pendingMDN.receiptAddress + "': " + e.getMessage(), e);
+            failedCount.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private static void build(PendingMDN pendingMDN) throws Exception {
+        // Address receipt to the path of the requested receipt address.
+        HttpEntityEnclosingRequest receipt = pendingMDN.receiptFactory.call();
+        pendingMDN.receipt = new BasicHttpEntityEnclosingRequest("POST", pendingMDN.requestUri);
+        pendingMDN.receipt.setHeaders(receipt.getAllHeaders());
+        pendingMDN.receipt.setEntity(receipt.getEntity());
+        pendingMDN.receiptFactory = null;
+    }
+
+    private void deliver(HttpHost targetHost, List<PendingMDN> hostBatch) {
+        for (int i = 0; i < hostBatch.size(); i++) {
+            PendingMDN pendingMDN = hostBatch.get(i);
+            try {
+                DefaultBHttpClientConnection connection = getConnection(targetHost);
+                HttpCoreContext httpContext = HttpCoreContext.create();
+                httpContext.setTargetHost(targetHost);
+
+                HttpRequestExecutor httpexecutor = new HttpRequestExecutor();
+                httpexecutor.preProcess(pendingMDN.receipt, httpProcessor, httpContext);
+                HttpResponse response = httpexecutor.execute(pendingMDN.receipt, connection, httpContext);
+                httpexecutor.postProcess(response, httpProcessor, httpContext);
+                org.apache.http.util.EntityUtils.consume(response.getEntity());
+
+                if (!DefaultConnectionReuseStrategy.INSTANCE.keepAlive(response, httpContext)) {
+                    closeQuietly(connections.remove(targetHost));
+                }
+
+                int statusCode = response.getStatusLine().getStatusCode();
+                if (statusCode < 200 || statusCode >= 300) {
+                    throw new HttpException("Receipt rejected with status: " + response.getStatusLine());
+                }
+                delivered(pendingMDN);
+            } catch (RuntimeException e) {
+                // the dispatcher must survive a receipt it can not handle
+                LOG.warn("Unexpected error delivering receipt to '" + pendingMDN.receiptAddress + "'", e);
+                closeQuietly(connections.remove(targetHost));
+                reschedule(pendingMDN);
+            } catch (IOException | HttpException e) {
+                LOG.debug("Failed to deliver receipt to '" + pendingMDN.receiptAddress + "': " + e.getMessage(), e);
+                closeQuietly(connections.remove(targetHost));
+                if (e instanceof IOException) {
+                    // Host unreachable: reschedule the rest of its batch without trying it.
+                    for (int j = i; j < hostBatch.size(); j++) {
+                        reschedule(hostBatch.get(j));
+                    }
+                    return;
+                }
+                reschedule(pendingMDN);
+            }
+        }
+    }
+
+    private DefaultBHttpClientConnection getConnection(HttpHost targetHost) throws IOException {
+        DefaultBHttpClientConnection connection = connections.get(targetHost);
+        if (connection instanceof AS2BHttpClientConnection) {
+            ((AS2BHttpClientConnection) connection).setArchive(archive);
+        }
+        if (connection != null && connection.isOpen() && !connection.isStale()) {
+            return connection;
+        }
+        closeQuietly(connection);
+
+        int port = targetHost.getPort() < 0 ? 80 : targetHost.getPort();
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress(targetHost.getHostName(), port), connectTimeout);
+        socket.setSoTimeout(socketTimeout);
+        AS2BHttpClientConnection as2Connection = new AS2BHttpClientConnection(8 * 1024);
+        as2Connection.setArchive(archive);
+        connection = as2Connection;
+        connection.bind(socket);
+        connections.put(targetHost, connection);
+        return connection;
+    }
+
+    private void delivered(PendingMDN pendingMDN) {
+        deliveredCount.incrementAndGet();
+        if (pendingMDN.file != null && !pendingMDN.file.delete()) {
+            LOG.warn("Failed to remove delivered receipt file '" + pendingMDN.file + "'");
+        }
+        LOG.debug("Delivered receipt to '" + pendingMDN.receiptAddress + "'");
+    }
+
+    private void reschedule(PendingMDN pendingMDN) {
+        pendingMDN.attempts++;
+        if (pendingMDN.attempts >= maxAttempts) {
+            failedCount.incrementAndGet();
+            LOG.warn("Giving up delivering receipt to '" + pendingMDN.receiptAddress + "' after " + pendingMDN.attempts + " attempts");
+            if (pendingMDN.file != null
+                    && !pendingMDN.file.renameTo(new File(pendingMDN.file.getPath() + FAILED_FILE_SUFFIX))) {
+                LOG.warn("Failed to mark receipt file '" + pendingMDN.file + "' as failed");
+            }
+            return;
+        }
+        retriedCount.incrementAndGet();
+        long backoff = initialBackoff << Math.min(pendingMDN.attempts - 1, 30);
+        pendingMDN.dueTime = System.currentTimeMillis() + Math.min(backoff, maxBackoff);
+        queue.add(pendingMDN);
+    }
+
+    /**
+     * Writes a receipt to a temporary file of the queue directory, synced to disk.
+     */
+    private File persist(PendingMDN pendingMDN) throws IOException {
+        File file = File.createTempFile("mdn-", PENDING_FILE_SUFFIX + TEMP_FILE_SUFFIX, queueDirectory);
+        FileOutputStream fileOut = new FileOutputStream(file);
+        try {
+            OutputStream out = new BufferedOutputStream(fileOut);
+            writeLine(out, pendingMDN.receiptAddress.toString());
+            for (Header header : pendingMDN.receipt.getAllHeaders()) {
+                writeLine(out, header.getName() + ": " + header.getValue());
+            }
+            writeLine(out, "");
+            HttpEntity entity = pendingMDN.receipt.getEntity();
+            if (entity != null) {
+                if (!entity.isRepeatable()) {
+                    // the entity is sent after being persisted
+                    ByteArrayOutputStream body = new ByteArrayOutputStream();
+                    entity.writeTo(body);
+                    ByteArrayEntity bufferedEntity = new ByteArrayEntity(body.toByteArray());
+                    bufferedEntity.setContentType(entity.getContentType());
+                    bufferedEntity.setContentEncoding(entity.getContentEncoding());
+                    pendingMDN.receipt.setEntity(bufferedEntity);
+                    entity = bufferedEntity;
+                }
+                entity.writeTo(out);
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } catch (IOException e) {
+            fileOut.close();
+            file.delete();
+            throw e;
+        }
+        fileOut.close();
+        return file;
+    }
+
+    private void reloadPendingReceipts() {
+        if (queueDirectory == null) {
+            return;
+        }
+        File[] files = queueDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_FILE_SUFFIX)) {
+                // receipt not fully written before a crash: never queued
+                if (!file.delete()) {
+                    LOG.warn("Failed to remove incomplete receipt file '" + file + "'");
+                }
+                continue;
+            }
+            if (!file.getName().endsWith(PENDING_FILE_SUFFIX)) {
+                continue;
+            }
+            try {
+                queue.add(load(file));
+            } catch (IOException | HttpException e) {
+                LOG.warn("Failed to reload receipt file '" + file + "': " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private PendingMDN load(File file) throws IOException, HttpException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            URI receiptAddress = parseReceiptAddress(readLine(in));
+            PendingMDN pendingMDN = new PendingMDN(receiptAddress, null);
+            BasicHttpEntityEnclosingRequest receipt = new BasicHttpEntityEnclosingRequest("POST", pendingMDN.requestUri);
+            String line;
+            while (!(line = readLine(in)).isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    receipt.addHeader(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+                }
+            }
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                body.write(buffer, 0, n);
+            }
+            ByteArrayEntity entity = new ByteArrayEntity(body.toByteArray());
+            Header contentType = receipt.getFirstHeader(AS2Header.CONTENT_TYPE);
+            if (contentType != null) {
+                entity.setContentType(contentType);
+            }
+            receipt.setEntity(entity);
+            pendingMDN.receipt = receipt;
+            pendingMDN.file = file;
+            return pendingMDN;
+        }
+    }
+
+    private static URI parseReceiptAddress(String receiptDeliveryOption) throws HttpException {
+        if (receiptDeliveryOption == null) {
+            throw new HttpException("Receipt delivery option missing");
+        }
+        URI receiptAddress;
+        try {
+            receiptAddress = new URI(receiptDeliveryOption.trim());
+        } catch (URISyntaxException e) {
+            throw new HttpException("Invalid receipt delivery option '" + receiptDeliveryOption + "'", e);
+        }
+        if (!"http".equalsIgnoreCase(receiptAddress.getScheme()) || receiptAddress.getHost() == null) {
+            throw new HttpException("Unsupported receipt delivery option '" + receiptDeliveryOption + "'");
+        }
+        return receiptAddress;
+    }
+
+    private static void writeLine(OutputStream out, String line) throws IOException {
+        out.write(line.getBytes(StandardCharsets.US_ASCII));
+        out.write(CRLF.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+
+    private static void closeQuietly(DefaultBHttpClientConnection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (IOException e) {
+            LOG.debug("Failed to close receipt connection: " + e.getMessage(), e);
+        }
+    }
+}
@@ -23,11 +23,16 @@ import java.net.UnknownHostException;
 import org.apache.camel.component.as2.api.io.AS2BHttpClientConnection;
 import org.apache.camel.component.as2.api.protocol.RequestAS2;
 import org.apache.camel.component.as2.api.protocol.RequestMDN;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpException;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
+import org.apache.http.entity.BufferedHttpEntity;
 import org.apache.http.impl.DefaultBHttpClientConnection;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
 import org.apache.http.protocol.HttpCoreContext;
 import org.apache.http.protocol.HttpProcessor;
 import org.apache.http.protocol.HttpProcessorBuilder;
@@ -44,17 +49,48 @@ public class AS2ClientConnection {
     
     private HttpHost targetHost;
     private HttpProcessor httpProcessor;
+    private HttpProcessor as2Processor;
+    private HttpProcessor transportProcessor;
     private DefaultBHttpClientConnection httpConnection;
+    private AS2ClientConnectionPool connectionPool;
+    private AS2TlsSettings tlsSettings;
+    private volatile AS2MessageArchive archive;
+    private volatile AS2WireCapture wireCapture;
     private String as2Version;
     private String userAgent;
     private String clientFqdn;
     
     public AS2ClientConnection(String as2Version, String userAgent, String clientFqdn, String targetHostName, Integer targetPortNumber) throws UnknownHostException, IOException {
+        this(as2Version, userAgent, clientFqdn, targetHostName, targetPortNumber, null);
+    }
+
+    /**
+     * Creates a connection sending messages over the connections of
+     * <code>connectionPool</code>. No connection is opened until a message
+     * is sent.
+     *
+     * @param connectionPool - the pool of connections, or <code>null</code> to open a dedicated connection immediately.
+     */
+    public AS2ClientConnection(String as2Version, String userAgent, String clientFqdn, String targetHostName, Integer targetPortNumber,
+                               AS2ClientConnectionPool connectionPool) throws UnknownHostException, IOException {
+        this(as2Version, userAgent, clientFqdn, targetHostName, targetPortNumber, connectionPool, null);
+    }
+
+    /**
+     * Creates a connection sending messages over HTTPS.
+     *
+     * @param connectionPool - the pool of connections, or <code>null</code> to open a dedicated connection immediately.
+     * @param tlsSettings - the settings of the HTTPS transport, or <code>null</code> to send messages over HTTP.
+     */
+    public AS2ClientConnection(String as2Version, String userAgent, String clientFqdn, String targetHostName, Integer targetPortNumber,
+                               AS2ClientConnectionPool connectionPool, AS2TlsSettings tlsSettings) throws UnknownHostException, IOException {
 
         this.as2Version = Args.notNull(as2Version, "as2Version");
         this.userAgent = Args.notNull(userAgent, "userAgent");
         this.clientFqdn = Args.notNull(clientFqdn, "clientFqdn");
-        this.targetHost = new HttpHost(Args.notNull(targetHostName, "targetHostName"), Args.notNull(targetPortNumber, "targetPortNumber"));
+        this.tlsSettings = tlsSettings;
+        this.targetHost = new HttpHost(Args.notNull(targetHostName, "targetHostName"), Args.notNull(targetPortNumber, "targetPortNumber"),
+                tlsSettings == null ? "http" : "https");
                 
         // Build Processor
         httpProcessor = HttpProcessorBuilder.create()
@@ -66,9 +102,27 @@ public class AS2ClientConnection {
                 .add(new RequestContent(true))
                 .add(new RequestConnControl())
                 .add(new RequestExpectContinue(true)).build();
+        as2Processor = HttpProcessorBuilder.create()
+                .add(new RequestAS2(as2Version, clientFqdn))
+                .add(new RequestMDN()).build();
+        transportProcessor = HttpProcessorBuilder.create()
+                .add(new RequestTargetHost())
+                .add(new RequestUserAgent(this.userAgent))
+                .add(new RequestDate())
+                .add(new RequestContent(true))
+                .add(new RequestConnControl())
+                .add(new RequestExpectContinue(true)).build();
         
+        this.connectionPool = connectionPool;
+        if (connectionPool != null) {
+            return;
+        }
+
         // Create Socket
         Socket socket = new Socket(targetHost.getHostName(), targetHost.getPort());
+        if (tlsSettings != null) {
+            socket = tlsSettings.createClientSocket(socket, targetHost.getHostName(), targetHost.getPort());
+        }
 
         // Create Connection
         httpConnection = new AS2BHttpClientConnection(8 * 1024);
@@ -87,15 +141,126 @@ public class AS2ClientConnection {
         return clientFqdn;
     }
 
+    public HttpHost getTargetHost() {
+        return targetHost;
+    }
+
+    public AS2ClientConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * @return The settings of the HTTPS transport of this connection, or <code>null</code> if it sends messages over HTTP.
+     */
+    public AS2TlsSettings getTlsSettings() {
+        return tlsSettings;
+    }
+
+    public AS2MessageArchive getArchive() {
+        return archive;
+    }
+
+    /**
+     * Sets the archive keeping the messages sent by this connection and the MDNs received.
+     *
+     * @param archive - the archive, or <code>null</code> to not archive messages.
+     */
+    public void setArchive(AS2MessageArchive archive) {
+        this.archive = archive;
+    }
+
+    public AS2WireCapture getWireCapture() {
+        return wireCapture;
+    }
+
+    /**
+     * Sets the capture keeping the last messages sent by this connection and the responses received.
+     *
+     * @param wireCapture - the capture, or <code>null</code> to not capture messages.
+     */
+    public void setWireCapture(AS2WireCapture wireCapture) {
+        this.wireCapture = wireCapture;
+    }
+
+    /**
+     * Opens a pooled connection to the target host ahead of the first message.
+     *
+     * @throws IOException if the connection can not be opened.
+     */
+    public void warmUp() throws IOException {
+        if (connectionPool != null) {
+            connectionPool.release(connectionPool.lease(targetHost, tlsSettings), true);
+        }
+    }
+
     public HttpResponse send(HttpRequest request, HttpCoreContext httpContext) throws HttpException, IOException {
+        return send(request, httpProcessor, httpContext);
+    }
+
+    /**
+     * Adds the AS2 headers of a message, so that it can be stored and sent
+     * later with {@link #sendPrepared(HttpRequest, HttpCoreContext)} without
+     * its send parameters.
+     *
+     * @param request - the message, with its entity set.
+     * @param httpContext - the context holding the send parameters of the message.
+     */
+    public void prepare(HttpRequest request, HttpCoreContext httpContext) throws HttpException, IOException {
+        as2Processor.process(request, httpContext);
+        if (request instanceof HttpEntityEnclosingRequest && !request.containsHeader(AS2Header.CONTENT_TYPE)) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            if (entity != null && entity.getContentType() != null) {
+                request.addHeader(entity.getContentType());
+            }
+        }
+    }
+
+    /**
+     * Sends a message which already carries its AS2 headers, see {@link #prepare(HttpRequest, HttpCoreContext)}.
+     */
+    public HttpResponse sendPrepared(HttpRequest request, HttpCoreContext httpContext) throws HttpException, IOException {
+        return send(request, transportProcessor, httpContext);
+    }
+
+    private HttpResponse send(HttpRequest request, HttpProcessor processor, HttpCoreContext httpContext) throws HttpException, IOException {
         
         httpContext.setTargetHost(targetHost);
 
+        if (connectionPool == null) {
+            // the dedicated connection carries one message at a time
+            synchronized (httpConnection) {
+                return send(request, processor, httpConnection, httpContext);
+            }
+        }
+
+        AS2ClientConnectionPool.Entry entry = connectionPool.lease(targetHost, tlsSettings);
+        boolean reusable = false;
+        try {
+            HttpResponse response = send(request, processor, entry.getConnection(), httpContext);
+            HttpEntity entity = response.getEntity();
+            if (entity != null && entity.isStreaming()) {
+                // entity not parsed as AS2 entity: read it before the connection is released
+                response.setEntity(new BufferedHttpEntity(entity));
+            }
+            reusable = DefaultConnectionReuseStrategy.INSTANCE.keepAlive(response, httpContext);
+            return response;
+        } finally {
+            connectionPool.release(entry, reusable);
+        }
+    }
+
+    private HttpResponse send(HttpRequest request, HttpProcessor processor, HttpClientConnection connection, HttpCoreContext httpContext) throws HttpException, IOException {
+        if (connection instanceof AS2BHttpClientConnection) {
+            // pooled connections are shared with the client connections of other endpoints
+            ((AS2BHttpClientConnection) connection).setArchive(archive);
+            ((AS2BHttpClientConnection) connection).setWireCapture(wireCapture);
+        }
+
         // Execute Request
         HttpRequestExecutor httpexecutor = new HttpRequestExecutor();
-        httpexecutor.preProcess(request, httpProcessor, httpContext);
-        HttpResponse response = httpexecutor.execute(request, httpConnection, httpContext);   
-        httpexecutor.postProcess(response, httpProcessor, httpContext);
+        httpexecutor.preProcess(request, processor, httpContext);
+        HttpResponse response = httpexecutor.execute(request, connection, httpContext);   
+        httpexecutor.postProcess(response, processor, httpContext);
 
         return response;
     }
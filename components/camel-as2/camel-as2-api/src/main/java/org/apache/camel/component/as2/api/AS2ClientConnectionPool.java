@@ -0,0 +1,349 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.camel.component.as2.api.io.AS2BHttpClientConnection;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.pool.AbstractConnPool;
+import org.apache.http.pool.ConnFactory;
+import org.apache.http.pool.PoolEntry;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.Args;
+
+/**
+ * AS2 Client Connection Pool
+ *
+ * <p>
+ * The HTTP connections of the {@link AS2ClientConnection}s sending messages
+ * to trading partners. Connections are opened when first needed, reused
+ * between messages sent to the same host and limited in total and per host:
+ * a message sent while the limit is reached waits for a connection to be
+ * released. New connections are opened by the leasing thread outside the
+ * pool lock, so a slow host does not hold up the messages sent to others.
+ *
+ * <p>
+ * Connections are pooled by {@link Route}: the host and the TLS settings
+ * they were opened with. A connection opened with the keys and trust of one
+ * endpoint is never reused by an endpoint sending to the same host with
+ * other TLS settings.
+ */
+public class AS2ClientConnectionPool {
+
+    public static final int DEFAULT_MAX_TOTAL = 20;
+    public static final int DEFAULT_MAX_PER_HOST = 5;
+    public static final long DEFAULT_LEASE_TIMEOUT = 30000;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 30000;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int VALIDATE_AFTER_INACTIVITY = 2000;
+
+    private final Pool pool;
+    private volatile long leaseTimeout = DEFAULT_LEASE_TIMEOUT;
+    private volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+
+    public AS2ClientConnectionPool() {
+        this(DEFAULT_MAX_TOTAL, DEFAULT_MAX_PER_HOST);
+    }
+
+    /**
+     * Creates a pool.
+     *
+     * @param maxTotal - the maximum number of connections.
+     * @param maxPerHost - the maximum number of connections to a host.
+     */
+    public AS2ClientConnectionPool(int maxTotal, int maxPerHost) {
+        pool = new Pool(Args.positive(maxPerHost, "maxPerHost"), Args.positive(maxTotal, "maxTotal"));
+        // partners close idle connections: check a connection before reusing it
+        pool.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY);
+    }
+
+    public int getMaxTotal() {
+        return pool.getMaxTotal();
+    }
+
+    public void setMaxTotal(int maxTotal) {
+        pool.setMaxTotal(Args.positive(maxTotal, "maxTotal"));
+    }
+
+    public int getMaxPerHost() {
+        return pool.getDefaultMaxPerRoute();
+    }
+
+    public void setMaxPerHost(int maxPerHost) {
+        pool.setDefaultMaxPerRoute(Args.positive(maxPerHost, "maxPerHost"));
+    }
+
+    /**
+     * Sets the maximum number of connections to one host, overriding the default maximum per host.
+     *
+     * @param host - the host.
+     * @param tlsSettings - the settings of the TLS connections to the host, or <code>null</code> for HTTP connections.
+     * @param maxPerHost - the maximum number of connections.
+     */
+    public void setMaxPerHost(HttpHost host, AS2TlsSettings tlsSettings, int maxPerHost) {
+        pool.setMaxPerRoute(new Route(host, tlsSettings), Args.positive(maxPerHost, "maxPerHost"));
+    }
+
+    public long getLeaseTimeout() {
+        return leaseTimeout;
+    }
+
+    /**
+     * Sets the time in milliseconds to wait for a connection when the limits are reached.
+     */
+    public void setLeaseTimeout(long leaseTimeout) {
+        this.leaseTimeout = Args.notNegative(leaseTimeout, "leaseTimeout");
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * Sets the time in milliseconds to wait for a new connection to be established, <code>0</code> to wait indefinitely.
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = Args.notNegative(connectTimeout, "connectTimeout");
+    }
+
+    /**
+     * Leases a connection to a host, opening it if no idle connection is available.
+     *
+     * @param host - the host.
+     * @param tlsSettings - the settings of the TLS connection to the host, or <code>null</code> for an HTTP connection.
+     * @return The pool entry of the connection, to be released with {@link #release(Entry, boolean)}.
+     * @throws IOException if no connection is available within the lease timeout or the connection can not be opened.
+     */
+    public Entry lease(HttpHost host, AS2TlsSettings tlsSettings) throws IOException {
+        Route route = new Route(host, tlsSettings);
+        Entry entry = awaitEntry(route);
+        if (entry.getConnection().isOpen()) {
+            return entry;
+        }
+        boolean connected = false;
+        try {
+            connect(route, entry.getConnection());
+            connected = true;
+            return entry;
+        } finally {
+            if (!connected) {
+                pool.release(entry, false);
+            }
+        }
+    }
+
+    private Entry awaitEntry(Route route) throws IOException {
+        Future<Entry> future = pool.lease(route, null);
+        try {
+            return future.get(leaseTimeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new IOException("Timeout waiting for connection to " + route + ": " + pool.getStats(route));
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for connection to " + route);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to connect to " + route, e.getCause());
+        }
+    }
+
+    private void connect(Route route, HttpClientConnection connection) throws IOException {
+        HttpHost host = route.getHost();
+        AS2TlsSettings settings = route.getTlsSettings();
+        int port = host.getPort();
+        if (port < 0) {
+            port = settings != null ? 443 : 80;
+        }
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host.getHostName(), port), connectTimeout);
+            if (settings != null) {
+                // the handshake is part of opening the connection
+                socket.setSoTimeout(connectTimeout);
+                socket = settings.createClientSocket(socket, host.getHostName(), port);
+                socket.setSoTimeout(0);
+            }
+            ((AS2BHttpClientConnection) connection).bind(socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Releases a leased connection.
+     *
+     * @param entry - the pool entry of the connection.
+     * @param reusable - whether the connection may be used to send another message, else it is closed.
+     */
+    public void release(Entry entry, boolean reusable) {
+        pool.release(entry, reusable);
+    }
+
+    /**
+     * @return The number of leased, pending and available connections of the pool.
+     */
+    public PoolStats getTotalStats() {
+        return pool.getTotalStats();
+    }
+
+    /**
+     * @return The number of leased, pending and available connections to <code>host</code> with <code>tlsSettings</code>.
+     */
+    public PoolStats getStats(HttpHost host, AS2TlsSettings tlsSettings) {
+        return pool.getStats(new Route(host, tlsSettings));
+    }
+
+    /**
+     * Closes the connections idle for longer than <code>idleTime</code> milliseconds.
+     */
+    public void closeIdle(long idleTime) {
+        pool.closeIdle(idleTime, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Closes all connections; the pool can not be used any more.
+     */
+    public void close() {
+        try {
+            pool.shutdown();
+        } catch (IOException e) {
+            // connections are closed regardless
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AS2ClientConnectionPool" + pool.getTotalStats();
+    }
+
+    /**
+     * The key of pooled connections: a host and the settings of the TLS
+     * connections to the host, compared by identity.
+     */
+    public static final class Route {
+
+        private final HttpHost host;
+        private final AS2TlsSettings tlsSettings;
+
+        /**
+         * @param host - the host.
+         * @param tlsSettings - the TLS settings, or <code>null</code> for HTTP connections.
+         */
+        public Route(HttpHost host, AS2TlsSettings tlsSettings) {
+            this.host = Args.notNull(host, "host");
+            if ("https".equals(host.getSchemeName())) {
+                Args.notNull(tlsSettings, "tlsSettings");
+            }
+            this.tlsSettings = tlsSettings;
+        }
+
+        public HttpHost getHost() {
+            return host;
+        }
+
+        public AS2TlsSettings getTlsSettings() {
+            return tlsSettings;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Route)) {
+                return false;
+            }
+            Route other = (Route) obj;
+            return host.equals(other.host) && tlsSettings == other.tlsSettings;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * host.hashCode() + System.identityHashCode(tlsSettings);
+        }
+
+        @Override
+        public String toString() {
+            return tlsSettings == null ? host.toString() : host + " (TLS " + Integer.toHexString(System.identityHashCode(tlsSettings)) + ")";
+        }
+    }
+
+    /**
+     * The pool entry of a leased connection.
+     */
+    public static final class Entry extends PoolEntry<Route, HttpClientConnection> {
+
+        Entry(String id, Route route, HttpClientConnection connection) {
+            super(id, route, connection);
+        }
+
+        @Override
+        public boolean isClosed() {
+            return !getConnection().isOpen();
+        }
+
+        @Override
+        public void close() {
+            try {
+                getConnection().close();
+            } catch (IOException e) {
+                // the connection is discarded regardless
+            }
+        }
+    }
+
+    private static final class Pool extends AbstractConnPool<Route, HttpClientConnection, Entry> {
+
+        private static final AtomicLong COUNTER = new AtomicLong();
+
+        Pool(int defaultMaxPerRoute, int maxTotal) {
+            super(new ConnFactory<Route, HttpClientConnection>() {
+                @Override
+                public HttpClientConnection create(Route route) {
+                    // runs under the pool lock: the connection is opened by lease()
+                    return new AS2BHttpClientConnection(BUFFER_SIZE);
+                }
+            }, defaultMaxPerRoute, maxTotal);
+        }
+
+        @Override
+        protected Entry createEntry(Route route, HttpClientConnection connection) {
+            return new Entry(Long.toString(COUNTER.getAndIncrement()), route, connection);
+        }
+
+        @Override
+        protected boolean validate(Entry entry) {
+            return !entry.getConnection().isStale();
+        }
+    }
+}
@@ -17,13 +17,18 @@
 package org.apache.camel.component.as2.api;
 
 import java.io.IOException;
+import java.security.MessageDigest;
 import java.security.PrivateKey;
 import java.security.cert.Certificate;
 
+import org.apache.camel.component.as2.api.AS2MDNCorrelationStore.OutboundMessage;
+import org.apache.camel.component.as2.api.entity.AS2MessageDispositionNotificationEntity;
 import org.apache.camel.component.as2.api.entity.ApplicationEDIEntity;
 import org.apache.camel.component.as2.api.entity.EntityParser;
 import org.apache.camel.component.as2.api.entity.MultipartSignedEntity;
 import org.apache.camel.component.as2.api.util.EntityUtils;
+import org.apache.camel.component.as2.api.util.MicUtils;
+import org.apache.camel.component.as2.api.util.MicUtils.ReceivedContentMic;
 import org.apache.camel.component.as2.api.util.SigningUtils;
 import org.apache.http.HttpException;
 import org.apache.http.HttpResponse;
@@ -31,6 +36,8 @@ import org.apache.http.entity.ContentType;
 import org.apache.http.message.BasicHttpEntityEnclosingRequest;
 import org.apache.http.protocol.HttpCoreContext;
 import org.apache.http.util.Args;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * AS2 Client Manager
@@ -41,6 +48,8 @@ import org.apache.http.util.Args;
  */
 public class AS2ClientManager {
 
+    private static final Logger LOG = LoggerFactory.getLogger(AS2ClientManager.class);
+
     //
     // AS2 HTTP Context Attribute Keys
     //
@@ -146,12 +155,67 @@ public class AS2ClientManager {
      */
     public static final String SIGNED_RECEIPT_MIC_ALGORITHMS = CAMEL_AS2_CLIENT_PREFIX + "signed-receipt-mic-algorithms";
 
+    /**
+     * The HTTP Context Attribute containing the MIC computed over the sent
+     * message content, expected to be returned in a message disposition
+     * notification.
+     */
+    public static final String EXPECTED_MIC = CAMEL_AS2_CLIENT_PREFIX + "expected-mic";
+
+    /**
+     * The HTTP Context Attribute indicating whether the MIC returned in a
+     * synchronous message disposition notification matches the MIC computed
+     * over the sent message content. Not set if no MIC was returned.
+     */
+    public static final String MIC_VERIFIED = CAMEL_AS2_CLIENT_PREFIX + "mic-verified";
+
+    /**
+     * The HTTP Context Attribute containing the send profile used to send the
+     * AS2 message.
+     */
+    public static final String SEND_PROFILE = CAMEL_AS2_CLIENT_PREFIX + "send-profile";
+
+    /**
+     * Whether the message was queued by the outbound queue rather than sent: no response is available.
+     * Type: {@link java.lang.Boolean}
+     */
+    public static final String QUEUED = CAMEL_AS2_CLIENT_PREFIX + "queued";
+
     //
 
     private AS2ClientConnection as2ClientConnection;
+    private AS2MDNCorrelationStore correlationStore;
+    private AS2OutboundQueue outboundQueue;
+    // profile of the last message sent with parameters, reused while they do not change
+    private volatile AS2SendProfile lastSendProfile;
 
     public AS2ClientManager(AS2ClientConnection as2ClientConnection) {
+        this(as2ClientConnection, null);
+    }
+
+    /**
+     * Creates a client manager recording each sent message requesting an MDN
+     * in <code>correlationStore</code>.
+     *
+     * @param as2ClientConnection - the connection used to send messages.
+     * @param correlationStore - the store recording sent messages, or <code>null</code>.
+     */
+    public AS2ClientManager(AS2ClientConnection as2ClientConnection, AS2MDNCorrelationStore correlationStore) {
+        this(as2ClientConnection, correlationStore, null);
+    }
+
+    /**
+     * Creates a client manager sending messages through <code>outboundQueue</code>,
+     * which resends messages the trading partner could not receive.
+     *
+     * @param as2ClientConnection - the connection used to send messages.
+     * @param correlationStore - the store recording sent messages, or <code>null</code>.
+     * @param outboundQueue - the queue of the connection, or <code>null</code> to send messages directly.
+     */
+    public AS2ClientManager(AS2ClientConnection as2ClientConnection, AS2MDNCorrelationStore correlationStore, AS2OutboundQueue outboundQueue) {
         this.as2ClientConnection = as2ClientConnection;
+        this.correlationStore = correlationStore;
+        this.outboundQueue = outboundQueue;
     }
 
     /**
@@ -197,53 +261,147 @@ public class AS2ClientManager {
         httpContext.setAttribute(AS2ClientManager.SIGNING_PRIVATE_KEY, signingPrivateKey);
         httpContext.setAttribute(AS2ClientManager.DISPOSITION_NOTIFICATION_TO, dispositionNotificationTo);
         httpContext.setAttribute(AS2ClientManager.SIGNED_RECEIPT_MIC_ALGORITHMS, signedReceiptMicAlgorithms);
-        
-        BasicHttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest("POST", requestUri);
+
+        AS2SendProfile sendProfile = lastSendProfile;
+        if (sendProfile == null || !sendProfile.matches(requestUri, subject, from, as2From, as2To, as2MessageStructure,
+                ediMessageContentType, ediMessageTransferEncoding, signingCertificateChain, signingPrivateKey,
+                dispositionNotificationTo, signedReceiptMicAlgorithms)) {
+            sendProfile = new AS2SendProfile(requestUri, subject, from, as2From, as2To, as2MessageStructure,
+                    ediMessageContentType, ediMessageTransferEncoding, signingCertificateChain, signingPrivateKey,
+                    dispositionNotificationTo, signedReceiptMicAlgorithms);
+            lastSendProfile = sendProfile;
+        }
+        return send(ediMessage, sendProfile, httpContext);
+    }
+
+    /**
+     * Send <code>ediMessage</code> to trading partner using the parameters
+     * prepared in <code>sendProfile</code>.
+     * 
+     * @param ediMessage
+     *            - EDI message to transport
+     * @param sendProfile
+     *            - the profile of the trading partner.
+     * @return The HTTP context of the interchange.
+     * @throws HttpException
+     */
+    public HttpCoreContext sendMessage(String ediMessage, AS2SendProfile sendProfile) throws HttpException {
+        Args.notNull(ediMessage, "EDI Message");
+        Args.notNull(sendProfile, "Send Profile");
+        return send(ediMessage, sendProfile, HttpCoreContext.create());
+    }
+
+    private HttpCoreContext send(String ediMessage, AS2SendProfile sendProfile, HttpCoreContext httpContext) throws HttpException {
+        httpContext.setAttribute(SEND_PROFILE, sendProfile);
+
+        BasicHttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest("POST", sendProfile.getRequestUri());
         httpContext.setAttribute(HTTP_REQUEST, request);
 
+        // Create MIC digest updated while the message body is serialized or signed
+        MessageDigest micDigest = null;
+        String micJdkAlgorithmName = sendProfile.getMicJdkAlgorithmName();
+        if (micJdkAlgorithmName != null) {
+            micDigest = MicUtils.createMicDigest(micJdkAlgorithmName);
+        }
+
         // Create Message Body
         ApplicationEDIEntity applicationEDIEntity;
         try {
-            applicationEDIEntity = EntityUtils.createEDIEntity(ediMessage, ediMessageContentType, ediMessageTransferEncoding, false);
+            applicationEDIEntity = EntityUtils.createEDIEntity(ediMessage, sendProfile.getEdiMessageContentType(),
+                    sendProfile.getEdiMessageTransferEncoding(), false);
         } catch (Exception e) {
             throw new HttpException("Failed to create EDI message entity", e);
         }
-        switch (as2MessageStructure) {
+        switch (sendProfile.getAs2MessageStructure()) {
         case PLAIN:
             applicationEDIEntity.setMainBody(true);
+            if (micDigest != null) {
+                try {
+                    applicationEDIEntity.updateDigest(micDigest);
+                } catch (IOException e) {
+                    throw new HttpException("Failed to compute message integrity check", e);
+                }
+            }
             EntityUtils.setMessageEntity(request, applicationEDIEntity);
             break;
         case SIGNED:
-            AS2SignedDataGenerator gen = createSigningGenerator(httpContext);
+            AS2SignedDataGenerator gen = sendProfile.getSigningGenerator();
             // Create Multipart Signed Entity
             try {
                 MultipartSignedEntity multipartSignedEntity = new MultipartSignedEntity(applicationEDIEntity, gen,
-                        AS2Charset.US_ASCII, AS2TransferEncoding.BASE64, true, null);
+                        AS2Charset.US_ASCII, AS2TransferEncoding.BASE64, true, null, micDigest);
                 EntityUtils.setMessageEntity(request, multipartSignedEntity);
             } catch (Exception e) {
                 throw new HttpException("Failed to sign message", e);
             }
             break;
         case ENCRYPTED:
+            micDigest = null;
             break;
         case ENCRYPTED_SIGNED:
+            micDigest = null;
             break;
         default:
             throw new HttpException("Unknown AS2 Message Structure");
         }
 
+        ReceivedContentMic expectedMic = null;
+        if (micDigest != null) {
+            try {
+                expectedMic = new ReceivedContentMic(AS2MicAlgorithm.getAS2AlgorithmName(micJdkAlgorithmName), micDigest.digest());
+            } catch (Exception e) {
+                throw new HttpException("Failed to encode message integrity check", e);
+            }
+            httpContext.setAttribute(EXPECTED_MIC, expectedMic);
+        }
+
+        if (correlationStore != null && sendProfile.getDispositionNotificationTo() != null) {
+            // Record message before sending since an asynchronous MDN may arrive before the response
+            String messageId = Util.createMessageId(as2ClientConnection.getClientFqdn());
+            request.addHeader(AS2Header.MESSAGE_ID, messageId);
+            correlationStore.add(new OutboundMessage(messageId, sendProfile.getAs2To(), System.currentTimeMillis(),
+                    expectedMic == null ? null : expectedMic.toString()));
+        }
+
         HttpResponse response;
         try {
             httpContext.setAttribute(AS2_CONNECTION, as2ClientConnection);
-            response = as2ClientConnection.send(request, httpContext);
+            if (outboundQueue != null) {
+                // the message is journaled with its Message-Id, which is kept when it is resent
+                response = outboundQueue.send(request, httpContext);
+                if (response == null) {
+                    httpContext.setAttribute(QUEUED, Boolean.TRUE);
+                    return httpContext;
+                }
+            } else {
+                response = as2ClientConnection.send(request, httpContext);
+            }
             EntityParser.parseAS2MessageEntity(response);
         } catch (IOException e) {
             throw new HttpException("Failed to send http request message", e);
         }
         httpContext.setAttribute(HTTP_RESPONSE, response);
+
+        if (expectedMic != null) {
+            verifyMic(expectedMic, response, httpContext);
+        }
         return httpContext;
     }
 
+    private static void verifyMic(ReceivedContentMic expectedMic, HttpResponse response, HttpCoreContext httpContext) {
+        AS2MessageDispositionNotificationEntity mdn = EntityUtils.getMessageDispositionNotificationEntity(response);
+        if (mdn == null || mdn.getReceivedContentMic() == null) {
+            // No synchronous MDN or MDN without MIC: nothing to verify
+            return;
+        }
+        boolean verified = MicUtils.isMatchingMic(expectedMic, mdn.getReceivedContentMic());
+        if (!verified) {
+            LOG.warn("Received content MIC '" + mdn.getReceivedContentMic() + "' in MDN of message '"
+                    + mdn.getOriginalMessageId() + "' does not match sent content MIC '" + expectedMic + "'");
+        }
+        httpContext.setAttribute(MIC_VERIFIED, verified);
+    }
+
     public AS2SignedDataGenerator createSigningGenerator(HttpCoreContext httpContext) throws HttpException {
 
         Certificate[] certificateChain = httpContext.getAttribute(SIGNING_CERTIFICATE_CHAIN, Certificate[].class);
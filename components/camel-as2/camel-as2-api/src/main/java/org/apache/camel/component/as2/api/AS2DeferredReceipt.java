@@ -0,0 +1,67 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+/**
+ * AS2 Deferred Receipt
+ *
+ * <p>
+ * Holds back the asynchronous MDN of a received message until the handler of
+ * the message has processed it, so the response to the message can be sent
+ * without waiting on its processing. The MDN is dispatched once it is ready
+ * and the message processed; it is dropped if processing failed so that the
+ * sender, receiving no MDN, resends the message.
+ */
+public class AS2DeferredReceipt {
+
+    private Runnable dispatch;
+    private Boolean processed;
+
+    /**
+     * Sets the dispatch of the MDN, run at once if the message is already
+     * processed.
+     */
+    public void setDispatch(Runnable dispatch) {
+        synchronized (this) {
+            if (processed == null) {
+                this.dispatch = dispatch;
+                return;
+            }
+            if (!processed) {
+                return;
+            }
+        }
+        dispatch.run();
+    }
+
+    /**
+     * Records the outcome of processing the message, dispatching the MDN if
+     * it is ready and the message processed without error.
+     */
+    public void complete(boolean success) {
+        Runnable ready;
+        synchronized (this) {
+            processed = success;
+            ready = dispatch;
+            dispatch = null;
+        }
+        if (ready != null && success) {
+            ready.run();
+        }
+    }
+
+}
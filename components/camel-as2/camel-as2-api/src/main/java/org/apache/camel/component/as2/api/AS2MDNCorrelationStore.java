@@ -0,0 +1,380 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.apache.camel.component.as2.api.entity.AS2MessageDispositionNotificationEntity;
+import org.apache.camel.component.as2.api.util.EntityUtils;
+import org.apache.camel.component.as2.api.util.MicUtils;
+import org.apache.camel.component.as2.api.util.MicUtils.ReceivedContentMic;
+import org.apache.http.HttpMessage;
+import org.apache.http.util.Args;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * AS2 MDN Correlation Store
+ *
+ * <p>
+ * Records the AS2 messages sent to trading partners which requested a
+ * Message Disposition Notification (MDN) so that an MDN received later, for
+ * instance asynchronously by a listening endpoint, can be matched to the
+ * message it acknowledges.
+ *
+ * <p>
+ * Messages are indexed by their <code>Message-Id</code>. Records are evicted
+ * once older than the configured time to live or, oldest first, when the
+ * store holds more than the configured maximum number of records. If a file
+ * is given, the store appends every change to it and reloads its records from
+ * it when created. A closed store can not be used any more.
+ */
+public class AS2MDNCorrelationStore {
+
+    public static final int DEFAULT_MAX_ENTRIES = 100000;
+    public static final long DEFAULT_TIME_TO_LIVE = 24 * 60 * 60 * 1000L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(AS2MDNCorrelationStore.class);
+
+    private static final String ADD_RECORD = "A";
+    private static final String REMOVE_RECORD = "R";
+    private static final String FIELD_SEPARATOR = "\t";
+
+    /**
+     * An outbound message awaiting its MDN.
+     */
+    public static class OutboundMessage {
+        private final String messageId;
+        private final String partner;
+        private final long sendTime;
+        private final String expectedMic;
+
+        public OutboundMessage(String messageId, String partner, long sendTime, String expectedMic) {
+            this.messageId = Args.notNull(messageId, "messageId");
+            this.partner = partner;
+            this.sendTime = sendTime;
+            this.expectedMic = expectedMic;
+        }
+
+        public String getMessageId() {
+            return messageId;
+        }
+
+        /**
+         * @return The AS2 name of the trading partner the message was sent to.
+         */
+        public String getPartner() {
+            return partner;
+        }
+
+        /**
+         * @return The time the message was sent, in milliseconds since the epoch.
+         */
+        public long getSendTime() {
+            return sendTime;
+        }
+
+        /**
+         * @return The <code>Received-content-MIC</code> value expected in the MDN, or <code>null</code> if not known.
+         */
+        public String getExpectedMic() {
+            return expectedMic;
+        }
+    }
+
+    /**
+     * The result of matching a received MDN with the message it acknowledges.
+     */
+    public static class Correlation {
+        private final OutboundMessage outboundMessage;
+        private final AS2MessageDispositionNotificationEntity mdn;
+        private final long receiveTime;
+
+        Correlation(OutboundMessage outboundMessage, AS2MessageDispositionNotificationEntity mdn, long receiveTime) {
+            this.outboundMessage = outboundMessage;
+            this.mdn = mdn;
+            this.receiveTime = receiveTime;
+        }
+
+        public OutboundMessage getOutboundMessage() {
+            return outboundMessage;
+        }
+
+        public AS2MessageDispositionNotificationEntity getMdn() {
+            return mdn;
+        }
+
+        public long getReceiveTime() {
+            return receiveTime;
+        }
+
+        /**
+         * @return The time in milliseconds between sending the message and receiving its MDN.
+         */
+        public long getRoundTripTime() {
+            return receiveTime - outboundMessage.getSendTime();
+        }
+
+        /**
+         * Compares the <code>Received-content-MIC</code> of the MDN with the
+         * MIC expected for the sent message.
+         *
+         * @return Whether both MICs match, or <code>null</code> if either is not known.
+         */
+        public Boolean isMicVerified() {
+            ReceivedContentMic expectedMic = MicUtils.parseReceivedContentMic(outboundMessage.getExpectedMic());
+            if (expectedMic == null || mdn.getReceivedContentMic() == null) {
+                return null;
+            }
+            boolean verified = MicUtils.isMatchingMic(expectedMic, mdn.getReceivedContentMic());
+            if (!verified) {
+                LOG.warn("Received content MIC '" + mdn.getReceivedContentMic() + "' in MDN of message '"
+                        + outboundMessage.getMessageId() + "' does not match sent content MIC '" + expectedMic + "'");
+            }
+            return verified;
+        }
+    }
+
+    private final LinkedHashMap<String, OutboundMessage> messages = new LinkedHashMap<String, OutboundMessage>();
+    private final int maxEntries;
+    private final long timeToLive;
+    private final Journal journal;
+    private boolean closed;
+
+    /**
+     * Creates an in memory store with default limits.
+     */
+    public AS2MDNCorrelationStore() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE, null);
+    }
+
+    /**
+     * Creates a store.
+     *
+     * @param maxEntries - the maximum number of messages recorded.
+     * @param timeToLive - the time in milliseconds a message is recorded for.
+     * @param file - the file the store is persisted to, or <code>null</code> to only keep records in memory.
+     * @throws IllegalStateException if the file can not be read or written.
+     */
+    public AS2MDNCorrelationStore(int maxEntries, long timeToLive, File file) {
+        Args.positive(maxEntries, "maxEntries");
+        Args.positive(timeToLive, "timeToLive");
+        this.maxEntries = maxEntries;
+        this.timeToLive = timeToLive;
+        this.journal = file == null ? null : new Journal(file);
+        if (journal != null) {
+            try {
+                journal.load();
+                // expired records are not carried over
+                evict(System.currentTimeMillis());
+                journal.compact(messages.size());
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to open MDN correlation store '" + file + "'", e);
+            }
+        }
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    public File getFile() {
+        return journal == null ? null : journal.getFile();
+    }
+
+    /**
+     * Records a sent message.
+     *
+     * @param message - the sent message.
+     * @throws IllegalStateException if the store is closed.
+     */
+    public synchronized void add(OutboundMessage message) {
+        Args.notNull(message, "message");
+        ensureOpen();
+        messages.remove(message.getMessageId());
+        messages.put(message.getMessageId(), message);
+        append(ADD_RECORD, message);
+        evict(System.currentTimeMillis());
+    }
+
+    /**
+     * Looks up a sent message without removing it.
+     *
+     * @param messageId - the <code>Message-Id</code> of the sent message.
+     * @return The sent message or <code>null</code> if not recorded.
+     * @throws IllegalStateException if the store is closed.
+     */
+    public synchronized OutboundMessage get(String messageId) {
+        ensureOpen();
+        evict(System.currentTimeMillis());
+        return messageId == null ? null : messages.get(messageId);
+    }
+
+    /**
+     * Removes a sent message.
+     *
+     * @param messageId - the <code>Message-Id</code> of the sent message.
+     * @return The removed message or <code>null</code> if not recorded.
+     * @throws IllegalStateException if the store is closed.
+     */
+    public synchronized OutboundMessage remove(String messageId) {
+        ensureOpen();
+        if (messageId == null) {
+            return null;
+        }
+        OutboundMessage message = messages.remove(messageId);
+        if (message != null) {
+            append(REMOVE_RECORD, message);
+        }
+        return message;
+    }
+
+    /**
+     * Matches a received MDN with the message it acknowledges, removing the message from the store.
+     *
+     * @param mdnMessage - the HTTP message carrying the MDN.
+     * @return The correlation or <code>null</code> if the message does not carry an MDN or the acknowledged message is not recorded.
+     * @throws IllegalStateException if the store is closed.
+     */
+    public Correlation resolve(HttpMessage mdnMessage) {
+        AS2MessageDispositionNotificationEntity mdn = EntityUtils.getMessageDispositionNotificationEntity(mdnMessage);
+        if (mdn == null) {
+            return null;
+        }
+        long receiveTime = System.currentTimeMillis();
+        OutboundMessage message = remove(mdn.getOriginalMessageId());
+        if (message == null) {
+            LOG.debug("No sent message recorded for MDN of message '" + mdn.getOriginalMessageId() + "'");
+            return null;
+        }
+        return new Correlation(message, mdn, receiveTime);
+    }
+
+    public synchronized int size() {
+        return messages.size();
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Closes the file backing the store. Changes would no longer be
+     * persisted: the store can not be used afterwards.
+     */
+    public synchronized void close() {
+        closed = true;
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("MDN correlation store" + (journal != null ? " '" + journal.getFile() + "'" : "") + " closed");
+        }
+    }
+
+    private void evict(long now) {
+        Iterator<OutboundMessage> it = messages.values().iterator();
+        while (it.hasNext()) {
+            OutboundMessage eldest = it.next();
+            if (messages.size() <= maxEntries && eldest.getSendTime() + timeToLive > now) {
+                break;
+            }
+            it.remove();
+            append(REMOVE_RECORD, eldest);
+        }
+        if (journal != null) {
+            journal.compactIfNeeded(messages.size());
+        }
+    }
+
+    private void append(String type, OutboundMessage message) {
+        if (journal != null) {
+            journal.append(formatRecord(type, message));
+        }
+    }
+
+    private static String formatRecord(String type, OutboundMessage message) {
+        StringBuilder record = new StringBuilder(type).append(FIELD_SEPARATOR).append(message.getMessageId());
+        if (ADD_RECORD.equals(type)) {
+            record.append(FIELD_SEPARATOR).append(nullToEmpty(message.getPartner()))
+                .append(FIELD_SEPARATOR).append(message.getSendTime())
+                .append(FIELD_SEPARATOR).append(nullToEmpty(message.getExpectedMic()));
+        }
+        return record.append('\n').toString();
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Journal of the store: a line of tab separated fields for each added or removed message.
+     */
+    private final class Journal extends AS2AppendJournal<String> {
+
+        Journal(File file) {
+            super(file, "MDN correlation store");
+        }
+
+        @Override
+        protected void read(InputStream in) throws IOException {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(FIELD_SEPARATOR, -1);
+                if (fields.length == 5 && ADD_RECORD.equals(fields[0])) {
+                    messages.remove(fields[1]);
+                    messages.put(fields[1], new OutboundMessage(fields[1], emptyToNull(fields[2]),
+                            Long.parseLong(fields[3]), emptyToNull(fields[4])));
+                } else if (fields.length >= 2 && REMOVE_RECORD.equals(fields[0])) {
+                    messages.remove(fields[1]);
+                }
+            }
+        }
+
+        @Override
+        protected void write(DataOutputStream out, String record) throws IOException {
+            out.write(record.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        protected void writeAll(DataOutputStream out) throws IOException {
+            for (OutboundMessage message : messages.values()) {
+                write(out, formatRecord(ADD_RECORD, message));
+            }
+        }
+    }
+}
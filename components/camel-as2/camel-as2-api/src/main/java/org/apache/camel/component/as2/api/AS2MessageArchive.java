@@ -0,0 +1,1215 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.camel.component.as2.api.entity.AS2MessageDispositionNotificationEntity;
+import org.apache.camel.component.as2.api.util.EntityUtils;
+import org.apache.camel.component.as2.api.util.HttpMessageUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpMessage;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.util.Args;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * AS2 Message Archive
+ *
+ * <p>
+ * Keeps the exact bytes of the AS2 messages and MDNs sent and received, for
+ * non-repudiation. Records are appended to segment files which are never
+ * rewritten; a segment is closed and a new one started once it reaches the
+ * maximum segment size. Each record holds the start line and headers of the
+ * HTTP message, its body as sent or received, optionally compressed, and a
+ * checksum.
+ *
+ * <p>
+ * Records are indexed by their type and <code>Message-Id</code> in a hash
+ * table mapped from the <code>archive.idx</code> file, MDNs by the
+ * <code>Message-Id</code> of the message they acknowledge, so that a record
+ * is read with a single lookup however large the archive. The table doubles
+ * once three quarters full: it is copied without blocking appends, whose
+ * records are indexed once the grown table replaces the old one.
+ *
+ * <p>
+ * Appended records are synced to disk in batches: after a number of records
+ * or, by a background thread, after an interval, whichever comes first. The
+ * index records the position up to which records are synced and indexed;
+ * records after it are checked and indexed again when the archive is opened,
+ * and a record not fully written before a crash is cut off.
+ */
+public class AS2MessageArchive {
+
+    public static final long DEFAULT_MAX_SEGMENT_SIZE = 1024L * 1024 * 1024;
+    public static final int DEFAULT_SYNC_BATCH_SIZE = 100;
+    public static final long DEFAULT_SYNC_INTERVAL = 1000;
+    public static final long DEFAULT_INDEX_CAPACITY = 1 << 20;
+
+    private static final Logger LOG = LoggerFactory.getLogger(AS2MessageArchive.class);
+
+    private static final String SEGMENT_FILE_SUFFIX = ".seg";
+    private static final String INDEX_FILE_NAME = "archive.idx";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final String SYNC_THREAD_NAME = "AS2ArchiveSync";
+    private static final String CRLF = "\r\n";
+
+    // "AS2R"
+    private static final int RECORD_MAGIC = 0x41533252;
+    private static final int FLAG_COMPRESSED = 1;
+    private static final int WRITE_BUFFER_SIZE = 8 * 1024;
+
+    // "AS2IDX01"
+    private static final long INDEX_MAGIC = 0x4153324944583031L;
+    private static final int INDEX_HEADER_SIZE = 64;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int COUNT_OFFSET = 16;
+    private static final int SYNCED_SEGMENT_OFFSET = 24;
+    private static final int SYNCED_POSITION_OFFSET = 32;
+    // key, segment, padding, offset
+    private static final int SLOT_SIZE = 24;
+    private static final int SLOTS_PER_REGION = 1 << 26;
+
+    /**
+     * The kinds of archived records.
+     */
+    public enum RecordType {
+        SENT_MESSAGE,
+        RECEIVED_MESSAGE,
+        SENT_MDN,
+        RECEIVED_MDN
+    }
+
+    /**
+     * An archived message.
+     */
+    public static final class Record {
+        private final RecordType type;
+        private final long timestamp;
+        private final String messageId;
+        private final String startLine;
+        private final Header[] headers;
+        private final byte[] body;
+
+        Record(RecordType type, long timestamp, String messageId, String startLine, Header[] headers, byte[] body) {
+            this.type = type;
+            this.timestamp = timestamp;
+            this.messageId = messageId;
+            this.startLine = startLine;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        public RecordType getType() {
+            return type;
+        }
+
+        /**
+         * @return The time the message was archived, in milliseconds since the epoch.
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * @return The <code>Message-Id</code> of the message, or of the message acknowledged by an MDN.
+         */
+        public String getMessageId() {
+            return messageId;
+        }
+
+        /**
+         * @return The request line or status line of the HTTP message.
+         */
+        public String getStartLine() {
+            return startLine;
+        }
+
+        public Header[] getHeaders() {
+            return headers.clone();
+        }
+
+        /**
+         * @return The body of the message, as sent or received.
+         */
+        public byte[] getBody() {
+            return body;
+        }
+
+        @Override
+        public String toString() {
+            return "Record[" + type + " " + messageId + "]";
+        }
+    }
+
+    /**
+     * Handles the records read by {@link AS2MessageArchive#scan(RecordType, long, long, RecordHandler)}.
+     */
+    public interface RecordHandler {
+
+        /**
+         * Handles a record.
+         *
+         * @param record - the record.
+         * @throws IOException to stop the scan.
+         */
+        void handle(Record record) throws IOException;
+    }
+
+    /**
+     * A mapped index file.
+     */
+    private static final class MappedIndex {
+        private final FileChannel channel;
+        private final MappedByteBuffer header;
+        private final MappedByteBuffer[] regions;
+        private final long capacity;
+
+        MappedIndex(FileChannel channel, MappedByteBuffer header, MappedByteBuffer[] regions, long capacity) {
+            this.channel = channel;
+            this.header = header;
+            this.regions = regions;
+            this.capacity = capacity;
+        }
+    }
+
+    /**
+     * A record appended while the index grows, indexed once grown.
+     */
+    private static final class PendingEntry {
+        private final long key;
+        private final int segment;
+        private final long offset;
+        private final RecordType type;
+        private final String messageId;
+
+        PendingEntry(long key, int segment, long offset, RecordType type, String messageId) {
+            this.key = key;
+            this.segment = segment;
+            this.offset = offset;
+            this.type = type;
+            this.messageId = messageId;
+        }
+    }
+
+    private final File directory;
+    private final boolean compressed;
+    private final long maxSegmentSize;
+    private volatile int syncBatchSize = DEFAULT_SYNC_BATCH_SIZE;
+    private volatile long syncInterval = DEFAULT_SYNC_INTERVAL;
+
+    private final AtomicLong appendedCount = new AtomicLong();
+    private final AtomicLong syncCount = new AtomicLong();
+
+    // guarded by this
+    private FileChannel segmentChannel;
+    private OutputStream segmentOut;
+    private int segment;
+    private long segmentSize;
+    private int unsynced;
+    private FileChannel indexChannel;
+    private MappedByteBuffer indexHeader;
+    private MappedByteBuffer[] indexRegions;
+    private long capacity;
+    private long count;
+    // not null while the index grows
+    private List<PendingEntry> pendingEntries;
+    private boolean growing;
+    private Thread syncThread;
+
+    /**
+     * Opens an archive with default settings, creating its directory if needed.
+     *
+     * @param directory - the directory of the archive; not to be shared with another archive.
+     * @throws IllegalStateException if the archive can not be opened.
+     */
+    public AS2MessageArchive(File directory) {
+        this(directory, false, DEFAULT_MAX_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens an archive, creating its directory if needed.
+     *
+     * @param directory - the directory of the archive; not to be shared with another archive.
+     * @param compressed - whether the bodies of new records are compressed.
+     * @param maxSegmentSize - the size in bytes from which records are appended to a new segment.
+     * @throws IllegalStateException if the archive can not be opened.
+     */
+    public AS2MessageArchive(File directory, boolean compressed, long maxSegmentSize) {
+        this(directory, compressed, maxSegmentSize, DEFAULT_INDEX_CAPACITY);
+    }
+
+    /**
+     * Opens an archive, creating its directory if needed.
+     *
+     * @param directory - the directory of the archive; not to be shared with another archive.
+     * @param compressed - whether the bodies of new records are compressed.
+     * @param maxSegmentSize - the size in bytes from which records are appended to a new segment.
+     * @param indexCapacity - the number of slots of the index when created, rounded up to a power of two.
+     * @throws IllegalStateException if the archive can not be opened.
+     */
+    public AS2MessageArchive(File directory, boolean compressed, long maxSegmentSize, long indexCapacity) {
+        this.directory = Args.notNull(directory, "directory");
+        Args.positive(indexCapacity, "indexCapacity");
+        this.compressed = compressed;
+        this.maxSegmentSize = Args.positive(maxSegmentSize, "maxSegmentSize");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Failed to create message archive directory '" + directory + "'");
+        }
+        try {
+            synchronized (this) {
+                open(Math.max(Long.highestOneBit(indexCapacity - 1) << 1, 1));
+            }
+        } catch (IOException e) {
+            close();
+            throw new IllegalStateException("Failed to open message archive '" + directory + "'", e);
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                syncLoop();
+            }
+        }, SYNC_THREAD_NAME);
+        thread.setDaemon(true);
+        syncThread = thread;
+        thread.start();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public long getMaxSegmentSize() {
+        return maxSegmentSize;
+    }
+
+    public int getSyncBatchSize() {
+        return syncBatchSize;
+    }
+
+    /**
+     * Sets the number of appended records from which records are synced to disk.
+     */
+    public void setSyncBatchSize(int syncBatchSize) {
+        this.syncBatchSize = Args.positive(syncBatchSize, "syncBatchSize");
+    }
+
+    public long getSyncInterval() {
+        return syncInterval;
+    }
+
+    /**
+     * Sets the time in milliseconds after which appended records are synced to disk.
+     */
+    public void setSyncInterval(long syncInterval) {
+        this.syncInterval = Args.positive(syncInterval, "syncInterval");
+    }
+
+    /**
+     * @return The number of records appended since the archive was opened.
+     */
+    public long getAppendedCount() {
+        return appendedCount.get();
+    }
+
+    /**
+     * @return The number of times appended records were synced to disk since the archive was opened.
+     */
+    public long getSyncCount() {
+        return syncCount.get();
+    }
+
+    /**
+     * @return The number of records in the index.
+     */
+    public synchronized long getIndexedCount() {
+        return count;
+    }
+
+    /**
+     * Archives the body of a message sent or received through a connection.
+     * A message carrying an MDN is archived as MDN of the message it
+     * acknowledges, another message as message; responses without MDN, such
+     * as the empty responses to messages requesting asynchronous MDNs, are
+     * not archived.
+     *
+     * @param sent - whether the message was sent rather than received.
+     * @param message - the message, with its entity parsed or built.
+     * @param requestMessageId - for a response, the <code>Message-Id</code> of the request it answers.
+     * @param body - the body of the message, as sent or received.
+     * @throws IOException if the record can not be written.
+     */
+    public void archive(boolean sent, HttpMessage message, String requestMessageId, InputStream body) throws IOException {
+        Args.notNull(message, "message");
+        String startLine;
+        if (message instanceof HttpRequest) {
+            startLine = ((HttpRequest) message).getRequestLine().toString();
+        } else {
+            startLine = ((HttpResponse) message).getStatusLine().toString();
+        }
+        AS2MessageDispositionNotificationEntity mdn = EntityUtils.getMessageDispositionNotificationEntity(message);
+        if (mdn != null) {
+            String messageId = mdn.getOriginalMessageId() != null ? mdn.getOriginalMessageId() : requestMessageId;
+            append(sent ? RecordType.SENT_MDN : RecordType.RECEIVED_MDN, messageId, startLine, message.getAllHeaders(), body);
+        } else if (message instanceof HttpRequest) {
+            String messageId = HttpMessageUtils.getHeaderValue(message, AS2Header.MESSAGE_ID);
+            append(sent ? RecordType.SENT_MESSAGE : RecordType.RECEIVED_MESSAGE, messageId, startLine, message.getAllHeaders(), body);
+        }
+    }
+
+    /**
+     * Appends a record to the archive.
+     *
+     * @param type - the type of the record.
+     * @param messageId - the <code>Message-Id</code> the record is indexed by, or <code>null</code> to not index it.
+     * @param startLine - the request line or status line of the message.
+     * @param headers - the headers of the message.
+     * @param body - the body of the message, or <code>null</code> if none.
+     * @throws IOException if the record can not be written.
+     */
+    public void append(RecordType type, String messageId, String startLine, Header[] headers, InputStream body) throws IOException {
+        Args.notNull(type, "type");
+        Args.notNull(startLine, "startLine");
+        Args.notNull(headers, "headers");
+        // read and compressed without holding the lock
+        byte[] stored = body == null ? new byte[0] : store(body);
+        byte[] messageIdBytes = messageId == null ? new byte[0] : messageId.getBytes(StandardCharsets.UTF_8);
+        byte[] head = formatHead(startLine, headers);
+
+        boolean grow;
+        synchronized (this) {
+            if (segmentChannel == null) {
+                throw new IOException("Message archive '" + directory + "' closed");
+            }
+            if (segmentSize >= maxSegmentSize) {
+                rollSegment();
+            }
+
+            ByteArrayOutputStream prefixBytes = new ByteArrayOutputStream();
+            DataOutputStream prefix = new DataOutputStream(prefixBytes);
+            prefix.writeByte(type.ordinal());
+            prefix.writeByte(compressed ? FLAG_COMPRESSED : 0);
+            // stamped under the lock: records are appended in time order
+            prefix.writeLong(System.currentTimeMillis());
+            writeBytes(prefix, messageIdBytes);
+            writeBytes(prefix, head);
+            CRC32 crc = new CRC32();
+            crc.update(prefixBytes.toByteArray());
+            crc.update(stored);
+
+            long offset = segmentSize;
+            try {
+                DataOutputStream out = new DataOutputStream(segmentOut);
+                out.writeInt(RECORD_MAGIC);
+                prefixBytes.writeTo(out);
+                out.writeLong(stored.length);
+                out.write(stored);
+                out.writeInt((int) crc.getValue());
+                out.flush();
+                segmentSize = segmentChannel.position();
+            } catch (IOException e) {
+                // drop the partial record
+                segmentOut = new BufferedOutputStream(Channels.newOutputStream(segmentChannel), WRITE_BUFFER_SIZE);
+                segmentChannel.truncate(offset);
+                segmentChannel.position(offset);
+                throw e;
+            }
+
+            if (messageId != null) {
+                index(indexKey(type, messageId), segment, offset, type, messageId);
+            }
+            appendedCount.incrementAndGet();
+            if (++unsynced >= syncBatchSize) {
+                sync();
+            }
+            grow = shouldGrowIndex();
+            if (grow) {
+                // started with the lock held, so that the old index is not filled meanwhile
+                startGrowingIndex();
+            }
+        }
+        if (grow) {
+            try {
+                growIndex();
+            } catch (IOException e) {
+                // the record is appended: the index grows with a later record
+                LOG.warn("Failed to grow index of message archive '" + directory + "': " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private byte[] store(InputStream body) throws IOException {
+        ByteArrayOutputStream storedBytes = new ByteArrayOutputStream();
+        Deflater deflater = compressed ? new Deflater() : null;
+        try {
+            OutputStream storedOut = deflater != null ? new DeflaterOutputStream(storedBytes, deflater) : storedBytes;
+            byte[] buffer = new byte[WRITE_BUFFER_SIZE];
+            int n;
+            while ((n = body.read(buffer)) != -1) {
+                storedOut.write(buffer, 0, n);
+            }
+            if (deflater != null) {
+                ((DeflaterOutputStream) storedOut).finish();
+            }
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+        return storedBytes.toByteArray();
+    }
+
+    /**
+     * Reads an archived record.
+     *
+     * @param type - the type of the record.
+     * @param messageId - the <code>Message-Id</code> of the message, or of the message acknowledged by an MDN.
+     * @return The last record appended with <code>type</code> and <code>messageId</code>, or <code>null</code> if none.
+     * @throws IOException if the record can not be read.
+     */
+    public Record get(RecordType type, String messageId) throws IOException {
+        Args.notNull(type, "type");
+        Args.notNull(messageId, "messageId");
+        long key = indexKey(type, messageId);
+        List<long[]> candidates = new ArrayList<long[]>();
+        synchronized (this) {
+            if (indexRegions == null) {
+                throw new IOException("Message archive '" + directory + "' closed");
+            }
+            if (pendingEntries != null) {
+                // appended after the records of the index
+                for (int i = pendingEntries.size() - 1; i >= 0; i--) {
+                    PendingEntry entry = pendingEntries.get(i);
+                    if (entry.key == key) {
+                        candidates.add(new long[] {entry.segment, entry.offset});
+                    }
+                }
+            }
+            long mask = capacity - 1;
+            // a small index is full while it grows
+            long slot = key & mask;
+            for (long probed = 0; probed < capacity && getSlotKey(slot) != 0; probed++, slot = (slot + 1) & mask) {
+                if (getSlotKey(slot) == key) {
+                    candidates.add(new long[] {getSlotSegment(slot), getSlotOffset(slot)});
+                }
+            }
+        }
+        // records are immutable once written: read without holding the lock
+        for (long[] candidate : candidates) {
+            Record record = read((int) candidate[0], candidate[1]);
+            if (record != null && record.getType() == type && messageId.equals(record.getMessageId())) {
+                return record;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the records appended within a time range, in the order they were
+     * appended. Segments appended before the range are skipped without being
+     * read, and the scan stops at the first record appended after the range.
+     *
+     * @param type - the type of the records, or <code>null</code> for all records.
+     * @param fromTime - the start of the range, in milliseconds since the epoch.
+     * @param toTime - the end of the range, exclusive.
+     * @param handler - the handler of the records.
+     * @throws IOException if a record can not be read, or thrown by the handler.
+     */
+    public void scan(RecordType type, long fromTime, long toTime, RecordHandler handler) throws IOException {
+        Args.notNull(handler, "handler");
+        int lastSegment;
+        long lastSegmentSize;
+        synchronized (this) {
+            if (segmentChannel == null) {
+                throw new IOException("Message archive '" + directory + "' closed");
+            }
+            // records appended during the scan are not read
+            segmentOut.flush();
+            lastSegment = segment;
+            lastSegmentSize = segmentSize;
+        }
+        File[] segments = listSegments();
+        for (int i = 0; i < segments.length; i++) {
+            int fileSegment = parseSegment(segments[i]);
+            if (fileSegment > lastSegment) {
+                return;
+            }
+            if (i + 1 < segments.length && parseSegment(segments[i + 1]) <= lastSegment && getFirstTimestamp(segments[i + 1]) < fromTime) {
+                // the range starts after the segment
+                continue;
+            }
+            try (FileChannel channel = new RandomAccessFile(segments[i], "r").getChannel()) {
+                long end = fileSegment == lastSegment ? lastSegmentSize : channel.size();
+                long position = 0;
+                while (position < end) {
+                    Record[] record = new Record[1];
+                    long next = readRecord(channel, fileSegment, position, record);
+                    if (next < 0) {
+                        LOG.warn("Invalid record at " + position + " of message archive segment '" + segments[i] + "'");
+                        break;
+                    }
+                    position = next;
+                    if (record[0].getTimestamp() >= toTime) {
+                        return;
+                    }
+                    if (record[0].getTimestamp() >= fromTime && (type == null || record[0].getType() == type)) {
+                        handler.handle(record[0]);
+                    }
+                }
+            }
+        }
+    }
+
+    private long getFirstTimestamp(File file) throws IOException {
+        try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+            Record[] record = new Record[1];
+            if (channel.size() == 0 || readRecord(channel, parseSegment(file), 0, record) < 0) {
+                return Long.MAX_VALUE;
+            }
+            return record[0].getTimestamp();
+        }
+    }
+
+    /**
+     * Syncs the appended records and the index to disk.
+     *
+     * @throws IOException if the records can not be synced.
+     */
+    public synchronized void sync() throws IOException {
+        if (segmentChannel == null || unsynced == 0) {
+            return;
+        }
+        segmentOut.flush();
+        segmentChannel.force(false);
+        // while the index grows, records appended since are not in it: they are recovered again after a crash
+        if (pendingEntries == null) {
+            for (MappedByteBuffer region : indexRegions) {
+                region.force();
+            }
+            indexHeader.putLong(COUNT_OFFSET, count);
+            indexHeader.putLong(SYNCED_SEGMENT_OFFSET, segment);
+            indexHeader.putLong(SYNCED_POSITION_OFFSET, segmentSize);
+            indexHeader.force();
+        }
+        unsynced = 0;
+        syncCount.incrementAndGet();
+    }
+
+    /**
+     * Syncs the appended records and closes the archive.
+     */
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            thread = syncThread;
+            syncThread = null;
+        }
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            try {
+                sync();
+            } catch (IOException e) {
+                LOG.warn("Failed to sync message archive '" + directory + "': " + e.getMessage(), e);
+            }
+            closeQuietly(segmentChannel);
+            closeQuietly(indexChannel);
+            segmentChannel = null;
+            segmentOut = null;
+            indexChannel = null;
+            indexHeader = null;
+            indexRegions = null;
+        }
+    }
+
+    private void syncLoop() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Thread.sleep(syncInterval);
+                try {
+                    sync();
+                } catch (IOException e) {
+                    LOG.warn("Failed to sync message archive '" + directory + "': " + e.getMessage(), e);
+                }
+            }
+        } catch (InterruptedException e) {
+            // archive closed
+        }
+    }
+
+    private void open(long indexCapacity) throws IOException {
+        File[] segments = listSegments();
+        File indexFile = new File(directory, INDEX_FILE_NAME);
+        long syncedSegment = 0;
+        long syncedPosition = 0;
+        if (indexFile.exists()) {
+            setIndex(mapIndex(indexFile, -1));
+            count = indexHeader.getLong(COUNT_OFFSET);
+            syncedSegment = indexHeader.getLong(SYNCED_SEGMENT_OFFSET);
+            syncedPosition = indexHeader.getLong(SYNCED_POSITION_OFFSET);
+        } else {
+            setIndex(mapIndex(indexFile, indexCapacity));
+        }
+
+        segment = segments.length == 0 ? 0 : parseSegment(segments[segments.length - 1]);
+        for (File file : segments) {
+            int fileSegment = parseSegment(file);
+            if (fileSegment >= syncedSegment) {
+                recover(file, fileSegment, fileSegment == syncedSegment ? syncedPosition : 0, fileSegment == segment);
+            }
+        }
+        openSegment();
+        unsynced = 1;
+        sync();
+    }
+
+    /**
+     * Indexes the records of a segment appended after the last sync, cutting
+     * off the last segment at the first record not fully written.
+     */
+    private void recover(File file, int fileSegment, long position, boolean last) throws IOException {
+        int recovered = 0;
+        try (FileChannel channel = new RandomAccessFile(file, last ? "rw" : "r").getChannel()) {
+            long size = channel.size();
+            while (position < size) {
+                long next = readRecord(channel, fileSegment, position, null);
+                if (next < 0) {
+                    if (last) {
+                        LOG.warn("Cutting off incomplete record at " + position + " of message archive segment '" + file + "'");
+                        channel.truncate(position);
+                    } else {
+                        LOG.warn("Invalid record at " + position + " of message archive segment '" + file + "'");
+                    }
+                    break;
+                }
+                position = next;
+                recovered++;
+                if (shouldGrowIndex()) {
+                    startGrowingIndex();
+                    growIndex();
+                }
+            }
+        }
+        if (recovered > 0) {
+            LOG.info("Indexed " + recovered + " records of message archive segment '" + file + "'");
+        }
+    }
+
+    private void openSegment() throws IOException {
+        File file = new File(directory, String.format("%010d", segment) + SEGMENT_FILE_SUFFIX);
+        segmentChannel = new RandomAccessFile(file, "rw").getChannel();
+        segmentSize = segmentChannel.size();
+        segmentChannel.position(segmentSize);
+        segmentOut = new BufferedOutputStream(Channels.newOutputStream(segmentChannel), WRITE_BUFFER_SIZE);
+    }
+
+    private void rollSegment() throws IOException {
+        unsynced++;
+        sync();
+        segmentChannel.close();
+        segment++;
+        openSegment();
+        // the new segment is empty: records are synced up to its start
+        unsynced = 1;
+        sync();
+        LOG.debug("Message archive '" + directory + "' rolled over to segment " + segment);
+    }
+
+    private Record read(int recordSegment, long offset) throws IOException {
+        File file = new File(directory, String.format("%010d", recordSegment) + SEGMENT_FILE_SUFFIX);
+        try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+            Record[] record = new Record[1];
+            if (readRecord(channel, recordSegment, offset, record) < 0) {
+                LOG.warn("Invalid record at " + offset + " of message archive segment '" + file + "'");
+                return null;
+            }
+            return record[0];
+        }
+    }
+
+    /**
+     * Reads and checks the record at <code>offset</code> of a segment. When
+     * recovering, that is when <code>result</code> is <code>null</code>, the
+     * record is indexed rather than returned.
+     *
+     * @return The offset of the next record, or <code>-1</code> if the record is incomplete or invalid.
+     */
+    private long readRecord(FileChannel channel, int recordSegment, long offset, Record[] result) throws IOException {
+        long size = channel.size();
+        channel.position(offset);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        try {
+            if (in.readInt() != RECORD_MAGIC) {
+                return -1;
+            }
+            int typeOrdinal = in.readUnsignedByte();
+            int flags = in.readUnsignedByte();
+            long timestamp = in.readLong();
+            byte[] messageIdBytes = readBytes(in, size);
+            byte[] head = readBytes(in, size);
+            long storedLength = in.readLong();
+            if (typeOrdinal >= RecordType.values().length || messageIdBytes == null || head == null
+                    || storedLength < 0 || storedLength > size || storedLength > Integer.MAX_VALUE) {
+                return -1;
+            }
+            byte[] stored = new byte[(int) storedLength];
+            in.readFully(stored);
+            int storedCrc = in.readInt();
+
+            CRC32 crc = new CRC32();
+            DataOutputStream prefix = new DataOutputStream(new ChecksumOutputStream(null, crc));
+            prefix.writeByte(typeOrdinal);
+            prefix.writeByte(flags);
+            prefix.writeLong(timestamp);
+            writeBytes(prefix, messageIdBytes);
+            writeBytes(prefix, head);
+            crc.update(stored);
+            if ((int) crc.getValue() != storedCrc) {
+                return -1;
+            }
+
+            RecordType type = RecordType.values()[typeOrdinal];
+            String messageId = messageIdBytes.length == 0 ? null : new String(messageIdBytes, StandardCharsets.UTF_8);
+            long next = offset + 4 + 2 + 8 + 4 + messageIdBytes.length + 4 + head.length + 8 + storedLength + 4;
+            if (result == null) {
+                if (messageId != null) {
+                    index(indexKey(type, messageId), recordSegment, offset, type, messageId);
+                }
+            } else {
+                byte[] body = (flags & FLAG_COMPRESSED) != 0 ? inflate(stored) : stored;
+                String[] lines = new String(head, StandardCharsets.ISO_8859_1).split(CRLF);
+                Header[] headers = new Header[lines.length - 1];
+                for (int i = 1; i < lines.length; i++) {
+                    int colon = lines[i].indexOf(':');
+                    headers[i - 1] = new BasicHeader(lines[i].substring(0, Math.max(colon, 0)), lines[i].substring(colon + 1).trim());
+                }
+                result[0] = new Record(type, timestamp, messageId, lines[0], headers, body);
+            }
+            return next;
+        } catch (EOFException e) {
+            return -1;
+        }
+    }
+
+    private void index(long key, int recordSegment, long offset, RecordType type, String messageId) throws IOException {
+        if (pendingEntries != null) {
+            pendingEntries.add(new PendingEntry(key, recordSegment, offset, type, messageId));
+            return;
+        }
+        long mask = capacity - 1;
+        long slot = key & mask;
+        while (true) {
+            long slotKey = getSlotKey(slot);
+            if (slotKey == 0) {
+                break;
+            }
+            if (slotKey == key && isSameMessage((int) getSlotSegment(slot), getSlotOffset(slot), type, messageId)) {
+                // point to the last record of the message
+                setSlot(slot, key, recordSegment, offset);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        setSlot(slot, key, recordSegment, offset);
+        count++;
+    }
+
+    private boolean shouldGrowIndex() {
+        // retried if growing failed
+        return !growing && indexRegions != null && (pendingEntries != null || count * 4 > capacity * 3);
+    }
+
+    private boolean isSameMessage(int recordSegment, long offset, RecordType type, String messageId) throws IOException {
+        Record record = read(recordSegment, offset);
+        // a record cut off after a crash is replaced
+        return record == null || record.getType() == type && messageId.equals(record.getMessageId());
+    }
+
+    /**
+     * Stops writing the index, which is then grown with {@link #growIndex()}:
+     * the records appended meanwhile are kept pending, looked up by {@link #get(RecordType, String)}
+     * and indexed once the grown index replaces the old one.
+     */
+    private void startGrowingIndex() throws IOException {
+        if (pendingEntries == null) {
+            sync();
+            // records synced from now on are not in the index file until grown
+            pendingEntries = new ArrayList<PendingEntry>();
+        }
+        growing = true;
+    }
+
+    /**
+     * Doubles the index, copying its slots without holding the lock, until
+     * the records kept pending meanwhile fit in it.
+     */
+    private void growIndex() throws IOException {
+        boolean grown = false;
+        try {
+            while (growIndexOnce()) {
+                LOG.debug("Growing message archive index of '" + directory + "' again");
+            }
+            grown = true;
+        } finally {
+            if (!grown) {
+                synchronized (this) {
+                    // the records stay pending until grown with a later record
+                    growing = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the index is to grow again.
+     */
+    private boolean growIndexOnce() throws IOException {
+        MappedByteBuffer[] oldRegions;
+        long oldCapacity;
+        synchronized (this) {
+            if (indexRegions == null) {
+                // closed meanwhile
+                return false;
+            }
+            oldRegions = indexRegions;
+            oldCapacity = capacity;
+        }
+
+        File indexFile = new File(directory, INDEX_FILE_NAME);
+        File grownFile = new File(directory, INDEX_FILE_NAME + TEMP_FILE_SUFFIX);
+        MappedIndex grown = null;
+        try {
+            if (grownFile.exists() && !grownFile.delete()) {
+                throw new IOException("Failed to remove '" + grownFile + "'");
+            }
+            grown = mapIndex(grownFile, oldCapacity * 2);
+            long mask = grown.capacity - 1;
+            for (long oldSlot = 0; oldSlot < oldCapacity; oldSlot++) {
+                long key = getSlotKey(oldRegions, oldSlot);
+                if (key != 0) {
+                    long slot = key & mask;
+                    while (getSlotKey(grown.regions, slot) != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    setSlot(grown.regions, slot, key, (int) getSlotSegment(oldRegions, oldSlot), getSlotOffset(oldRegions, oldSlot));
+                }
+            }
+
+            synchronized (this) {
+                if (indexRegions != oldRegions) {
+                    // closed meanwhile
+                    return false;
+                }
+                FileChannel oldChannel = indexChannel;
+                MappedByteBuffer oldHeader = indexHeader;
+                List<PendingEntry> pending = pendingEntries;
+                pendingEntries = null;
+                setIndex(grown);
+                grown = null;
+                indexHeader.putLong(COUNT_OFFSET, count);
+                indexHeader.putLong(SYNCED_SEGMENT_OFFSET, oldHeader.getLong(SYNCED_SEGMENT_OFFSET));
+                indexHeader.putLong(SYNCED_POSITION_OFFSET, oldHeader.getLong(SYNCED_POSITION_OFFSET));
+                int indexed = 0;
+                while (indexed < pending.size() && count * 4 <= capacity * 3) {
+                    PendingEntry entry = pending.get(indexed++);
+                    index(entry.key, entry.segment, entry.offset, entry.type, entry.messageId);
+                }
+                if (indexed < pending.size()) {
+                    pendingEntries = new ArrayList<PendingEntry>(pending.subList(indexed, pending.size()));
+                }
+                unsynced++;
+                sync();
+                if (pendingEntries != null) {
+                    // synced up to the start of the growth: the records still pending are recovered again after a crash
+                    indexHeader.putLong(COUNT_OFFSET, count);
+                    for (MappedByteBuffer region : indexRegions) {
+                        region.force();
+                    }
+                    indexHeader.force();
+                }
+                closeQuietly(oldChannel);
+                if (!grownFile.renameTo(indexFile)) {
+                    throw new IOException("Failed to replace '" + indexFile + "' with grown index");
+                }
+                LOG.debug("Message archive index of '" + directory + "' grown to " + capacity + " slots");
+
+                // decided with the lock held, so that the grown index is not filled meanwhile
+                growing = false;
+                if (shouldGrowIndex()) {
+                    startGrowingIndex();
+                    return true;
+                }
+                return false;
+            }
+        } finally {
+            if (grown != null) {
+                closeQuietly(grown.channel);
+                if (!grownFile.delete()) {
+                    LOG.debug("Failed to remove '" + grownFile + "'");
+                }
+            }
+        }
+    }
+
+    private void setIndex(MappedIndex index) {
+        indexChannel = index.channel;
+        indexHeader = index.header;
+        indexRegions = index.regions;
+        capacity = index.capacity;
+    }
+
+    /**
+     * Maps an index file, creating it with <code>newCapacity</code> slots if <code>newCapacity</code> is positive.
+     */
+    private static MappedIndex mapIndex(File file, long newCapacity) throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        try {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER_SIZE);
+            long mappedCapacity;
+            if (newCapacity > 0) {
+                mappedCapacity = newCapacity;
+                header.putLong(0, INDEX_MAGIC);
+                header.putLong(CAPACITY_OFFSET, mappedCapacity);
+                header.putLong(COUNT_OFFSET, 0);
+                header.putLong(SYNCED_SEGMENT_OFFSET, 0);
+                header.putLong(SYNCED_POSITION_OFFSET, 0);
+            } else {
+                mappedCapacity = header.getLong(CAPACITY_OFFSET);
+                if (header.getLong(0) != INDEX_MAGIC || Long.bitCount(mappedCapacity) != 1) {
+                    throw new IOException("Invalid message archive index '" + file + "'");
+                }
+            }
+            int regionCount = (int) ((mappedCapacity + SLOTS_PER_REGION - 1) / SLOTS_PER_REGION);
+            MappedByteBuffer[] regions = new MappedByteBuffer[regionCount];
+            for (int i = 0; i < regionCount; i++) {
+                long regionSlots = Math.min(SLOTS_PER_REGION, mappedCapacity - (long) i * SLOTS_PER_REGION);
+                regions[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                        INDEX_HEADER_SIZE + (long) i * SLOTS_PER_REGION * SLOT_SIZE, regionSlots * SLOT_SIZE);
+            }
+            return new MappedIndex(channel, header, regions, mappedCapacity);
+        } catch (IOException e) {
+            closeQuietly(channel);
+            throw e;
+        }
+    }
+
+    private long getSlotKey(long slot) {
+        return getSlotKey(indexRegions, slot);
+    }
+
+    private long getSlotSegment(long slot) {
+        return getSlotSegment(indexRegions, slot);
+    }
+
+    private long getSlotOffset(long slot) {
+        return getSlotOffset(indexRegions, slot);
+    }
+
+    private void setSlot(long slot, long key, int recordSegment, long offset) {
+        setSlot(indexRegions, slot, key, recordSegment, offset);
+    }
+
+    private static long getSlotKey(MappedByteBuffer[] regions, long slot) {
+        return regions[(int) (slot / SLOTS_PER_REGION)].getLong((int) (slot % SLOTS_PER_REGION) * SLOT_SIZE);
+    }
+
+    private static long getSlotSegment(MappedByteBuffer[] regions, long slot) {
+        return regions[(int) (slot / SLOTS_PER_REGION)].getInt((int) (slot % SLOTS_PER_REGION) * SLOT_SIZE + 8);
+    }
+
+    private static long getSlotOffset(MappedByteBuffer[] regions, long slot) {
+        return regions[(int) (slot / SLOTS_PER_REGION)].getLong((int) (slot % SLOTS_PER_REGION) * SLOT_SIZE + 16);
+    }
+
+    private static void setSlot(MappedByteBuffer[] regions, long slot, long key, int recordSegment, long offset) {
+        MappedByteBuffer region = regions[(int) (slot / SLOTS_PER_REGION)];
+        int position = (int) (slot % SLOTS_PER_REGION) * SLOT_SIZE;
+        region.putInt(position + 8, recordSegment);
+        region.putLong(position + 16, offset);
+        region.putLong(position, key);
+    }
+
+    private File[] listSegments() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        List<File> segments = new ArrayList<File>();
+        for (File file : files) {
+            if (parseSegment(file) >= 0) {
+                segments.add(file);
+            }
+        }
+        File[] sorted = segments.toArray(new File[segments.size()]);
+        // segment numbers are zero padded: names sort in append order
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static int parseSegment(File file) {
+        String name = file.getName();
+        if (!name.endsWith(SEGMENT_FILE_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring(0, name.length() - SEGMENT_FILE_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long indexKey(RecordType type, String messageId) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not supported", e);
+        }
+        digest.update((byte) type.ordinal());
+        byte[] bytes = digest.digest(messageId.getBytes(StandardCharsets.UTF_8));
+        long key = 0;
+        for (int i = 0; i < 8; i++) {
+            key = key << 8 | bytes[i] & 0xff;
+        }
+        // 0 marks empty slots
+        return key == 0 ? 1 : key;
+    }
+
+    private static byte[] formatHead(String startLine, Header[] headers) {
+        StringBuilder head = new StringBuilder(startLine);
+        for (Header header : headers) {
+            head.append(CRLF).append(header.getName()).append(": ").append(header.getValue());
+        }
+        return head.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in, long size) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > size) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static byte[] inflate(byte[] stored) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(stored.length * 4);
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(stored))) {
+            byte[] buffer = new byte[WRITE_BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.debug("Failed to close message archive file: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Checksums the bytes written to a stream, if any, which is not closed.
+     */
+    private static class ChecksumOutputStream extends FilterOutputStream {
+        private final CRC32 crc;
+
+        ChecksumOutputStream(OutputStream out, CRC32 crc) {
+            super(out);
+            this.crc = crc;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (out != null) {
+                out.write(b);
+            }
+            crc.update(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (out != null) {
+                out.write(b, off, len);
+            }
+            crc.update(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (out != null) {
+                out.flush();
+            }
+        }
+    }
+}
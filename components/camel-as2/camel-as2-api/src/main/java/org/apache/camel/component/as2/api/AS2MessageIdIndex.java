@@ -0,0 +1,359 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.util.Args;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * AS2 Message-Id Index
+ *
+ * <p>
+ * Records the AS2 messages accepted from trading partners so that a message
+ * received again, for instance because the partner did not get the MDN of
+ * the first transfer, is recognized as a duplicate and answered with the
+ * original response rather than processed twice.
+ *
+ * <p>
+ * Messages are indexed by a 64 bit digest of their <code>AS2-From</code> name
+ * and <code>Message-Id</code>, and each record keeps a 64 bit digest of the
+ * payload, the status and headers of the response and its synchronous MDN,
+ * if any. Records are evicted once older than the configured time to live
+ * or, oldest first, when the index holds more than the configured maximum
+ * number of records. If a file is given, the index appends every record to
+ * it and reloads its records from it when created.
+ */
+public class AS2MessageIdIndex {
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    public static final long DEFAULT_TIME_TO_LIVE = 24 * 60 * 60 * 1000L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(AS2MessageIdIndex.class);
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /**
+     * The response sent to an accepted message.
+     */
+    public static final class Record {
+        private final long receiveTime;
+        private final long payloadDigest;
+        private final int statusCode;
+        private final Header[] headers;
+        private final byte[] receipt;
+
+        public Record(long receiveTime, long payloadDigest, int statusCode, Header[] headers, byte[] receipt) {
+            this.receiveTime = receiveTime;
+            this.payloadDigest = payloadDigest;
+            this.statusCode = statusCode;
+            this.headers = Args.notNull(headers, "headers");
+            this.receipt = receipt;
+        }
+
+        /**
+         * @return The time the message was accepted, in milliseconds since the epoch.
+         */
+        public long getReceiveTime() {
+            return receiveTime;
+        }
+
+        /**
+         * @return The digest of the payload of the message, or <code>0</code> if not computed.
+         */
+        public long getPayloadDigest() {
+            return payloadDigest;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        public Header[] getHeaders() {
+            return headers.clone();
+        }
+
+        /**
+         * @return The body of the response, that is the synchronous MDN, or <code>null</code> if none was sent.
+         */
+        public byte[] getReceipt() {
+            return receipt == null ? null : receipt.clone();
+        }
+    }
+
+    private final LinkedHashMap<Long, Record> records = new LinkedHashMap<Long, Record>();
+    private final int maxEntries;
+    private final long timeToLive;
+    private final Journal journal;
+
+    /**
+     * Creates an in memory index with default limits.
+     */
+    public AS2MessageIdIndex() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE, null);
+    }
+
+    /**
+     * Creates an index.
+     *
+     * @param maxEntries - the maximum number of messages recorded.
+     * @param timeToLive - the time in milliseconds a message is recorded for.
+     * @param file - the file the index is persisted to, or <code>null</code> to only keep records in memory.
+     * @throws IllegalStateException if the file can not be read or written.
+     */
+    public AS2MessageIdIndex(int maxEntries, long timeToLive, File file) {
+        Args.positive(maxEntries, "maxEntries");
+        Args.positive(timeToLive, "timeToLive");
+        this.maxEntries = maxEntries;
+        this.timeToLive = timeToLive;
+        this.journal = file == null ? null : new Journal(file);
+        if (journal != null) {
+            try {
+                journal.load();
+                // expired records are not carried over
+                evict(System.currentTimeMillis());
+                journal.compact(records.size());
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to open message id index '" + file + "'", e);
+            }
+        }
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    public File getFile() {
+        return journal == null ? null : journal.getFile();
+    }
+
+    /**
+     * Records an accepted message.
+     *
+     * @param as2From - the <code>AS2-From</code> name of the message.
+     * @param messageId - the <code>Message-Id</code> of the message.
+     * @param record - the response sent to the message.
+     */
+    public synchronized void put(String as2From, String messageId, Record record) {
+        Args.notNull(messageId, "messageId");
+        Args.notNull(record, "record");
+        long key = key(as2From, messageId);
+        records.remove(key);
+        records.put(key, record);
+        if (journal != null) {
+            journal.append(new AbstractMap.SimpleImmutableEntry<Long, Record>(key, record));
+        }
+        evict(System.currentTimeMillis());
+    }
+
+    /**
+     * Looks up an accepted message.
+     *
+     * @param as2From - the <code>AS2-From</code> name of the message.
+     * @param messageId - the <code>Message-Id</code> of the message.
+     * @return The response sent to the message, or <code>null</code> if not recorded.
+     */
+    public synchronized Record get(String as2From, String messageId) {
+        if (messageId == null) {
+            return null;
+        }
+        evict(System.currentTimeMillis());
+        return records.get(key(as2From, messageId));
+    }
+
+    public synchronized int size() {
+        return records.size();
+    }
+
+    /**
+     * Closes the file backing the index.
+     */
+    public synchronized void close() {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * Computes the digest of the payload of a message.
+     *
+     * @param entity - the payload.
+     * @return The first 64 bits of the SHA-256 digest of the payload, or <code>0</code> if there is none.
+     * @throws IOException if the payload can not be read.
+     */
+    public static long digest(HttpEntity entity) throws IOException {
+        if (entity == null) {
+            return 0;
+        }
+        final MessageDigest digest = createDigest();
+        entity.writeTo(new OutputStream() {
+            @Override
+            public void write(int b) {
+                digest.update((byte) b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                digest.update(b, off, len);
+            }
+        });
+        return toLong(digest.digest());
+    }
+
+    private static long key(String as2From, String messageId) {
+        MessageDigest digest = createDigest();
+        if (as2From != null) {
+            digest.update(as2From.getBytes(StandardCharsets.UTF_8));
+        }
+        // names may not contain line breaks: the separator keeps keys of different senders apart
+        digest.update((byte) '\n');
+        digest.update(messageId.getBytes(StandardCharsets.UTF_8));
+        return toLong(digest.digest());
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(DIGEST_ALGORITHM + " not supported", e);
+        }
+    }
+
+    private static long toLong(byte[] bytes) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = value << 8 | bytes[i] & 0xff;
+        }
+        return value;
+    }
+
+    private void evict(long now) {
+        Iterator<Record> it = records.values().iterator();
+        while (it.hasNext()) {
+            Record eldest = it.next();
+            if (records.size() <= maxEntries && eldest.getReceiveTime() + timeToLive > now) {
+                break;
+            }
+            it.remove();
+        }
+        if (journal != null) {
+            journal.compactIfNeeded(records.size());
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, long key, Record record) throws IOException {
+        out.writeLong(key);
+        out.writeLong(record.receiveTime);
+        out.writeLong(record.payloadDigest);
+        out.writeInt(record.statusCode);
+        out.writeInt(record.headers.length);
+        for (Header header : record.headers) {
+            out.writeUTF(header.getName());
+            out.writeUTF(header.getValue());
+        }
+        if (record.receipt == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(record.receipt.length);
+            out.write(record.receipt);
+        }
+    }
+
+    private static Record readRecord(DataInputStream in) throws IOException {
+        long receiveTime = in.readLong();
+        long payloadDigest = in.readLong();
+        int statusCode = in.readInt();
+        Header[] headers = new Header[in.readInt()];
+        for (int i = 0; i < headers.length; i++) {
+            headers[i] = new BasicHeader(in.readUTF(), in.readUTF());
+        }
+        int receiptLength = in.readInt();
+        byte[] receipt = null;
+        if (receiptLength >= 0) {
+            receipt = new byte[receiptLength];
+            in.readFully(receipt);
+        }
+        return new Record(receiveTime, payloadDigest, statusCode, headers, receipt);
+    }
+
+    /**
+     * Journal of the index: the key and fields of each record, in binary.
+     */
+    private final class Journal extends AS2AppendJournal<Map.Entry<Long, Record>> {
+
+        Journal(File file) {
+            super(file, "message id index");
+        }
+
+        @Override
+        protected void read(InputStream in) throws IOException {
+            DataInputStream data = new DataInputStream(in);
+            while (true) {
+                long key;
+                try {
+                    key = data.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                Record record;
+                try {
+                    record = readRecord(data);
+                } catch (EOFException e) {
+                    // record not fully written before a crash: dropped by the compaction
+                    LOG.warn("Ignoring truncated record at end of message id index '" + getFile() + "'");
+                    break;
+                }
+                records.remove(key);
+                records.put(key, record);
+            }
+        }
+
+        @Override
+        protected void write(DataOutputStream out, Map.Entry<Long, Record> entry) throws IOException {
+            writeRecord(out, entry.getKey(), entry.getValue());
+        }
+
+        @Override
+        protected void writeAll(DataOutputStream out) throws IOException {
+            for (Map.Entry<Long, Record> entry : records.entrySet()) {
+                writeRecord(out, entry.getKey(), entry.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.util.Args;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * AS2 Message Journal
+ *
+ * <p>
+ * A directory holding AS2 messages until they are processed. Each message is
+ * written to a temporary file, synced to disk and renamed after a sequence
+ * number assigned when the message is appended; the directory is synced too
+ * before {@link #append(HttpEntityEnclosingRequest)} returns, so that a
+ * message acknowledged to the trading partner survives a crash. Temporary
+ * files left by a crash are deleted when the journal is opened. A message is
+ * removed from the journal once processed, or rejected if it can never be
+ * processed, keeping its file for inspection; messages still in the journal
+ * when it is opened again are returned by {@link #getEntries()} in the order
+ * they were appended.
+ */
+public class AS2MessageJournal {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AS2MessageJournal.class);
+
+    private static final String ENTRY_FILE_SUFFIX = ".msg";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final String REJECTED_FILE_SUFFIX = ".failed";
+    private static final String CRLF = "\r\n";
+
+    /**
+     * A message held in the journal.
+     */
+    public static final class Entry {
+        private final long sequence;
+        private final File file;
+
+        Entry(long sequence, File file) {
+            this.sequence = sequence;
+            this.file = file;
+        }
+
+        /**
+         * @return The sequence number of the message, ordering messages by the time they were appended.
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry[" + sequence + "]";
+        }
+    }
+
+    private final File directory;
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final AtomicLong appendedCount = new AtomicLong();
+    private final AtomicLong removedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * Opens a journal, creating its directory if needed.
+     *
+     * @param directory - the directory holding the messages of the journal.
+     */
+    public AS2MessageJournal(File directory) {
+        this.directory = Args.notNull(directory, "directory");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Failed to create message journal directory '" + directory + "'");
+        }
+        long sequence = 0;
+        for (File file : listFiles()) {
+            if (file.getName().endsWith(TEMP_FILE_SUFFIX)) {
+                // message not fully written before a crash: never acknowledged to the partner
+                if (!file.delete()) {
+                    LOG.warn("Failed to remove incomplete journal file '" + file + "'");
+                }
+            } else if (file.getName().endsWith(REJECTED_FILE_SUFFIX)) {
+                String name = file.getName();
+                sequence = Math.max(sequence, parseSequence(new File(name.substring(0, name.length() - REJECTED_FILE_SUFFIX.length()))) + 1);
+            } else {
+                sequence = Math.max(sequence, parseSequence(file) + 1);
+            }
+        }
+        nextSequence.set(sequence);
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Writes a message to the journal.
+     *
+     * @param request - the message.
+     * @return The journal entry of the message, once synced to disk.
+     * @throws IOException if the message can not be written.
+     */
+    public Entry append(HttpEntityEnclosingRequest request) throws IOException {
+        return append(request, null);
+    }
+
+    /**
+     * Writes a message to the journal with its body as received, so that it
+     * is read back byte for byte rather than as its parsed entity writes it.
+     *
+     * @param request - the message.
+     * @param body - the body of the message as received, or <code>null</code> to write the entity of the message.
+     * @return The journal entry of the message, once synced to disk.
+     * @throws IOException if the message can not be written.
+     */
+    public Entry append(HttpEntityEnclosingRequest request, byte[] body) throws IOException {
+        Args.notNull(request, "request");
+        long sequence = nextSequence.getAndIncrement();
+        File file = new File(directory, String.format("%019d", sequence) + ENTRY_FILE_SUFFIX);
+        File tempFile = new File(directory, file.getName() + TEMP_FILE_SUFFIX);
+        FileOutputStream fileOut = new FileOutputStream(tempFile);
+        try {
+            OutputStream out = new BufferedOutputStream(fileOut);
+            writeLine(out, request.getRequestLine().getMethod() + " " + request.getRequestLine().getUri());
+            for (Header header : request.getAllHeaders()) {
+                writeLine(out, header.getName() + ": " + header.getValue());
+            }
+            writeLine(out, "");
+            HttpEntity entity = request.getEntity();
+            if (body != null) {
+                out.write(body);
+            } else if (entity != null) {
+                entity.writeTo(out);
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } catch (IOException e) {
+            fileOut.close();
+            tempFile.delete();
+            throw e;
+        }
+        fileOut.close();
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Failed to write journal file '" + file + "'");
+        }
+        // the rename is only durable once the directory is synced
+        Util.syncDirectory(directory);
+        appendedCount.incrementAndGet();
+        return new Entry(sequence, file);
+    }
+
+    /**
+     * @return The messages in the journal, in the order they were appended.
+     */
+    public List<Entry> getEntries() {
+        List<Entry> entries = new ArrayList<Entry>();
+        for (File file : listFiles()) {
+            long sequence = parseSequence(file);
+            if (sequence >= 0) {
+                entries.add(new Entry(sequence, file));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Reads a message from the journal.
+     *
+     * @param entry - the journal entry of the message.
+     * @return The message, with its entity not yet parsed.
+     * @throws IOException if the message can not be read.
+     */
+    public HttpEntityEnclosingRequest read(Entry entry) throws IOException {
+        Args.notNull(entry, "entry");
+        try (InputStream in = new BufferedInputStream(new FileInputStream(entry.file))) {
+            String requestLine = readLine(in);
+            int space = requestLine.indexOf(' ');
+            if (space <= 0) {
+                throw new IOException("Invalid journal file '" + entry.file + "'");
+            }
+            BasicHttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest(requestLine.substring(0, space),
+                    requestLine.substring(space + 1));
+            String line;
+            while (!(line = readLine(in)).isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    request.addHeader(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+                }
+            }
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                body.write(buffer, 0, n);
+            }
+            ByteArrayEntity entity = new ByteArrayEntity(body.toByteArray());
+            entity.setContentType(request.getFirstHeader(AS2Header.CONTENT_TYPE));
+            request.setEntity(entity);
+            return request;
+        }
+    }
+
+    /**
+     * Removes a processed message from the journal.
+     *
+     * @param entry - the journal entry of the message.
+     */
+    public void remove(Entry entry) {
+        Args.notNull(entry, "entry");
+        if (entry.file.delete()) {
+            removedCount.incrementAndGet();
+        } else if (entry.file.exists()) {
+            LOG.warn("Failed to remove journal file '" + entry.file + "'");
+        }
+    }
+
+    /**
+     * Moves a message which can not be processed out of the journal, keeping
+     * its file with the <code>.failed</code> suffix.
+     *
+     * @param entry - the journal entry of the message.
+     */
+    public void reject(Entry entry) {
+        Args.notNull(entry, "entry");
+        if (entry.file.renameTo(new File(entry.file.getPath() + REJECTED_FILE_SUFFIX))) {
+            rejectedCount.incrementAndGet();
+            try {
+                Util.syncDirectory(directory);
+            } catch (IOException e) {
+                LOG.warn("Failed to sync journal directory '" + directory + "': " + e.getMessage());
+            }
+        } else {
+            LOG.warn("Failed to mark journal file '" + entry.file + "' as failed");
+        }
+    }
+
+    /**
+     * @return The number of messages appended to the journal since it was opened.
+     */
+    public long getAppendedCount() {
+        return appendedCount.get();
+    }
+
+    /**
+     * @return The number of messages removed from the journal since it was opened.
+     */
+    public long getRemovedCount() {
+        return removedCount.get();
+    }
+
+    /**
+     * @return The number of messages rejected from the journal since it was opened.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    private File[] listFiles() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        // sequence numbers are zero padded: names sort in append order
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static long parseSequence(File file) {
+        String name = file.getName();
+        if (!name.endsWith(ENTRY_FILE_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(0, name.length() - ENTRY_FILE_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void writeLine(OutputStream out, String line) throws IOException {
+        out.write(line.getBytes(StandardCharsets.US_ASCII));
+        out.write(CRLF.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,493 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.camel.component.as2.api.entity.AS2MessageDispositionNotificationEntity;
+import org.apache.camel.component.as2.api.entity.EntityParser;
+import org.apache.camel.component.as2.api.util.EntityUtils;
+import org.apache.camel.component.as2.api.util.MicUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.util.Args;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * AS2 Message Resender
+ *
+ * <p>
+ * Resends messages kept in an {@link AS2MessageArchive} through an
+ * {@link AS2ClientConnection}, for instance the traffic of a day to a trading
+ * partner after an outage. Messages are sent as archived: their body is not
+ * signed, encrypted or compressed again and their headers, including their
+ * <code>Message-Id</code>, are kept, only the transport headers being set
+ * by the connection.
+ *
+ * <p>
+ * Messages are sent by a number of threads in parallel, each using a
+ * connection of the pool of the client connection, so the pool should allow
+ * as many connections to the partner. Archived messages are read while
+ * earlier ones are sent, holding a few messages per thread in memory. A
+ * listener may be notified of the progress of a resend at an interval.
+ *
+ * <p>
+ * A message is only counted as sent if accepted by the trading partner and,
+ * if an MDN is returned, if the MDN reports it processed without error and
+ * with the MIC of the message. The progress of a resend lists the messages
+ * which failed, with the reason, so that they can be resent again.
+ */
+public class AS2MessageResender {
+
+    public static final int DEFAULT_PARALLELISM = 4;
+    public static final long DEFAULT_PROGRESS_INTERVAL = 1000;
+
+    private static final Logger LOG = LoggerFactory.getLogger(AS2MessageResender.class);
+
+    private static final String WORKER_THREAD_NAME_PREFIX = "AS2Resend-";
+    private static final int QUEUED_MESSAGES_PER_THREAD = 2;
+    private static final long WORKER_CHECK_INTERVAL = 1000;
+
+    // set by the connection for each transfer
+    private static final String[] TRANSPORT_HEADERS = {HTTP.CONTENT_LEN, HTTP.TRANSFER_ENCODING, HTTP.TARGET_HOST,
+        HTTP.CONN_DIRECTIVE, HTTP.CONN_KEEP_ALIVE, HTTP.EXPECT_DIRECTIVE, HTTP.DATE_HEADER, HTTP.USER_AGENT};
+
+    /**
+     * Notified of the progress of a resend.
+     */
+    public interface ProgressListener {
+
+        /**
+         * Called at the progress interval while messages are resent, and once the resend is done.
+         */
+        void onProgress(Progress progress);
+    }
+
+    /**
+     * The progress of a resend.
+     */
+    public static final class Progress {
+        private final long submitted;
+        private final long sent;
+        private final long failed;
+        private final Map<String, String> failures;
+        private final boolean done;
+
+        Progress(long submitted, long sent, long failed, Map<String, String> failures, boolean done) {
+            this.submitted = submitted;
+            this.sent = sent;
+            this.failed = failed;
+            this.failures = failures;
+            this.done = done;
+        }
+
+        /**
+         * @return The number of messages read from the archive so far.
+         */
+        public long getSubmitted() {
+            return submitted;
+        }
+
+        /**
+         * @return The number of messages accepted by the trading partner.
+         */
+        public long getSent() {
+            return sent;
+        }
+
+        /**
+         * @return The number of messages not found in the archive, not sent or rejected by the trading partner.
+         */
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * @return The reason each failed message was not sent, by <code>Message-Id</code>, in the order they failed.
+         */
+        public Map<String, String> getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return Whether all messages were read and sent.
+         */
+        public boolean isDone() {
+            return done;
+        }
+
+        @Override
+        public String toString() {
+            return "Progress[submitted=" + submitted + ", sent=" + sent + ", failed=" + failed + (done ? ", done" : "") + "]";
+        }
+    }
+
+    private final AS2ClientConnection connection;
+    private final AS2MessageArchive archive;
+    private volatile int parallelism = DEFAULT_PARALLELISM;
+    private volatile long progressInterval = DEFAULT_PROGRESS_INTERVAL;
+    private volatile ProgressListener progressListener;
+
+    /**
+     * Creates a resender.
+     *
+     * @param connection - the connection to the trading partner the messages are resent to.
+     * @param archive - the archive holding the messages.
+     */
+    public AS2MessageResender(AS2ClientConnection connection, AS2MessageArchive archive) {
+        this.connection = Args.notNull(connection, "connection");
+        this.archive = Args.notNull(archive, "archive");
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of messages sent at once.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Args.positive(parallelism, "parallelism");
+    }
+
+    public long getProgressInterval() {
+        return progressInterval;
+    }
+
+    /**
+     * Sets the time in milliseconds between notifications of the progress listener.
+     */
+    public void setProgressInterval(long progressInterval) {
+        this.progressInterval = Args.notNegative(progressInterval, "progressInterval");
+    }
+
+    public ProgressListener getProgressListener() {
+        return progressListener;
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Resends the messages sent to a trading partner within a time range.
+     *
+     * @param as2To - the <code>AS2-To</code> name of the messages, or <code>null</code> for all messages.
+     * @param fromTime - the start of the range, in milliseconds since the epoch.
+     * @param toTime - the end of the range, exclusive.
+     * @return The final progress of the resend.
+     * @throws IOException if the archive can not be read, or the messages can no longer be sent.
+     * @throws InterruptedException if interrupted while resending; messages being sent are completed.
+     */
+    public Progress resend(final String as2To, long fromTime, long toTime) throws IOException, InterruptedException {
+        final Resend resend = new Resend();
+        try {
+            archive.scan(AS2MessageArchive.RecordType.SENT_MESSAGE, fromTime, toTime, new AS2MessageArchive.RecordHandler() {
+                @Override
+                public void handle(AS2MessageArchive.Record record) throws IOException {
+                    if (as2To == null || as2To.equals(getAS2To(record))) {
+                        resend.submit(record);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            resend.abort();
+            if (e instanceof InterruptedIOException) {
+                throw new InterruptedException(e.getMessage());
+            }
+            throw e;
+        }
+        return resend.finish();
+    }
+
+    /**
+     * Resends sent messages.
+     *
+     * @param messageIds - the <code>Message-Id</code> of the messages.
+     * @return The final progress of the resend.
+     * @throws IOException if the archive can not be read, or the messages can no longer be sent.
+     * @throws InterruptedException if interrupted while resending; messages being sent are completed.
+     */
+    public Progress resend(Collection<String> messageIds) throws IOException, InterruptedException {
+        Args.notNull(messageIds, "messageIds");
+        Resend resend = new Resend();
+        try {
+            for (String messageId : messageIds) {
+                AS2MessageArchive.Record record = archive.get(AS2MessageArchive.RecordType.SENT_MESSAGE, messageId);
+                if (record == null) {
+                    LOG.warn("Message " + messageId + " not found in archive, not resent");
+                    resend.fail(messageId, "not found in archive");
+                } else {
+                    resend.submit(record);
+                }
+            }
+        } catch (IOException e) {
+            resend.abort();
+            if (e instanceof InterruptedIOException) {
+                throw new InterruptedException(e.getMessage());
+            }
+            throw e;
+        }
+        return resend.finish();
+    }
+
+    /**
+     * Creates a message from its archived record.
+     *
+     * @throws HttpException if the record does not hold a request.
+     */
+    static HttpEntityEnclosingRequest createRequest(AS2MessageArchive.Record record) throws HttpException {
+        String[] requestLine = record.getStartLine().split(" ");
+        if (requestLine.length < 2) {
+            throw new HttpException("Invalid request line in archived message: " + record.getStartLine());
+        }
+        BasicHttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest(requestLine[0], requestLine[1]);
+        for (Header header : record.getHeaders()) {
+            if (!isTransportHeader(header.getName())) {
+                request.addHeader(header);
+            }
+        }
+        ByteArrayEntity entity = new ByteArrayEntity(record.getBody());
+        entity.setContentType(request.getFirstHeader(HttpHeaders.CONTENT_TYPE));
+        request.setEntity(entity);
+        return request;
+    }
+
+    private static String getAS2To(AS2MessageArchive.Record record) {
+        for (Header header : record.getHeaders()) {
+            if (AS2Header.AS2_TO.equalsIgnoreCase(header.getName())) {
+                String value = header.getValue().trim();
+                // names may be quoted
+                if (value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")) {
+                    value = value.substring(1, value.length() - 1);
+                }
+                return value;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isTransportHeader(String name) {
+        for (String transportHeader : TRANSPORT_HEADERS) {
+            if (transportHeader.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A resend in progress: the archived messages submitted by the calling
+     * thread are sent by worker threads.
+     */
+    private final class Resend {
+        // marks the end of the messages for a worker
+        private final AS2MessageArchive.Record end = new AS2MessageArchive.Record(null, 0, null, null, new Header[0], null);
+        private final BlockingQueue<AS2MessageArchive.Record> queue;
+        private final Thread[] workers;
+        private final AtomicLong submitted = new AtomicLong();
+        private final AtomicLong sent = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final Map<String, String> failures = new LinkedHashMap<String, String>();
+        private final ProgressListener listener = progressListener;
+        private final long interval = progressInterval;
+        private long lastProgressTime = System.currentTimeMillis();
+
+        Resend() {
+            int threads = parallelism;
+            queue = new ArrayBlockingQueue<AS2MessageArchive.Record>(threads * QUEUED_MESSAGES_PER_THREAD);
+            workers = new Thread[threads];
+            for (int i = 0; i < threads; i++) {
+                workers[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        work();
+                    }
+                }, WORKER_THREAD_NAME_PREFIX + connection.getTargetHost().toHostString() + "-" + i);
+                workers[i].setDaemon(true);
+                workers[i].start();
+            }
+        }
+
+        void submit(AS2MessageArchive.Record record) throws IOException {
+            try {
+                put(record);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted resending messages to " + connection.getTargetHost());
+            }
+            submitted.incrementAndGet();
+        }
+
+        Progress finish() throws IOException, InterruptedException {
+            try {
+                for (int i = 0; i < workers.length; i++) {
+                    put(end);
+                }
+                for (Thread worker : workers) {
+                    worker.join();
+                }
+            } catch (InterruptedException | IOException e) {
+                abort();
+                throw e;
+            }
+            Progress progress = getProgress(true);
+            LOG.info("Resent messages to " + connection.getTargetHost() + ": " + progress);
+            if (listener != null) {
+                listener.onProgress(progress);
+            }
+            return progress;
+        }
+
+        /**
+         * Queues a record for the workers, as long as any is alive.
+         */
+        private void put(AS2MessageArchive.Record record) throws IOException, InterruptedException {
+            while (!queue.offer(record, WORKER_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+                boolean working = false;
+                for (Thread worker : workers) {
+                    working |= worker.isAlive();
+                }
+                if (!working) {
+                    throw new IOException("Resending messages to " + connection.getTargetHost() + " stopped");
+                }
+            }
+        }
+
+        void abort() {
+            queue.clear();
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+        }
+
+        private void work() {
+            try {
+                while (true) {
+                    AS2MessageArchive.Record record = queue.take();
+                    if (record == end) {
+                        return;
+                    }
+                    try {
+                        send(record);
+                    } catch (RuntimeException e) {
+                        LOG.warn("Failed to resend message " + record.getMessageId() + " to " + connection.getTargetHost(), e);
+                        fail(record.getMessageId(), "unexpected error: " + e);
+                    }
+                    reportProgress();
+                }
+            } catch (InterruptedException e) {
+                // resend aborted
+            }
+        }
+
+        private void send(AS2MessageArchive.Record record) {
+            String failure;
+            try {
+                HttpResponse response = connection.sendPrepared(createRequest(record), HttpCoreContext.create());
+                int statusCode = response.getStatusLine().getStatusCode();
+                if (statusCode >= 200 && statusCode < 300) {
+                    failure = verifyMdn(record, response);
+                    if (failure == null) {
+                        sent.incrementAndGet();
+                        return;
+                    }
+                } else {
+                    failure = "rejected with status " + response.getStatusLine();
+                }
+            } catch (IOException | HttpException e) {
+                failure = e.getMessage();
+            }
+            LOG.warn("Failed to resend message " + record.getMessageId() + " to " + connection.getTargetHost() + ": " + failure);
+            fail(record.getMessageId(), failure);
+        }
+
+        /**
+         * Checks the MDN returned in the response to a resent message.
+         *
+         * @return The failure reported by the MDN, or <code>null</code> if it reports the message processed or no MDN was returned.
+         */
+        private String verifyMdn(AS2MessageArchive.Record record, HttpResponse response) {
+            AS2MessageDispositionNotificationEntity mdn;
+            try {
+                EntityParser.parseAS2MessageEntity(response);
+                mdn = EntityUtils.getMessageDispositionNotificationEntity(response);
+            } catch (HttpException e) {
+                return "invalid MDN: " + e.getMessage();
+            }
+            if (mdn == null) {
+                return null;
+            }
+            try {
+                // the sent request is consumed: the MIC is computed on a fresh copy
+                return MicUtils.verifyMdn(mdn, mdn.getReceivedContentMic() == null ? null : createRequest(record));
+            } catch (HttpException e) {
+                return "failed to verify MIC returned in MDN: " + e.getMessage();
+            }
+        }
+
+        void fail(String messageId, String reason) {
+            synchronized (failures) {
+                failures.put(messageId, reason);
+            }
+            failed.incrementAndGet();
+        }
+
+        private void reportProgress() {
+            if (listener == null) {
+                return;
+            }
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                if (now - lastProgressTime < interval) {
+                    return;
+                }
+                lastProgressTime = now;
+                try {
+                    listener.onProgress(getProgress(false));
+                } catch (RuntimeException e) {
+                    LOG.warn("Progress listener failed", e);
+                }
+            }
+        }
+
+        private Progress getProgress(boolean done) {
+            Map<String, String> failuresCopy;
+            synchronized (failures) {
+                failuresCopy = Collections.unmodifiableMap(new LinkedHashMap<String, String>(failures));
+            }
+            return new Progress(submitted.get(), sent.get(), failed.get(), failuresCopy, done);
+        }
+    }
+}
@@ -0,0 +1,485 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.camel.component.as2.api.entity.AS2MessageDispositionNotificationEntity;
+import org.apache.camel.component.as2.api.entity.EntityParser;
+import org.apache.camel.component.as2.api.util.EntityUtils;
+import org.apache.camel.component.as2.api.util.HttpMessageUtils;
+import org.apache.camel.component.as2.api.util.MicUtils;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.util.Args;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * AS2 Outbound Queue
+ *
+ * <p>
+ * Sends the AS2 messages of an {@link AS2ClientConnection} through an
+ * {@link AS2MessageJournal}, so that a message is not lost when its trading
+ * partner can not be reached. A message is written to the journal with its
+ * AS2 headers, including its <code>Message-Id</code>, and then sent; if the
+ * partner can not be reached or answers with a status asking to retry later,
+ * the message stays queued and is resent as is by a dispatcher thread.
+ *
+ * <p>
+ * Queued messages are resent in the order they were queued. Once a message
+ * is queued, further messages are queued behind it rather than sent, so that
+ * senders do not wait on an unavailable partner. The delay before resending
+ * grows exponentially with the number of failed attempts, with a random
+ * jitter, and a message is rejected from the journal after the maximum
+ * number of attempts. Messages still in the journal when the queue is
+ * started are resent first.
+ *
+ * <p>
+ * The synchronous MDN returned for a resent message is checked like the one
+ * of a message sent at once: an MDN reporting a failed disposition or a MIC
+ * not matching the message fails the message, which is rejected from the
+ * journal. The MDN is matched in the {@link AS2MDNCorrelationStore}, if any,
+ * and the outcome of every resent message is reported to the {@link Listener}.
+ */
+public class AS2OutboundQueue {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 10;
+    public static final long DEFAULT_INITIAL_BACKOFF = 1000;
+    public static final long DEFAULT_MAX_BACKOFF = 5 * 60 * 1000;
+
+    private static final Logger LOG = LoggerFactory.getLogger(AS2OutboundQueue.class);
+
+    private static final String DISPATCHER_THREAD_NAME_PREFIX = "AS2OutQueue-";
+    private static final long STOP_TIMEOUT = 30000;
+
+    /**
+     * A message waiting to be resent.
+     */
+    private static class PendingMessage {
+        private final AS2MessageJournal.Entry entry;
+        private int attempts;
+        private long dueTime;
+
+        PendingMessage(AS2MessageJournal.Entry entry, int attempts, long dueTime) {
+            this.entry = entry;
+            this.attempts = attempts;
+            this.dueTime = dueTime;
+        }
+    }
+
+    /**
+     * Notified of the outcome of the messages resent by the queue.
+     */
+    public interface Listener {
+
+        /**
+         * Called when a queued message was accepted by its trading partner.
+         *
+         * @param messageId - the <code>Message-Id</code> of the message.
+         * @param response - the response of the partner, with its MDN parsed.
+         */
+        void delivered(String messageId, HttpResponse response);
+
+        /**
+         * Called when a queued message is rejected from the journal.
+         *
+         * @param messageId - the <code>Message-Id</code> of the message, or <code>null</code> if it could not be read.
+         * @param response - the last response of the partner, or <code>null</code> if none was received.
+         * @param reason - the reason the message failed.
+         */
+        void failed(String messageId, HttpResponse response, String reason);
+    }
+
+    private final AS2ClientConnection connection;
+    private final AS2MessageJournal journal;
+    // guarded by itself
+    private final ArrayDeque<PendingMessage> pending = new ArrayDeque<PendingMessage>();
+
+    private volatile int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private volatile long initialBackoff = DEFAULT_INITIAL_BACKOFF;
+    private volatile long maxBackoff = DEFAULT_MAX_BACKOFF;
+    private volatile AS2MDNCorrelationStore correlationStore;
+    private volatile Listener listener;
+
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong queuedCount = new AtomicLong();
+    private final AtomicLong retriedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private Thread dispatcherThread;
+
+    /**
+     * Creates a queue.
+     *
+     * @param connection - the connection sending the messages.
+     * @param directory - the directory of the journal of the queue; not to be shared with another queue.
+     */
+    public AS2OutboundQueue(AS2ClientConnection connection, File directory) {
+        this.connection = Args.notNull(connection, "connection");
+        this.journal = new AS2MessageJournal(directory);
+    }
+
+    public AS2MessageJournal getJournal() {
+        return journal;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Sets the maximum number of attempts to send a message before it is rejected from the journal.
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = Args.positive(maxAttempts, "maxAttempts");
+    }
+
+    public long getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    /**
+     * Sets the delay in milliseconds before a message is resent after its first failed attempt.
+     */
+    public void setInitialBackoff(long initialBackoff) {
+        this.initialBackoff = Args.positive(initialBackoff, "initialBackoff");
+    }
+
+    public long getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    /**
+     * Sets the maximum delay in milliseconds before a message is resent.
+     */
+    public void setMaxBackoff(long maxBackoff) {
+        this.maxBackoff = Args.positive(maxBackoff, "maxBackoff");
+    }
+
+    /**
+     * Sets the store matching the MDNs returned for resent messages with the messages sent.
+     *
+     * @param correlationStore - the store, or <code>null</code>.
+     */
+    public void setCorrelationStore(AS2MDNCorrelationStore correlationStore) {
+        this.correlationStore = correlationStore;
+    }
+
+    /**
+     * Sets the listener notified of the outcome of resent messages.
+     *
+     * @param listener - the listener, or <code>null</code>.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return The number of messages waiting to be resent.
+     */
+    public int getPendingCount() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * @return The number of messages accepted by the trading partner.
+     */
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    /**
+     * @return The number of messages queued rather than sent at once.
+     */
+    public long getQueuedCount() {
+        return queuedCount.get();
+    }
+
+    /**
+     * @return The number of failed attempts to resend a message which were rescheduled.
+     */
+    public long getRetriedCount() {
+        return retriedCount.get();
+    }
+
+    /**
+     * @return The number of messages rejected from the journal, including those whose MDN reported a failure.
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Sends a message, queuing it if the trading partner is not available.
+     *
+     * @param request - the message, with its entity set.
+     * @param httpContext - the context holding the send parameters of the message.
+     * @return The response of the trading partner, or <code>null</code> if the message was queued.
+     * @throws HttpException if the AS2 headers of the message can not be created.
+     * @throws IOException if the message can not be written to the journal.
+     */
+    public HttpResponse send(HttpEntityEnclosingRequest request, HttpCoreContext httpContext) throws HttpException, IOException {
+        Args.notNull(request, "request");
+        connection.prepare(request, httpContext);
+        AS2MessageJournal.Entry entry = journal.append(request);
+
+        synchronized (pending) {
+            if (!pending.isEmpty()) {
+                // keep the order of messages to the partner
+                queue(new PendingMessage(entry, 0, System.currentTimeMillis()));
+                return null;
+            }
+        }
+
+        HttpResponse response;
+        try {
+            response = connection.sendPrepared(request, httpContext);
+        } catch (IOException | HttpException e) {
+            LOG.debug("Failed to send message to " + connection.getTargetHost() + ", queuing it: " + e.getMessage(), e);
+            queue(new PendingMessage(entry, 1, System.currentTimeMillis() + getBackoff(1)));
+            return null;
+        }
+        if (isRetryable(response)) {
+            LOG.debug("Message to " + connection.getTargetHost() + " deferred with status " + response.getStatusLine() + ", queuing it");
+            queue(new PendingMessage(entry, 1, System.currentTimeMillis() + getBackoff(1)));
+            return null;
+        }
+        journal.remove(entry);
+        sentCount.incrementAndGet();
+        return response;
+    }
+
+    /**
+     * Starts the dispatcher thread, queuing the messages still in the journal.
+     */
+    public synchronized void start() {
+        if (dispatcherThread != null) {
+            return;
+        }
+        synchronized (pending) {
+            pending.clear();
+            long now = System.currentTimeMillis();
+            for (AS2MessageJournal.Entry entry : journal.getEntries()) {
+                pending.add(new PendingMessage(entry, 0, now));
+            }
+            if (!pending.isEmpty()) {
+                LOG.info("Resending " + pending.size() + " queued messages to " + connection.getTargetHost());
+            }
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatchLoop();
+            }
+        }, DISPATCHER_THREAD_NAME_PREFIX + connection.getTargetHost().toHostString());
+        thread.setDaemon(true);
+        dispatcherThread = thread;
+        thread.start();
+    }
+
+    /**
+     * Stops the dispatcher thread. Queued messages remain in the journal and
+     * are resent on next start.
+     */
+    public synchronized void stop() {
+        Thread thread = dispatcherThread;
+        if (thread == null) {
+            return;
+        }
+        dispatcherThread = null;
+        thread.interrupt();
+        try {
+            thread.join(STOP_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void queue(PendingMessage message) {
+        synchronized (pending) {
+            pending.add(message);
+            pending.notifyAll();
+        }
+        queuedCount.incrementAndGet();
+    }
+
+    private void dispatchLoop() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                PendingMessage message;
+                synchronized (pending) {
+                    message = pending.peek();
+                    if (message == null) {
+                        pending.wait();
+                        continue;
+                    }
+                    long delay = message.dueTime - System.currentTimeMillis();
+                    if (delay > 0) {
+                        pending.wait(delay);
+                        continue;
+                    }
+                }
+                boolean done;
+                try {
+                    done = resend(message);
+                } catch (RuntimeException e) {
+                    // the dispatcher must survive a message it can not handle
+                    LOG.warn("Unexpected error resending message " + message.entry + " to " + connection.getTargetHost(), e);
+                    done = failedAttempt(message, null, null, e.toString());
+                }
+                if (done) {
+                    synchronized (pending) {
+                        pending.poll();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // queue stopped
+        }
+    }
+
+    /**
+     * Resends the message at the head of the queue.
+     *
+     * @return <code>true</code> if the message is done with, <code>false</code> if it is to be resent later.
+     */
+    private boolean resend(PendingMessage message) {
+        String messageId = null;
+        HttpResponse response = null;
+        String failure;
+        try {
+            HttpEntityEnclosingRequest request = journal.read(message.entry);
+            messageId = HttpMessageUtils.getHeaderValue(request, AS2Header.MESSAGE_ID);
+            response = connection.sendPrepared(request, HttpCoreContext.create());
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode < 300) {
+                String mdnFailure = verifyMdn(message.entry, response);
+                if (mdnFailure != null) {
+                    reject(message, messageId, response, mdnFailure);
+                    return true;
+                }
+                journal.remove(message.entry);
+                sentCount.incrementAndGet();
+                LOG.debug("Resent message " + message.entry + " to " + connection.getTargetHost());
+                Listener currentListener = listener;
+                if (currentListener != null) {
+                    try {
+                        currentListener.delivered(messageId, response);
+                    } catch (RuntimeException e) {
+                        LOG.warn("Listener failed on delivery of message " + message.entry, e);
+                    }
+                }
+                return true;
+            }
+            if (!isRetryable(response)) {
+                reject(message, messageId, response, "rejected with status " + response.getStatusLine());
+                return true;
+            }
+            failure = "deferred with status " + response.getStatusLine();
+        } catch (IOException | HttpException e) {
+            failure = e.getMessage();
+        }
+
+        return failedAttempt(message, messageId, response, failure);
+    }
+
+    /**
+     * Reschedules a message after a failed attempt, or rejects it once its attempts are exhausted.
+     *
+     * @return <code>true</code> if the message is done with, <code>false</code> if it is to be resent later.
+     */
+    private boolean failedAttempt(PendingMessage message, String messageId, HttpResponse response, String failure) {
+        message.attempts++;
+        if (message.attempts >= maxAttempts) {
+            reject(message, messageId, response, "not sent after " + message.attempts + " attempts: " + failure);
+            return true;
+        }
+        retriedCount.incrementAndGet();
+        message.dueTime = System.currentTimeMillis() + getBackoff(message.attempts);
+        LOG.debug("Failed to resend message " + message.entry + " to " + connection.getTargetHost() + ": " + failure);
+        return false;
+    }
+
+    /**
+     * Checks the MDN returned in the response to a resent message.
+     *
+     * @return The failure reported by the MDN, or <code>null</code> if it reports the message processed or no MDN was returned.
+     */
+    private String verifyMdn(AS2MessageJournal.Entry entry, HttpResponse response) {
+        AS2MessageDispositionNotificationEntity mdn;
+        try {
+            EntityParser.parseAS2MessageEntity(response);
+            mdn = EntityUtils.getMessageDispositionNotificationEntity(response);
+        } catch (HttpException e) {
+            // delivered but not acknowledged: resending could duplicate the message
+            return "invalid MDN: " + e.getMessage();
+        }
+        if (mdn == null) {
+            return null;
+        }
+        AS2MDNCorrelationStore store = correlationStore;
+        if (store != null) {
+            store.resolve(response);
+        }
+        try {
+            // parsing replaces the entity of the message: the MIC is computed on a fresh copy
+            return MicUtils.verifyMdn(mdn, mdn.getReceivedContentMic() == null ? null : journal.read(entry));
+        } catch (IOException e) {
+            return "failed to verify MIC returned in MDN: " + e.getMessage();
+        }
+    }
+
+    private void reject(PendingMessage message, String messageId, HttpResponse response, String reason) {
+        failedCount.incrementAndGet();
+        LOG.warn("Giving up sending message " + message.entry + " to " + connection.getTargetHost() + ", " + reason);
+        journal.reject(message.entry);
+        Listener currentListener = listener;
+        if (currentListener != null) {
+            try {
+                currentListener.failed(messageId, response, reason);
+            } catch (RuntimeException e) {
+                LOG.warn("Listener failed on failure of message " + message.entry, e);
+            }
+        }
+    }
+
+    /**
+     * @return The delay before the next attempt after <code>attempts</code> failed ones, between half and all of the exponential backoff.
+     */
+    private long getBackoff(int attempts) {
+        long backoff = Math.min(initialBackoff << Math.min(attempts - 1, 30), maxBackoff);
+        // spread the attempts of the senders of a partner which came back
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    private static boolean isRetryable(HttpResponse response) {
+        int statusCode = response.getStatusLine().getStatusCode();
+        return statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR
+                || statusCode == HttpStatus.SC_REQUEST_TIMEOUT
+                || statusCode == 429;
+    }
+}
@@ -0,0 +1,369 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.http.util.Args;
+
+/**
+ * AS2 Partner Scheduler
+ *
+ * <p>
+ * Admits the messages received from trading partners for processing, so
+ * that a partner sending many messages at once can not starve the others.
+ * The number of messages processed at once is limited in total and per
+ * partner, identified by the <code>AS2-From</code> name of its messages.
+ *
+ * <p>
+ * Messages waiting for admission are queued per partner. When capacity is
+ * released, the partners with waiting messages are served in proportion to
+ * their weight (stride scheduling): each admission advances the pass of its
+ * partner by the inverse of the partner's weight, and the partner with the
+ * lowest pass is served next, taken from a priority queue of the partners
+ * with waiting messages and capacity left. A partner becoming active starts at the pass
+ * of the last admission, so an idle partner is served ahead of partners
+ * with a backlog, while those share the remaining capacity by weight.
+ *
+ * <p>
+ * Both limits are disabled by default, in which case every message is
+ * admitted at once without taking the lock of the scheduler. Such messages
+ * count in the total of active messages but not in the active messages of
+ * their partner, nor against limits set while they are processed.
+ */
+public class AS2PartnerScheduler {
+
+    public static final long DEFAULT_ADMISSION_TIMEOUT = 30000;
+    public static final int DEFAULT_WEIGHT = 1;
+
+    /**
+     * The admission of a message, to be released once it is processed.
+     */
+    public final class Permit {
+        private final String name;
+        // null if admitted while both limits were disabled
+        private final Partner partner;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(String name, Partner partner) {
+            this.name = name;
+            this.partner = partner;
+        }
+
+        public String getPartner() {
+            return name;
+        }
+
+        /**
+         * Releases this permit to the scheduler which granted it.
+         */
+        public void release() {
+            AS2PartnerScheduler.this.release(this);
+        }
+    }
+
+    private static final class Partner {
+        private final String name;
+        private final int weight;
+        private final ArrayDeque<Condition> waiters = new ArrayDeque<Condition>();
+        private int active;
+        private double pass;
+        private boolean ready;
+
+        Partner(String name, int weight, double pass) {
+            this.name = name;
+            this.weight = weight;
+            this.pass = pass;
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // the partners with messages being processed or waiting
+    private final Map<String, Partner> partners = new HashMap<String, Partner>();
+    // the partners with waiting messages and capacity left, by lowest pass
+    private final PriorityQueue<Partner> readyPartners = new PriorityQueue<Partner>(11, new Comparator<Partner>() {
+        @Override
+        public int compare(Partner partner1, Partner partner2) {
+            return Double.compare(partner1.pass, partner2.pass);
+        }
+    });
+    private final Map<Condition, Boolean> admitted = new HashMap<Condition, Boolean>();
+    private final Map<String, Integer> weights = new ConcurrentHashMap<String, Integer>();
+    private final AtomicLong admittedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicInteger unscheduledCount = new AtomicInteger();
+
+    private volatile int maxConcurrentRequests;
+    private volatile int maxConcurrentRequestsPerPartner;
+    private volatile long admissionTimeout = DEFAULT_ADMISSION_TIMEOUT;
+    private int activeCount;
+    private int waitingCount;
+    private double virtualTime;
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    /**
+     * Sets the maximum number of messages processed at once.
+     *
+     * @param maxConcurrentRequests - the number of messages, or <code>0</code> for no limit.
+     */
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        this.maxConcurrentRequests = Args.notNegative(maxConcurrentRequests, "maxConcurrentRequests");
+        dispatchLocked();
+    }
+
+    public int getMaxConcurrentRequestsPerPartner() {
+        return maxConcurrentRequestsPerPartner;
+    }
+
+    /**
+     * Sets the maximum number of messages of one partner processed at once.
+     *
+     * @param maxConcurrentRequestsPerPartner - the number of messages, or <code>0</code> for no limit.
+     */
+    public void setMaxConcurrentRequestsPerPartner(int maxConcurrentRequestsPerPartner) {
+        Args.notNegative(maxConcurrentRequestsPerPartner, "maxConcurrentRequestsPerPartner");
+        lock.lock();
+        try {
+            this.maxConcurrentRequestsPerPartner = maxConcurrentRequestsPerPartner;
+            for (Partner partner : partners.values()) {
+                updateReady(partner);
+            }
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getAdmissionTimeout() {
+        return admissionTimeout;
+    }
+
+    /**
+     * Sets the maximum time in milliseconds a message waits for admission.
+     */
+    public void setAdmissionTimeout(long admissionTimeout) {
+        this.admissionTimeout = Args.notNegative(admissionTimeout, "admissionTimeout");
+    }
+
+    /**
+     * Sets the share of capacity of a partner relative to the other partners
+     * with waiting messages. Applies from the next time the partner becomes active.
+     *
+     * @param partner - the <code>AS2-From</code> name of the partner.
+     * @param weight - the weight of the partner.
+     */
+    public void setWeight(String partner, int weight) {
+        weights.put(Args.notNull(partner, "partner"), Args.positive(weight, "weight"));
+    }
+
+    public int getWeight(String partner) {
+        Integer weight = weights.get(partner);
+        return weight == null ? DEFAULT_WEIGHT : weight;
+    }
+
+    /**
+     * Admits a message of a partner, waiting for capacity up to the admission timeout.
+     *
+     * @param partner - the <code>AS2-From</code> name of the partner.
+     * @return The permit of the message, or <code>null</code> if the message was not admitted in time.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public Permit acquire(String partner) throws InterruptedException {
+        Args.notNull(partner, "partner");
+        if (maxConcurrentRequests == 0 && maxConcurrentRequestsPerPartner == 0) {
+            unscheduledCount.incrementAndGet();
+            admittedCount.incrementAndGet();
+            return new Permit(partner, null);
+        }
+        lock.lock();
+        try {
+            Partner state = partners.get(partner);
+            if (state == null) {
+                state = new Partner(partner, getWeight(partner), virtualTime);
+                partners.put(partner, state);
+            }
+            Condition waiter = lock.newCondition();
+            state.waiters.add(waiter);
+            waitingCount++;
+            updateReady(state);
+            dispatch();
+
+            long nanos = TimeUnit.MILLISECONDS.toNanos(admissionTimeout);
+            try {
+                while (admitted.remove(waiter) == null) {
+                    if (nanos <= 0) {
+                        state.waiters.remove(waiter);
+                        waitingCount--;
+                        updateReady(state);
+                        removeIfIdle(state);
+                        rejectedCount.incrementAndGet();
+                        return null;
+                    }
+                    nanos = waiter.awaitNanos(nanos);
+                }
+            } catch (InterruptedException e) {
+                if (admitted.remove(waiter) != null) {
+                    release(new Permit(partner, state));
+                } else {
+                    state.waiters.remove(waiter);
+                    waitingCount--;
+                    updateReady(state);
+                    removeIfIdle(state);
+                }
+                throw e;
+            }
+            return new Permit(partner, state);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases the capacity of a processed message, admitting the next waiting message.
+     * Releasing a permit more than once has no effect.
+     */
+    public void release(Permit permit) {
+        if (!permit.released.compareAndSet(false, true)) {
+            return;
+        }
+        if (permit.partner == null) {
+            unscheduledCount.decrementAndGet();
+            return;
+        }
+        lock.lock();
+        try {
+            permit.partner.active--;
+            activeCount--;
+            updateReady(permit.partner);
+            removeIfIdle(permit.partner);
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of messages being processed.
+     */
+    public int getActiveCount() {
+        lock.lock();
+        try {
+            return activeCount + unscheduledCount.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of messages of a partner being processed, not counting those admitted while both limits were disabled.
+     */
+    public int getActiveCount(String partner) {
+        lock.lock();
+        try {
+            Partner state = partners.get(partner);
+            return state == null ? 0 : state.active;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of messages waiting for admission.
+     */
+    public int getWaitingCount() {
+        lock.lock();
+        try {
+            return waitingCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of messages admitted.
+     */
+    public long getAdmittedCount() {
+        return admittedCount.get();
+    }
+
+    /**
+     * @return The number of messages not admitted within the admission timeout.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    private void dispatchLocked() {
+        lock.lock();
+        try {
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // admits waiting messages while capacity is left, by lowest pass
+    private void dispatch() {
+        final int maxTotal = maxConcurrentRequests;
+        while (!readyPartners.isEmpty() && (maxTotal == 0 || activeCount < maxTotal)) {
+            Partner next = readyPartners.poll();
+            next.ready = false;
+            Condition waiter = next.waiters.poll();
+            waitingCount--;
+            next.active++;
+            activeCount++;
+            virtualTime = next.pass;
+            next.pass += 1.0 / next.weight;
+            admittedCount.incrementAndGet();
+            admitted.put(waiter, Boolean.TRUE);
+            waiter.signal();
+            updateReady(next);
+        }
+    }
+
+    // the pass of a partner only changes while it is out of the queue
+    private void updateReady(Partner partner) {
+        final int maxPerPartner = maxConcurrentRequestsPerPartner;
+        boolean ready = !partner.waiters.isEmpty() && (maxPerPartner == 0 || partner.active < maxPerPartner);
+        if (ready && !partner.ready) {
+            readyPartners.add(partner);
+        } else if (!ready && partner.ready) {
+            readyPartners.remove(partner);
+        }
+        partner.ready = ready;
+    }
+
+    private void removeIfIdle(Partner partner) {
+        if (partner.active == 0 && partner.waiters.isEmpty()) {
+            partners.remove(partner.name);
+        }
+    }
+}
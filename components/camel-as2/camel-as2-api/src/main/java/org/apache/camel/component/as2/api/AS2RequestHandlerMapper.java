@@ -0,0 +1,266 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.camel.component.as2.api.util.HttpMessageUtils;
+import org.apache.http.HttpRequest;
+import org.apache.http.protocol.HttpRequestHandler;
+import org.apache.http.protocol.HttpRequestHandlerMapper;
+import org.apache.http.util.Args;
+
+/**
+ * AS2 Request Handler Mapper
+ *
+ * <p>
+ * Maps received AS2 messages to the handler registered for their request URI
+ * and their <code>AS2-To</code> and <code>AS2-From</code> names, so that the
+ * messages of many trading partners or flows may be received on one port.
+ *
+ * <p>
+ * A message is mapped to the handler registered with both its names, else
+ * with its <code>AS2-To</code> name only, else with its <code>AS2-From</code>
+ * name only, else without names. Request URI patterns may start or end with
+ * <code>*</code> as for {@link org.apache.http.protocol.UriPatternMatcher};
+ * handlers registered for an exact request URI are found with hash lookups,
+ * patterns are only matched for messages not mapped by their exact request
+ * URI. Handlers may be registered and unregistered while messages are mapped:
+ * lookups do not lock, registrations are serialized.
+ */
+public class AS2RequestHandlerMapper implements HttpRequestHandlerMapper {
+
+    private static final String ANY_NAME = "";
+    private static final char KEY_SEPARATOR = '\n';
+    private static final String WILDCARD = "*";
+
+    /**
+     * The handlers registered for a request URI pattern, indexed by AS2-To and AS2-From names.
+     */
+    private static final class Route {
+        private final ConcurrentMap<String, HttpRequestHandler> handlers = new ConcurrentHashMap<String, HttpRequestHandler>();
+
+        HttpRequestHandler lookup(String as2To, String as2From) {
+            HttpRequestHandler handler = null;
+            if (as2To != null) {
+                if (as2From != null) {
+                    handler = handlers.get(key(as2To, as2From));
+                }
+                if (handler == null) {
+                    handler = handlers.get(key(as2To, ANY_NAME));
+                }
+            }
+            if (handler == null && as2From != null) {
+                handler = handlers.get(key(ANY_NAME, as2From));
+            }
+            if (handler == null) {
+                handler = handlers.get(key(ANY_NAME, ANY_NAME));
+            }
+            return handler;
+        }
+    }
+
+    private final ConcurrentMap<String, Route> exactRoutes = new ConcurrentHashMap<String, Route>();
+    private final ConcurrentMap<String, Route> patternRoutes = new ConcurrentHashMap<String, Route>();
+    private final Set<HttpRequestHandler> retainingHandlers = Collections.newSetFromMap(new ConcurrentHashMap<HttpRequestHandler, Boolean>());
+
+    /**
+     * Registers a handler for the messages sent to a request URI pattern.
+     *
+     * @param requestUriPattern - the request URI pattern.
+     * @param handler - the handler.
+     */
+    public void register(String requestUriPattern, HttpRequestHandler handler) {
+        register(requestUriPattern, null, null, handler);
+    }
+
+    /**
+     * Registers a handler for the messages sent to a request URI pattern by a trading partner.
+     *
+     * @param requestUriPattern - the request URI pattern.
+     * @param as2To - the <code>AS2-To</code> name of the messages, or <code>null</code> for any name.
+     * @param as2From - the <code>AS2-From</code> name of the messages, or <code>null</code> for any name.
+     * @param handler - the handler.
+     * @throws IllegalArgumentException if another handler is registered for the request URI pattern and names.
+     */
+    public void register(String requestUriPattern, String as2To, String as2From, HttpRequestHandler handler) {
+        Args.notNull(requestUriPattern, "Request URI pattern");
+        Args.notNull(handler, "Handler");
+        ConcurrentMap<String, Route> routes = isPattern(requestUriPattern) ? patternRoutes : exactRoutes;
+        synchronized (this) {
+            Route route = routes.get(requestUriPattern);
+            if (route == null) {
+                route = new Route();
+                routes.put(requestUriPattern, route);
+            }
+            HttpRequestHandler registered = route.handlers.putIfAbsent(key(as2To, as2From), handler);
+            if (registered != null && registered != handler) {
+                throw new IllegalArgumentException("A handler is already registered for '" + requestUriPattern
+                        + "' with AS2-To " + as2To + " and AS2-From " + as2From);
+            }
+        }
+    }
+
+    /**
+     * Unregisters the handler registered for a request URI pattern without names.
+     *
+     * @param requestUriPattern - the request URI pattern.
+     */
+    public void unregister(String requestUriPattern) {
+        unregister(requestUriPattern, null, null);
+    }
+
+    /**
+     * Unregisters the handler registered for a request URI pattern and names.
+     *
+     * @param requestUriPattern - the request URI pattern.
+     * @param as2To - the <code>AS2-To</code> name the handler was registered with.
+     * @param as2From - the <code>AS2-From</code> name the handler was registered with.
+     */
+    public void unregister(String requestUriPattern, String as2To, String as2From) {
+        unregister(requestUriPattern, as2To, as2From, null);
+    }
+
+    /**
+     * Unregisters a handler registered for a request URI pattern and names.
+     * Another handler registered since for the same pattern and names is
+     * kept.
+     *
+     * @param requestUriPattern - the request URI pattern.
+     * @param as2To - the <code>AS2-To</code> name the handler was registered with.
+     * @param as2From - the <code>AS2-From</code> name the handler was registered with.
+     * @param handler - the handler, or <code>null</code> for any handler.
+     */
+    public void unregister(String requestUriPattern, String as2To, String as2From, HttpRequestHandler handler) {
+        if (requestUriPattern == null) {
+            return;
+        }
+        ConcurrentMap<String, Route> routes = isPattern(requestUriPattern) ? patternRoutes : exactRoutes;
+        synchronized (this) {
+            // emptiness is checked under the lock of registrations, which could otherwise add to a removed route
+            Route route = routes.get(requestUriPattern);
+            if (route != null) {
+                if (handler == null) {
+                    route.handlers.remove(key(as2To, as2From));
+                } else {
+                    route.handlers.remove(key(as2To, as2From), handler);
+                }
+                if (route.handlers.isEmpty()) {
+                    routes.remove(requestUriPattern);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets whether the bodies of the messages mapped to a handler are kept as
+     * received, for handlers storing messages.
+     *
+     * @param handler - the handler.
+     * @param retainRequestBodies - <code>true</code> to keep the bodies of its messages.
+     */
+    public void setRetainRequestBodies(HttpRequestHandler handler, boolean retainRequestBodies) {
+        Args.notNull(handler, "Handler");
+        if (retainRequestBodies) {
+            retainingHandlers.add(handler);
+        } else {
+            retainingHandlers.remove(handler);
+        }
+    }
+
+    /**
+     * @return Whether the body of a message is to be kept as received for the handler it is mapped to.
+     */
+    public boolean isRequestBodyRetained(HttpRequest request) {
+        if (retainingHandlers.isEmpty()) {
+            return false;
+        }
+        HttpRequestHandler handler = lookup(request);
+        return handler != null && retainingHandlers.contains(handler);
+    }
+
+    @Override
+    public HttpRequestHandler lookup(HttpRequest request) {
+        Args.notNull(request, "HTTP request");
+        return lookup(getRequestPath(request), HttpMessageUtils.getHeaderValue(request, AS2Header.AS2_TO),
+                HttpMessageUtils.getHeaderValue(request, AS2Header.AS2_FROM));
+    }
+
+    /**
+     * Looks up the handler of a message.
+     *
+     * @param requestPath - the request URI of the message without query.
+     * @param as2To - the <code>AS2-To</code> name of the message.
+     * @param as2From - the <code>AS2-From</code> name of the message.
+     * @return The handler or <code>null</code> if no handler is registered for the message.
+     */
+    public HttpRequestHandler lookup(String requestPath, String as2To, String as2From) {
+        Route route = exactRoutes.get(requestPath);
+        if (route != null) {
+            HttpRequestHandler handler = route.lookup(as2To, as2From);
+            if (handler != null) {
+                return handler;
+            }
+        }
+        if (patternRoutes.isEmpty()) {
+            return null;
+        }
+        // as for UriPatternMatcher the longest matching pattern wins
+        HttpRequestHandler handler = null;
+        String bestPattern = null;
+        for (Map.Entry<String, Route> entry : patternRoutes.entrySet()) {
+            String pattern = entry.getKey();
+            if (matchUriPattern(pattern, requestPath) && (bestPattern == null || bestPattern.length() < pattern.length())) {
+                HttpRequestHandler candidate = entry.getValue().lookup(as2To, as2From);
+                if (candidate != null) {
+                    handler = candidate;
+                    bestPattern = pattern;
+                }
+            }
+        }
+        return handler;
+    }
+
+    private static String key(String as2To, String as2From) {
+        return (as2To == null ? ANY_NAME : as2To) + KEY_SEPARATOR + (as2From == null ? ANY_NAME : as2From);
+    }
+
+    private static boolean isPattern(String requestUriPattern) {
+        return requestUriPattern.startsWith(WILDCARD) || requestUriPattern.endsWith(WILDCARD);
+    }
+
+    private static boolean matchUriPattern(String pattern, String path) {
+        if (pattern.equals(WILDCARD)) {
+            return true;
+        }
+        return pattern.endsWith(WILDCARD) && path.startsWith(pattern.substring(0, pattern.length() - 1))
+                || pattern.startsWith(WILDCARD) && path.endsWith(pattern.substring(1));
+    }
+
+    private static String getRequestPath(HttpRequest request) {
+        String uri = request.getRequestLine().getUri();
+        int index = uri.indexOf('?');
+        if (index == -1) {
+            index = uri.indexOf('#');
+        }
+        return index == -1 ? uri : uri.substring(0, index);
+    }
+}
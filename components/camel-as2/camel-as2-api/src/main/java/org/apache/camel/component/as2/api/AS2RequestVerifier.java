@@ -0,0 +1,495 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.camel.component.as2.api.util.HttpMessageUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.protocol.HttpExpectationVerifier;
+import org.apache.http.protocol.HttpRequestHandler;
+import org.apache.http.util.Args;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * AS2 Request Verifier
+ *
+ * <p>
+ * Verifies the headers of a received AS2 message before its body is read.
+ * Clients sending <code>Expect: 100-continue</code>, as {@link AS2ClientConnection}
+ * does, only send the body of a message once it is verified, so a rejected
+ * message is never transferred.
+ *
+ * <p>
+ * A message is rejected with:
+ * <ul>
+ * <li>400 (Bad Request) if its <code>AS2-From</code> or <code>AS2-To</code> name is missing or invalid;</li>
+ * <li>404 (Not Found) if no handler is registered for it;</li>
+ * <li>413 (Request Entity Too Large) if its <code>Content-Length</code> exceeds the maximum content length,
+ * or, for a body of unknown length, once the server connection has read more than the maximum content length;</li>
+ * <li>409 (Conflict) if payloads of duplicate messages are matched and a message with the same <code>Message-Id</code>
+ * but a different payload was accepted;</li>
+ * </ul>
+ * or by its handler, if the handler is an {@link HttpExpectationVerifier}, for
+ * instance when the handler has no capacity left.
+ *
+ * <p>
+ * A verified message is then admitted for processing by the {@link AS2PartnerScheduler}
+ * of its lane, and rejected with 503 (Service Unavailable) if not admitted
+ * in time. Messages whose <code>Content-Length</code> reaches the large message
+ * threshold, or whose length is unknown, use the large message lane, so that
+ * small messages are not held up behind large transfers. The admission is held
+ * until released with {@link #releaseAdmission(HttpContext)} once the message
+ * is processed.
+ *
+ * <p>
+ * If given an {@link AS2MessageIdIndex}, the verifier records the response
+ * to accepted messages when registered as response interceptor after the
+ * interceptor adding the MDN, and answers a message with the <code>Message-Id</code>
+ * of an accepted one with the recorded response, without processing it again.
+ * Duplicates are recognized by their <code>Message-Id</code> before their body
+ * is read, or, if payloads are matched, once the body is received with
+ * {@link #answerDuplicate(HttpRequest, HttpResponse, HttpContext)}.
+ * The <code>Message-Id</code> of a message is reserved until it is answered:
+ * a duplicate received meanwhile is rejected with 503 (Service Unavailable)
+ * and resent by its sender once the original is recorded. Responses with a
+ * negative MDN are not recorded, so that a duplicate is processed again.
+ */
+public class AS2RequestVerifier implements HttpExpectationVerifier, HttpResponseInterceptor {
+
+    public static final int DEFAULT_MAX_TRACKED_MESSAGE_IDS = 10000;
+    public static final int DEFAULT_RETRY_AFTER = 5;
+
+    private static final Logger LOG = LoggerFactory.getLogger(AS2RequestVerifier.class);
+
+    private static final String ADMISSION_PERMIT = "camel-as2.server.admission-permit";
+    private static final String MESSAGE_ID_RESERVATION = "camel-as2.server.message-id-reservation";
+
+    // not recorded in the response: set by the connection for each response
+    private static final String[] TRANSIENT_HEADERS = {AS2Header.CONTENT_LENGTH, HTTP.TRANSFER_ENCODING,
+        HTTP.DATE_HEADER, HTTP.SERVER_HEADER, HTTP.CONN_DIRECTIVE, HTTP.CONN_KEEP_ALIVE};
+
+    private final AS2RequestHandlerMapper handlerMapper;
+    private final AS2PartnerScheduler partnerScheduler = new AS2PartnerScheduler();
+    private final AS2PartnerScheduler largeMessageScheduler = new AS2PartnerScheduler();
+    private volatile long largeMessageThreshold = -1;
+    private volatile int retryAfter = DEFAULT_RETRY_AFTER;
+    private volatile long maxContentLength = -1;
+    private volatile AS2MessageIdIndex messageIdIndex;
+    private volatile boolean matchDuplicatePayload;
+    private final AtomicLong duplicateCount = new AtomicLong();
+    private final ConcurrentMap<String, Boolean> reservedMessageIds = new ConcurrentHashMap<String, Boolean>();
+
+    public AS2RequestVerifier(AS2RequestHandlerMapper handlerMapper) {
+        this.handlerMapper = Args.notNull(handlerMapper, "handlerMapper");
+    }
+
+    public long getMaxContentLength() {
+        return maxContentLength;
+    }
+
+    /**
+     * Sets the maximum length of the body of received messages.
+     *
+     * @param maxContentLength - the maximum length in bytes, or a negative value for no limit.
+     */
+    public void setMaxContentLength(long maxContentLength) {
+        this.maxContentLength = maxContentLength;
+    }
+
+    public int getMaxTrackedMessageIds() {
+        AS2MessageIdIndex index = messageIdIndex;
+        return index == null ? 0 : index.getMaxEntries();
+    }
+
+    /**
+     * Sets the number of accepted message ids tracked in memory to answer duplicate messages.
+     *
+     * @param maxTrackedMessageIds - the number of message ids, or <code>0</code> to process duplicate messages.
+     */
+    public void setMaxTrackedMessageIds(int maxTrackedMessageIds) {
+        Args.notNegative(maxTrackedMessageIds, "maxTrackedMessageIds");
+        setMessageIdIndex(maxTrackedMessageIds == 0 ? null
+                : new AS2MessageIdIndex(maxTrackedMessageIds, AS2MessageIdIndex.DEFAULT_TIME_TO_LIVE, null));
+    }
+
+    public AS2MessageIdIndex getMessageIdIndex() {
+        return messageIdIndex;
+    }
+
+    /**
+     * Sets the index of accepted messages used to answer duplicate messages.
+     *
+     * @param messageIdIndex - the index, or <code>null</code> to process duplicate messages.
+     */
+    public void setMessageIdIndex(AS2MessageIdIndex messageIdIndex) {
+        this.messageIdIndex = messageIdIndex;
+    }
+
+    public boolean isMatchDuplicatePayload() {
+        return matchDuplicatePayload;
+    }
+
+    /**
+     * Sets whether a duplicate message is only answered with the recorded
+     * response if its payload is the one of the accepted message, and rejected
+     * otherwise. Payloads are compared once the body of the message is received.
+     */
+    public void setMatchDuplicatePayload(boolean matchDuplicatePayload) {
+        this.matchDuplicatePayload = matchDuplicatePayload;
+    }
+
+    /**
+     * @return The number of duplicate messages answered with the recorded response.
+     */
+    public long getDuplicateCount() {
+        return duplicateCount.get();
+    }
+
+    /**
+     * @return The scheduler admitting verified messages for processing, or small messages if lanes are enabled.
+     */
+    public AS2PartnerScheduler getPartnerScheduler() {
+        return partnerScheduler;
+    }
+
+    /**
+     * @return The scheduler admitting large messages for processing.
+     */
+    public AS2PartnerScheduler getLargeMessageScheduler() {
+        return largeMessageScheduler;
+    }
+
+    public long getLargeMessageThreshold() {
+        return largeMessageThreshold;
+    }
+
+    /**
+     * Sets the length from which messages are processed in the large message lane.
+     *
+     * @param largeMessageThreshold - the length in bytes, or a negative value to process all messages in one lane.
+     */
+    public void setLargeMessageThreshold(long largeMessageThreshold) {
+        this.largeMessageThreshold = largeMessageThreshold;
+    }
+
+    /**
+     * Determines if a message is processed in the large message lane.
+     */
+    public boolean isLargeMessage(HttpRequest request) {
+        if (largeMessageThreshold < 0 || !(request instanceof HttpEntityEnclosingRequest)) {
+            return false;
+        }
+        long contentLength = getContentLength(request);
+        return contentLength < 0 || contentLength >= largeMessageThreshold;
+    }
+
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Sets the delay in seconds after which partners are asked to resend messages not admitted for processing.
+     */
+    public void setRetryAfter(int retryAfter) {
+        this.retryAfter = Args.notNegative(retryAfter, "retryAfter");
+    }
+
+    @Override
+    public void verify(HttpRequest request, HttpResponse response, HttpContext context) throws HttpException {
+        String as2From = HttpMessageUtils.getHeaderValue(request, AS2Header.AS2_FROM);
+        String as2To = HttpMessageUtils.getHeaderValue(request, AS2Header.AS2_TO);
+        if (!isValidAS2Name(as2From) || !isValidAS2Name(as2To)) {
+            reject(request, response, HttpStatus.SC_BAD_REQUEST, "missing or invalid AS2 names");
+            return;
+        }
+
+        HttpRequestHandler handler = handlerMapper.lookup(request);
+        if (handler == null) {
+            reject(request, response, HttpStatus.SC_NOT_FOUND, "no handler for " + as2From + " to " + as2To);
+            return;
+        }
+
+        long contentLength = getContentLength(request);
+        if (maxContentLength >= 0 && contentLength > maxContentLength) {
+            reject(request, response, HttpStatus.SC_REQUEST_TOO_LONG, "content length " + contentLength + " exceeds " + maxContentLength);
+            return;
+        }
+
+        AS2MessageIdIndex index = messageIdIndex;
+        if (index != null && !matchDuplicatePayload) {
+            String messageId = HttpMessageUtils.getHeaderValue(request, AS2Header.MESSAGE_ID);
+            if (!reserve(as2From, messageId, request, response, context)) {
+                return;
+            }
+            // looked up once reserved: the response to the original is recorded before its reservation is released
+            AS2MessageIdIndex.Record record = index.get(as2From, messageId);
+            if (record != null) {
+                releaseReservation(context);
+                replay(request, response, context, record);
+                return;
+            }
+        }
+
+        if (handler instanceof HttpExpectationVerifier) {
+            ((HttpExpectationVerifier) handler).verify(request, response, context);
+            if (response.getStatusLine().getStatusCode() >= HttpStatus.SC_MULTIPLE_CHOICES) {
+                return;
+            }
+        }
+
+        admit(as2From, request, response, context);
+    }
+
+    private void admit(String as2From, HttpRequest request, HttpResponse response, HttpContext context) {
+        AS2PartnerScheduler scheduler = isLargeMessage(request) ? largeMessageScheduler : partnerScheduler;
+        AS2PartnerScheduler.Permit permit;
+        try {
+            permit = scheduler.acquire(as2From);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            permit = null;
+        }
+        if (permit == null) {
+            reject(request, response, HttpStatus.SC_SERVICE_UNAVAILABLE, "no capacity left for " + as2From);
+            response.setHeader(HttpHeaders.RETRY_AFTER, Integer.toString(retryAfter));
+            return;
+        }
+        context.setAttribute(ADMISSION_PERMIT, permit);
+    }
+
+    /**
+     * Reserves the <code>Message-Id</code> of a message until it is answered,
+     * and rejects the message with 503 (Service Unavailable) if a message with
+     * the same <code>Message-Id</code> is being processed.
+     *
+     * @return <code>true</code> if reserved.
+     */
+    private boolean reserve(String as2From, String messageId, HttpRequest request, HttpResponse response, HttpContext context) {
+        if (messageId == null) {
+            return true;
+        }
+        // header values do not contain line breaks
+        String key = as2From + '\n' + messageId;
+        if (reservedMessageIds.putIfAbsent(key, Boolean.TRUE) != null) {
+            reject(request, response, HttpStatus.SC_SERVICE_UNAVAILABLE, "message id " + messageId + " is being processed");
+            response.setHeader(HttpHeaders.RETRY_AFTER, Integer.toString(retryAfter));
+            return false;
+        }
+        context.setAttribute(MESSAGE_ID_RESERVATION, key);
+        return true;
+    }
+
+    private void releaseReservation(HttpContext context) {
+        Object key = context.removeAttribute(MESSAGE_ID_RESERVATION);
+        if (key != null) {
+            reservedMessageIds.remove(key);
+        }
+    }
+
+    /**
+     * Releases the admission of the message received in a context, and the
+     * reservation of its <code>Message-Id</code> if it was not answered, if any.
+     */
+    public void releaseAdmission(HttpContext context) {
+        Object permit = context.getAttribute(ADMISSION_PERMIT);
+        if (permit != null) {
+            context.removeAttribute(ADMISSION_PERMIT);
+            ((AS2PartnerScheduler.Permit) permit).release();
+        }
+        releaseReservation(context);
+    }
+
+    /**
+     * Answers a received message if it is a duplicate: either already answered
+     * when verified, or, if payloads are matched, a message with the <code>Message-Id</code>
+     * of an accepted one, answered with the recorded response if its payload is the
+     * same and rejected with 409 (Conflict) otherwise, or a message with the
+     * <code>Message-Id</code> of one being processed, rejected with 503 (Service Unavailable).
+     *
+     * @return <code>true</code> if the message was answered and is not to be processed.
+     * @throws IOException if the payload of the message can not be read.
+     */
+    public boolean answerDuplicate(HttpRequest request, HttpResponse response, HttpContext context) throws IOException {
+        if (context.getAttribute(AS2ServerManager.DUPLICATE_MESSAGE) != null) {
+            return true;
+        }
+        AS2MessageIdIndex index = messageIdIndex;
+        if (index == null || !matchDuplicatePayload) {
+            return false;
+        }
+        String as2From = HttpMessageUtils.getHeaderValue(request, AS2Header.AS2_FROM);
+        String messageId = HttpMessageUtils.getHeaderValue(request, AS2Header.MESSAGE_ID);
+        if (!reserve(as2From, messageId, request, response, context)) {
+            return true;
+        }
+        AS2MessageIdIndex.Record record = index.get(as2From, messageId);
+        if (record == null) {
+            return false;
+        }
+        releaseReservation(context);
+        if (record.getPayloadDigest() != AS2MessageIdIndex.digest(getEntity(request))) {
+            reject(request, response, HttpStatus.SC_CONFLICT, "message id " + messageId + " reused for a different payload");
+            return true;
+        }
+        replay(request, response, context, record);
+        return true;
+    }
+
+    /**
+     * Records the response to an accepted message, and releases the reservation
+     * of its <code>Message-Id</code>.
+     */
+    @Override
+    public void process(HttpResponse response, HttpContext context) throws HttpException, IOException {
+        // the context is shared by the requests of a connection: reset for the next request
+        if (context.removeAttribute(AS2ServerManager.DUPLICATE_MESSAGE) != null) {
+            return;
+        }
+        try {
+            record(response, context);
+        } finally {
+            releaseReservation(context);
+        }
+    }
+
+    private void record(HttpResponse response, HttpContext context) throws IOException {
+        AS2MessageIdIndex index = messageIdIndex;
+        int statusCode = response.getStatusLine().getStatusCode();
+        if (index == null || statusCode < 200 || statusCode >= 300) {
+            return;
+        }
+        // a negative MDN is also sent with 200 (OK): the message was not accepted
+        if (context.getAttribute(AS2ServerManager.DISPOSITION_MODIFIER) != null) {
+            return;
+        }
+        HttpRequest request = HttpCoreContext.adapt(context).getRequest();
+        String messageId = request == null ? null : HttpMessageUtils.getHeaderValue(request, AS2Header.MESSAGE_ID);
+        if (messageId == null) {
+            return;
+        }
+        List<Header> headers = new ArrayList<Header>();
+        for (Header header : response.getAllHeaders()) {
+            if (!isTransientHeader(header.getName())) {
+                headers.add(header);
+            }
+        }
+        byte[] receipt = null;
+        if (response.getEntity() != null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            response.getEntity().writeTo(out);
+            receipt = out.toByteArray();
+        }
+        long payloadDigest = matchDuplicatePayload ? AS2MessageIdIndex.digest(getEntity(request)) : 0;
+        index.put(HttpMessageUtils.getHeaderValue(request, AS2Header.AS2_FROM), messageId, new AS2MessageIdIndex.Record(
+                System.currentTimeMillis(), payloadDigest, statusCode, headers.toArray(new Header[headers.size()]), receipt));
+    }
+
+    /**
+     * Answers a duplicate message with the response recorded for the accepted one.
+     */
+    private void replay(HttpRequest request, HttpResponse response, HttpContext context, AS2MessageIdIndex.Record record) {
+        LOG.debug("Answering duplicate message " + HttpMessageUtils.getHeaderValue(request, AS2Header.MESSAGE_ID) + " with recorded response");
+        duplicateCount.incrementAndGet();
+        response.setStatusCode(record.getStatusCode());
+        for (Header header : record.getHeaders()) {
+            response.addHeader(header);
+        }
+        byte[] receipt = record.getReceipt();
+        if (receipt != null) {
+            ByteArrayEntity entity = new ByteArrayEntity(receipt);
+            entity.setContentType(response.getFirstHeader(AS2Header.CONTENT_TYPE));
+            response.setEntity(entity);
+        }
+        // the MDN interceptor does not add a new receipt to a recorded response
+        context.setAttribute(AS2ServerManager.DUPLICATE_MESSAGE, Boolean.TRUE);
+        if (isExpectingContinue(request)) {
+            // the body of the request does not follow
+            response.setHeader(HTTP.CONN_DIRECTIVE, HTTP.CONN_CLOSE);
+        }
+    }
+
+    /**
+     * Determines if a request is verified before its body is received.
+     */
+    public static boolean isExpectingContinue(HttpRequest request) {
+        return request instanceof HttpEntityEnclosingRequest && ((HttpEntityEnclosingRequest) request).expectContinue();
+    }
+
+    private static void reject(HttpRequest request, HttpResponse response, int statusCode, String reason) {
+        LOG.debug("Rejecting " + request.getRequestLine() + ": " + reason);
+        response.setStatusCode(statusCode);
+        // the body of the request may not follow: do not reuse the connection
+        response.setHeader(HTTP.CONN_DIRECTIVE, HTTP.CONN_CLOSE);
+    }
+
+    private static boolean isTransientHeader(String name) {
+        for (String transientHeader : TRANSIENT_HEADERS) {
+            if (transientHeader.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static HttpEntity getEntity(HttpRequest request) {
+        return request instanceof HttpEntityEnclosingRequest ? ((HttpEntityEnclosingRequest) request).getEntity() : null;
+    }
+
+    private static boolean isValidAS2Name(String name) {
+        if (name == null) {
+            return false;
+        }
+        try {
+            Util.validateAS2Name(name);
+            return true;
+        } catch (InvalidAS2NameException e) {
+            return false;
+        }
+    }
+
+    private static long getContentLength(HttpRequest request) {
+        Header header = request.getFirstHeader(AS2Header.CONTENT_LENGTH);
+        if (header == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(header.getValue().trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
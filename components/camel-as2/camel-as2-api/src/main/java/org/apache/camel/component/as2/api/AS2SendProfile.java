@@ -0,0 +1,250 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.camel.component.as2.api.protocol.RequestMDN;
+import org.apache.camel.component.as2.api.util.MicUtils;
+import org.apache.camel.component.as2.api.util.SigningUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpException;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.util.Args;
+
+/**
+ * AS2 Send Profile
+ *
+ * <p>
+ * An immutable set of the parameters used to send EDI messages to a trading
+ * partner. The profile validates its parameters once when created and
+ * prepares the headers and signing setup shared by every message sent with
+ * it, so that each message only carries its payload and <code>Message-Id</code>.
+ */
+public class AS2SendProfile {
+
+    private final String requestUri;
+    private final String subject;
+    private final String from;
+    private final String as2From;
+    private final String as2To;
+    private final AS2MessageStructure as2MessageStructure;
+    private final ContentType ediMessageContentType;
+    private final String ediMessageTransferEncoding;
+    private final Certificate[] signingCertificateChain;
+    private final PrivateKey signingPrivateKey;
+    private final String dispositionNotificationTo;
+    private final String[] signedReceiptMicAlgorithms;
+
+    private final Header[] as2Headers;
+    private final Header[] mdnHeaders;
+    private final String micJdkAlgorithmName;
+    private final ThreadLocal<AS2SignedDataGenerator> signingGenerator;
+
+    public AS2SendProfile(String requestUri,
+                          String subject,
+                          String from,
+                          String as2From,
+                          String as2To,
+                          AS2MessageStructure as2MessageStructure,
+                          ContentType ediMessageContentType,
+                          String ediMessageTransferEncoding,
+                          Certificate[] signingCertificateChain,
+                          PrivateKey signingPrivateKey,
+                          String dispositionNotificationTo,
+                          String[] signedReceiptMicAlgorithms)
+            throws HttpException {
+        this.requestUri = Args.notNull(requestUri, "Request URI");
+        this.subject = subject;
+        this.from = from;
+        this.as2From = validateAS2Name(as2From, "AS-From");
+        this.as2To = validateAS2Name(as2To, "AS-To");
+        this.as2MessageStructure = Args.notNull(as2MessageStructure, "AS2 Message Structure");
+        this.ediMessageContentType = Args.notNull(ediMessageContentType, "EDI Message Content Type");
+        this.ediMessageTransferEncoding = ediMessageTransferEncoding;
+        // copied: a caller modifying its arrays must not change a cached profile
+        this.signingCertificateChain = signingCertificateChain == null ? null : signingCertificateChain.clone();
+        this.signingPrivateKey = signingPrivateKey;
+        this.dispositionNotificationTo = dispositionNotificationTo;
+        this.signedReceiptMicAlgorithms = signedReceiptMicAlgorithms == null ? null : signedReceiptMicAlgorithms.clone();
+
+        List<Header> headers = new ArrayList<Header>();
+        if (subject != null) {
+            headers.add(new BasicHeader(AS2Header.SUBJECT, subject));
+        }
+        if (from != null) {
+            headers.add(new BasicHeader(AS2Header.FROM, from));
+        }
+        headers.add(new BasicHeader(AS2Header.AS2_FROM, this.as2From));
+        headers.add(new BasicHeader(AS2Header.AS2_TO, this.as2To));
+        this.as2Headers = headers.toArray(new Header[headers.size()]);
+
+        headers.clear();
+        if (dispositionNotificationTo != null) {
+            headers.add(new BasicHeader(AS2Header.DISPOSITION_NOTIFICATION_TO, dispositionNotificationTo));
+            if (this.signedReceiptMicAlgorithms != null) {
+                headers.add(new BasicHeader(AS2Header.DISPOSITION_NOTIFICATION_OPTIONS,
+                        RequestMDN.createDispositionNotificationOptions(this.signedReceiptMicAlgorithms)));
+            }
+            this.micJdkAlgorithmName = MicUtils.getMicJdkAlgorithmName(this.signedReceiptMicAlgorithms);
+        } else {
+            this.micJdkAlgorithmName = null;
+        }
+        this.mdnHeaders = headers.toArray(new Header[headers.size()]);
+
+        if (as2MessageStructure == AS2MessageStructure.SIGNED) {
+            if (this.signingCertificateChain == null) {
+                throw new HttpException("Signing certificate chain missing");
+            }
+            if (signingPrivateKey == null) {
+                throw new HttpException("Signing private key missing");
+            }
+            this.signingGenerator = SigningUtils.createThreadLocalSigningGenerator(this.signingCertificateChain, signingPrivateKey);
+        } else {
+            this.signingGenerator = null;
+        }
+    }
+
+    static String validateAS2Name(String name, String headerName) throws HttpException {
+        if (name == null) {
+            throw new HttpException("Missing " + headerName + " name");
+        }
+        try {
+            Util.validateAS2Name(name);
+        } catch (InvalidAS2NameException e) {
+            throw new HttpException("Invalid " + headerName + " name", e);
+        }
+        return name;
+    }
+
+    /**
+     * Determines if this profile was created with the given parameters.
+     *
+     * @return <code>true</code> if messages sent with the given parameters may be sent with this profile.
+     */
+    public boolean matches(String requestUri,
+                           String subject,
+                           String from,
+                           String as2From,
+                           String as2To,
+                           AS2MessageStructure as2MessageStructure,
+                           ContentType ediMessageContentType,
+                           String ediMessageTransferEncoding,
+                           Certificate[] signingCertificateChain,
+                           PrivateKey signingPrivateKey,
+                           String dispositionNotificationTo,
+                           String[] signedReceiptMicAlgorithms) {
+        return equals(this.requestUri, requestUri)
+                && equals(this.subject, subject)
+                && equals(this.from, from)
+                && equals(this.as2From, as2From)
+                && equals(this.as2To, as2To)
+                && this.as2MessageStructure == as2MessageStructure
+                && (this.ediMessageContentType == ediMessageContentType
+                    || ediMessageContentType != null && this.ediMessageContentType.toString().equals(ediMessageContentType.toString()))
+                && equals(this.ediMessageTransferEncoding, ediMessageTransferEncoding)
+                && Arrays.equals(this.signingCertificateChain, signingCertificateChain)
+                && equals(this.signingPrivateKey, signingPrivateKey)
+                && equals(this.dispositionNotificationTo, dispositionNotificationTo)
+                && Arrays.equals(this.signedReceiptMicAlgorithms, signedReceiptMicAlgorithms);
+    }
+
+    private static boolean equals(Object a, Object b) {
+        return a == b || a != null && a.equals(b);
+    }
+
+    public String getRequestUri() {
+        return requestUri;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    public String getAs2From() {
+        return as2From;
+    }
+
+    public String getAs2To() {
+        return as2To;
+    }
+
+    public AS2MessageStructure getAs2MessageStructure() {
+        return as2MessageStructure;
+    }
+
+    public ContentType getEdiMessageContentType() {
+        return ediMessageContentType;
+    }
+
+    public String getEdiMessageTransferEncoding() {
+        return ediMessageTransferEncoding;
+    }
+
+    public Certificate[] getSigningCertificateChain() {
+        return signingCertificateChain == null ? null : signingCertificateChain.clone();
+    }
+
+    public PrivateKey getSigningPrivateKey() {
+        return signingPrivateKey;
+    }
+
+    public String getDispositionNotificationTo() {
+        return dispositionNotificationTo;
+    }
+
+    public String[] getSignedReceiptMicAlgorithms() {
+        return signedReceiptMicAlgorithms == null ? null : signedReceiptMicAlgorithms.clone();
+    }
+
+    /**
+     * @return The <code>Subject</code>, <code>From</code>, <code>AS2-From</code> and <code>AS2-To</code> headers of messages sent with this profile.
+     */
+    public Header[] getAS2Headers() {
+        return as2Headers.clone();
+    }
+
+    /**
+     * @return The headers requesting an MDN for messages sent with this profile.
+     */
+    public Header[] getMDNHeaders() {
+        return mdnHeaders.clone();
+    }
+
+    /**
+     * @return The JDK name of the algorithm used to compute the MIC of sent messages, or <code>null</code> if no MDN is requested.
+     */
+    public String getMicJdkAlgorithmName() {
+        return micJdkAlgorithmName;
+    }
+
+    /**
+     * @return The signing generator prepared for the calling thread, or <code>null</code> if messages are not signed.
+     */
+    public AS2SignedDataGenerator getSigningGenerator() {
+        return signingGenerator == null ? null : signingGenerator.get();
+    }
+}
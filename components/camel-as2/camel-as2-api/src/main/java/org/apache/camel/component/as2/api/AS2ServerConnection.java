@@ -16,22 +16,34 @@
  */
 package org.apache.camel.component.as2.api;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.security.PrivateKey;
 import java.security.cert.Certificate;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.apache.camel.component.as2.api.io.AS2BHttpServerConnection;
 import org.apache.camel.component.as2.api.protocol.ResponseMDN;
 import org.apache.http.ConnectionClosedException;
+import org.apache.http.ContentTooLongException;
 import org.apache.http.HttpException;
-import org.apache.http.HttpInetConnection;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
 import org.apache.http.HttpResponseInterceptor;
-import org.apache.http.HttpServerConnection;
+import org.apache.http.HttpStatus;
+import org.apache.http.config.SocketConfig;
 import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HTTP;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.protocol.HttpProcessor;
 import org.apache.http.protocol.HttpRequestHandler;
@@ -41,7 +53,6 @@ import org.apache.http.protocol.ResponseConnControl;
 import org.apache.http.protocol.ResponseContent;
 import org.apache.http.protocol.ResponseDate;
 import org.apache.http.protocol.ResponseServer;
-import org.apache.http.protocol.UriHttpRequestHandlerMapper;
 import org.apache.http.util.Args;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -52,105 +63,438 @@ public class AS2ServerConnection {
 
     private static final String REQUEST_LISTENER_THREAD_NAME_PREFIX = "AS2Svr-";
     private static final String REQUEST_HANDLER_THREAD_NAME_PREFIX = "AS2Hdlr-";
+    private static final String CONNECTION_REAPER_THREAD_NAME_PREFIX = "AS2Reaper-";
     
+    /**
+     * The reasons for which the server closes connections.
+     */
+    public enum CloseReason {
+        /** The client closed the connection. */
+        CLIENT_CLOSED,
+        /** No request arrived within the idle timeout. */
+        IDLE_TIMEOUT,
+        /** A request was not received within the socket timeout or the request read timeout. */
+        READ_TIMEOUT,
+        /** The connection served the maximum number of keep-alive requests. */
+        KEEP_ALIVE_LIMIT,
+        /** A response did not allow the connection to be kept alive. */
+        NOT_REUSABLE,
+        /** An I/O error or protocol violation occurred on the connection. */
+        ERROR,
+        /** The server was closed while the connection was idle or once its request was answered. */
+        SHUTDOWN,
+        /** The server was closed before the request of the connection was answered. */
+        ABORTED
+    }
+
+    public static final int DEFAULT_SOCKET_TIMEOUT = 30000;
+    public static final int DEFAULT_IDLE_TIMEOUT = 60000;
+    public static final int DEFAULT_REQUEST_READ_TIMEOUT = 300000;
+    public static final int DEFAULT_MAX_KEEP_ALIVE_REQUESTS = 100;
+
+    private static final String LAST_KEEP_ALIVE_REQUEST = "camel-as2.server.last-keep-alive-request";
+    private static final long REAPER_INTERVAL = 1000;
+    private static final long DRAIN_POLL_INTERVAL = 100;
+
     static class RequestListenerThread extends Thread {
 
         private final ServerSocket serversocket;
+        private final SocketConfig socketConfig;
+        private final int acceptorCount;
+        private final AS2TlsSettings tlsSettings;
         private final HttpService httpService;
-        private UriHttpRequestHandlerMapper reqistry;
+        private final AS2RequestHandlerMapper reqistry;
+        private final AS2RequestVerifier requestVerifier;
+        private final Set<RequestHandlerThread> handlerThreads = Collections.newSetFromMap(new ConcurrentHashMap<RequestHandlerThread, Boolean>());
+        private final AtomicLongArray closedConnectionCounts = new AtomicLongArray(CloseReason.values().length);
+        private final AtomicInteger inFlightRequests = new AtomicInteger();
+        private volatile boolean draining;
+
+        private volatile int socketTimeout = DEFAULT_SOCKET_TIMEOUT;
+        private volatile int idleTimeout = DEFAULT_IDLE_TIMEOUT;
+        private volatile int requestReadTimeout = DEFAULT_REQUEST_READ_TIMEOUT;
+        private volatile int maxKeepAliveRequests = DEFAULT_MAX_KEEP_ALIVE_REQUESTS;
+        private volatile File spillDirectory;
+        private volatile AS2MessageArchive archive;
+        private volatile AS2WireCapture wireCapture;
 
-        public RequestListenerThread(String as2Version, String originServer, String serverFqdn, int port, Certificate[] signingCertificateChain, PrivateKey signingPrivateKey) throws IOException {
+        public RequestListenerThread(String as2Version, String originServer, String serverFqdn, int port, Certificate[] signingCertificateChain, PrivateKey signingPrivateKey, AS2AsyncMDNDispatcher asyncMDNDispatcher, AS2TradingPartnerRegistry tradingPartnerRegistry, SocketConfig socketConfig, int acceptorCount, AS2TlsSettings tlsSettings) throws IOException {
             setName(REQUEST_LISTENER_THREAD_NAME_PREFIX + port);
-            serversocket = new ServerSocket(port);
+            this.socketConfig = socketConfig;
+            this.acceptorCount = acceptorCount;
+            this.tlsSettings = tlsSettings;
+            if (socketConfig.getSoTimeout() > 0) {
+                socketTimeout = socketConfig.getSoTimeout();
+            }
+
+            // options inherited by accepted sockets must be set before binding
+            serversocket = tlsSettings == null ? new ServerSocket() : tlsSettings.createServerSocket();
+            serversocket.setReuseAddress(socketConfig.isSoReuseAddress());
+            if (socketConfig.getRcvBufSize() > 0) {
+                serversocket.setReceiveBufferSize(socketConfig.getRcvBufSize());
+            }
+            serversocket.bind(new InetSocketAddress(port), socketConfig.getBacklogSize());
+
+            reqistry = new AS2RequestHandlerMapper();
+            requestVerifier = new AS2RequestVerifier(reqistry);
 
             // Set up HTTP protocol processor for incoming connections
             final HttpProcessor inhttpproc = new ImmutableHttpProcessor(new HttpResponseInterceptor[] {
             new ResponseContent(true),
             new ResponseServer(originServer),
             new ResponseDate(),
+            new HttpResponseInterceptor() {
+                @Override
+                public void process(HttpResponse response, HttpContext context) throws HttpException, IOException {
+                    // close connections which served their last keep-alive request
+                    if (draining || context.getAttribute(LAST_KEEP_ALIVE_REQUEST) != null) {
+                        response.setHeader(HTTP.CONN_DIRECTIVE, HTTP.CONN_CLOSE);
+                    }
+                }
+            },
             new ResponseConnControl(),
-            new ResponseMDN(as2Version, serverFqdn, signingCertificateChain, signingPrivateKey)
+            new ResponseMDN(as2Version, serverFqdn, signingCertificateChain, signingPrivateKey, asyncMDNDispatcher, tradingPartnerRegistry),
+            // records the response with its MDN
+            requestVerifier
             });
 
-            reqistry = new UriHttpRequestHandlerMapper();
+            // Set up the HTTP service: messages expecting to continue are
+            // verified before their body is sent, other messages once received.
+            httpService = new HttpService(inhttpproc, null, null, reqistry, requestVerifier) {
+                @Override
+                protected void doService(HttpRequest request, HttpResponse response, HttpContext context) throws HttpException, IOException {
+                    if (!AS2RequestVerifier.isExpectingContinue(request)) {
+                        requestVerifier.verify(request, response, context);
+                        if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+                            return;
+                        }
+                    }
+                    if (requestVerifier.answerDuplicate(request, response, context)) {
+                        return;
+                    }
+                    super.doService(request, response, context);
+                }
 
-            // Set up the HTTP service
-            httpService = new HttpService(inhttpproc, reqistry);
+                @Override
+                protected void handleException(HttpException ex, HttpResponse response) {
+                    super.handleException(ex, response);
+                    if (ex.getCause() instanceof ContentTooLongException) {
+                        // the rest of the body is not read: the connection is closed
+                        response.setStatusCode(HttpStatus.SC_REQUEST_TOO_LONG);
+                    }
+                }
+            };
         }
 
         @Override
         public void run() {
             LOG.info("Listening on port " + this.serversocket.getLocalPort());
+            final Thread reaper = new ConnectionReaperThread(this);
+            reaper.setDaemon(true);
+            reaper.start();
+
+            // additional acceptors share the server socket to drain its accept queue faster
+            for (int i = 1; i < acceptorCount; i++) {
+                final Thread acceptor = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        acceptConnections();
+                    }
+                }, getName() + "-" + i);
+                acceptor.setDaemon(true);
+                acceptor.start();
+            }
+
+            try {
+                acceptConnections();
+            } finally {
+                reaper.interrupt();
+            }
+        }
+
+        void acceptConnections() {
             while (!Thread.interrupted()) {
+                Socket insocket = null;
                 try {
                     final int bufsize = 8 * 1024;
                     // Set up incoming HTTP connection
-                    final Socket insocket = this.serversocket.accept();
+                    insocket = this.serversocket.accept();
+                    configureSocket(insocket);
                     final AS2BHttpServerConnection inconn = new AS2BHttpServerConnection(bufsize);
-                    LOG.info("Incoming connection from " + insocket.getInetAddress());
+                    // bodies of large messages are spilled to disk as they arrive
+                    inconn.setSpillThreshold(requestVerifier.getLargeMessageThreshold(), spillDirectory);
+                    // bodies of unknown length are limited as they arrive
+                    inconn.setMaxContentLength(requestVerifier.getMaxContentLength());
+                    inconn.setArchive(archive);
+                    inconn.setWireCapture(wireCapture);
+                    inconn.setHandlerMapper(reqistry);
+                    LOG.debug("Incoming connection from " + insocket.getInetAddress());
                     inconn.bind(insocket);
 
                     // Start worker thread
-                    final Thread t = new RequestHandlerThread(this.httpService, inconn);
+                    final RequestHandlerThread t = new RequestHandlerThread(this, inconn);
                     t.setDaemon(true);
+                    handlerThreads.add(t);
                     t.start();
+                    // the worker thread closes the socket from now on
+                    insocket = null;
                 } catch (final InterruptedIOException ex) {
                     break;
                 } catch (final SocketException e) {
-                    // Server socket closed
-                    break;
+                    if (serversocket.isClosed()) {
+                        // Server socket closed
+                        break;
+                    }
+                    // the accepted socket failed: keep accepting other connections
+                    LOG.debug("Failed to configure incoming connection: " + e.getMessage());
                 } catch (final IOException e) {
                     LOG.error("I/O error initialising connection thread: " + e.getMessage());
                     break;
+                } finally {
+                    closeQuietly(insocket);
                 }
             }
         }
+
+        private void closeQuietly(Socket socket) {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    LOG.debug("Failed to close incoming connection: " + e.getMessage());
+                }
+            }
+        }
+
+        private void configureSocket(Socket socket) throws IOException {
+            socket.setSoTimeout(socketTimeout);
+            socket.setTcpNoDelay(socketConfig.isTcpNoDelay());
+            socket.setKeepAlive(socketConfig.isSoKeepAlive());
+            if (socketConfig.getSndBufSize() > 0) {
+                socket.setSendBufferSize(socketConfig.getSndBufSize());
+            }
+            if (socketConfig.getSoLinger() >= 0) {
+                socket.setSoLinger(true, socketConfig.getSoLinger());
+            }
+            if (tlsSettings != null) {
+                tlsSettings.configureAcceptedSocket(socket);
+            }
+        }
         
-        void registerHandler(String requestUriPattern, HttpRequestHandler httpRequestHandler) {
-            reqistry.register(requestUriPattern, httpRequestHandler);
+        void registerHandler(String requestUriPattern, String as2To, String as2From, HttpRequestHandler httpRequestHandler) {
+            reqistry.register(requestUriPattern, as2To, as2From, httpRequestHandler);
         }
         
-        void unregisterHandler(String requestUri) {
-            reqistry.unregister(requestUri);
+        void unregisterHandler(String requestUriPattern, String as2To, String as2From, HttpRequestHandler httpRequestHandler) {
+            reqistry.unregister(requestUriPattern, as2To, as2From, httpRequestHandler);
+        }
+
+        /**
+         * Lets the requests being processed finish, closing idle connections.
+         *
+         * @param timeout - the maximum time in milliseconds to wait for requests being processed.
+         * @return The number of requests aborted because they were not answered within the timeout.
+         */
+        int drain(long timeout) {
+            draining = true;
+            final long deadline = System.currentTimeMillis() + timeout;
+            while (true) {
+                for (RequestHandlerThread handlerThread : handlerThreads) {
+                    handlerThread.closeIfIdle();
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (handlerThreads.isEmpty() || remaining <= 0) {
+                    break;
+                }
+                try {
+                    Thread.sleep(Math.min(DRAIN_POLL_INTERVAL, remaining));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+
+            int aborted = 0;
+            for (RequestHandlerThread handlerThread : handlerThreads) {
+                if (!handlerThread.closeIfIdle()) {
+                    LOG.warn("Aborting request in progress on connection " + handlerThread.serverConnection);
+                    handlerThread.abort(CloseReason.ABORTED);
+                    aborted++;
+                }
+            }
+            return aborted;
+        }
+
+        void connectionClosed(CloseReason reason) {
+            closedConnectionCounts.incrementAndGet(reason.ordinal());
+        }
+
+        /**
+         * Closes the connections which have not received their current request
+         * within the request read timeout.
+         */
+        void reapSlowConnections() {
+            final int timeout = requestReadTimeout;
+            if (timeout <= 0) {
+                return;
+            }
+            final long now = System.currentTimeMillis();
+            for (RequestHandlerThread handlerThread : handlerThreads) {
+                long readStartTime = handlerThread.serverConnection.getRequestReadStartTime();
+                if (readStartTime != 0 && now - readStartTime > timeout) {
+                    handlerThread.abort(CloseReason.READ_TIMEOUT);
+                }
+            }
         }
 
     }
 
-    static class RequestHandlerThread extends Thread {
-        private HttpService httpService;
-        private HttpServerConnection serverConnection;
+    static class ConnectionReaperThread extends Thread {
+        private final RequestListenerThread listenerThread;
 
-        public RequestHandlerThread(HttpService httpService, HttpServerConnection serverConnection) {
-            if (serverConnection instanceof HttpInetConnection) {
-                HttpInetConnection inetConnection = (HttpInetConnection) serverConnection;
-                setName(REQUEST_HANDLER_THREAD_NAME_PREFIX + inetConnection.getLocalPort());
-            } else {
-                setName(REQUEST_HANDLER_THREAD_NAME_PREFIX + getId());
+        ConnectionReaperThread(RequestListenerThread listenerThread) {
+            setName(CONNECTION_REAPER_THREAD_NAME_PREFIX + listenerThread.serversocket.getLocalPort());
+            this.listenerThread = listenerThread;
+        }
+
+        @Override
+        public void run() {
+            while (!Thread.interrupted()) {
+                try {
+                    Thread.sleep(REAPER_INTERVAL);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                listenerThread.reapSlowConnections();
             }
-            this.httpService = httpService;
+        }
+    }
+
+    static class RequestHandlerThread extends Thread {
+        private final RequestListenerThread listenerThread;
+        private final HttpService httpService;
+        private final AS2BHttpServerConnection serverConnection;
+        private volatile CloseReason abortReason;
+        private boolean inFlight;
+
+        public RequestHandlerThread(RequestListenerThread listenerThread, AS2BHttpServerConnection serverConnection) {
+            setName(REQUEST_HANDLER_THREAD_NAME_PREFIX + serverConnection.getLocalPort());
+            this.listenerThread = listenerThread;
+            this.httpService = listenerThread.httpService;
             this.serverConnection = serverConnection;
         }
 
+        void abort(CloseReason reason) {
+            abortReason = reason;
+            try {
+                serverConnection.shutdown();
+            } catch (IOException e) {
+                LOG.debug(e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Closes the connection if it is not processing a request.
+         *
+         * @return <code>true</code> if the connection is closed.
+         */
+        synchronized boolean closeIfIdle() {
+            if (inFlight) {
+                return false;
+            }
+            if (abortReason == null) {
+                abort(CloseReason.SHUTDOWN);
+            }
+            return true;
+        }
+
+        private synchronized boolean beginRequest() {
+            if (abortReason != null) {
+                return false;
+            }
+            inFlight = true;
+            listenerThread.inFlightRequests.incrementAndGet();
+            return true;
+        }
+
+        private synchronized void endRequest() {
+            inFlight = false;
+            listenerThread.inFlightRequests.decrementAndGet();
+        }
+
         @Override
         public void run() {
-            LOG.info("Processing new AS2 request");
+            LOG.debug("Processing new AS2 request");
             final HttpContext context = new BasicHttpContext(null);
 
+            CloseReason reason = CloseReason.ERROR;
             try {
+                int requestCount = 0;
                 while (!Thread.interrupted()) {
+                    if (listenerThread.draining) {
+                        reason = CloseReason.SHUTDOWN;
+                        break;
+                    }
+                    try {
+                        if (!this.serverConnection.awaitRequest(listenerThread.idleTimeout)) {
+                            reason = CloseReason.CLIENT_CLOSED;
+                            break;
+                        }
+                    } catch (final SocketTimeoutException ex) {
+                        reason = CloseReason.IDLE_TIMEOUT;
+                        break;
+                    }
 
-                    this.httpService.handleRequest(this.serverConnection, context);
+                    if (!beginRequest()) {
+                        // closed by a shutdown as the request arrived
+                        break;
+                    }
+                    try {
+                        final int maxRequests = listenerThread.maxKeepAliveRequests;
+                        final boolean lastRequest = maxRequests > 0 && ++requestCount >= maxRequests;
+                        if (lastRequest) {
+                            context.setAttribute(LAST_KEEP_ALIVE_REQUEST, Boolean.TRUE);
+                        }
 
+                        this.httpService.handleRequest(this.serverConnection, context);
+
+                        if (listenerThread.draining) {
+                            reason = CloseReason.SHUTDOWN;
+                            break;
+                        }
+                        if (lastRequest || !this.serverConnection.isOpen()) {
+                            reason = lastRequest ? CloseReason.KEEP_ALIVE_LIMIT : CloseReason.NOT_REUSABLE;
+                            break;
+                        }
+                    } finally {
+                        listenerThread.requestVerifier.releaseAdmission(context);
+                        this.serverConnection.discardSpilledEntity();
+                        endRequest();
+                    }
                 }
             } catch (final ConnectionClosedException ex) {
-                LOG.info("Client closed connection");
+                reason = CloseReason.CLIENT_CLOSED;
+                LOG.debug("Client closed connection");
+            } catch (final SocketTimeoutException ex) {
+                reason = CloseReason.READ_TIMEOUT;
+                LOG.info("Timed out receiving request: " + ex.getMessage());
             } catch (final IOException ex) {
                 LOG.error("I/O error: " + ex.getMessage());
             } catch (final HttpException ex) {
                 LOG.error("Unrecoverable HTTP protocol violation: " + ex.getMessage());
             } finally {
+                listenerThread.handlerThreads.remove(this);
+                this.serverConnection.discardSpilledEntity();
+                if (abortReason != null) {
+                    reason = abortReason;
+                }
+                listenerThread.connectionClosed(reason);
                 try {
-                    this.serverConnection.shutdown();
+                    if (reason == CloseReason.ERROR) {
+                        this.serverConnection.shutdown();
+                    } else {
+                        this.serverConnection.close();
+                    }
                 } catch (final IOException ignore) {
                 }
             }
@@ -158,13 +502,19 @@ public class AS2ServerConnection {
         
     }
     
-    private RequestListenerThread listenerThread;
+    private volatile RequestListenerThread listenerThread;
     private String as2Version;
     private String originServer;
     private String serverFqdn;
     private Integer serverPortNumber;
     private Certificate[] signingCertificateChain;
     private PrivateKey signingPrivateKey;
+    private AS2AsyncMDNDispatcher asyncMDNDispatcher;
+    private AS2TradingPartnerRegistry tradingPartnerRegistry;
+    private SocketConfig socketConfig;
+    private int acceptorCount;
+    private AS2TlsSettings tlsSettings;
+    private boolean started;
 
     public AS2ServerConnection(String as2Version,
                                String originServer,
@@ -173,19 +523,335 @@ public class AS2ServerConnection {
                                Certificate[] signingCertificateChain,
                                PrivateKey signingPrivateKey)
             throws IOException {
+        this(as2Version, originServer, serverFqdn, serverPortNumber, signingCertificateChain, signingPrivateKey,
+                new AS2AsyncMDNDispatcher(Args.notNull(originServer, "userAgent"), null));
+    }
+
+    public AS2ServerConnection(String as2Version,
+                               String originServer,
+                               String serverFqdn,
+                               Integer serverPortNumber,
+                               Certificate[] signingCertificateChain,
+                               PrivateKey signingPrivateKey,
+                               AS2AsyncMDNDispatcher asyncMDNDispatcher)
+            throws IOException {
+        this(as2Version, originServer, serverFqdn, serverPortNumber, signingCertificateChain, signingPrivateKey,
+                asyncMDNDispatcher, new AS2TradingPartnerRegistry());
+    }
+
+    public AS2ServerConnection(String as2Version,
+                               String originServer,
+                               String serverFqdn,
+                               Integer serverPortNumber,
+                               Certificate[] signingCertificateChain,
+                               PrivateKey signingPrivateKey,
+                               AS2AsyncMDNDispatcher asyncMDNDispatcher,
+                               AS2TradingPartnerRegistry tradingPartnerRegistry)
+            throws IOException {
+        this(as2Version, originServer, serverFqdn, serverPortNumber, signingCertificateChain, signingPrivateKey,
+                asyncMDNDispatcher, tradingPartnerRegistry, SocketConfig.DEFAULT, 1);
+    }
+
+    /**
+     * Creates a server connection listening on a port.
+     *
+     * @param socketConfig - the options of the server socket and of the sockets it accepts:
+     *        its backlog size and receive buffer size apply to the server socket.
+     * @param acceptorCount - the number of threads accepting connections on the server socket.
+     */
+    public AS2ServerConnection(String as2Version,
+                               String originServer,
+                               String serverFqdn,
+                               Integer serverPortNumber,
+                               Certificate[] signingCertificateChain,
+                               PrivateKey signingPrivateKey,
+                               AS2AsyncMDNDispatcher asyncMDNDispatcher,
+                               AS2TradingPartnerRegistry tradingPartnerRegistry,
+                               SocketConfig socketConfig,
+                               int acceptorCount)
+            throws IOException {
+        this(as2Version, originServer, serverFqdn, serverPortNumber, signingCertificateChain, signingPrivateKey,
+                asyncMDNDispatcher, tradingPartnerRegistry, socketConfig, acceptorCount, null);
+    }
+
+    /**
+     * Creates a server connection listening on a port for HTTPS requests.
+     *
+     * @param tlsSettings - the settings of the HTTPS transport, or <code>null</code> to listen for HTTP requests.
+     */
+    public AS2ServerConnection(String as2Version,
+                               String originServer,
+                               String serverFqdn,
+                               Integer serverPortNumber,
+                               Certificate[] signingCertificateChain,
+                               PrivateKey signingPrivateKey,
+                               AS2AsyncMDNDispatcher asyncMDNDispatcher,
+                               AS2TradingPartnerRegistry tradingPartnerRegistry,
+                               SocketConfig socketConfig,
+                               int acceptorCount,
+                               AS2TlsSettings tlsSettings)
+            throws IOException {
+        this(as2Version, originServer, serverFqdn, serverPortNumber, signingCertificateChain, signingPrivateKey,
+                asyncMDNDispatcher, tradingPartnerRegistry, socketConfig, acceptorCount, tlsSettings, true);
+    }
+
+    /**
+     * Creates a server connection bound to a port, which accepts connections
+     * once started, so that it is configured before serving any request.
+     *
+     * @param start - whether to start accepting connections, else once {@link #start()} is called.
+     */
+    public AS2ServerConnection(String as2Version,
+                               String originServer,
+                               String serverFqdn,
+                               Integer serverPortNumber,
+                               Certificate[] signingCertificateChain,
+                               PrivateKey signingPrivateKey,
+                               AS2AsyncMDNDispatcher asyncMDNDispatcher,
+                               AS2TradingPartnerRegistry tradingPartnerRegistry,
+                               SocketConfig socketConfig,
+                               int acceptorCount,
+                               AS2TlsSettings tlsSettings,
+                               boolean start)
+            throws IOException {
         this.as2Version = Args.notNull(as2Version, "as2Version");
         this.originServer = Args.notNull(originServer, "userAgent");
         this.serverFqdn = Args.notNull(serverFqdn, "serverFqdn");
         this.serverPortNumber = Args.notNull(serverPortNumber, "serverPortNumber");
         this.signingCertificateChain = signingCertificateChain;
         this.signingPrivateKey = signingPrivateKey;
+        this.asyncMDNDispatcher = asyncMDNDispatcher;
+        this.tradingPartnerRegistry = Args.notNull(tradingPartnerRegistry, "tradingPartnerRegistry");
+        this.socketConfig = Args.notNull(socketConfig, "socketConfig");
+        this.acceptorCount = Args.positive(acceptorCount, "acceptorCount");
+        this.tlsSettings = tlsSettings;
 
-        listenerThread = new RequestListenerThread(this.as2Version, this.originServer, this.serverFqdn, this.serverPortNumber, this.signingCertificateChain, this.signingPrivateKey);
+        listenerThread = new RequestListenerThread(this.as2Version, this.originServer, this.serverFqdn, this.serverPortNumber, this.signingCertificateChain, this.signingPrivateKey, this.asyncMDNDispatcher, this.tradingPartnerRegistry, this.socketConfig, this.acceptorCount, this.tlsSettings);
         listenerThread.setDaemon(true);
-        listenerThread.start();
+        if (start) {
+            start();
+        }
     }
-    
+
+    /**
+     * Starts accepting connections, if not started yet.
+     */
+    public synchronized void start() {
+        RequestListenerThread thread = listenerThread;
+        if (started || thread == null) {
+            return;
+        }
+        started = true;
+        thread.start();
+
+        if (asyncMDNDispatcher != null && asyncMDNDispatcher.getQueueDirectory() != null) {
+            // deliver any receipts left pending by a previous run
+            asyncMDNDispatcher.start();
+        }
+    }
+
+
+    public AS2AsyncMDNDispatcher getAsyncMDNDispatcher() {
+        return asyncMDNDispatcher;
+    }
+
+    /**
+     * @return The verifier of the headers of messages received by this connection.
+     */
+    public AS2RequestVerifier getRequestVerifier() {
+        RequestListenerThread thread = listenerThread;
+        return thread == null ? null : thread.requestVerifier;
+    }
+
+    /**
+     * @return The settings of the HTTPS transport of this connection, or <code>null</code> if it listens for HTTP requests.
+     */
+    public AS2TlsSettings getTlsSettings() {
+        return tlsSettings;
+    }
+
+    /**
+     * @return The trading partners known to this connection.
+     */
+    public AS2TradingPartnerRegistry getTradingPartnerRegistry() {
+        return tradingPartnerRegistry;
+    }
+
+    /**
+     * Sets the maximum time to wait for data while a request is being received.
+     *
+     * @param socketTimeout - the timeout in milliseconds, or <code>0</code> to wait indefinitely.
+     */
+    public void setSocketTimeout(int socketTimeout) {
+        RequestListenerThread thread = listenerThread;
+        if (thread != null) {
+            thread.socketTimeout = Args.notNegative(socketTimeout, "socketTimeout");
+        }
+    }
+
+    /**
+     * Sets the maximum time a kept alive connection may wait for its next request.
+     *
+     * @param idleTimeout - the timeout in milliseconds, or <code>0</code> to keep idle connections indefinitely.
+     */
+    public void setIdleTimeout(int idleTimeout) {
+        RequestListenerThread thread = listenerThread;
+        if (thread != null) {
+            thread.idleTimeout = Args.notNegative(idleTimeout, "idleTimeout");
+        }
+    }
+
+    /**
+     * Sets the maximum time to receive the headers and body of a request,
+     * which protects the server against clients sending requests slowly.
+     *
+     * @param requestReadTimeout - the timeout in milliseconds, or <code>0</code> for no limit.
+     */
+    public void setRequestReadTimeout(int requestReadTimeout) {
+        RequestListenerThread thread = listenerThread;
+        if (thread != null) {
+            thread.requestReadTimeout = Args.notNegative(requestReadTimeout, "requestReadTimeout");
+        }
+    }
+
+    /**
+     * Sets the maximum number of requests served by a kept alive connection.
+     *
+     * @param maxKeepAliveRequests - the number of requests, or <code>0</code> for no limit.
+     */
+    public void setMaxKeepAliveRequests(int maxKeepAliveRequests) {
+        RequestListenerThread thread = listenerThread;
+        if (thread != null) {
+            thread.maxKeepAliveRequests = Args.notNegative(maxKeepAliveRequests, "maxKeepAliveRequests");
+        }
+    }
+
+    /**
+     * Sets the directory of the temporary files holding the bodies of large
+     * messages, see {@link AS2RequestVerifier#setLargeMessageThreshold(long)}.
+     *
+     * @param spillDirectory - the directory, or <code>null</code> for the default temporary directory.
+     */
+    public void setSpillDirectory(File spillDirectory) {
+        RequestListenerThread thread = listenerThread;
+        if (thread != null) {
+            thread.spillDirectory = spillDirectory;
+        }
+    }
+
+    /**
+     * Sets the archive keeping the messages received by this server and the
+     * MDNs it sends, synchronously or through its asynchronous MDN dispatcher.
+     * Applies to the connections accepted afterwards: set before the
+     * connection is started to apply to all.
+     *
+     * @param archive - the archive, or <code>null</code> to not archive messages.
+     */
+    public void setArchive(AS2MessageArchive archive) {
+        RequestListenerThread thread = listenerThread;
+        if (thread != null) {
+            thread.archive = archive;
+        }
+        if (asyncMDNDispatcher != null) {
+            asyncMDNDispatcher.setArchive(archive);
+        }
+    }
+
+    /**
+     * Sets the capture keeping the last messages received by this server and
+     * the responses it sends. Applies to the connections accepted afterwards:
+     * set before the connection is started to apply to all.
+     *
+     * @param wireCapture - the capture, or <code>null</code> to not capture messages.
+     */
+    public void setWireCapture(AS2WireCapture wireCapture) {
+        RequestListenerThread thread = listenerThread;
+        if (thread != null) {
+            thread.wireCapture = wireCapture;
+        }
+    }
+
+    /**
+     * Sets whether the bodies of the requests mapped to a handler are kept as
+     * received, for handlers storing messages, see
+     * {@link AS2BHttpServerConnection#getRequestBody()}. Other handlers
+     * sharing this connection are not affected.
+     *
+     * @param handler - the handler.
+     * @param retainRequestBodies - <code>true</code> to keep the bodies of its requests.
+     */
+    public void setRetainRequestBodies(HttpRequestHandler handler, boolean retainRequestBodies) {
+        RequestListenerThread thread = listenerThread;
+        if (thread != null) {
+            thread.reqistry.setRetainRequestBodies(handler, retainRequestBodies);
+        }
+    }
+
+    /**
+     * @return The number of connections this server closed for the given reason.
+     */
+    public long getClosedConnectionCount(CloseReason reason) {
+        RequestListenerThread thread = listenerThread;
+        return thread == null ? 0 : thread.closedConnectionCounts.get(reason.ordinal());
+    }
+
+    /**
+     * @return The number of connections currently open to this server.
+     */
+    public int getOpenConnectionCount() {
+        RequestListenerThread thread = listenerThread;
+        return thread == null ? 0 : thread.handlerThreads.size();
+    }
+
+    /**
+     * @return The number of requests currently processed by this server.
+     */
+    public int getInFlightRequestCount() {
+        RequestListenerThread thread = listenerThread;
+        return thread == null ? 0 : thread.inFlightRequests.get();
+    }
+
+    /**
+     * Closes this connection, letting the requests being processed finish.
+     *
+     * <p>The connection stops accepting connections and closes its idle
+     * connections. Requests being processed are answered with a
+     * <code>Connection: close</code> header, and their connection closed
+     * once answered. Requests not answered within the drain timeout are
+     * aborted.
+     *
+     * @param drainTimeout - the maximum time in milliseconds to wait for the requests being processed.
+     * @return The number of requests aborted.
+     */
+    public int close(long drainTimeout) {
+        Args.notNegative(drainTimeout, "drainTimeout");
+        RequestListenerThread thread = listenerThread;
+        int aborted = 0;
+        if (thread != null) {
+            try {
+                thread.serversocket.close();
+            } catch (IOException e) {
+                LOG.debug(e.getMessage(), e);
+            }
+            LOG.info("Draining " + thread.inFlightRequests.get() + " requests on port " + serverPortNumber);
+            aborted = thread.drain(drainTimeout);
+            if (aborted > 0) {
+                LOG.warn("Aborted " + aborted + " requests not answered within " + drainTimeout + " ms on port " + serverPortNumber);
+            }
+        }
+        close();
+        return aborted;
+    }
+
+    /**
+     * Closes this connection, which stops accepting connections. Connections
+     * already accepted are served until closed by their client or by the
+     * server limits.
+     */
     public void close() {
+        if (asyncMDNDispatcher != null) {
+            asyncMDNDispatcher.stop();
+        }
         if (listenerThread != null) {
             synchronized (listenerThread) {
                 try {
@@ -193,6 +859,10 @@ public class AS2ServerConnection {
                 } catch (IOException e) {
                     LOG.debug(e.getMessage(), e);
                 } finally {
+                    AS2MessageIdIndex messageIdIndex = listenerThread.requestVerifier.getMessageIdIndex();
+                    if (messageIdIndex != null) {
+                        messageIdIndex.close();
+                    }
                     listenerThread = null;
                 }
             }
@@ -200,17 +870,46 @@ public class AS2ServerConnection {
     }
 
     public void listen(String requestUri, HttpRequestHandler handler) throws IOException {
-        if (listenerThread != null) {
-            synchronized (listenerThread) {
-                listenerThread.registerHandler(requestUri, handler);
-            }
+        listen(requestUri, null, null, handler);
+    }
+
+    /**
+     * Registers a handler for the messages sent to a request URI pattern by a trading partner.
+     *
+     * @param requestUriPattern - the request URI pattern.
+     * @param as2To - the <code>AS2-To</code> name of the messages, or <code>null</code> for any name.
+     * @param as2From - the <code>AS2-From</code> name of the messages, or <code>null</code> for any name.
+     * @param handler - the handler.
+     * @throws IllegalArgumentException if another handler is registered for the request URI pattern and names.
+     */
+    public void listen(String requestUriPattern, String as2To, String as2From, HttpRequestHandler handler) throws IOException {
+        RequestListenerThread thread = listenerThread;
+        if (thread != null) {
+            thread.registerHandler(requestUriPattern, as2To, as2From, handler);
         }
     }
     
     public void stopListening(String requestUri) {
-        
-        if (listenerThread != null) {
-            listenerThread.unregisterHandler(requestUri);
+        stopListening(requestUri, null, null);
+    }
+
+    public void stopListening(String requestUriPattern, String as2To, String as2From) {
+        stopListening(requestUriPattern, as2To, as2From, null);
+    }
+
+    /**
+     * Unregisters a handler registered by {@link #listen(String, String, String, HttpRequestHandler)},
+     * unless another handler was registered since for the same pattern and names.
+     *
+     * @param requestUriPattern - the request URI pattern.
+     * @param as2To - the <code>AS2-To</code> name the handler was registered with.
+     * @param as2From - the <code>AS2-From</code> name the handler was registered with.
+     * @param handler - the handler, or <code>null</code> for any handler.
+     */
+    public void stopListening(String requestUriPattern, String as2To, String as2From, HttpRequestHandler handler) {
+        RequestListenerThread thread = listenerThread;
+        if (thread != null) {
+            thread.unregisterHandler(requestUriPattern, as2To, as2From, handler);
         }
     }
 
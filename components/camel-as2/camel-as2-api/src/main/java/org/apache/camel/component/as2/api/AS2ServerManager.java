@@ -56,6 +56,58 @@ public class AS2ServerManager {
      */
     public static final String FROM = CAMEL_AS2_SERVER_PREFIX + "from";
 
+    /**
+     * The HTTP Context Attribute containing the correlation of a received MDN
+     * with the sent message it acknowledges.
+     */
+    public static final String MDN_CORRELATION = CAMEL_AS2_SERVER_PREFIX + "mdn-correlation";
+
+    /**
+     * The HTTP Context Attribute containing the registered trading partner
+     * sending the received message.
+     */
+    public static final String TRADING_PARTNER = CAMEL_AS2_SERVER_PREFIX + "trading-partner";
+
+    /**
+     * The HTTP Context Attribute containing the certificate chain signing the
+     * MDN of the received message, overriding the one of the server connection.
+     */
+    public static final String SIGNING_CERTIFICATE_CHAIN = CAMEL_AS2_SERVER_PREFIX + "signing-certificate-chain";
+
+    /**
+     * The HTTP Context Attribute containing the private key signing the MDN of
+     * the received message, overriding the one of the server connection.
+     */
+    public static final String SIGNING_PRIVATE_KEY = CAMEL_AS2_SERVER_PREFIX + "signing-private-key";
+
+    /**
+     * The HTTP Context Attribute set when the received message is a duplicate
+     * answered with the response recorded for the accepted message.
+     */
+    public static final String DUPLICATE_MESSAGE = CAMEL_AS2_SERVER_PREFIX + "duplicate-message";
+
+    /**
+     * The HTTP Context Attribute containing the request for which the
+     * {@link #TRADING_PARTNER} attribute was resolved, so it is not resolved
+     * again for the MDN.
+     */
+    public static final String TRADING_PARTNER_REQUEST = CAMEL_AS2_SERVER_PREFIX + "trading-partner-request";
+
+    /**
+     * The HTTP Context Attribute containing the
+     * {@link org.apache.camel.component.as2.api.entity.AS2DispositionModifier}
+     * of the MDN of a message the handler failed to process, such as
+     * <code>error: authentication-failed</code>.
+     */
+    public static final String DISPOSITION_MODIFIER = CAMEL_AS2_SERVER_PREFIX + "disposition-modifier";
+
+    /**
+     * The HTTP Context Attribute containing the {@link AS2DeferredReceipt}
+     * holding back the asynchronous MDN of the received message until the
+     * handler has processed it.
+     */
+    public static final String DEFERRED_RECEIPT = CAMEL_AS2_SERVER_PREFIX + "deferred-receipt";
+
     private static final Logger LOG = LoggerFactory.getLogger(AS2ServerManager.class);
     
     private AS2ServerConnection as2ServerConnection;
@@ -65,8 +117,20 @@ public class AS2ServerManager {
     }
     
     public void listen(String requestUriPattern, HttpRequestHandler handler) {
+        listen(requestUriPattern, null, null, handler);
+    }
+
+    /**
+     * Listens for the messages sent to a request URI pattern by a trading partner.
+     *
+     * @param requestUriPattern - the request URI pattern.
+     * @param as2To - the <code>AS2-To</code> name of the messages, or <code>null</code> for any name.
+     * @param as2From - the <code>AS2-From</code> name of the messages, or <code>null</code> for any name.
+     * @param handler - the handler of the messages.
+     */
+    public void listen(String requestUriPattern, String as2To, String as2From, HttpRequestHandler handler) {
         try {
-            as2ServerConnection.listen(requestUriPattern, handler);
+            as2ServerConnection.listen(requestUriPattern, as2To, as2From, handler);
         } catch (IOException e) {
             LOG.error("Failed to listen for '" + requestUriPattern + "' requests: " + e.getMessage(), e);
             throw new RuntimeException("Failed to listen for '" + requestUriPattern + "' requests: " + e.getMessage(), e);
@@ -77,6 +141,10 @@ public class AS2ServerManager {
     public void stopListening(String requestUri) {
         as2ServerConnection.stopListening(requestUri);
     }
+
+    public void stopListening(String requestUriPattern, String as2To, String as2From) {
+        as2ServerConnection.stopListening(requestUriPattern, as2To, as2From);
+    }
     
     public void handleMDNResponse(HttpEntityEnclosingRequest request, HttpResponse response, HttpContext httpContext, String subject, String from) throws HttpException {
         // Add Context attributes for Response 
@@ -0,0 +1,198 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+
+import org.apache.http.util.Args;
+
+/**
+ * AS2 TLS Settings
+ *
+ * <p>
+ * The settings of the HTTPS transport of AS2 client and server connections:
+ * the {@link SSLContext} providing keys, trust and sessions, and the
+ * protocols and cipher suites enabled on its sockets.
+ *
+ * <p>
+ * Sessions are cached by the session contexts of the SSL context. Client
+ * sockets are created for their target host and port, so that reconnecting
+ * to a trading partner resumes its session instead of performing a full
+ * handshake. The completed handshakes of the sockets created with these
+ * settings are counted, distinguishing resumed sessions.
+ */
+public class AS2TlsSettings {
+
+    private final SSLContext sslContext;
+    private final String[] protocols;
+    private final String[] cipherSuites;
+
+    private final AtomicLong handshakeCount = new AtomicLong();
+    private final AtomicLong resumedHandshakeCount = new AtomicLong();
+
+    /**
+     * Creates settings using the protocols and cipher suites enabled by default by <code>sslContext</code>.
+     */
+    public AS2TlsSettings(SSLContext sslContext) {
+        this(sslContext, null, null);
+    }
+
+    /**
+     * Creates settings.
+     *
+     * @param sslContext - the SSL context.
+     * @param protocols - the enabled protocols, or <code>null</code> for the defaults of the SSL context.
+     * @param cipherSuites - the enabled cipher suites, or <code>null</code> for the defaults of the SSL context.
+     */
+    public AS2TlsSettings(SSLContext sslContext, String[] protocols, String[] cipherSuites) {
+        this.sslContext = Args.notNull(sslContext, "sslContext");
+        this.protocols = protocols == null ? null : protocols.clone();
+        this.cipherSuites = cipherSuites == null ? null : cipherSuites.clone();
+    }
+
+    public SSLContext getSslContext() {
+        return sslContext;
+    }
+
+    /**
+     * Sets the maximum number of sessions cached for resumption by clients and servers.
+     *
+     * @param sessionCacheSize - the number of sessions, or <code>0</code> for no limit.
+     */
+    public void setSessionCacheSize(int sessionCacheSize) {
+        Args.notNegative(sessionCacheSize, "sessionCacheSize");
+        sslContext.getClientSessionContext().setSessionCacheSize(sessionCacheSize);
+        sslContext.getServerSessionContext().setSessionCacheSize(sessionCacheSize);
+    }
+
+    /**
+     * Sets the time a cached session may be resumed.
+     *
+     * @param sessionTimeout - the timeout in seconds, or <code>0</code> for no limit.
+     */
+    public void setSessionTimeout(int sessionTimeout) {
+        Args.notNegative(sessionTimeout, "sessionTimeout");
+        sslContext.getClientSessionContext().setSessionTimeout(sessionTimeout);
+        sslContext.getServerSessionContext().setSessionTimeout(sessionTimeout);
+    }
+
+    /**
+     * Creates an unbound server socket accepting TLS connections.
+     */
+    public ServerSocket createServerSocket() throws IOException {
+        SSLServerSocket serverSocket = (SSLServerSocket) sslContext.getServerSocketFactory().createServerSocket();
+        if (protocols != null) {
+            serverSocket.setEnabledProtocols(protocols);
+        }
+        if (cipherSuites != null) {
+            serverSocket.setEnabledCipherSuites(cipherSuites);
+        }
+        return serverSocket;
+    }
+
+    /**
+     * Prepares a socket accepted by a server socket created with these
+     * settings. Its handshake is performed when the first request is read.
+     */
+    public void configureAcceptedSocket(Socket socket) {
+        if (socket instanceof SSLSocket) {
+            ((SSLSocket) socket).addHandshakeCompletedListener(new HandshakeCounter(System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Layers TLS over a socket connected to a host and performs its
+     * handshake, verifying the host name against the certificate of the host.
+     *
+     * @param socket - the connected socket, closed with the returned socket.
+     * @param hostName - the name of the connected host.
+     * @param port - the connected port.
+     * @return The TLS socket.
+     * @throws IOException if the handshake fails.
+     */
+    public Socket createClientSocket(Socket socket, String hostName, int port) throws IOException {
+        long connectTime = System.currentTimeMillis();
+        // sessions are cached per host and port: reconnecting resumes them
+        SSLSocket sslSocket = (SSLSocket) sslContext.getSocketFactory().createSocket(socket, hostName, port, true);
+        try {
+            if (protocols != null) {
+                sslSocket.setEnabledProtocols(protocols);
+            }
+            if (cipherSuites != null) {
+                sslSocket.setEnabledCipherSuites(cipherSuites);
+            }
+            SSLParameters sslParameters = sslSocket.getSSLParameters();
+            sslParameters.setEndpointIdentificationAlgorithm("HTTPS");
+            sslSocket.setSSLParameters(sslParameters);
+            sslSocket.addHandshakeCompletedListener(new HandshakeCounter(connectTime));
+            sslSocket.startHandshake();
+        } catch (IOException e) {
+            sslSocket.close();
+            throw e;
+        }
+        return sslSocket;
+    }
+
+    /**
+     * @return The number of handshakes completed by sockets created with these settings.
+     */
+    public long getHandshakeCount() {
+        return handshakeCount.get();
+    }
+
+    /**
+     * @return The number of completed handshakes which resumed a cached session.
+     */
+    public long getResumedHandshakeCount() {
+        return resumedHandshakeCount.get();
+    }
+
+    /**
+     * @return The proportion of completed handshakes which resumed a cached session, or <code>0</code> if none completed.
+     */
+    public double getResumptionRatio() {
+        long handshakes = handshakeCount.get();
+        return handshakes == 0 ? 0 : (double) resumedHandshakeCount.get() / handshakes;
+    }
+
+    private final class HandshakeCounter implements HandshakeCompletedListener {
+        private final long connectTime;
+
+        HandshakeCounter(long connectTime) {
+            this.connectTime = connectTime;
+        }
+
+        @Override
+        public void handshakeCompleted(HandshakeCompletedEvent event) {
+            handshakeCount.incrementAndGet();
+            // a resumed session was created by an earlier connection
+            if (event.getSession().getCreationTime() < connectTime) {
+                resumedHandshakeCount.incrementAndGet();
+            }
+        }
+    }
+}
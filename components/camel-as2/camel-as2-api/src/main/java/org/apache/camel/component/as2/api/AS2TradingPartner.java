@@ -0,0 +1,182 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+
+import org.apache.camel.component.as2.api.util.MicUtils;
+import org.apache.camel.component.as2.api.util.SigningUtils;
+import org.apache.http.HttpException;
+import org.bouncycastle.cms.SignerInformationVerifier;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoVerifierBuilder;
+import org.bouncycastle.operator.OperatorCreationException;
+
+/**
+ * AS2 Trading Partner
+ *
+ * <p>
+ * The settings used to exchange messages with one trading partner. Names are
+ * validated and the signing generators, signature verifier and MIC algorithm
+ * derived from the settings are prepared once when the partner is created and
+ * shared by every message exchanged with it.
+ *
+ * @see AS2TradingPartnerRegistry
+ */
+public class AS2TradingPartner {
+
+    private final String as2Name;
+    private final String localAs2Name;
+    private final String targetHostname;
+    private final Integer targetPortNumber;
+    private final String requestUri;
+    private final X509Certificate partnerCertificate;
+    private final Certificate[] signingCertificateChain;
+    private final PrivateKey signingPrivateKey;
+    private final String[] signedReceiptMicAlgorithms;
+
+    private final SignerInformationVerifier signatureVerifier;
+    private final ThreadLocal<AS2SignedDataGenerator> signingGenerator;
+    private final String micJdkAlgorithmName;
+
+    /**
+     * Creates a trading partner.
+     *
+     * @param as2Name - the AS2 name of the partner.
+     * @param localAs2Name - the AS2 name the partner sends messages to, or <code>null</code> to accept any.
+     * @param targetHostname - the host name messages are sent to, or <code>null</code> if messages are only received.
+     * @param targetPortNumber - the port number messages are sent to, or <code>null</code> if messages are only received.
+     * @param requestUri - the request URI messages are sent to, or <code>null</code> if messages are only received.
+     * @param partnerCertificate - the certificate signing messages and MDNs of the partner, or <code>null</code> if not known.
+     * @param signingCertificateChain - the certificate chain signing messages and MDNs sent to the partner, or <code>null</code> to use the default.
+     * @param signingPrivateKey - the private key signing messages and MDNs sent to the partner, or <code>null</code> to use the default.
+     * @param signedReceiptMicAlgorithms - the MIC algorithms requested for receipts of messages sent to the partner, or <code>null</code>.
+     * @throws HttpException if a name is invalid or the signing or verification settings can not be used.
+     */
+    public AS2TradingPartner(String as2Name,
+                             String localAs2Name,
+                             String targetHostname,
+                             Integer targetPortNumber,
+                             String requestUri,
+                             X509Certificate partnerCertificate,
+                             Certificate[] signingCertificateChain,
+                             PrivateKey signingPrivateKey,
+                             String[] signedReceiptMicAlgorithms)
+            throws HttpException {
+        this.as2Name = AS2SendProfile.validateAS2Name(as2Name, "AS2");
+        this.localAs2Name = localAs2Name == null ? null : AS2SendProfile.validateAS2Name(localAs2Name, "local AS2");
+        this.targetHostname = targetHostname;
+        this.targetPortNumber = targetPortNumber;
+        this.requestUri = requestUri;
+        this.partnerCertificate = partnerCertificate;
+        this.signingCertificateChain = signingCertificateChain;
+        this.signingPrivateKey = signingPrivateKey;
+        this.signedReceiptMicAlgorithms = signedReceiptMicAlgorithms;
+
+        if (partnerCertificate != null) {
+            try {
+                this.signatureVerifier = new JcaSimpleSignerInfoVerifierBuilder().setProvider("BC").build(partnerCertificate);
+            } catch (OperatorCreationException e) {
+                throw new HttpException("Failed to create signature verifier for partner '" + as2Name + "'", e);
+            }
+        } else {
+            this.signatureVerifier = null;
+        }
+
+        if (signingCertificateChain != null && signingPrivateKey != null) {
+            this.signingGenerator = SigningUtils.createThreadLocalSigningGenerator(signingCertificateChain, signingPrivateKey);
+        } else {
+            this.signingGenerator = null;
+        }
+
+        this.micJdkAlgorithmName = signedReceiptMicAlgorithms == null ? null : MicUtils.getMicJdkAlgorithmName(signedReceiptMicAlgorithms);
+    }
+
+    /**
+     * Determines if a message with the given names is sent by this partner.
+     *
+     * @param as2From - the <code>AS2-From</code> name of the message.
+     * @param as2To - the <code>AS2-To</code> name of the message.
+     * @return <code>true</code> if the message is sent by this partner to a name it sends messages to.
+     */
+    public boolean isSenderOf(String as2From, String as2To) {
+        return as2Name.equals(as2From) && (localAs2Name == null || localAs2Name.equals(as2To));
+    }
+
+    public String getAs2Name() {
+        return as2Name;
+    }
+
+    public String getLocalAs2Name() {
+        return localAs2Name;
+    }
+
+    public String getTargetHostname() {
+        return targetHostname;
+    }
+
+    public Integer getTargetPortNumber() {
+        return targetPortNumber;
+    }
+
+    public String getRequestUri() {
+        return requestUri;
+    }
+
+    public X509Certificate getPartnerCertificate() {
+        return partnerCertificate;
+    }
+
+    public Certificate[] getSigningCertificateChain() {
+        return signingCertificateChain;
+    }
+
+    public PrivateKey getSigningPrivateKey() {
+        return signingPrivateKey;
+    }
+
+    public String[] getSignedReceiptMicAlgorithms() {
+        return signedReceiptMicAlgorithms;
+    }
+
+    /**
+     * @return The verifier of signatures made with the partner certificate, or <code>null</code> if the certificate is not known.
+     */
+    public SignerInformationVerifier getSignatureVerifier() {
+        return signatureVerifier;
+    }
+
+    /**
+     * @return The signing generator prepared for the calling thread, or <code>null</code> if the default signing settings apply.
+     */
+    public AS2SignedDataGenerator getSigningGenerator() {
+        return signingGenerator == null ? null : signingGenerator.get();
+    }
+
+    /**
+     * @return The JDK name of the algorithm computing the MIC of messages sent to the partner, or <code>null</code> if not negotiated.
+     */
+    public String getMicJdkAlgorithmName() {
+        return micJdkAlgorithmName;
+    }
+
+    @Override
+    public String toString() {
+        return "AS2TradingPartner[" + as2Name + "]";
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.camel.component.as2.api.util.HttpMessageUtils;
+import org.apache.http.HttpMessage;
+import org.apache.http.util.Args;
+
+/**
+ * AS2 Trading Partner Registry
+ *
+ * <p>
+ * The trading partners known to an AS2 endpoint, indexed by AS2 name. A
+ * received message resolves the partner sending it with a single lookup of
+ * its <code>AS2-From</code> name. Partners may be registered and unregistered
+ * while messages are being exchanged.
+ */
+public class AS2TradingPartnerRegistry {
+
+    private final ConcurrentMap<String, AS2TradingPartner> partners = new ConcurrentHashMap<String, AS2TradingPartner>();
+
+    /**
+     * Registers a partner, replacing any partner registered with the same AS2 name.
+     *
+     * @param partner - the partner.
+     * @return The replaced partner or <code>null</code>.
+     */
+    public AS2TradingPartner register(AS2TradingPartner partner) {
+        Args.notNull(partner, "partner");
+        return partners.put(partner.getAs2Name(), partner);
+    }
+
+    /**
+     * Unregisters a partner.
+     *
+     * @param as2Name - the AS2 name of the partner.
+     * @return The unregistered partner or <code>null</code> if not registered.
+     */
+    public AS2TradingPartner unregister(String as2Name) {
+        return as2Name == null ? null : partners.remove(as2Name);
+    }
+
+    /**
+     * Looks up a partner.
+     *
+     * @param as2Name - the AS2 name of the partner.
+     * @return The partner or <code>null</code> if not registered.
+     */
+    public AS2TradingPartner get(String as2Name) {
+        return as2Name == null ? null : partners.get(as2Name);
+    }
+
+    /**
+     * Resolves the partner sending a message from its <code>AS2-From</code> and <code>AS2-To</code> headers.
+     *
+     * @param message - the received message.
+     * @return The partner or <code>null</code> if the sender is not registered or the message is not addressed to a name of the sender.
+     */
+    public AS2TradingPartner resolve(HttpMessage message) {
+        String as2From = HttpMessageUtils.getHeaderValue(message, AS2Header.AS2_FROM);
+        AS2TradingPartner partner = get(as2From);
+        if (partner == null || !partner.isSenderOf(as2From, HttpMessageUtils.getHeaderValue(message, AS2Header.AS2_TO))) {
+            return null;
+        }
+        return partner;
+    }
+
+    public Collection<AS2TradingPartner> getPartners() {
+        return Collections.unmodifiableCollection(partners.values());
+    }
+
+    public int size() {
+        return partners.size();
+    }
+
+    public boolean isEmpty() {
+        return partners.isEmpty();
+    }
+}
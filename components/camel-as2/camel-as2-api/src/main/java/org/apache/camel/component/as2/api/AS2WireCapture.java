@@ -0,0 +1,473 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpMessage;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.util.Args;
+
+/**
+ * AS2 Wire Capture
+ *
+ * <p>
+ * Keeps the last messages sent and received by AS2 connections in memory,
+ * as they were on the wire, to be dumped on demand when diagnosing an
+ * exchange with a trading partner. Messages are captured only for the
+ * exchanges selected when their request is sent or received: a sample of
+ * the exchanges, optionally only with some trading partners, so that
+ * capturing costs nothing for the other exchanges. Bodies are truncated to a
+ * maximum size; a body streamed through a {@link BodyTap} is captured without
+ * being buffered beyond that size.
+ */
+public class AS2WireCapture {
+
+    public static final int DEFAULT_CAPACITY = 100;
+    public static final int DEFAULT_MAX_BODY_SIZE = 4096;
+
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * A captured message.
+     */
+    public static final class Entry {
+        private final long timestamp;
+        private final boolean sent;
+        private final String startLine;
+        private final Header[] headers;
+        private final byte[] body;
+        private final boolean truncated;
+
+        Entry(long timestamp, boolean sent, String startLine, Header[] headers, byte[] body, boolean truncated) {
+            this.timestamp = timestamp;
+            this.sent = sent;
+            this.startLine = startLine;
+            this.headers = headers;
+            this.body = body;
+            this.truncated = truncated;
+        }
+
+        /**
+         * @return The time the message was captured, in milliseconds since the epoch.
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * @return Whether the message was sent, else received.
+         */
+        public boolean isSent() {
+            return sent;
+        }
+
+        public String getStartLine() {
+            return startLine;
+        }
+
+        public Header[] getHeaders() {
+            return headers.clone();
+        }
+
+        /**
+         * @return The body of the message, up to the maximum body size, or <code>null</code> if it has none.
+         */
+        public byte[] getBody() {
+            return body == null ? null : body.clone();
+        }
+
+        /**
+         * @return Whether the body was longer than the maximum body size.
+         */
+        public boolean isTruncated() {
+            return truncated;
+        }
+
+        /**
+         * Prints the message, preceded by the time and direction of its capture.
+         */
+        public void print(PrintStream out) {
+            out.println("--- " + (sent ? "sent" : "received") + " " + new Date(timestamp));
+            out.println(startLine);
+            for (Header header : headers) {
+                out.println(header.getName() + ": " + (header.getValue() == null ? "" : header.getValue()));
+            }
+            out.println();
+            if (body != null) {
+                out.write(body, 0, body.length);
+                out.println();
+                if (truncated) {
+                    out.println("[truncated]");
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the start of the body of a message, up to the maximum body size,
+     * as it streams through a connection, and captures the message once the
+     * body has been read or written, see {@link AS2WireCapture#createBodyTap(boolean, HttpMessage)}.
+     */
+    public final class BodyTap {
+        private final boolean sent;
+        private final HttpMessage message;
+        private final int max;
+        private final ByteArrayOutputStream head;
+        private boolean truncated;
+        private boolean finished;
+
+        BodyTap(boolean sent, HttpMessage message, int max) {
+            this.sent = sent;
+            this.message = message;
+            this.max = max;
+            this.head = new ByteArrayOutputStream(Math.min(max, BUFFER_SIZE));
+        }
+
+        /**
+         * @return An entity streaming the body of <code>entity</code> through
+         *         this tap, which captures the message once the body is read to
+         *         its end or written.
+         */
+        public HttpEntity tap(HttpEntity entity) {
+            return new HttpEntityWrapper(entity) {
+                @Override
+                public InputStream getContent() throws IOException {
+                    return tap(super.getContent());
+                }
+
+                @Override
+                public void writeTo(OutputStream out) throws IOException {
+                    super.writeTo(tap(out));
+                    finish();
+                }
+            };
+        }
+
+        private InputStream tap(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b != -1) {
+                        copy(b);
+                    } else {
+                        finish();
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) {
+                        copy(b, off, n);
+                    } else if (n == -1) {
+                        finish();
+                    }
+                    return n;
+                }
+
+                @Override
+                public long skip(long n) throws IOException {
+                    // skipped bytes are copied too
+                    int skipped = n > 0 ? read(new byte[(int) Math.min(n, BUFFER_SIZE)]) : 0;
+                    return Math.max(skipped, 0);
+                }
+
+                @Override
+                public boolean markSupported() {
+                    return false;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        finish();
+                    }
+                }
+            };
+        }
+
+        private OutputStream tap(OutputStream out) {
+            return new FilterOutputStream(out) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    copy(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    copy(b, off, len);
+                }
+            };
+        }
+
+        private void copy(int b) {
+            if (head.size() < max) {
+                head.write(b);
+            } else {
+                truncated = true;
+            }
+        }
+
+        private void copy(byte[] b, int off, int len) {
+            int n = Math.min(len, max - head.size());
+            if (n > 0) {
+                head.write(b, off, n);
+            }
+            if (n < len) {
+                truncated = true;
+            }
+        }
+
+        /**
+         * Captures the message with the start of its body streamed so far,
+         * unless already captured: for a body not read to its end.
+         */
+        public synchronized void finish() {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            add(sent, message, head.toByteArray(), truncated);
+        }
+    }
+
+    // guarded by this
+    private final Entry[] entries;
+    private int next;
+    private int size;
+
+    private volatile double sampleRate = 1.0;
+    private volatile int maxBodySize = DEFAULT_MAX_BODY_SIZE;
+    private volatile Set<String> partners = Collections.emptySet();
+
+    private final AtomicLong capturedCount = new AtomicLong();
+
+    public AS2WireCapture() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a capture.
+     *
+     * @param capacity - the number of messages kept, the oldest being discarded first.
+     */
+    public AS2WireCapture(int capacity) {
+        entries = new Entry[Args.positive(capacity, "capacity")];
+    }
+
+    public int getCapacity() {
+        return entries.length;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Sets the fraction of the exchanges captured, from <code>0</code> for none to <code>1</code> for all.
+     */
+    public void setSampleRate(double sampleRate) {
+        Args.check(sampleRate >= 0 && sampleRate <= 1, "Sample rate must be between 0 and 1");
+        this.sampleRate = sampleRate;
+    }
+
+    public int getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    /**
+     * Sets the size in bytes from which the bodies of captured messages are truncated.
+     */
+    public void setMaxBodySize(int maxBodySize) {
+        this.maxBodySize = Args.notNegative(maxBodySize, "maxBodySize");
+    }
+
+    public Set<String> getPartners() {
+        return partners;
+    }
+
+    /**
+     * Restricts the capture to the exchanges with some trading partners.
+     *
+     * @param partners - the AS2 names of the partners, matched against the <code>AS2-From</code> and
+     *            <code>AS2-To</code> headers of requests, or <code>null</code> or empty to capture exchanges with all partners.
+     */
+    public void setPartners(Collection<String> partners) {
+        this.partners = partners == null || partners.isEmpty()
+                ? Collections.<String>emptySet() : Collections.unmodifiableSet(new HashSet<String>(partners));
+    }
+
+    /**
+     * Decides whether the exchange of a request is captured.
+     *
+     * @param request - the request sent or received.
+     * @return <code>true</code> if the request and its response are to be captured.
+     */
+    public boolean isCaptured(HttpRequest request) {
+        double rate = sampleRate;
+        if (rate <= 0) {
+            return false;
+        }
+        Set<String> capturedPartners = partners;
+        if (!capturedPartners.isEmpty() && !isPartner(request, AS2Header.AS2_FROM, capturedPartners)
+                && !isPartner(request, AS2Header.AS2_TO, capturedPartners)) {
+            return false;
+        }
+        return rate >= 1 || ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    /**
+     * Creates a tap capturing a message of an exchange selected by
+     * {@link #isCaptured(HttpRequest)} as its body is sent or received,
+     * without buffering more of the body than the maximum body size.
+     *
+     * @param sent - whether the message is sent, else received.
+     * @param message - the message, for its start line and headers.
+     * @return The tap to stream the entity of the message through.
+     */
+    public BodyTap createBodyTap(boolean sent, HttpMessage message) {
+        return new BodyTap(sent, Args.notNull(message, "message"), maxBodySize);
+    }
+
+    /**
+     * Captures a message of an exchange selected by {@link #isCaptured(HttpRequest)}.
+     *
+     * @param sent - whether the message was sent, else received.
+     * @param message - the message, for its start line and headers.
+     * @param body - the body of the message as on the wire, read up to the maximum body size, or <code>null</code> if it has none.
+     * @throws IOException if the body can not be read.
+     */
+    public void capture(boolean sent, HttpMessage message, InputStream body) throws IOException {
+        Args.notNull(message, "message");
+        byte[] bytes = null;
+        boolean truncated = false;
+        if (body != null) {
+            int max = maxBodySize;
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(max, BUFFER_SIZE));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while (out.size() < max && (n = body.read(buffer, 0, Math.min(buffer.length, max - out.size()))) != -1) {
+                out.write(buffer, 0, n);
+            }
+            bytes = out.toByteArray();
+            truncated = body.read() != -1;
+        }
+        add(sent, message, bytes, truncated);
+    }
+
+    private void add(boolean sent, HttpMessage message, byte[] bytes, boolean truncated) {
+        String startLine = message instanceof HttpRequest
+                ? ((HttpRequest) message).getRequestLine().toString() : ((HttpResponse) message).getStatusLine().toString();
+        Entry entry = new Entry(System.currentTimeMillis(), sent, startLine, message.getAllHeaders(), bytes, truncated);
+        synchronized (this) {
+            entries[next] = entry;
+            next = (next + 1) % entries.length;
+            size = Math.min(size + 1, entries.length);
+        }
+        capturedCount.incrementAndGet();
+    }
+
+    /**
+     * @return The captured messages kept, oldest first.
+     */
+    public synchronized List<Entry> getEntries() {
+        List<Entry> result = new ArrayList<Entry>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(entries[(next - size + i + entries.length) % entries.length]);
+        }
+        return result;
+    }
+
+    /**
+     * @return The number of messages captured since the capture was created, including those discarded.
+     */
+    public long getCapturedCount() {
+        return capturedCount.get();
+    }
+
+    /**
+     * Discards the captured messages.
+     */
+    public synchronized void clear() {
+        Arrays.fill(entries, null);
+        next = 0;
+        size = 0;
+    }
+
+    /**
+     * Prints the captured messages kept, oldest first.
+     */
+    public void dump(PrintStream out) {
+        for (Entry entry : getEntries()) {
+            entry.print(out);
+        }
+    }
+
+    /**
+     * @return The captured messages kept, oldest first, as printed by {@link #dump(PrintStream)}.
+     */
+    public String dump() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (PrintStream ps = new PrintStream(out, true, "utf-8")) {
+            dump(ps);
+        } catch (IOException e) {
+            // UTF-8 is always supported
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static boolean isPartner(HttpMessage message, String headerName, Set<String> capturedPartners) {
+        Header header = message.getFirstHeader(headerName);
+        if (header == null || header.getValue() == null) {
+            return false;
+        }
+        String name = header.getValue().trim();
+        // names may be quoted
+        if (name.length() > 1 && name.startsWith("\"") && name.endsWith("\"")) {
+            name = name.substring(1, name.length() - 1);
+        }
+        return capturedPartners.contains(name);
+    }
+}
@@ -18,9 +18,12 @@ package org.apache.camel.component.as2.api;
 
 import java.awt.event.KeyEvent;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.Random;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -180,4 +183,27 @@ public final class Util {
         }
     }
 
+    /**
+     * Syncs the entries of a directory to disk, so that the files created or
+     * renamed in it survive a crash. Does nothing on platforms where a
+     * directory can not be opened.
+     *
+     * @param directory - the directory synced.
+     * @throws IOException if the directory can not be synced.
+     */
+    public static void syncDirectory(File directory) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            // directories can not be opened on Windows
+            return;
+        }
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
 }
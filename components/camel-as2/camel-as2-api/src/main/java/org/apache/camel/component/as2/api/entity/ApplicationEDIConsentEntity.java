@@ -26,4 +26,9 @@ public class ApplicationEDIConsentEntity extends ApplicationEDIEntity {
         super(content, ContentType.create(AS2MediaType.APPLICATION_EDI_CONSENT, charset), contentTransferEncoding, isMainBody);
     }
 
+    public ApplicationEDIConsentEntity(byte[] content, String charset, String contentTransferEncoding,
+            boolean isMainBody) {
+        super(content, ContentType.create(AS2MediaType.APPLICATION_EDI_CONSENT, charset), contentTransferEncoding, isMainBody);
+    }
+
 }
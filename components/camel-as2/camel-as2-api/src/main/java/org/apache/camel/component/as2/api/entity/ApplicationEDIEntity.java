@@ -16,8 +16,11 @@
  */
 package org.apache.camel.component.as2.api.entity;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.Charset;
 
 import org.apache.camel.component.as2.api.AS2Charset;
 import org.apache.camel.component.as2.api.CanonicalOutputStream;
@@ -28,19 +31,51 @@ import org.apache.http.util.Args;
 
 public abstract class ApplicationEDIEntity extends MimeEntity {
     
-    private final String ediMessage;
+    private final byte[] ediMessageContent;
     
     protected ApplicationEDIEntity(String ediMessage, ContentType contentType, String contentTransferEncoding, boolean isMainBody) {
-        this.ediMessage = Args.notNull(ediMessage, "EDI Message");
+        Args.notNull(ediMessage, "EDI Message");
         setContentType(Args.notNull(contentType, "Content Type").toString());
         setContentTransferEncoding(contentTransferEncoding);
         setMainBody(isMainBody);
+        // only the encoded message is kept
+        this.ediMessageContent = ediMessage.getBytes(Charset.forName(getCharset()));
     }
     
+    protected ApplicationEDIEntity(byte[] ediMessageContent, ContentType contentType, String contentTransferEncoding, boolean isMainBody) {
+        this.ediMessageContent = Args.notNull(ediMessageContent, "EDI Message Content");
+        setContentType(Args.notNull(contentType, "Content Type").toString());
+        setContentTransferEncoding(contentTransferEncoding);
+        setMainBody(isMainBody);
+    }
+    
+    /**
+     * Returns the EDI message decoded as a string, on each call. Consider
+     * using {@link #getEdiMessageContent()} or {@link #getEdiMessageStream()}
+     * which do not decode the message.
+     * 
+     * @return The EDI message.
+     */
     public String getEdiMessage() {
-        return ediMessage;
+        return new String(ediMessageContent, Charset.forName(getCharset()));
+    }
+
+    /**
+     * Returns the EDI message content encoded in the charset of this entity.
+     * The returned array is not copied and must not be modified.
+     * 
+     * @return The EDI message content.
+     */
+    public byte[] getEdiMessageContent() {
+        return ediMessageContent;
     }
 
+    /**
+     * @return A stream over the EDI message content.
+     */
+    public InputStream getEdiMessageStream() {
+        return new ByteArrayInputStream(ediMessageContent);
+    }
 
     @Override
     public void writeTo(OutputStream outstream) throws IOException {
@@ -57,7 +92,7 @@ public abstract class ApplicationEDIEntity extends MimeEntity {
                 canonicalOutstream.writeln(); // ensure empty line between headers and body; RFC2046 - 5.1.1
             }
             
-            canonicalOutstream.write(ediMessage.getBytes(getCharset()), 0, ediMessage.length());
+            canonicalOutstream.write(ediMessageContent, 0, ediMessageContent.length);
         }
     }
 
@@ -25,5 +25,10 @@ public class ApplicationEDIFACTEntity extends ApplicationEDIEntity {
             boolean isMainBody) {
         super(content, ContentType.create(AS2MediaType.APPLICATION_EDIFACT, charset), contentTransferEncoding, isMainBody);
     }
+
+    public ApplicationEDIFACTEntity(byte[] content, String charset, String contentTransferEncoding,
+            boolean isMainBody) {
+        super(content, ContentType.create(AS2MediaType.APPLICATION_EDIFACT, charset), contentTransferEncoding, isMainBody);
+    }
     
 }
@@ -26,4 +26,9 @@ public class ApplicationEDIX12Entity extends ApplicationEDIEntity {
         super(content, ContentType.create(AS2MediaType.APPLICATION_EDI_X12, charset), contentTransferEncoding, isMainBody);
     }
 
+    public ApplicationEDIX12Entity(byte[] content, String charset, String contentTransferEncoding,
+            boolean isMainBody) {
+        super(content, ContentType.create(AS2MediaType.APPLICATION_EDI_X12, charset), contentTransferEncoding, isMainBody);
+    }
+
 }
@@ -19,6 +19,8 @@ package org.apache.camel.component.as2.api.entity;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 
 import org.apache.camel.component.as2.api.AS2Charset;
 import org.apache.camel.component.as2.api.AS2Header;
@@ -44,6 +46,14 @@ public class ApplicationPkcs7SignatureEntity extends MimeEntity {
     private byte[] signature;
     
     public ApplicationPkcs7SignatureEntity(MimeEntity data, CMSSignedDataGenerator signer, String charset, String contentTransferEncoding, boolean isMainBody) throws HttpException {
+        this(data, signer, charset, contentTransferEncoding, isMainBody, null);
+    }
+
+    /**
+     * Signs <code>data</code>, updating <code>micDigest</code> with the signed
+     * content while it is serialized for signing.
+     */
+    public ApplicationPkcs7SignatureEntity(MimeEntity data, CMSSignedDataGenerator signer, String charset, String contentTransferEncoding, boolean isMainBody, MessageDigest micDigest) throws HttpException {
         Args.notNull(data, "Data");
         Args.notNull(signer, "Signer");
         
@@ -54,7 +64,7 @@ public class ApplicationPkcs7SignatureEntity extends MimeEntity {
         addHeader(AS2Header.CONTENT_DESCRIPTION, CONTENT_DESCRIPTION);
         setMainBody(isMainBody);
         try {
-            this.signature = createSignature(data, signer);
+            this.signature = createSignature(data, signer, micDigest);
         } catch (Exception e) {
             throw new HttpException("Failed to create signed data", e);
         }
@@ -108,10 +118,11 @@ public class ApplicationPkcs7SignatureEntity extends MimeEntity {
         }
     }
     
-    private byte[] createSignature(MimeEntity data, CMSSignedDataGenerator signer) throws Exception {
+    private byte[] createSignature(MimeEntity data, CMSSignedDataGenerator signer, MessageDigest micDigest) throws Exception {
         try (ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
-            data.writeTo(bos);
-            bos.flush();
+            OutputStream os = micDigest == null ? bos : new DigestOutputStream(bos, micDigest);
+            data.writeTo(os);
+            os.flush();
 
             CMSTypedData contentData = new CMSProcessableByteArray(bos.toByteArray());
             CMSSignedData  signedData = signer.generate(contentData, false);
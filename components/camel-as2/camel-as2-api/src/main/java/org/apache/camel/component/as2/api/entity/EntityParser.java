@@ -16,7 +16,9 @@
  */
 package org.apache.camel.component.as2.api.entity;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.util.ArrayList;
@@ -39,7 +41,6 @@ import org.apache.http.ParseException;
 import org.apache.http.entity.ContentType;
 import org.apache.http.impl.io.AbstractMessageParser;
 import org.apache.http.impl.io.HttpTransportMetricsImpl;
-import org.apache.http.impl.io.SessionInputBufferImpl;
 import org.apache.http.message.BasicLineParser;
 import org.apache.http.message.LineParser;
 import org.apache.http.message.ParserCursor;
@@ -245,17 +246,22 @@ public final class EntityParser {
             Header transferEncoding = entity.getContentEncoding();
             String contentTransferEncoding = transferEncoding == null ? null : transferEncoding.getValue();
 
-            SessionInputBufferImpl inBuffer = new SessionInputBufferImpl(new HttpTransportMetricsImpl(), 8 * 1024);
-            inBuffer.bind(entity.getContent());
-
-            // Extract content from stream
-            CharArrayBuffer lineBuffer = new CharArrayBuffer(1024);
-            while (inBuffer.readLine(lineBuffer) != -1) {
-                lineBuffer.append("\r\n"); // add line delimiter
+            // Extract content from stream without decoding it
+            byte[] content;
+            try (InputStream is = entity.getContent()) {
+                long contentLength = entity.getContentLength();
+                ByteArrayOutputStream os = new ByteArrayOutputStream(contentLength > 0 && contentLength < Integer.MAX_VALUE
+                        ? (int) contentLength : DEFAULT_BUFFER_SIZE);
+                byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+                int n;
+                while ((n = is.read(buffer)) != -1) {
+                    os.write(buffer, 0, n);
+                }
+                content = os.toByteArray();
             }
 
             // Build application EDI entity
-            applicationEDIEntity = EntityUtils.createEDIEntity(lineBuffer.toString(), contentType,
+            applicationEDIEntity = EntityUtils.createEDIEntity(content, contentType,
                     contentTransferEncoding, true);
 
             EntityUtils.setMessageEntity(message, applicationEDIEntity);
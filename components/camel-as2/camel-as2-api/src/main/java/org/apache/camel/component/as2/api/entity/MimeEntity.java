@@ -23,6 +23,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 
 import org.apache.camel.component.as2.api.AS2Charset;
 import org.apache.camel.component.as2.api.AS2Header;
@@ -254,6 +256,34 @@ public abstract class MimeEntity extends AbstractHttpEntity {
         return contentLength;
     }
 
+    /**
+     * Serializes this entity once to both update <code>digest</code> with its
+     * content and calculate its content length, so that computing a message
+     * integrity check does not cost an additional pass over the content.
+     *
+     * @param digest - the digest to update with the content of this entity.
+     * @throws IOException if the entity can not be serialized.
+     */
+    public void updateDigest(MessageDigest digest) throws IOException {
+        Args.notNull(digest, "digest");
+        final long[] count = new long[1];
+        OutputStream countingStream = new OutputStream() {
+            @Override
+            public void write(int b) {
+                count[0]++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                count[0] += len;
+            }
+        };
+        try (DigestOutputStream digestStream = new DigestOutputStream(countingStream, digest)) {
+            writeTo(digestStream);
+        }
+        contentLength = count[0];
+    }
+
     @Override
     public InputStream getContent() throws IOException, UnsupportedOperationException {
         final ByteArrayOutputStream outstream = new ByteArrayOutputStream();
@@ -19,6 +19,7 @@ package org.apache.camel.component.as2.api.entity;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.security.MessageDigest;
 import java.security.cert.X509Certificate;
 import java.util.Collection;
 
@@ -33,17 +34,26 @@ import org.bouncycastle.cms.CMSProcessableByteArray;
 import org.bouncycastle.cms.CMSSignedData;
 import org.bouncycastle.cms.SignerInformation;
 import org.bouncycastle.cms.SignerInformationStore;
+import org.bouncycastle.cms.SignerInformationVerifier;
 import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoVerifierBuilder;
 import org.bouncycastle.util.Store;
 
 public class MultipartSignedEntity extends MultipartMimeEntity {
 
     public MultipartSignedEntity(MimeEntity data, AS2SignedDataGenerator signer, String signatureCharSet, String signatureTransferEncoding, boolean isMainBody, String boundary) throws Exception {
+        this(data, signer, signatureCharSet, signatureTransferEncoding, isMainBody, boundary, null);
+    }
+
+    /**
+     * Creates a multipart signed entity, updating <code>micDigest</code> with
+     * the signed data while signing it.
+     */
+    public MultipartSignedEntity(MimeEntity data, AS2SignedDataGenerator signer, String signatureCharSet, String signatureTransferEncoding, boolean isMainBody, String boundary, MessageDigest micDigest) throws Exception {
         super(null, isMainBody, boundary);
         ContentType contentType = signer.createMultipartSignedContentType(this.boundary);
         this.contentType = new BasicHeader(AS2Header.CONTENT_TYPE, contentType.toString());
         addPart(data);
-        ApplicationPkcs7SignatureEntity signature = new ApplicationPkcs7SignatureEntity(data, signer, signatureCharSet, signatureTransferEncoding, false);
+        ApplicationPkcs7SignatureEntity signature = new ApplicationPkcs7SignatureEntity(data, signer, signatureCharSet, signatureTransferEncoding, false, micDigest);
         addPart(signature);
     }
     
@@ -53,6 +63,17 @@ public class MultipartSignedEntity extends MultipartMimeEntity {
     }
     
     public boolean isValid()  {
+        return isValid(null);
+    }
+
+    /**
+     * Verifies the signature of this entity.
+     *
+     * @param verifier - the verifier of the expected signer, or <code>null</code> to verify
+     *        each signature against the certificate carried with it.
+     * @return <code>true</code> if the signed data and signature are present and every signature is valid.
+     */
+    public boolean isValid(SignerInformationVerifier verifier)  {
         ApplicationEDIEntity applicationEDIEntity = getSignedDataEntity();
         ApplicationPkcs7SignatureEntity applicationPkcs7SignatureEntity = getSignatureEntity();
         
@@ -74,12 +95,16 @@ public class MultipartSignedEntity extends MultipartMimeEntity {
             SignerInformationStore signers = signedData.getSignerInfos();
 
             for (SignerInformation signer : signers.getSigners()) {
-                @SuppressWarnings("unchecked")
-                Collection<X509CertificateHolder> certCollection = store.getMatches(signer.getSID());
+                SignerInformationVerifier signerVerifier = verifier;
+                if (signerVerifier == null) {
+                    @SuppressWarnings("unchecked")
+                    Collection<X509CertificateHolder> certCollection = store.getMatches(signer.getSID());
 
-                X509CertificateHolder certHolder = certCollection.iterator().next();
-                X509Certificate cert = new JcaX509CertificateConverter().setProvider("BC").getCertificate(certHolder);
-                if (!signer.verify(new JcaSimpleSignerInfoVerifierBuilder().setProvider("BC").build(cert))) {
+                    X509CertificateHolder certHolder = certCollection.iterator().next();
+                    X509Certificate cert = new JcaX509CertificateConverter().setProvider("BC").getCertificate(certHolder);
+                    signerVerifier = new JcaSimpleSignerInfoVerifierBuilder().setProvider("BC").build(cert);
+                }
+                if (!signer.verify(signerVerifier)) {
                     return false;
                 }
             }
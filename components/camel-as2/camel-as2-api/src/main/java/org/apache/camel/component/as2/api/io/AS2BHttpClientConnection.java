@@ -16,15 +16,24 @@
  */
 package org.apache.camel.component.as2.api.io;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CharsetEncoder;
 
+import org.apache.camel.component.as2.api.AS2Header;
+import org.apache.camel.component.as2.api.AS2MessageArchive;
+import org.apache.camel.component.as2.api.AS2WireCapture;
 import org.apache.camel.component.as2.api.entity.EntityParser;
+import org.apache.camel.component.as2.api.util.HttpMessageUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpException;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.config.MessageConstraints;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentLengthStrategy;
 import org.apache.http.impl.DefaultBHttpClientConnection;
 import org.apache.http.io.HttpMessageParserFactory;
@@ -32,6 +41,14 @@ import org.apache.http.io.HttpMessageWriterFactory;
 
 public class AS2BHttpClientConnection extends DefaultBHttpClientConnection {
 
+    private volatile AS2MessageArchive archive;
+    private String requestMessageId;
+    private volatile AS2WireCapture wireCapture;
+    // the capture of the current exchange, if selected
+    private AS2WireCapture exchangeCapture;
+    // the tap of the body of the last response, if captured as it streams
+    private AS2WireCapture.BodyTap responseTap;
+
     public AS2BHttpClientConnection(int buffersize,
                                     CharsetDecoder chardecoder,
                                     CharsetEncoder charencoder,
@@ -56,9 +73,112 @@ public class AS2BHttpClientConnection extends DefaultBHttpClientConnection {
         super(buffersize);
     }
 
+    /**
+     * Sets the archive keeping the bodies of the requests sent and responses received by this connection.
+     *
+     * @param archive - the archive, or <code>null</code> to not archive messages.
+     */
+    public void setArchive(AS2MessageArchive archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * Sets the capture keeping the last requests sent and responses received by this connection.
+     *
+     * @param wireCapture - the capture, or <code>null</code> to not capture messages.
+     */
+    public void setWireCapture(AS2WireCapture wireCapture) {
+        this.wireCapture = wireCapture;
+    }
+
+    @Override
+    public void sendRequestHeader(HttpRequest request) throws HttpException, IOException {
+        AS2WireCapture.BodyTap tap = responseTap;
+        if (tap != null) {
+            // the previous response, as much of its body as was read
+            responseTap = null;
+            tap.finish();
+        }
+        requestMessageId = HttpMessageUtils.getHeaderValue(request, AS2Header.MESSAGE_ID);
+        AS2WireCapture capture = wireCapture;
+        exchangeCapture = capture != null && capture.isCaptured(request) ? capture : null;
+        super.sendRequestHeader(request);
+    }
+
+    @Override
+    public void sendRequestEntity(HttpEntityEnclosingRequest request) throws HttpException, IOException {
+        AS2MessageArchive messageArchive = archive;
+        AS2WireCapture capture = exchangeCapture;
+        HttpEntity entity = request.getEntity();
+        if (messageArchive == null && capture != null && entity != null) {
+            // only the start of the body is captured: copy it as the body is sent
+            request.setEntity(capture.createBodyTap(true, request).tap(entity));
+            try {
+                super.sendRequestEntity(request);
+            } finally {
+                request.setEntity(entity);
+            }
+            return;
+        }
+        if (messageArchive != null && entity != null) {
+            // send the bytes archived and captured
+            byte[] body = toByteArray(entity);
+            request.setEntity(toByteArrayEntity(entity, body));
+            if (messageArchive != null) {
+                messageArchive.archive(true, request, null, new ByteArrayInputStream(body));
+            }
+            if (capture != null) {
+                capture.capture(true, request, new ByteArrayInputStream(body));
+            }
+            try {
+                super.sendRequestEntity(request);
+            } finally {
+                request.setEntity(entity);
+            }
+            return;
+        }
+        super.sendRequestEntity(request);
+    }
+
     @Override
     public void receiveResponseEntity(HttpResponse response) throws HttpException, IOException {
         super.receiveResponseEntity(response);
+        AS2MessageArchive messageArchive = archive;
+        AS2WireCapture capture = exchangeCapture;
+        if (messageArchive == null && capture != null && response.getEntity() != null) {
+            // only the start of the body is captured: copy it as the body is read
+            responseTap = capture.createBodyTap(false, response);
+            response.setEntity(responseTap.tap(response.getEntity()));
+        } else if (messageArchive != null && response.getEntity() != null) {
+            // keep the body as received: the parsed entity is written differently
+            HttpEntity entity = response.getEntity();
+            byte[] body = toByteArray(entity);
+            response.setEntity(toByteArrayEntity(entity, body));
+            EntityParser.parseAS2MessageEntity(response);
+            messageArchive.archive(false, response, requestMessageId, new ByteArrayInputStream(body));
+            if (capture != null) {
+                capture.capture(false, response, new ByteArrayInputStream(body));
+            }
+            return;
+        }
+        HttpEntity receivedEntity = response.getEntity();
         EntityParser.parseAS2MessageEntity(response);
+        if (receivedEntity != null && receivedEntity != response.getEntity() && receivedEntity.isStreaming()) {
+            // skip any epilogue left by the parser so the connection can carry another message
+            receivedEntity.getContent().close();
+        }
+    }
+
+    private static byte[] toByteArray(HttpEntity entity) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static ByteArrayEntity toByteArrayEntity(HttpEntity entity, byte[] bytes) {
+        ByteArrayEntity byteArrayEntity = new ByteArrayEntity(bytes);
+        byteArrayEntity.setContentType(entity.getContentType());
+        byteArrayEntity.setContentEncoding(entity.getContentEncoding());
+        return byteArrayEntity;
     }
 }
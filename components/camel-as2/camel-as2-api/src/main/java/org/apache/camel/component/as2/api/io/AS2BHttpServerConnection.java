@@ -16,16 +16,35 @@
  */
 package org.apache.camel.component.as2.api.io;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CharsetEncoder;
+import java.nio.file.Files;
 
+import org.apache.camel.component.as2.api.AS2Header;
+import org.apache.camel.component.as2.api.AS2MessageArchive;
+import org.apache.camel.component.as2.api.AS2RequestHandlerMapper;
+import org.apache.camel.component.as2.api.AS2WireCapture;
 import org.apache.camel.component.as2.api.entity.EntityParser;
+import org.apache.camel.component.as2.api.util.HttpMessageUtils;
+import org.apache.http.ContentTooLongException;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpException;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.config.MessageConstraints;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentLengthStrategy;
 import org.apache.http.impl.DefaultBHttpServerConnection;
 import org.apache.http.io.HttpMessageParserFactory;
@@ -33,6 +52,29 @@ import org.apache.http.io.HttpMessageWriterFactory;
 
 public class AS2BHttpServerConnection extends DefaultBHttpServerConnection {
 
+    private static final int SPILL_BUFFER_SIZE = 8 * 1024;
+
+    private volatile long requestReadStartTime;
+    private volatile long spillThreshold = -1;
+    private volatile long maxContentLength = -1;
+    // the body of the current request, if limited
+    private LimitedInputStream limitedContent;
+    private volatile File spillDirectory;
+    private File spillFile;
+    private InputStream spillStream;
+    private volatile AS2MessageArchive archive;
+    private volatile AS2RequestHandlerMapper handlerMapper;
+    // whether the body of the current request is retained
+    private boolean retainRequestBody;
+    // the body of the current request as received, if retained
+    private byte[] requestBody;
+    private String requestMessageId;
+    private volatile AS2WireCapture wireCapture;
+    // the capture of the current exchange, if selected
+    private AS2WireCapture exchangeCapture;
+    // the tap of the body of the current request, if captured as it streams
+    private AS2WireCapture.BodyTap requestTap;
+
     public AS2BHttpServerConnection(int buffersize) {
         super(buffersize);
     }
@@ -57,10 +99,341 @@ public class AS2BHttpServerConnection extends DefaultBHttpServerConnection {
                 outgoingContentStrategy, requestParserFactory, responseWriterFactory);
     }
     
+    /**
+     * Waits for the first bytes of the next request received by this connection.
+     *
+     * @param timeout - the maximum time to wait in milliseconds, or <code>0</code> to wait indefinitely.
+     * @return <code>true</code> if a request is arriving, <code>false</code> if the client closed the connection.
+     * @throws java.net.SocketTimeoutException if no request arrived within the timeout.
+     */
+    public boolean awaitRequest(int timeout) throws IOException {
+        ensureOpen();
+        if (!awaitInput(timeout)) {
+            return false;
+        }
+        requestReadStartTime = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     * @return The time the request currently being read started to arrive, or <code>0</code> if no request is being read.
+     */
+    public long getRequestReadStartTime() {
+        return requestReadStartTime;
+    }
+
+    /**
+     * Sets the length from which the body of received requests is written to
+     * a temporary file as it arrives, rather than parsed from the connection.
+     *
+     * @param spillThreshold - the length in bytes, or a negative value to never spill request bodies.
+     * @param spillDirectory - the directory of the temporary files, or <code>null</code> for the default temporary directory.
+     */
+    public void setSpillThreshold(long spillThreshold, File spillDirectory) {
+        this.spillThreshold = spillThreshold;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Sets the maximum length of the body of received requests, enforced as
+     * the body is read so that bodies of unknown length are limited too. A
+     * longer body fails with an {@link HttpException} caused by a
+     * {@link ContentTooLongException}.
+     *
+     * @param maxContentLength - the maximum length in bytes, or a negative value for no limit.
+     */
+    public void setMaxContentLength(long maxContentLength) {
+        this.maxContentLength = maxContentLength;
+    }
+
+    /**
+     * Sets the archive keeping the bodies of the requests received and responses sent by this connection.
+     *
+     * @param archive - the archive, or <code>null</code> to not archive messages.
+     */
+    public void setArchive(AS2MessageArchive archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * Sets the mapper of the handlers of received requests, deciding for each
+     * request whether its body is kept as received, see {@link #getRequestBody()}.
+     *
+     * @param handlerMapper - the mapper, or <code>null</code> to not keep request bodies.
+     */
+    public void setHandlerMapper(AS2RequestHandlerMapper handlerMapper) {
+        this.handlerMapper = handlerMapper;
+    }
+
+    /**
+     * @return The body of the current request as received, before its
+     *         entity was parsed, or <code>null</code> if not retained.
+     */
+    public byte[] getRequestBody() {
+        return requestBody;
+    }
+
+    /**
+     * Sets the capture keeping the last requests received and responses sent by this connection.
+     *
+     * @param wireCapture - the capture, or <code>null</code> to not capture messages.
+     */
+    public void setWireCapture(AS2WireCapture wireCapture) {
+        this.wireCapture = wireCapture;
+    }
+
+    @Override
+    public HttpRequest receiveRequestHeader() throws HttpException, IOException {
+        HttpRequest request = super.receiveRequestHeader();
+        finishRequestCapture();
+        requestBody = null;
+        AS2RequestHandlerMapper mapper = handlerMapper;
+        retainRequestBody = mapper != null && mapper.isRequestBodyRetained(request);
+        requestMessageId = HttpMessageUtils.getHeaderValue(request, AS2Header.MESSAGE_ID);
+        AS2WireCapture capture = wireCapture;
+        exchangeCapture = capture != null && capture.isCaptured(request) ? capture : null;
+        return request;
+    }
+
     @Override
     public void receiveRequestEntity(HttpEntityEnclosingRequest request) throws HttpException, IOException {
-        super.receiveRequestEntity(request);
-        EntityParser.parseAS2MessageEntity(request);
+        try {
+            super.receiveRequestEntity(request);
+            limitContentLength(request);
+            spill(request);
+            AS2MessageArchive messageArchive = archive;
+            AS2WireCapture capture = exchangeCapture;
+            if (messageArchive == null && !retainRequestBody) {
+                if (capture != null) {
+                    // only the start of the body is captured: copy it as the body is read
+                    requestTap = capture.createBodyTap(false, request);
+                    request.setEntity(requestTap.tap(request.getEntity()));
+                }
+                EntityParser.parseAS2MessageEntity(request);
+                return;
+            }
+            // keep the body as received: the parsed entity is written differently
+            byte[] body = spillFile == null ? toByteArray(request) : null;
+            if (retainRequestBody) {
+                requestBody = body != null ? body : Files.readAllBytes(spillFile.toPath());
+            }
+            EntityParser.parseAS2MessageEntity(request);
+            if (messageArchive != null) {
+                try (InputStream in = body != null ? new ByteArrayInputStream(body) : new FileInputStream(spillFile)) {
+                    messageArchive.archive(false, request, null, in);
+                }
+            }
+            if (capture != null) {
+                try (InputStream in = body != null ? new ByteArrayInputStream(body) : new FileInputStream(spillFile)) {
+                    capture.capture(false, request, in);
+                }
+            }
+        } catch (HttpException | IOException e) {
+            // parsers wrap the failure of the stream in their own exceptions
+            LimitedInputStream content = limitedContent;
+            if (content != null && content.exceeded) {
+                throw new HttpException("Content length exceeds " + content.limit + " bytes", new ContentTooLongException(e.getMessage()));
+            }
+            throw e;
+        } finally {
+            limitedContent = null;
+            requestReadStartTime = 0;
+        }
+    }
+
+    @Override
+    public void sendResponseEntity(HttpResponse response) throws HttpException, IOException {
+        AS2MessageArchive messageArchive = archive;
+        AS2WireCapture capture = exchangeCapture;
+        if (messageArchive == null && capture != null && response.getEntity() != null) {
+            // only the start of the body is captured: copy it as the body is sent
+            HttpEntity entity = response.getEntity();
+            response.setEntity(capture.createBodyTap(true, response).tap(entity));
+            try {
+                super.sendResponseEntity(response);
+            } finally {
+                response.setEntity(entity);
+            }
+            return;
+        }
+        if (messageArchive != null && response.getEntity() != null) {
+            // send the bytes archived and captured
+            byte[] body = toByteArray(response);
+            if (messageArchive != null) {
+                messageArchive.archive(true, response, requestMessageId, new ByteArrayInputStream(body));
+            }
+            if (capture != null) {
+                capture.capture(true, response, new ByteArrayInputStream(body));
+            }
+        }
+        super.sendResponseEntity(response);
+    }
+
+    private void finishRequestCapture() {
+        AS2WireCapture.BodyTap tap = requestTap;
+        if (tap != null) {
+            requestTap = null;
+            tap.finish();
+        }
+    }
+
+    /**
+     * Replaces the entity of a message by its bytes.
+     */
+    private static byte[] toByteArray(HttpEntityEnclosingRequest request) throws IOException {
+        HttpEntity entity = request.getEntity();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        byte[] bytes = out.toByteArray();
+        request.setEntity(toByteArrayEntity(entity, bytes));
+        return bytes;
+    }
+
+    private static byte[] toByteArray(HttpResponse response) throws IOException {
+        HttpEntity entity = response.getEntity();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        byte[] bytes = out.toByteArray();
+        response.setEntity(toByteArrayEntity(entity, bytes));
+        return bytes;
+    }
+
+    private static ByteArrayEntity toByteArrayEntity(HttpEntity entity, byte[] bytes) {
+        ByteArrayEntity byteArrayEntity = new ByteArrayEntity(bytes);
+        byteArrayEntity.setContentType(entity.getContentType());
+        byteArrayEntity.setContentEncoding(entity.getContentEncoding());
+        return byteArrayEntity;
+    }
+
+    private void limitContentLength(HttpEntityEnclosingRequest request) throws IOException {
+        final long limit = maxContentLength;
+        if (limit < 0) {
+            return;
+        }
+        HttpEntity entity = request.getEntity();
+        limitedContent = new LimitedInputStream(entity.getContent(), limit);
+        BasicHttpEntity limitedEntity = new BasicHttpEntity();
+        limitedEntity.setContent(limitedContent);
+        limitedEntity.setContentLength(entity.getContentLength());
+        limitedEntity.setContentType(entity.getContentType());
+        limitedEntity.setContentEncoding(entity.getContentEncoding());
+        request.setEntity(limitedEntity);
+    }
+
+    /**
+     * Fails reading a body longer than the maximum content length.
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+
+        private final long limit;
+        private long count;
+        private boolean exceeded;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        private void count(long n) throws ContentTooLongException {
+            count += n;
+            if (count > limit) {
+                exceeded = true;
+                throw new ContentTooLongException("Content length exceeds " + limit + " bytes");
+            }
+        }
+    }
+
+    /**
+     * Writes the body of a large request to a temporary file as it arrives and
+     * replaces its entity by one reading the file: the connection is not held
+     * by a slow partner while the body is parsed, and the body is archived or
+     * captured from the file rather than copied on the heap.
+     */
+    private void spill(HttpEntityEnclosingRequest request) throws IOException {
+        HttpEntity entity = request.getEntity();
+        long contentLength = entity.getContentLength();
+        if (spillThreshold < 0 || contentLength >= 0 && contentLength < spillThreshold) {
+            return;
+        }
+
+        discardSpilledEntity();
+        spillFile = File.createTempFile("camel-as2-", ".body", spillDirectory);
+        try (InputStream in = entity.getContent(); OutputStream out = new FileOutputStream(spillFile)) {
+            byte[] buffer = new byte[SPILL_BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        }
+
+        BasicHttpEntity spilledEntity = new BasicHttpEntity();
+        spillStream = new FileInputStream(spillFile);
+        spilledEntity.setContent(spillStream);
+        spilledEntity.setContentLength(spillFile.length());
+        spilledEntity.setContentType(entity.getContentType());
+        spilledEntity.setContentEncoding(entity.getContentEncoding());
+        request.setEntity(spilledEntity);
+    }
+
+    /**
+     * Deletes the temporary file of the body of the last received request, if any.
+     */
+    public void discardSpilledEntity() {
+        if (spillStream != null) {
+            try {
+                spillStream.close();
+            } catch (IOException e) {
+                // the file is deleted regardless
+            }
+            spillStream = null;
+        }
+        if (spillFile != null) {
+            if (!spillFile.delete()) {
+                spillFile.deleteOnExit();
+            }
+            spillFile = null;
+        }
+    }
+
+    @Override
+    public void sendResponseHeader(HttpResponse response) throws HttpException, IOException {
+        if (response.getStatusLine().getStatusCode() >= HttpStatus.SC_OK) {
+            // the request was answered without its body being read
+            requestReadStartTime = 0;
+            // the request is captured before its response, as much of its body as was read
+            finishRequestCapture();
+            AS2WireCapture capture = exchangeCapture;
+            if (capture != null && response.getEntity() == null) {
+                // no entity sent: capture the response as a whole here
+                capture.capture(true, response, null);
+            }
+        }
+        super.sendResponseHeader(response);
     }
 
 }
@@ -21,8 +21,10 @@ import java.io.IOException;
 import org.apache.camel.component.as2.api.AS2ClientManager;
 import org.apache.camel.component.as2.api.AS2Constants;
 import org.apache.camel.component.as2.api.AS2Header;
+import org.apache.camel.component.as2.api.AS2SendProfile;
 import org.apache.camel.component.as2.api.InvalidAS2NameException;
 import org.apache.camel.component.as2.api.Util;
+import org.apache.http.Header;
 import org.apache.http.HttpException;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpRequestInterceptor;
@@ -44,6 +46,18 @@ public class RequestAS2 implements HttpRequestInterceptor {
         
         HttpCoreContext coreContext = HttpCoreContext.adapt(context);
         
+        AS2SendProfile sendProfile = coreContext.getAttribute(AS2ClientManager.SEND_PROFILE, AS2SendProfile.class);
+        if (sendProfile != null) {
+            // Headers prepared and validated by the send profile
+            request.addHeader(AS2Header.MIME_VERSION, AS2Constants.MIME_VERSION);
+            request.addHeader(AS2Header.AS2_VERSION, as2Version);
+            for (Header header : sendProfile.getAS2Headers()) {
+                request.addHeader(header);
+            }
+            addMessageId(request);
+            return;
+        }
+
         /* MIME header */
         request.addHeader(AS2Header.MIME_VERSION, AS2Constants.MIME_VERSION);
         
@@ -76,9 +90,15 @@ public class RequestAS2 implements HttpRequestInterceptor {
         }
         request.addHeader(AS2Header.AS2_TO, as2To);
         
+        addMessageId(request);
+    }
+
+    private void addMessageId(HttpRequest request) {
         /* Message-Id header*/
         // SHOULD be set to aid in message reconciliation
-        request.addHeader(AS2Header.MESSAGE_ID, Util.createMessageId(clientFQDN));
+        if (!request.containsHeader(AS2Header.MESSAGE_ID)) {
+            request.addHeader(AS2Header.MESSAGE_ID, Util.createMessageId(clientFQDN));
+        }
     }
 
 }
@@ -20,6 +20,8 @@ import java.io.IOException;
 
 import org.apache.camel.component.as2.api.AS2ClientManager;
 import org.apache.camel.component.as2.api.AS2Header;
+import org.apache.camel.component.as2.api.AS2SendProfile;
+import org.apache.http.Header;
 import org.apache.http.HttpException;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpRequestInterceptor;
@@ -31,11 +33,35 @@ public class RequestMDN implements HttpRequestInterceptor {
     
     private static final String SIGNED_RECEIPT_PREFIX = "signed-receipt-protocol=optional, pkcs7-signature; signed-receipt-micalg=optional";
 
+    /**
+     * Creates the value of a <code>Disposition-Notification-Options</code> header requesting a signed receipt.
+     *
+     * @param micAlgorithms - the names of the requested MIC algorithms.
+     * @return The header value.
+     */
+    public static String createDispositionNotificationOptions(String[] micAlgorithms) {
+        CharArrayBuffer options = new CharArrayBuffer(
+                SIGNED_RECEIPT_PREFIX.length() + 5 * micAlgorithms.length);
+        options.append(SIGNED_RECEIPT_PREFIX);
+        for (String micAlgorithm : micAlgorithms) {
+            options.append("," + micAlgorithm);
+        }
+        return options.toString();
+    }
+
     @Override
     public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
         
         HttpCoreContext coreContext = HttpCoreContext.adapt(context);
         
+        AS2SendProfile sendProfile = coreContext.getAttribute(AS2ClientManager.SEND_PROFILE, AS2SendProfile.class);
+        if (sendProfile != null) {
+            for (Header header : sendProfile.getMDNHeaders()) {
+                request.addHeader(header);
+            }
+            return;
+        }
+
         /* Disposition-Notification-To */
         String dispositionNotificationTo = coreContext.getAttribute(AS2ClientManager.DISPOSITION_NOTIFICATION_TO, String.class);
         if (dispositionNotificationTo != null) {
@@ -45,15 +71,7 @@ public class RequestMDN implements HttpRequestInterceptor {
             if (micAlgorithms == null) {
                 // requesting unsigned receipt: indicate by not setting Disposition-Notification-Options header
             } else {
-
-                CharArrayBuffer options = new CharArrayBuffer(
-                        SIGNED_RECEIPT_PREFIX.length() + 5 * micAlgorithms.length);
-                options.append(SIGNED_RECEIPT_PREFIX);
-                for (String micAlgorithm : micAlgorithms) {
-                    options.append("," + micAlgorithm);
-                }
-
-                request.addHeader(AS2Header.DISPOSITION_NOTIFICATION_OPTIONS, options.toString());
+                request.addHeader(AS2Header.DISPOSITION_NOTIFICATION_OPTIONS, createDispositionNotificationOptions(micAlgorithms));
             }
         }
 
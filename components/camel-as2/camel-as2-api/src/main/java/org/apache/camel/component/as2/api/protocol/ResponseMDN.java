@@ -19,17 +19,23 @@ package org.apache.camel.component.as2.api.protocol;
 import java.io.IOException;
 import java.security.PrivateKey;
 import java.security.cert.Certificate;
+import java.util.concurrent.Callable;
 
+import org.apache.camel.component.as2.api.AS2AsyncMDNDispatcher;
 import org.apache.camel.component.as2.api.AS2Charset;
 import org.apache.camel.component.as2.api.AS2Constants;
+import org.apache.camel.component.as2.api.AS2DeferredReceipt;
 import org.apache.camel.component.as2.api.AS2Header;
 import org.apache.camel.component.as2.api.AS2MimeType;
 import org.apache.camel.component.as2.api.AS2ReportType;
 import org.apache.camel.component.as2.api.AS2ServerManager;
 import org.apache.camel.component.as2.api.AS2SignedDataGenerator;
+import org.apache.camel.component.as2.api.AS2TradingPartner;
+import org.apache.camel.component.as2.api.AS2TradingPartnerRegistry;
 import org.apache.camel.component.as2.api.AS2TransferEncoding;
 import org.apache.camel.component.as2.api.InvalidAS2NameException;
 import org.apache.camel.component.as2.api.Util;
+import org.apache.camel.component.as2.api.entity.AS2DispositionModifier;
 import org.apache.camel.component.as2.api.entity.AS2DispositionType;
 import org.apache.camel.component.as2.api.entity.DispositionMode;
 import org.apache.camel.component.as2.api.entity.DispositionNotificationMultipartReportEntity;
@@ -43,8 +49,12 @@ import org.apache.camel.component.as2.api.util.SigningUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpException;
+import org.apache.http.HttpMessage;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.HttpStatus;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.message.BasicHttpResponse;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.protocol.HttpCoreContext;
 import org.slf4j.Logger;
@@ -56,16 +66,46 @@ public class ResponseMDN implements HttpResponseInterceptor {
     
     private static final Logger LOG = LoggerFactory.getLogger(ResponseMDN.class);
     
+    /**
+     * Headers of the response copied into an asynchronously delivered receipt.
+     */
+    private static final String[] ASYNC_RECEIPT_HEADERS = {
+        AS2Header.MIME_VERSION,
+        AS2Header.AS2_VERSION,
+        AS2Header.SUBJECT,
+        AS2Header.FROM,
+        AS2Header.AS2_FROM,
+        AS2Header.AS2_TO,
+        AS2Header.MESSAGE_ID
+    };
+    
     private final String as2Version;
     private final String serverFQDN;
     private Certificate[] signingCertificateChain;
     private PrivateKey signingPrivateKey;
+    private AS2AsyncMDNDispatcher asyncMDNDispatcher;
+    private AS2TradingPartnerRegistry tradingPartnerRegistry;
 
     public ResponseMDN(String as2Version, String serverFQDN, Certificate[] signingCertificateChain, PrivateKey signingPrivateKey) {
+        this(as2Version, serverFQDN, signingCertificateChain, signingPrivateKey, null);
+    }
+
+    public ResponseMDN(String as2Version, String serverFQDN, Certificate[] signingCertificateChain, PrivateKey signingPrivateKey, AS2AsyncMDNDispatcher asyncMDNDispatcher) {
+        this(as2Version, serverFQDN, signingCertificateChain, signingPrivateKey, asyncMDNDispatcher, null);
+    }
+
+    /**
+     * Creates an interceptor signing the receipts sent to partners registered
+     * in <code>tradingPartnerRegistry</code> with the key of the partner, and
+     * other receipts with the given key.
+     */
+    public ResponseMDN(String as2Version, String serverFQDN, Certificate[] signingCertificateChain, PrivateKey signingPrivateKey, AS2AsyncMDNDispatcher asyncMDNDispatcher, AS2TradingPartnerRegistry tradingPartnerRegistry) {
         this.as2Version = as2Version;
         this.serverFQDN = serverFQDN;
         this.signingCertificateChain = signingCertificateChain;
         this.signingPrivateKey = signingPrivateKey;
+        this.asyncMDNDispatcher = asyncMDNDispatcher;
+        this.tradingPartnerRegistry = tradingPartnerRegistry;
     }
 
     @Override
@@ -76,9 +116,12 @@ public class ResponseMDN implements HttpResponseInterceptor {
             LOG.debug("MDN not added due to response status code: " + statusCode);
             return;
         }
-        LOG.debug("Adding MDN to response: " + response);
-
         HttpCoreContext coreContext = HttpCoreContext.adapt(context);
+        if (coreContext.getAttribute(AS2ServerManager.DUPLICATE_MESSAGE) != null) {
+            LOG.debug("MDN not added to recorded response of duplicate message");
+            return;
+        }
+        LOG.debug("Adding MDN to response: " + response);
         
         HttpEntityEnclosingRequest request = coreContext.getAttribute(HttpCoreContext.HTTP_REQUEST, HttpEntityEnclosingRequest.class);
         if (request == null) {
@@ -87,6 +130,31 @@ public class ResponseMDN implements HttpResponseInterceptor {
         }
         LOG.debug("Processing MDN for request: " + request);
         
+        // the context is shared by the requests of a connection: only reuse a partner resolved for this request
+        AS2TradingPartner partner = coreContext.getAttribute(AS2ServerManager.TRADING_PARTNER, AS2TradingPartner.class);
+        if (coreContext.getAttribute(AS2ServerManager.TRADING_PARTNER_REQUEST) != request) {
+            if (partner != null && !partner.isSenderOf(HttpMessageUtils.getHeaderValue(request, AS2Header.AS2_FROM),
+                    HttpMessageUtils.getHeaderValue(request, AS2Header.AS2_TO))) {
+                partner = null;
+            }
+            if (partner == null && tradingPartnerRegistry != null) {
+                partner = tradingPartnerRegistry.resolve(request);
+                coreContext.setAttribute(AS2ServerManager.TRADING_PARTNER, partner);
+                coreContext.setAttribute(AS2ServerManager.TRADING_PARTNER_REQUEST, request);
+            }
+        }
+
+        // set by the handler when it failed to process the message
+        AS2DispositionModifier dispositionModifier = coreContext.getAttribute(AS2ServerManager.DISPOSITION_MODIFIER, AS2DispositionModifier.class);
+
+        // receipts are signed with the key of the partner, else of the handler, else of the connection
+        Certificate[] receiptSigningCertificateChain = coreContext.getAttribute(AS2ServerManager.SIGNING_CERTIFICATE_CHAIN, Certificate[].class);
+        PrivateKey receiptSigningPrivateKey = coreContext.getAttribute(AS2ServerManager.SIGNING_PRIVATE_KEY, PrivateKey.class);
+        if (receiptSigningCertificateChain == null || receiptSigningPrivateKey == null) {
+            receiptSigningCertificateChain = signingCertificateChain;
+            receiptSigningPrivateKey = signingPrivateKey;
+        }
+
         /* MIME header */
         response.addHeader(AS2Header.MIME_VERSION, AS2Constants.MIME_VERSION);
 
@@ -132,50 +200,160 @@ public class ResponseMDN implements HttpResponseInterceptor {
         response.addHeader(AS2Header.MESSAGE_ID, Util.createMessageId(serverFQDN));
         
         if (HttpMessageUtils.getHeaderValue(request, AS2Header.DISPOSITION_NOTIFICATION_TO) != null) {
-            // Return a Message Disposition Notification Receipt in response body 
-            String boundary = EntityUtils.createBoundaryValue();
-            DispositionNotificationMultipartReportEntity multipartReportEntity = new DispositionNotificationMultipartReportEntity(
-                    request, response, DispositionMode.AUTOMATIC_ACTION_MDN_SENT_AUTOMATICALLY,
-                    AS2DispositionType.PROCESSED, null, null, null, null, null, AS2Charset.US_ASCII, boundary, true);
-
-            DispositionNotificationOptions dispositionNotificationOptions = DispositionNotificationOptionsParser
-                    .parseDispositionNotificationOptions(
-                            HttpMessageUtils.getHeaderValue(request, AS2Header.DISPOSITION_NOTIFICATION_OPTIONS), null);
             
             String receiptAddress = HttpMessageUtils.getHeaderValue(request, AS2Header.RECEIPT_DELIVERY_OPTION);
             if (receiptAddress != null) { 
                 // Asynchronous Delivery
-                // TODO Implement
+                if (asyncMDNDispatcher == null) {
+                    LOG.warn("Asynchronous MDN requested but no dispatcher configured: receipt not sent");
+                } else {
+                    AS2DeferredReceipt deferredReceipt = coreContext.getAttribute(AS2ServerManager.DEFERRED_RECEIPT, AS2DeferredReceipt.class);
+                    if (deferredReceipt != null) {
+                        // dispatched once the handler has processed the message, after this response is sent
+                        deferredReceipt.setDispatch(new DeferredDispatch(receiptAddress, request, snapshot(response), partner,
+                                dispositionModifier, receiptSigningCertificateChain, receiptSigningPrivateKey));
+                    } else {
+                        try {
+                            dispatchAsyncReceipt(receiptAddress, request, response, partner, dispositionModifier,
+                                    receiptSigningCertificateChain, receiptSigningPrivateKey);
+                        } catch (HttpException e) {
+                            // the message is not acknowledged without its receipt: the partner resends it
+                            LOG.warn("Failed to queue asynchronous MDN, refusing message: " + e.getMessage());
+                            response.setStatusCode(HttpStatus.SC_SERVICE_UNAVAILABLE);
+                            response.setEntity(null);
+                        }
+                    }
+                }
             } else { 
                 // Synchronous Delivery
-                
-                AS2SignedDataGenerator gen = null;
-                if (dispositionNotificationOptions.getSignedReceiptProtocol() != null && signingCertificateChain != null && signingPrivateKey != null) {
-                    gen = SigningUtils.createSigningGenerator(signingCertificateChain, signingPrivateKey);
-                }
-                
-                if (gen != null) {
-                    // Create signed receipt
-                    try {
-                        multipartReportEntity.setMainBody(false);
-                        MultipartSignedEntity multipartSignedEntity = new MultipartSignedEntity(multipartReportEntity, gen,
-                                AS2Charset.US_ASCII, AS2TransferEncoding.BASE64, false, null);
-                        response.setHeader(multipartSignedEntity.getContentType());
-                        EntityUtils.setMessageEntity(response, multipartSignedEntity);
-                    } catch (Exception e) {
-                        LOG.warn("failed to sign receipt");
+                addReceipt(request, response, response, partner, dispositionModifier, receiptSigningCertificateChain, receiptSigningPrivateKey);
+            }
+            
+        }
+        if (LOG.isDebugEnabled() && response.getEntity() != null) {
+            // serializing the response is costly: only when logged
+            LOG.debug(Util.printMessage(response));
+        }
+    }
+
+    /**
+     * Creates a receipt for <code>request</code> and sets it as the entity of <code>receiptMessage</code>.
+     * The receipt reports the message processed, with <code>dispositionModifier</code> if not <code>null</code>.
+     */
+    private void addReceipt(HttpEntityEnclosingRequest request, HttpResponse response, HttpMessage receiptMessage, AS2TradingPartner partner,
+                            AS2DispositionModifier dispositionModifier, Certificate[] receiptSigningCertificateChain,
+                            PrivateKey receiptSigningPrivateKey) throws HttpException {
+        String boundary = EntityUtils.createBoundaryValue();
+        DispositionNotificationMultipartReportEntity multipartReportEntity = new DispositionNotificationMultipartReportEntity(
+                request, response, DispositionMode.AUTOMATIC_ACTION_MDN_SENT_AUTOMATICALLY,
+                AS2DispositionType.PROCESSED, dispositionModifier, null, null, null, null, AS2Charset.US_ASCII, boundary, true);
+
+        DispositionNotificationOptions dispositionNotificationOptions = DispositionNotificationOptionsParser
+                .parseDispositionNotificationOptions(
+                        HttpMessageUtils.getHeaderValue(request, AS2Header.DISPOSITION_NOTIFICATION_OPTIONS), null);
+
+        AS2SignedDataGenerator gen = null;
+        if (dispositionNotificationOptions.getSignedReceiptProtocol() != null) {
+            if (partner != null && partner.getSigningGenerator() != null) {
+                gen = partner.getSigningGenerator();
+            } else if (receiptSigningCertificateChain != null && receiptSigningPrivateKey != null) {
+                gen = SigningUtils.createSigningGenerator(receiptSigningCertificateChain, receiptSigningPrivateKey);
+            }
+        }
+        
+        if (gen != null) {
+            // Create signed receipt
+            try {
+                multipartReportEntity.setMainBody(false);
+                MultipartSignedEntity multipartSignedEntity = new MultipartSignedEntity(multipartReportEntity, gen,
+                        AS2Charset.US_ASCII, AS2TransferEncoding.BASE64, false, null);
+                receiptMessage.setHeader(multipartSignedEntity.getContentType());
+                EntityUtils.setMessageEntity(receiptMessage, multipartSignedEntity);
+            } catch (Exception e) {
+                LOG.warn("failed to sign receipt");
+            }
+        } else {
+            // Create unsigned receipt
+            Header reportTypeHeader = AS2HeaderUtils.createHeader(AS2Header.REPORT_TYPE, new String[][] {{AS2ReportType.DISPOSITION_NOTIFICATION}, {BOUNDARY_PARAM_NAME, boundary}});
+            receiptMessage.addHeader(reportTypeHeader);
+            receiptMessage.setHeader(AS2Header.CONTENT_TYPE, AS2MimeType.MULTIPART_REPORT);
+            EntityUtils.setMessageEntity(receiptMessage, multipartReportEntity);
+        }
+    }
+
+    /**
+     * Queues a receipt for <code>request</code> for delivery to <code>receiptAddress</code>. 
+     * 
+     * <p>The receipt is created on the dispatcher thread so the response to the
+     * request is sent without waiting on receipt generation.
+     */
+    private void dispatchAsyncReceipt(String receiptAddress, final HttpEntityEnclosingRequest request, HttpResponse response, final AS2TradingPartner partner,
+                                      final AS2DispositionModifier dispositionModifier, final Certificate[] receiptSigningCertificateChain,
+                                      final PrivateKey receiptSigningPrivateKey) throws HttpException {
+        final HttpResponse responseSnapshot = snapshot(response);
+        
+        asyncMDNDispatcher.dispatch(receiptAddress, new Callable<HttpEntityEnclosingRequest>() {
+            @Override
+            public HttpEntityEnclosingRequest call() throws Exception {
+                // request URI is set by dispatcher from the receipt address
+                BasicHttpEntityEnclosingRequest receipt = new BasicHttpEntityEnclosingRequest("POST", "/");
+                for (String headerName : ASYNC_RECEIPT_HEADERS) {
+                    Header header = responseSnapshot.getFirstHeader(headerName);
+                    if (header != null) {
+                        receipt.addHeader(header);
                     }
-                } else {
-                    // Create unsigned receipt
-                    Header reportTypeHeader = AS2HeaderUtils.createHeader(AS2Header.REPORT_TYPE, new String[][] {{AS2ReportType.DISPOSITION_NOTIFICATION}, {BOUNDARY_PARAM_NAME, boundary}});
-                    response.addHeader(reportTypeHeader);
-                    response.setHeader(AS2Header.CONTENT_TYPE, AS2MimeType.MULTIPART_REPORT);
-                    EntityUtils.setMessageEntity(response, multipartReportEntity);
                 }
+                addReceipt(request, responseSnapshot, receipt, partner, dispositionModifier, receiptSigningCertificateChain, receiptSigningPrivateKey);
+                return receipt;
+            }
+        });
+    }
+
+    /**
+     * Snapshots the status and headers of <code>response</code>: the response
+     * itself is recycled once sent.
+     */
+    private static HttpResponse snapshot(HttpResponse response) {
+        HttpResponse responseSnapshot = new BasicHttpResponse(response.getStatusLine());
+        responseSnapshot.setHeaders(response.getAllHeaders());
+        return responseSnapshot;
+    }
+
+    /**
+     * Queues the receipt of a message whose MDN was deferred until the
+     * message was processed.
+     */
+    private final class DeferredDispatch implements Runnable {
+
+        private final String receiptAddress;
+        private final HttpEntityEnclosingRequest request;
+        private final HttpResponse responseSnapshot;
+        private final AS2TradingPartner partner;
+        private final AS2DispositionModifier dispositionModifier;
+        private final Certificate[] receiptSigningCertificateChain;
+        private final PrivateKey receiptSigningPrivateKey;
+
+        DeferredDispatch(String receiptAddress, HttpEntityEnclosingRequest request, HttpResponse responseSnapshot, AS2TradingPartner partner,
+                         AS2DispositionModifier dispositionModifier, Certificate[] receiptSigningCertificateChain, PrivateKey receiptSigningPrivateKey) {
+            this.receiptAddress = receiptAddress;
+            this.request = request;
+            this.responseSnapshot = responseSnapshot;
+            this.partner = partner;
+            this.dispositionModifier = dispositionModifier;
+            this.receiptSigningCertificateChain = receiptSigningCertificateChain;
+            this.receiptSigningPrivateKey = receiptSigningPrivateKey;
+        }
+
+        @Override
+        public void run() {
+            try {
+                dispatchAsyncReceipt(receiptAddress, request, responseSnapshot, partner, dispositionModifier,
+                        receiptSigningCertificateChain, receiptSigningPrivateKey);
+            } catch (HttpException e) {
+                // the response is sent: the partner, receiving no MDN, resends the message
+                LOG.error("Failed to queue asynchronous MDN, no MDN sent: " + e.getMessage());
             }
-            
         }
-        LOG.debug(Util.printMessage(response));
     }
 
 }
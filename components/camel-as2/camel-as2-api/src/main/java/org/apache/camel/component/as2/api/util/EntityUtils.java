@@ -26,10 +26,13 @@ import java.util.concurrent.atomic.AtomicLong;
 import org.apache.camel.component.as2.api.AS2Charset;
 import org.apache.camel.component.as2.api.AS2Header;
 import org.apache.camel.component.as2.api.AS2MediaType;
+import org.apache.camel.component.as2.api.entity.AS2MessageDispositionNotificationEntity;
 import org.apache.camel.component.as2.api.entity.ApplicationEDIConsentEntity;
 import org.apache.camel.component.as2.api.entity.ApplicationEDIEntity;
 import org.apache.camel.component.as2.api.entity.ApplicationEDIFACTEntity;
 import org.apache.camel.component.as2.api.entity.ApplicationEDIX12Entity;
+import org.apache.camel.component.as2.api.entity.DispositionNotificationMultipartReportEntity;
+import org.apache.camel.component.as2.api.entity.MultipartSignedEntity;
 import org.apache.commons.codec.binary.Base64InputStream;
 import org.apache.commons.codec.binary.Base64OutputStream;
 import org.apache.commons.codec.net.QuotedPrintableCodec;
@@ -188,6 +191,22 @@ public final class EntityUtils {
         
     }
     
+    public static ApplicationEDIEntity createEDIEntity(byte[] ediMessageContent, ContentType ediMessageContentType, String contentTransferEncoding, boolean isMainBody) throws Exception {
+        Args.notNull(ediMessageContent, "EDI Message Content");
+        Args.notNull(ediMessageContentType, "EDI Message Content Type");
+        String charset = ediMessageContentType.getCharset() == null ? AS2Charset.US_ASCII : ediMessageContentType.getCharset().toString();
+        switch(ediMessageContentType.getMimeType().toLowerCase()) {
+        case AS2MediaType.APPLICATION_EDIFACT:
+            return new ApplicationEDIFACTEntity(ediMessageContent, charset, contentTransferEncoding, isMainBody);
+        case AS2MediaType.APPLICATION_EDI_X12:
+            return new ApplicationEDIX12Entity(ediMessageContent, charset, contentTransferEncoding, isMainBody);
+        case AS2MediaType.APPLICATION_EDI_CONSENT:
+            return new ApplicationEDIConsentEntity(ediMessageContent, charset, contentTransferEncoding, isMainBody);
+        default:
+            throw new Exception("Invalid EDI entity mime type: " + ediMessageContentType.getMimeType());
+        }
+    }
+
     public static byte[] getContent(HttpEntity entity) {
         try {
             final ByteArrayOutputStream outstream = new ByteArrayOutputStream();
@@ -219,6 +238,31 @@ public final class EntityUtils {
         return null;
     }
 
+    /**
+     * Returns the message disposition notification carried by a parsed message,
+     * either directly in a multipart report or in the signed part of a
+     * multipart signed entity.
+     *
+     * @param message - the message carrying the MDN.
+     * @return The message disposition notification or <code>null</code> if the message does not carry one.
+     */
+    public static AS2MessageDispositionNotificationEntity getMessageDispositionNotificationEntity(HttpMessage message) {
+        HttpEntity entity = getMessageEntity(message);
+        if (entity instanceof MultipartSignedEntity) {
+            MultipartSignedEntity multipartSignedEntity = (MultipartSignedEntity) entity;
+            entity = multipartSignedEntity.getPartCount() > 0 ? multipartSignedEntity.getPart(0) : null;
+        }
+        if (entity instanceof DispositionNotificationMultipartReportEntity) {
+            DispositionNotificationMultipartReportEntity reportEntity = (DispositionNotificationMultipartReportEntity) entity;
+            for (int i = 0; i < reportEntity.getPartCount(); i++) {
+                if (reportEntity.getPart(i) instanceof AS2MessageDispositionNotificationEntity) {
+                    return (AS2MessageDispositionNotificationEntity) reportEntity.getPart(i);
+                }
+            }
+        }
+        return null;
+    }
+
     public static void setMessageEntity(HttpMessage message, HttpEntity entity) {
         if (message instanceof HttpEntityEnclosingRequest) {
             ((HttpEntityEnclosingRequest) message).setEntity(entity);
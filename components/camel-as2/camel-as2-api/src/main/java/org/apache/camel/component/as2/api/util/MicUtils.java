@@ -24,6 +24,9 @@ import org.apache.camel.component.as2.api.AS2Charset;
 import org.apache.camel.component.as2.api.AS2Header;
 import org.apache.camel.component.as2.api.AS2MicAlgorithm;
 import org.apache.camel.component.as2.api.AS2MimeType;
+import org.apache.camel.component.as2.api.entity.AS2DispositionModifier;
+import org.apache.camel.component.as2.api.entity.AS2DispositionType;
+import org.apache.camel.component.as2.api.entity.AS2MessageDispositionNotificationEntity;
 import org.apache.camel.component.as2.api.entity.ApplicationEDIEntity;
 import org.apache.camel.component.as2.api.entity.DispositionNotificationOptions;
 import org.apache.camel.component.as2.api.entity.DispositionNotificationOptionsParser;
@@ -82,6 +85,79 @@ public final class MicUtils {
         }
     }
     
+    public static MessageDigest createMicDigest(String algorithmId) {
+        try {
+            return MessageDigest.getInstance(algorithmId, "BC");
+        } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
+            LOG.debug("failed to get message digest '" + algorithmId + "'");
+            return null;
+        }
+    }
+
+    /**
+     * Determines if a received content MIC returned in an MDN matches the one
+     * computed for the sent message.
+     *
+     * @param expected - the MIC computed for the sent message.
+     * @param received - the MIC returned in the MDN.
+     * @return <code>true</code> if both MICs use the same algorithm and have the same digest.
+     */
+    public static boolean isMatchingMic(ReceivedContentMic expected, ReceivedContentMic received) {
+        if (expected == null || received == null
+                || expected.getDigestAlgorithmId() == null || received.getDigestAlgorithmId() == null
+                || expected.getEncodedMessageDigest() == null || received.getEncodedMessageDigest() == null) {
+            return false;
+        }
+        return expected.getDigestAlgorithmId().trim().equalsIgnoreCase(received.getDigestAlgorithmId().trim())
+                && expected.getEncodedMessageDigest().trim().equals(received.getEncodedMessageDigest().trim());
+    }
+
+    /**
+     * Checks an MDN returned for a sent message: the disposition must report
+     * the message processed and the received content MIC, if any, must match
+     * the one computed for the sent message.
+     *
+     * @param mdn - the MDN.
+     * @param sentRequest - a copy of the sent request whose entity was not consumed, or <code>null</code> if the MDN returns no MIC.
+     * @return The failure reported by the MDN or found verifying its MIC, or <code>null</code> if none.
+     */
+    public static String verifyMdn(AS2MessageDispositionNotificationEntity mdn, HttpEntityEnclosingRequest sentRequest) {
+        AS2DispositionModifier modifier = mdn.getDispositionModifier();
+        if (mdn.getDispositionType() == AS2DispositionType.FAILED
+                || modifier != null && (modifier.getModifier().startsWith("error") || modifier.isFailuer())) {
+            return "MDN reports disposition " + mdn.getDispositionType() + (modifier == null ? "" : "/" + modifier);
+        }
+        if (mdn.getReceivedContentMic() != null && sentRequest != null) {
+            try {
+                ReceivedContentMic expectedMic = createReceivedContentMic(sentRequest);
+                if (expectedMic != null && !isMatchingMic(expectedMic, mdn.getReceivedContentMic())) {
+                    return "received content MIC '" + mdn.getReceivedContentMic() + "' in MDN does not match sent content MIC '"
+                            + expectedMic + "'";
+                }
+            } catch (HttpException e) {
+                return "failed to verify MIC returned in MDN: " + e.getMessage();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses a received content MIC formatted by {@link ReceivedContentMic#toString()}.
+     *
+     * @param value - the encoded digest and the digest algorithm ID, separated by a comma.
+     * @return The received content MIC, or <code>null</code> if the value is <code>null</code> or malformed.
+     */
+    public static ReceivedContentMic parseReceivedContentMic(String value) {
+        if (value == null) {
+            return null;
+        }
+        int separator = value.indexOf(',');
+        if (separator < 0) {
+            return null;
+        }
+        return new ReceivedContentMic(value.substring(separator + 1).trim(), value.substring(0, separator).trim());
+    }
+
     public static ReceivedContentMic createReceivedContentMic(HttpEntityEnclosingRequest request) throws HttpException {
         
         String dispositionNotificationOptionsString =  HttpMessageUtils.getHeaderValue(request, AS2Header.DISPOSITION_NOTIFICATION_OPTIONS);
@@ -89,4 +89,32 @@ public final class SigningUtils {
         return gen;
         
     }
+
+    /**
+     * Creates signing generators for the given certificate chain and private
+     * key, one per calling thread since signing generators are not thread
+     * safe.
+     *
+     * <p>The generator of the calling thread is created immediately so that an
+     * invalid chain or key is reported by this method.
+     */
+    public static ThreadLocal<AS2SignedDataGenerator> createThreadLocalSigningGenerator(final Certificate[] certificateChain, final PrivateKey privateKey) throws HttpException {
+        final AS2SignedDataGenerator initialGenerator = createSigningGenerator(certificateChain, privateKey);
+        return new ThreadLocal<AS2SignedDataGenerator>() {
+            private boolean initialGeneratorUsed;
+
+            @Override
+            protected synchronized AS2SignedDataGenerator initialValue() {
+                if (!initialGeneratorUsed) {
+                    initialGeneratorUsed = true;
+                    return initialGenerator;
+                }
+                try {
+                    return createSigningGenerator(certificateChain, privateKey);
+                } catch (HttpException e) {
+                    throw new IllegalStateException("Failed to create signing generator", e);
+                }
+            }
+        };
+    }
 }
@@ -0,0 +1,174 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AS2AsyncMDNDispatcherTest {
+
+    private static final int RECEIPT_PORT = 8081;
+    private static final String RECEIPT_ADDRESS = "http://localhost:" + RECEIPT_PORT + "/mdn";
+    private static final String AS2_NAME = "878051556";
+    private static final String RECEIPT_CONTENT = "Disposition: automatic-action/MDN-sent-automatically;processed";
+
+    private AS2ServerConnection receiptServer;
+    private CountDownLatch receiptsReceived;
+    // number of receipts to reject before accepting them
+    private final AtomicInteger rejectedReceipts = new AtomicInteger();
+    private File queueDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        receiptsReceived = new CountDownLatch(2);
+        startReceiptServer();
+        queueDirectory = Files.createTempDirectory("mdn-queue").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (receiptServer != null) {
+            receiptServer.close();
+        }
+        File[] files = queueDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        queueDirectory.delete();
+    }
+
+    @Test
+    public void deliverReceiptsTest() throws Exception {
+        AS2AsyncMDNDispatcher dispatcher = new AS2AsyncMDNDispatcher("Test Dispatcher", queueDirectory);
+        try {
+            dispatcher.dispatch(RECEIPT_ADDRESS, new ReceiptFactory());
+            dispatcher.dispatch(RECEIPT_ADDRESS, new ReceiptFactory());
+
+            assertTrue("Receipts not delivered", receiptsReceived.await(10, TimeUnit.SECONDS));
+            waitForDelivered(dispatcher, 2);
+            assertEquals("Unexpected number of delivered receipts", 2, dispatcher.getDeliveredCount());
+            assertEquals("Delivered receipts still persisted", 0, queueDirectory.listFiles().length);
+        } finally {
+            dispatcher.stop();
+        }
+    }
+
+    @Test
+    public void retryTest() throws Exception {
+        rejectedReceipts.set(2);
+        AS2AsyncMDNDispatcher dispatcher = new AS2AsyncMDNDispatcher("Test Dispatcher", queueDirectory);
+        dispatcher.setInitialBackoff(50);
+        try {
+            dispatcher.dispatch(RECEIPT_ADDRESS, new ReceiptFactory());
+
+            waitForDelivered(dispatcher, 1);
+            assertEquals("Receipt not delivered", 1, dispatcher.getDeliveredCount());
+            assertEquals("Unexpected number of retries", 2, dispatcher.getRetriedCount());
+            assertEquals("Delivered receipt still persisted", 0, queueDirectory.listFiles().length);
+        } finally {
+            dispatcher.stop();
+        }
+    }
+
+    @Test
+    public void reloadTest() throws Exception {
+        // receipt host down
+        receiptServer.close();
+        receiptServer = null;
+        AS2AsyncMDNDispatcher dispatcher = new AS2AsyncMDNDispatcher("Test Dispatcher", queueDirectory);
+        dispatcher.setInitialBackoff(60000);
+        dispatcher.dispatch(RECEIPT_ADDRESS, new ReceiptFactory());
+        // persisted as soon as queued
+        assertEquals("Receipt not persisted", 1, queueDirectory.listFiles().length);
+        dispatcher.stop();
+        assertEquals("Receipt not kept on stop", 1, dispatcher.getPendingCount());
+
+        startReceiptServer();
+        dispatcher = new AS2AsyncMDNDispatcher("Test Dispatcher", queueDirectory);
+        try {
+            dispatcher.start();
+            waitForDelivered(dispatcher, 1);
+            assertEquals("Reloaded receipt not delivered", 1, dispatcher.getDeliveredCount());
+            assertEquals("Delivered receipt still persisted", 0, queueDirectory.listFiles().length);
+        } finally {
+            dispatcher.stop();
+        }
+    }
+
+    @Test(expected = HttpException.class)
+    public void unsupportedReceiptAddressTest() throws Exception {
+        AS2AsyncMDNDispatcher dispatcher = new AS2AsyncMDNDispatcher("Test Dispatcher", null);
+        dispatcher.dispatch("mailto:as2@example.org", new ReceiptFactory());
+    }
+
+    private void startReceiptServer() throws IOException {
+        receiptServer = new AS2ServerConnection("1.1", "ReceiptServer", "server.example.org", RECEIPT_PORT, null, null);
+        receiptServer.listen("/mdn", new HttpRequestHandler() {
+            @Override
+            public void handle(HttpRequest request, HttpResponse response, HttpContext context)
+                    throws HttpException, IOException {
+                if (rejectedReceipts.getAndDecrement() > 0) {
+                    response.setStatusCode(HttpStatus.SC_SERVICE_UNAVAILABLE);
+                    return;
+                }
+                receiptsReceived.countDown();
+            }
+        });
+    }
+
+    private static void waitForDelivered(AS2AsyncMDNDispatcher dispatcher, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (dispatcher.getDeliveredCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+    }
+
+    private static class ReceiptFactory implements Callable<HttpEntityEnclosingRequest> {
+        @Override
+        public HttpEntityEnclosingRequest call() throws Exception {
+            BasicHttpEntityEnclosingRequest receipt = new BasicHttpEntityEnclosingRequest("POST", "/mdn");
+            receipt.addHeader(AS2Header.AS2_FROM, AS2_NAME);
+            receipt.addHeader(AS2Header.AS2_TO, AS2_NAME);
+            receipt.setEntity(new StringEntity(RECEIPT_CONTENT, ContentType.TEXT_PLAIN));
+            return receipt;
+        }
+    }
+}
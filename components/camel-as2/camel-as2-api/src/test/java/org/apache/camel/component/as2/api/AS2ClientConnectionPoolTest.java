@@ -0,0 +1,115 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ContentType;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class AS2ClientConnectionPoolTest {
+
+    private static final int TARGET_PORT = 8892;
+    private static final String AS2_NAME = "878051556";
+
+    private AS2ServerConnection server;
+    private AS2ClientConnectionPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new AS2ServerConnection("1.1", "PoolTestServer", "server.example.org", TARGET_PORT, null, null);
+        server.listen("*", new HttpRequestHandler() {
+            @Override
+            public void handle(HttpRequest request, HttpResponse response, HttpContext context)
+                    throws HttpException, IOException {
+            }
+        });
+        pool = new AS2ClientConnectionPool(10, 2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.close();
+        server.close();
+    }
+
+    @Test
+    public void reuseConnectionTest() throws Exception {
+        AS2ClientConnection first = new AS2ClientConnection("1.1", "PoolTestClient", "client.example.org", "localhost", TARGET_PORT, pool);
+        AS2ClientConnection second = new AS2ClientConnection("1.1", "PoolTestClient", "client.example.org", "localhost", TARGET_PORT, pool);
+        assertEquals("Connection opened before first use", 0, pool.getTotalStats().getAvailable());
+
+        send(first);
+        send(second);
+        send(first);
+
+        PoolStats stats = pool.getTotalStats();
+        assertEquals("Unexpected leased connections", 0, stats.getLeased());
+        assertEquals("Connection not reused", 1, stats.getAvailable());
+    }
+
+    @Test
+    public void tlsSettingsRouteTest() throws Exception {
+        HttpHost host = new HttpHost("localhost", TARGET_PORT);
+        AS2TlsSettings tlsSettings = new AS2TlsSettings(SSLContext.getDefault());
+
+        pool.release(pool.lease(host, null), true);
+
+        assertEquals("Connection not pooled", 1, pool.getStats(host, null).getAvailable());
+        assertEquals("Connection shared with other TLS settings", 0, pool.getStats(host, tlsSettings).getAvailable());
+    }
+
+    @Test
+    public void connectFailureTest() throws Exception {
+        ServerSocket closed = new ServerSocket(0);
+        int port = closed.getLocalPort();
+        closed.close();
+
+        pool.setConnectTimeout(1000);
+        try {
+            pool.lease(new HttpHost("localhost", port), null);
+            fail("Connected to closed port");
+        } catch (IOException e) {
+            // expected
+        }
+
+        PoolStats stats = pool.getTotalStats();
+        assertEquals("Failed connection still leased", 0, stats.getLeased());
+        assertEquals("Failed connection kept in pool", 0, stats.getAvailable());
+    }
+
+    private static void send(AS2ClientConnection connection) throws Exception {
+        new AS2ClientManager(connection).send(AS2MessageTest.EDI_MESSAGE, "/", "Test", "test@example.org", AS2_NAME, AS2_NAME,
+                AS2MessageStructure.PLAIN, ContentType.create(AS2MediaType.APPLICATION_EDIFACT, AS2Charset.US_ASCII),
+                null, null, null, null, null);
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AS2DeferredReceiptTest {
+
+    @Test
+    public void processedAfterDispatchTest() {
+        AtomicInteger dispatched = new AtomicInteger();
+        AS2DeferredReceipt receipt = new AS2DeferredReceipt();
+        receipt.setDispatch(new Dispatch(dispatched));
+        assertEquals("MDN dispatched before message processed", 0, dispatched.get());
+
+        receipt.complete(true);
+        assertEquals("MDN not dispatched", 1, dispatched.get());
+    }
+
+    @Test
+    public void processedBeforeDispatchTest() {
+        AtomicInteger dispatched = new AtomicInteger();
+        AS2DeferredReceipt receipt = new AS2DeferredReceipt();
+        receipt.complete(true);
+
+        receipt.setDispatch(new Dispatch(dispatched));
+        assertEquals("MDN not dispatched", 1, dispatched.get());
+    }
+
+    @Test
+    public void failedTest() {
+        AtomicInteger dispatched = new AtomicInteger();
+        AS2DeferredReceipt receipt = new AS2DeferredReceipt();
+        receipt.setDispatch(new Dispatch(dispatched));
+        receipt.complete(false);
+        assertEquals("MDN dispatched for failed message", 0, dispatched.get());
+
+        receipt = new AS2DeferredReceipt();
+        receipt.complete(false);
+        receipt.setDispatch(new Dispatch(dispatched));
+        assertEquals("MDN dispatched for failed message", 0, dispatched.get());
+    }
+
+    private static class Dispatch implements Runnable {
+
+        private final AtomicInteger dispatched;
+
+        Dispatch(AtomicInteger dispatched) {
+            this.dispatched = dispatched;
+        }
+
+        @Override
+        public void run() {
+            dispatched.incrementAndGet();
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.io.File;
+
+import org.apache.camel.component.as2.api.AS2MDNCorrelationStore.OutboundMessage;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class AS2MDNCorrelationStoreTest {
+
+    private static final String PARTNER = "878051556";
+    private static final String MIC = "Vqo2XtPxY5SUWUmtVA7Ms1DAm8E=,sha1";
+
+    @Test
+    public void lookupTest() {
+        AS2MDNCorrelationStore store = new AS2MDNCorrelationStore();
+        long now = System.currentTimeMillis();
+        store.add(new OutboundMessage("<1@example.org>", PARTNER, now, MIC));
+
+        OutboundMessage message = store.get("<1@example.org>");
+        assertNotNull("Message not recorded", message);
+        assertEquals("Unexpected partner", PARTNER, message.getPartner());
+        assertEquals("Unexpected send time", now, message.getSendTime());
+        assertEquals("Unexpected expected MIC", MIC, message.getExpectedMic());
+
+        assertNotNull("Message not removed", store.remove("<1@example.org>"));
+        assertNull("Message still recorded", store.get("<1@example.org>"));
+    }
+
+    @Test
+    public void evictionTest() {
+        AS2MDNCorrelationStore store = new AS2MDNCorrelationStore(2, 60000, null);
+        long now = System.currentTimeMillis();
+        store.add(new OutboundMessage("<expired@example.org>", PARTNER, now - 120000, MIC));
+        store.add(new OutboundMessage("<1@example.org>", PARTNER, now, MIC));
+        store.add(new OutboundMessage("<2@example.org>", PARTNER, now, MIC));
+        store.add(new OutboundMessage("<3@example.org>", PARTNER, now, MIC));
+
+        assertEquals("Unexpected store size", 2, store.size());
+        assertNull("Expired message still recorded", store.get("<expired@example.org>"));
+        assertNull("Eldest message still recorded", store.get("<1@example.org>"));
+        assertNotNull("Message not recorded", store.get("<3@example.org>"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedTest() {
+        AS2MDNCorrelationStore store = new AS2MDNCorrelationStore();
+        store.close();
+        store.add(new OutboundMessage("<1@example.org>", PARTNER, System.currentTimeMillis(), MIC));
+    }
+
+    @Test
+    public void persistenceTest() throws Exception {
+        File file = File.createTempFile("mdn-correlation", ".log");
+        try {
+            AS2MDNCorrelationStore store = new AS2MDNCorrelationStore(100, 60000, file);
+            long now = System.currentTimeMillis();
+            store.add(new OutboundMessage("<1@example.org>", PARTNER, now, MIC));
+            store.add(new OutboundMessage("<2@example.org>", null, now, null));
+            store.remove("<1@example.org>");
+            store.close();
+
+            AS2MDNCorrelationStore reloaded = new AS2MDNCorrelationStore(100, 60000, file);
+            assertEquals("Unexpected store size", 1, reloaded.size());
+            OutboundMessage message = reloaded.get("<2@example.org>");
+            assertNotNull("Message not reloaded", message);
+            assertNull("Unexpected partner", message.getPartner());
+            assertNull("Unexpected expected MIC", message.getExpectedMic());
+            reloaded.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void compactionTest() throws Exception {
+        File file = File.createTempFile("mdn-correlation", ".log");
+        try {
+            AS2MDNCorrelationStore store = new AS2MDNCorrelationStore(10, 60000, file);
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < 2000; i++) {
+                store.add(new OutboundMessage("<" + i + "@example.org>", PARTNER, now, MIC));
+            }
+            // changes after the compaction are still appended
+            store.remove("<1999@example.org>");
+            store.close();
+            assertFalse("Compacted file not renamed", new File(file.getPath() + ".tmp").exists());
+
+            AS2MDNCorrelationStore reloaded = new AS2MDNCorrelationStore(10, 60000, file);
+            assertEquals("Unexpected store size", 9, reloaded.size());
+            assertNotNull("Message not reloaded", reloaded.get("<1998@example.org>"));
+            assertNull("Removed message reloaded", reloaded.get("<1999@example.org>"));
+            reloaded.close();
+        } finally {
+            file.delete();
+        }
+    }
+}
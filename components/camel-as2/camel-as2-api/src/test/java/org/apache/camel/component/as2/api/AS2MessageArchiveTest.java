@@ -0,0 +1,206 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.camel.component.as2.api.AS2MessageArchive.Record;
+import org.apache.camel.component.as2.api.AS2MessageArchive.RecordType;
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class AS2MessageArchiveTest {
+
+    private static final String REQUEST_LINE = "POST /receive HTTP/1.1";
+
+    @Test
+    public void appendGetTest() throws Exception {
+        File directory = Files.createTempDirectory("as2-archive").toFile();
+        try {
+            AS2MessageArchive archive = new AS2MessageArchive(directory, true, AS2MessageArchive.DEFAULT_MAX_SEGMENT_SIZE, 4);
+            try {
+                for (int i = 0; i < 100; i++) {
+                    append(archive, RecordType.SENT_MESSAGE, "<" + i + "@example.org>", "message " + i);
+                }
+                append(archive, RecordType.RECEIVED_MDN, "<1@example.org>", "receipt");
+
+                Record record = archive.get(RecordType.SENT_MESSAGE, "<1@example.org>");
+                assertNotNull("Message not archived", record);
+                assertEquals("Unexpected start line", REQUEST_LINE, record.getStartLine());
+                assertEquals("Unexpected header", "<1@example.org>", record.getHeaders()[0].getValue());
+                assertArrayEquals("Unexpected body", "message 1".getBytes(StandardCharsets.US_ASCII), record.getBody());
+                assertArrayEquals("Unexpected receipt", "receipt".getBytes(StandardCharsets.US_ASCII),
+                        archive.get(RecordType.RECEIVED_MDN, "<1@example.org>").getBody());
+                assertNull("Unexpected receipt", archive.get(RecordType.RECEIVED_MDN, "<2@example.org>"));
+                assertEquals("Unexpected index size", 101, archive.getIndexedCount());
+            } finally {
+                archive.close();
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void recoveryTest() throws Exception {
+        File directory = Files.createTempDirectory("as2-archive").toFile();
+        try {
+            AS2MessageArchive archive = new AS2MessageArchive(directory, false, 1024);
+            for (int i = 0; i < 20; i++) {
+                append(archive, RecordType.RECEIVED_MESSAGE, "<" + i + "@example.org>", "message " + i);
+            }
+            archive.close();
+            // segments rolled over
+            assertEquals("Unexpected file count", 3, directory.listFiles().length);
+
+            File index = new File(directory, "archive.idx");
+            index.delete();
+            File[] segments = directory.listFiles();
+            File last = segments[segments.length - 1];
+            try (RandomAccessFile file = new RandomAccessFile(last, "rw")) {
+                // record not fully written before a crash
+                file.setLength(file.length() - 3);
+            }
+
+            archive = new AS2MessageArchive(directory, false, 1024);
+            try {
+                assertNotNull("Message not recovered", archive.get(RecordType.RECEIVED_MESSAGE, "<0@example.org>"));
+                assertNotNull("Message not recovered", archive.get(RecordType.RECEIVED_MESSAGE, "<18@example.org>"));
+                assertNull("Incomplete message recovered", archive.get(RecordType.RECEIVED_MESSAGE, "<19@example.org>"));
+                append(archive, RecordType.RECEIVED_MESSAGE, "<19@example.org>", "message 19");
+                assertNotNull("Message not archived", archive.get(RecordType.RECEIVED_MESSAGE, "<19@example.org>"));
+            } finally {
+                archive.close();
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void scanTest() throws Exception {
+        File directory = Files.createTempDirectory("as2-archive").toFile();
+        try {
+            AS2MessageArchive archive = new AS2MessageArchive(directory, false, 1024);
+            try {
+                for (int i = 0; i < 10; i++) {
+                    append(archive, RecordType.SENT_MESSAGE, "<" + i + "@example.org>", "message " + i);
+                    append(archive, RecordType.RECEIVED_MDN, "<" + i + "@example.org>", "receipt " + i);
+                }
+                Thread.sleep(5);
+                long fromTime = System.currentTimeMillis();
+                for (int i = 10; i < 20; i++) {
+                    append(archive, RecordType.SENT_MESSAGE, "<" + i + "@example.org>", "message " + i);
+                }
+                Thread.sleep(5);
+                long toTime = System.currentTimeMillis();
+                append(archive, RecordType.SENT_MESSAGE, "<20@example.org>", "message 20");
+
+                final List<String> messageIds = new ArrayList<String>();
+                archive.scan(RecordType.SENT_MESSAGE, fromTime, toTime, new AS2MessageArchive.RecordHandler() {
+                    @Override
+                    public void handle(Record record) {
+                        messageIds.add(record.getMessageId());
+                    }
+                });
+                assertEquals("Unexpected scanned messages", 10, messageIds.size());
+                assertEquals("Unexpected first message", "<10@example.org>", messageIds.get(0));
+                assertEquals("Unexpected last message", "<19@example.org>", messageIds.get(9));
+            } finally {
+                archive.close();
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void concurrentGrowthTest() throws Exception {
+        File directory = Files.createTempDirectory("as2-archive").toFile();
+        try {
+            final AS2MessageArchive archive = new AS2MessageArchive(directory, true, AS2MessageArchive.DEFAULT_MAX_SEGMENT_SIZE, 4);
+            final List<Exception> failures = new CopyOnWriteArrayList<Exception>();
+            try {
+                Thread[] threads = new Thread[4];
+                for (int t = 0; t < threads.length; t++) {
+                    final int thread = t;
+                    threads[t] = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                for (int i = 0; i < 500; i++) {
+                                    String messageId = "<" + thread + "." + i + "@example.org>";
+                                    append(archive, RecordType.RECEIVED_MESSAGE, messageId, "message " + i);
+                                    // records appended while the index grows are found
+                                    assertNotNull("Message not archived", archive.get(RecordType.RECEIVED_MESSAGE, messageId));
+                                }
+                            } catch (Exception e) {
+                                failures.add(e);
+                            }
+                        }
+                    });
+                    threads[t].start();
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                assertEquals("Unexpected failures", new ArrayList<Exception>(), failures);
+                assertEquals("Unexpected index size", 2000, archive.getIndexedCount());
+            } finally {
+                archive.close();
+            }
+
+            AS2MessageArchive reopened = new AS2MessageArchive(directory, true, AS2MessageArchive.DEFAULT_MAX_SEGMENT_SIZE);
+            try {
+                assertEquals("Unexpected index size", 2000, reopened.getIndexedCount());
+                assertNotNull("Message not archived", reopened.get(RecordType.RECEIVED_MESSAGE, "<3.499@example.org>"));
+            } finally {
+                reopened.close();
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static void append(AS2MessageArchive archive, RecordType type, String messageId, String body) throws Exception {
+        archive.append(type, messageId, REQUEST_LINE, new Header[] {new BasicHeader(AS2Header.MESSAGE_ID, messageId)},
+                new ByteArrayInputStream(body.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
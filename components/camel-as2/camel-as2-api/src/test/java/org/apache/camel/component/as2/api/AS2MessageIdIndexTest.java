@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.apache.http.Header;
+import org.apache.http.HttpStatus;
+import org.apache.http.message.BasicHeader;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class AS2MessageIdIndexTest {
+
+    private static final String PARTNER = "878051556";
+
+    @Test
+    public void evictionTest() throws Exception {
+        AS2MessageIdIndex index = new AS2MessageIdIndex(2, 60000, null);
+        index.put(PARTNER, "<1@example.org>", createRecord(System.currentTimeMillis()));
+        index.put(PARTNER, "<2@example.org>", createRecord(System.currentTimeMillis()));
+        index.put(PARTNER, "<3@example.org>", createRecord(System.currentTimeMillis()));
+        assertEquals("Unexpected size", 2, index.size());
+        assertNull("Eldest message not evicted", index.get(PARTNER, "<1@example.org>"));
+        assertNotNull("Message evicted", index.get(PARTNER, "<3@example.org>"));
+
+        index = new AS2MessageIdIndex(10, 50, null);
+        index.put(PARTNER, "<1@example.org>", createRecord(System.currentTimeMillis()));
+        Thread.sleep(100);
+        assertNull("Expired message not evicted", index.get(PARTNER, "<1@example.org>"));
+    }
+
+    @Test
+    public void persistenceTest() throws Exception {
+        File file = Files.createTempFile("as2-message-ids", ".idx").toFile();
+        try {
+            AS2MessageIdIndex index = new AS2MessageIdIndex(10, 60000, file);
+            index.put(PARTNER, "<1@example.org>", createRecord(System.currentTimeMillis()));
+            index.close();
+
+            index = new AS2MessageIdIndex(10, 60000, file);
+            AS2MessageIdIndex.Record record = index.get(PARTNER, "<1@example.org>");
+            assertNotNull("Message not reloaded", record);
+            assertEquals("Unexpected status", HttpStatus.SC_OK, record.getStatusCode());
+            assertEquals("Unexpected header", "multipart/report", record.getHeaders()[0].getValue());
+            assertArrayEquals("Unexpected receipt", "receipt".getBytes("US-ASCII"), record.getReceipt());
+            assertEquals("Unexpected digest", 42, record.getPayloadDigest());
+            index.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void compactionTest() throws Exception {
+        File file = Files.createTempFile("as2-message-ids", ".idx").toFile();
+        try {
+            AS2MessageIdIndex index = new AS2MessageIdIndex(10, 60000, file);
+            for (int i = 0; i < 2000; i++) {
+                index.put(PARTNER, "<" + i + "@example.org>", createRecord(System.currentTimeMillis()));
+            }
+            index.close();
+            assertFalse("Compacted file not renamed", new File(file.getPath() + ".tmp").exists());
+
+            index = new AS2MessageIdIndex(10, 60000, file);
+            assertEquals("Unexpected size", 10, index.size());
+            assertNotNull("Message not reloaded", index.get(PARTNER, "<1999@example.org>"));
+            index.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void receiptCopyTest() throws Exception {
+        AS2MessageIdIndex.Record record = createRecord(System.currentTimeMillis());
+        record.getReceipt()[0] = 'X';
+        assertArrayEquals("Receipt modified", "receipt".getBytes("US-ASCII"), record.getReceipt());
+    }
+
+    private static AS2MessageIdIndex.Record createRecord(long receiveTime) throws Exception {
+        return new AS2MessageIdIndex.Record(receiveTime, 42, HttpStatus.SC_OK,
+                new Header[] {new BasicHeader(AS2Header.CONTENT_TYPE, "multipart/report")}, "receipt".getBytes("US-ASCII"));
+    }
+}
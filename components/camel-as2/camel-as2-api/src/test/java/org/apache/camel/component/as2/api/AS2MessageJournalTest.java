@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class AS2MessageJournalTest {
+
+    private static final String EDI_MESSAGE = "UNB+UNOA:1+005435656:1+006415160:1+060515:1434+00000000000778'\r\n"
+            + "UNZ+1+00000000000778'\r\n";
+
+    @Test
+    public void appendReadTest() throws Exception {
+        File directory = Files.createTempDirectory("as2-journal").toFile();
+        try {
+            AS2MessageJournal journal = new AS2MessageJournal(directory);
+            AS2MessageJournal.Entry entry = journal.append(createRequest("<1@example.org>"));
+
+            HttpEntityEnclosingRequest request = journal.read(entry);
+            assertEquals("Unexpected method", "POST", request.getRequestLine().getMethod());
+            assertEquals("Unexpected URI", "/receiver", request.getRequestLine().getUri());
+            assertEquals("Unexpected Message-Id", "<1@example.org>", request.getFirstHeader(AS2Header.MESSAGE_ID).getValue());
+            assertEquals("Unexpected content type", "application/edifact; charset=US-ASCII", request.getEntity().getContentType().getValue());
+            assertEquals("Unexpected body", EDI_MESSAGE, EntityUtils.toString(request.getEntity()));
+
+            journal.remove(entry);
+            assertFalse("Journal file not removed", entry.getFile().exists());
+            assertEquals("Unexpected entries", 0, journal.getEntries().size());
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void recoveryTest() throws Exception {
+        File directory = Files.createTempDirectory("as2-journal").toFile();
+        try {
+            AS2MessageJournal journal = new AS2MessageJournal(directory);
+            AS2MessageJournal.Entry first = journal.append(createRequest("<1@example.org>"));
+            journal.append(createRequest("<2@example.org>"));
+            journal.append(createRequest("<3@example.org>"));
+            journal.remove(first);
+            // message being written when the process crashed
+            try (FileOutputStream out = new FileOutputStream(new File(directory, "0000000000000000003.msg.tmp"))) {
+                out.write("POST /receiver\r\n".getBytes(StandardCharsets.US_ASCII));
+            }
+
+            AS2MessageJournal reopened = new AS2MessageJournal(directory);
+            List<AS2MessageJournal.Entry> entries = reopened.getEntries();
+            assertEquals("Unexpected entries", 2, entries.size());
+            assertEquals("Unexpected message", "<2@example.org>", reopened.read(entries.get(0)).getFirstHeader(AS2Header.MESSAGE_ID).getValue());
+            assertEquals("Unexpected message", "<3@example.org>", reopened.read(entries.get(1)).getFirstHeader(AS2Header.MESSAGE_ID).getValue());
+
+            AS2MessageJournal.Entry next = reopened.append(createRequest("<4@example.org>"));
+            assertEquals("Unexpected sequence", 3, next.getSequence());
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static HttpEntityEnclosingRequest createRequest(String messageId) {
+        BasicHttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest("POST", "/receiver");
+        request.addHeader(AS2Header.MESSAGE_ID, messageId);
+        request.addHeader(AS2Header.CONTENT_TYPE, "application/edifact; charset=US-ASCII");
+        request.setEntity(new StringEntity(EDI_MESSAGE, ContentType.create(AS2MediaType.APPLICATION_EDIFACT, StandardCharsets.US_ASCII)));
+        return request;
+    }
+
+    private static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
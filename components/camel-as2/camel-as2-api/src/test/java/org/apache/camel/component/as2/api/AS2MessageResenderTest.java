@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.camel.component.as2.api.AS2MessageArchive.RecordType;
+import org.apache.http.Header;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestHandler;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AS2MessageResenderTest {
+
+    private static final int TARGET_PORT = 8899;
+
+    private File directory;
+    private AS2MessageArchive archive;
+    private AS2ClientConnectionPool pool;
+    private AS2ServerConnection server;
+    private AS2MessageResender resender;
+    private final List<String> receivedMessageIds = new CopyOnWriteArrayList<String>();
+    private final List<String> receivedBodies = new CopyOnWriteArrayList<String>();
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("as2-archive").toFile();
+        archive = new AS2MessageArchive(directory);
+        pool = new AS2ClientConnectionPool(4, 4);
+        AS2ClientConnection clientConnection = new AS2ClientConnection("1.1", "ResendTestClient", "client.example.org", "localhost", TARGET_PORT, pool);
+        resender = new AS2MessageResender(clientConnection, archive);
+        resender.setParallelism(4);
+        server = new AS2ServerConnection("1.1", "ResendTestServer", "server.example.org", TARGET_PORT, null, null);
+        server.listen("*", new HttpRequestHandler() {
+            @Override
+            public void handle(HttpRequest request, HttpResponse response, HttpContext context) throws HttpException, IOException {
+                receivedMessageIds.add(request.getFirstHeader(AS2Header.MESSAGE_ID).getValue());
+                receivedBodies.add(EntityUtils.toString(((HttpEntityEnclosingRequest) request).getEntity(), StandardCharsets.US_ASCII));
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        pool.close();
+        archive.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void resendRangeTest() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            append(i % 2 == 0 ? "partnerA" : "\"partnerB\"", "<" + i + "@example.org>", "message " + i);
+        }
+        final List<AS2MessageResender.Progress> progress = new CopyOnWriteArrayList<AS2MessageResender.Progress>();
+        resender.setProgressInterval(0);
+        resender.setProgressListener(new AS2MessageResender.ProgressListener() {
+            @Override
+            public void onProgress(AS2MessageResender.Progress p) {
+                progress.add(p);
+            }
+        });
+
+        AS2MessageResender.Progress result = resender.resend("partnerB", 0, Long.MAX_VALUE);
+
+        assertEquals("Unexpected sent messages", 10, result.getSent());
+        assertEquals("Unexpected failed messages", 0, result.getFailed());
+        assertTrue("Resend not done", result.isDone());
+        assertEquals("Unexpected received messages", 10, receivedMessageIds.size());
+        assertTrue("Message-Id changed when resent", receivedMessageIds.contains("<1@example.org>"));
+        assertTrue("Body changed when resent", receivedBodies.contains("message 1"));
+        assertTrue("Message to other partner resent", !receivedMessageIds.contains("<0@example.org>"));
+        assertTrue("Progress not reported", progress.size() > 1);
+        assertTrue("Final progress not reported", progress.get(progress.size() - 1).isDone());
+    }
+
+    @Test
+    public void resendMessageIdsTest() throws Exception {
+        append("partnerA", "<1@example.org>", "message 1");
+        append("partnerA", "<2@example.org>", "message 2");
+
+        AS2MessageResender.Progress result = resender.resend(Arrays.asList("<2@example.org>", "<3@example.org>"));
+
+        assertEquals("Unexpected sent messages", 1, result.getSent());
+        assertEquals("Missing message not failed", 1, result.getFailed());
+        assertEquals("Unexpected failed message ids", Collections.singleton("<3@example.org>"), result.getFailures().keySet());
+        assertEquals("Unexpected received messages", Arrays.asList("<2@example.org>"), receivedMessageIds);
+    }
+
+    private void append(String as2To, String messageId, String body) throws Exception {
+        Header[] headers = {
+            new BasicHeader(AS2Header.MESSAGE_ID, messageId),
+            new BasicHeader(AS2Header.AS2_TO, as2To),
+            new BasicHeader(AS2Header.CONTENT_TYPE, "application/edifact"),
+            new BasicHeader(AS2Header.CONTENT_LENGTH, String.valueOf(body.length()))
+        };
+        archive.append(RecordType.SENT_MESSAGE, messageId, "POST /receive HTTP/1.1", headers,
+                new ByteArrayInputStream(body.getBytes(StandardCharsets.US_ASCII)));
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.camel.component.as2.api.entity.AS2DispositionModifier;
+import org.apache.camel.component.as2.api.entity.AS2DispositionType;
+import org.apache.camel.component.as2.api.entity.DispositionMode;
+import org.apache.camel.component.as2.api.entity.DispositionNotificationMultipartReportEntity;
+import org.apache.camel.component.as2.api.util.EntityUtils;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ContentType;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.protocol.HttpRequestHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AS2OutboundQueueTest {
+
+    private static final int TARGET_PORT = 8898;
+    private static final String AS2_NAME = "878051556";
+
+    private File directory;
+    private AS2ClientConnectionPool pool;
+    private AS2OutboundQueue queue;
+    private AS2ClientManager clientManager;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("as2-outbound").toFile();
+        pool = new AS2ClientConnectionPool(1, 1);
+        AS2ClientConnection clientConnection = new AS2ClientConnection("1.1", "QueueTestClient", "client.example.org", "localhost", TARGET_PORT, pool);
+        queue = new AS2OutboundQueue(clientConnection, directory);
+        queue.setInitialBackoff(50);
+        queue.setMaxBackoff(200);
+        clientManager = new AS2ClientManager(clientConnection, null, queue);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        queue.stop();
+        pool.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void partnerOutageTest() throws Exception {
+        // partner not listening yet
+        HttpCoreContext httpContext = send();
+        assertEquals("Message not queued", Boolean.TRUE, httpContext.getAttribute(AS2ClientManager.QUEUED));
+        assertNull("Unexpected response", httpContext.getResponse());
+        assertEquals("Unexpected queued messages", 1, queue.getJournal().getEntries().size());
+        String messageId = httpContext.getRequest().getFirstHeader(AS2Header.MESSAGE_ID).getValue();
+
+        final List<String> receivedMessageIds = new CopyOnWriteArrayList<String>();
+        AS2ServerConnection server = new AS2ServerConnection("1.1", "QueueTestServer", "server.example.org", TARGET_PORT, null, null);
+        try {
+            server.listen("*", new HttpRequestHandler() {
+                @Override
+                public void handle(HttpRequest request, HttpResponse response, HttpContext context) throws HttpException, IOException {
+                    receivedMessageIds.add(request.getFirstHeader(AS2Header.MESSAGE_ID).getValue());
+                }
+            });
+            queue.start();
+            awaitPendingMessages(0);
+        } finally {
+            server.close();
+        }
+
+        assertEquals("Unexpected received messages", 1, receivedMessageIds.size());
+        assertEquals("Message-Id changed when resent", messageId, receivedMessageIds.get(0));
+        assertEquals("Unexpected sent messages", 1, queue.getSentCount());
+        assertEquals("Message not removed from journal", 0, queue.getJournal().getEntries().size());
+    }
+
+    @Test
+    public void maxAttemptsTest() throws Exception {
+        queue.setMaxAttempts(3);
+        send();
+        queue.start();
+        awaitPendingMessages(0);
+
+        assertEquals("Unexpected failed messages", 1, queue.getFailedCount());
+        assertEquals("Failed message still in journal", 0, queue.getJournal().getEntries().size());
+        String[] names = directory.list();
+        assertEquals("Unexpected journal files", 1, names.length);
+        assertTrue("Failed message not kept", names[0].endsWith(".failed"));
+    }
+
+    @Test
+    public void failedDispositionTest() throws Exception {
+        final List<String> failedMessageIds = new CopyOnWriteArrayList<String>();
+        queue.setListener(new AS2OutboundQueue.Listener() {
+            @Override
+            public void delivered(String messageId, HttpResponse response) {
+            }
+
+            @Override
+            public void failed(String messageId, HttpResponse response, String reason) {
+                failedMessageIds.add(messageId);
+            }
+        });
+        HttpCoreContext httpContext = send();
+        String messageId = httpContext.getRequest().getFirstHeader(AS2Header.MESSAGE_ID).getValue();
+
+        AS2ServerConnection server = new AS2ServerConnection("1.1", "QueueTestServer", "server.example.org", TARGET_PORT, null, null);
+        try {
+            server.listen("*", new HttpRequestHandler() {
+                @Override
+                public void handle(HttpRequest request, HttpResponse response, HttpContext context) throws HttpException, IOException {
+                    // accepted at the HTTP level, failed by the MDN
+                    EntityUtils.setMessageEntity(response, new DispositionNotificationMultipartReportEntity((HttpEntityEnclosingRequest) request,
+                            response, DispositionMode.AUTOMATIC_ACTION_MDN_SENT_AUTOMATICALLY, AS2DispositionType.PROCESSED,
+                            AS2DispositionModifier.ERROR_UNEXPECTED_PROCESSING_ERROR, null, null, null, null, AS2Charset.US_ASCII,
+                            EntityUtils.createBoundaryValue(), true));
+                }
+            });
+            queue.start();
+            awaitPendingMessages(0);
+        } finally {
+            server.close();
+        }
+
+        assertEquals("Unexpected sent messages", 0, queue.getSentCount());
+        assertEquals("Unexpected failed messages", 1, queue.getFailedCount());
+        assertEquals("Failure not reported", 1, failedMessageIds.size());
+        assertEquals("Unexpected failed message", messageId, failedMessageIds.get(0));
+        String[] names = directory.list();
+        assertEquals("Unexpected journal files", 1, names.length);
+        assertTrue("Failed message not kept", names[0].endsWith(".failed"));
+    }
+
+    private HttpCoreContext send() throws HttpException {
+        return clientManager.send(AS2MessageTest.EDI_MESSAGE, "/", "Test", "test@example.org", AS2_NAME, AS2_NAME,
+                AS2MessageStructure.PLAIN, ContentType.create(AS2MediaType.APPLICATION_EDIFACT, AS2Charset.US_ASCII),
+                null, null, null, null, null);
+    }
+
+    private void awaitPendingMessages(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (queue.getPendingCount() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals("Unexpected pending messages", expected, queue.getPendingCount());
+    }
+}
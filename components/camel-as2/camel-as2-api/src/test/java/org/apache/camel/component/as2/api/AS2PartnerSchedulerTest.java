@@ -0,0 +1,115 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.camel.component.as2.api.AS2PartnerScheduler.Permit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class AS2PartnerSchedulerTest {
+
+    private static final String HEAVY_PARTNER = "heavy";
+    private static final String LIGHT_PARTNER = "light";
+
+    @Test
+    public void partnerLimitTest() throws Exception {
+        AS2PartnerScheduler scheduler = new AS2PartnerScheduler();
+        scheduler.setMaxConcurrentRequestsPerPartner(1);
+        scheduler.setAdmissionTimeout(100);
+
+        Permit permit = scheduler.acquire(HEAVY_PARTNER);
+        assertNotNull("Message not admitted", permit);
+        assertNull("Message admitted beyond partner limit", scheduler.acquire(HEAVY_PARTNER));
+        assertEquals("Unexpected rejected messages", 1, scheduler.getRejectedCount());
+        assertNotNull("Message of other partner not admitted", scheduler.acquire(LIGHT_PARTNER));
+
+        scheduler.release(permit);
+        scheduler.release(permit);
+        assertEquals("Unexpected active messages", 0, scheduler.getActiveCount(HEAVY_PARTNER));
+        assertEquals("Unexpected total active messages", 1, scheduler.getActiveCount());
+    }
+
+    @Test
+    public void fairAdmissionTest() throws Exception {
+        final AS2PartnerScheduler scheduler = new AS2PartnerScheduler();
+        scheduler.setMaxConcurrentRequests(1);
+        final List<String> admissions = Collections.synchronizedList(new ArrayList<String>());
+
+        Permit permit = scheduler.acquire(HEAVY_PARTNER);
+        List<Thread> senders = new ArrayList<Thread>();
+        for (int i = 0; i < 3; i++) {
+            senders.add(startSender(scheduler, HEAVY_PARTNER, admissions));
+        }
+        awaitWaiting(scheduler, 3);
+        senders.add(startSender(scheduler, LIGHT_PARTNER, admissions));
+        awaitWaiting(scheduler, 4);
+
+        // the partner without backlog is admitted ahead of the heavy sender
+        scheduler.release(permit);
+        for (Thread sender : senders) {
+            sender.join(5000);
+        }
+        assertEquals("Unexpected admissions", 4, admissions.size());
+        assertEquals("Idle partner not admitted first", LIGHT_PARTNER, admissions.get(0));
+    }
+
+    @Test
+    public void unlimitedTest() throws Exception {
+        AS2PartnerScheduler scheduler = new AS2PartnerScheduler();
+        Permit permit = scheduler.acquire(HEAVY_PARTNER);
+        assertNotNull("Message not admitted", permit);
+        assertEquals("Unexpected partner", HEAVY_PARTNER, permit.getPartner());
+        assertEquals("Unexpected total active messages", 1, scheduler.getActiveCount());
+        assertEquals("Unscheduled message counted for partner", 0, scheduler.getActiveCount(HEAVY_PARTNER));
+
+        permit.release();
+        permit.release();
+        assertEquals("Unexpected total active messages", 0, scheduler.getActiveCount());
+        assertEquals("Unexpected admitted messages", 1, scheduler.getAdmittedCount());
+    }
+
+    private static Thread startSender(final AS2PartnerScheduler scheduler, final String partner, final List<String> admissions) {
+        Thread sender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Permit permit = scheduler.acquire(partner);
+                    admissions.add(partner);
+                    scheduler.release(permit);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        sender.start();
+        return sender;
+    }
+
+    private static void awaitWaiting(AS2PartnerScheduler scheduler, int expected) throws InterruptedException {
+        for (int i = 0; i < 50 && scheduler.getWaitingCount() < expected; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals("Unexpected waiting messages", expected, scheduler.getWaitingCount());
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.io.IOException;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestHandler;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AS2RequestHandlerMapperTest {
+
+    private static final String PARTNER = "878051556";
+    private static final String OTHER_PARTNER = "OpenEDI";
+    private static final String LOCAL = "Camel";
+
+    @Test
+    public void lookupByNamesTest() {
+        AS2RequestHandlerMapper mapper = new AS2RequestHandlerMapper();
+        HttpRequestHandler partnerHandler = new TestHandler();
+        HttpRequestHandler localHandler = new TestHandler();
+        HttpRequestHandler defaultHandler = new TestHandler();
+        mapper.register("/as2", LOCAL, PARTNER, partnerHandler);
+        mapper.register("/as2", LOCAL, null, localHandler);
+
+        assertSame("Unexpected partner handler", partnerHandler, mapper.lookup(createRequest("/as2", LOCAL, PARTNER)));
+        assertSame("Unexpected recipient handler", localHandler, mapper.lookup(createRequest("/as2", LOCAL, OTHER_PARTNER)));
+        assertNull("Unknown recipient mapped", mapper.lookup(createRequest("/as2", OTHER_PARTNER, PARTNER)));
+
+        mapper.register("/as2", defaultHandler);
+        assertSame("Unexpected default handler", defaultHandler, mapper.lookup(createRequest("/as2?x=1", OTHER_PARTNER, PARTNER)));
+
+        mapper.unregister("/as2", LOCAL, PARTNER);
+        assertSame("Unexpected handler after unregistration", localHandler, mapper.lookup(createRequest("/as2", LOCAL, PARTNER)));
+    }
+
+    @Test
+    public void lookupBySenderTest() {
+        AS2RequestHandlerMapper mapper = new AS2RequestHandlerMapper();
+        HttpRequestHandler senderHandler = new TestHandler();
+        HttpRequestHandler localHandler = new TestHandler();
+        mapper.register("/as2", null, PARTNER, senderHandler);
+
+        assertSame("Unexpected sender handler", senderHandler, mapper.lookup(createRequest("/as2", OTHER_PARTNER, PARTNER)));
+        assertNull("Unknown sender mapped", mapper.lookup(createRequest("/as2", LOCAL, OTHER_PARTNER)));
+
+        // the recipient name is matched first
+        mapper.register("/as2", LOCAL, null, localHandler);
+        assertSame("Unexpected recipient handler", localHandler, mapper.lookup(createRequest("/as2", LOCAL, PARTNER)));
+        assertSame("Unexpected sender handler", senderHandler, mapper.lookup(createRequest("/as2", OTHER_PARTNER, PARTNER)));
+    }
+
+    @Test
+    public void reregisterTest() {
+        AS2RequestHandlerMapper mapper = new AS2RequestHandlerMapper();
+        HttpRequestHandler handler = new TestHandler();
+        mapper.register("/as2", LOCAL, PARTNER, handler);
+        mapper.unregister("/as2", LOCAL, PARTNER);
+        assertNull("Unregistered handler mapped", mapper.lookup(createRequest("/as2", LOCAL, PARTNER)));
+
+        mapper.register("/as2", LOCAL, PARTNER, handler);
+        assertSame("Handler not registered again", handler, mapper.lookup(createRequest("/as2", LOCAL, PARTNER)));
+    }
+
+    @Test
+    public void duplicateRegistrationTest() {
+        AS2RequestHandlerMapper mapper = new AS2RequestHandlerMapper();
+        HttpRequestHandler handler = new TestHandler();
+        HttpRequestHandler otherHandler = new TestHandler();
+        mapper.register("/as2", LOCAL, PARTNER, handler);
+        try {
+            mapper.register("/as2", LOCAL, PARTNER, otherHandler);
+            fail("Duplicate registration accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertSame("Registered handler replaced", handler, mapper.lookup(createRequest("/as2", LOCAL, PARTNER)));
+
+        // only the registered handler is unregistered
+        mapper.unregister("/as2", LOCAL, PARTNER, otherHandler);
+        assertSame("Registered handler unregistered", handler, mapper.lookup(createRequest("/as2", LOCAL, PARTNER)));
+        mapper.unregister("/as2", LOCAL, PARTNER, handler);
+        assertNull("Unregistered handler mapped", mapper.lookup(createRequest("/as2", LOCAL, PARTNER)));
+    }
+
+    @Test
+    public void lookupByPatternTest() {
+        AS2RequestHandlerMapper mapper = new AS2RequestHandlerMapper();
+        HttpRequestHandler anyHandler = new TestHandler();
+        HttpRequestHandler prefixHandler = new TestHandler();
+        mapper.register("*", anyHandler);
+        mapper.register("/as2/*", LOCAL, null, prefixHandler);
+
+        assertSame("Unexpected prefix handler", prefixHandler, mapper.lookup(createRequest("/as2/in", LOCAL, PARTNER)));
+        assertSame("Unexpected wildcard handler", anyHandler, mapper.lookup(createRequest("/as2/in", OTHER_PARTNER, PARTNER)));
+        assertSame("Unexpected wildcard handler", anyHandler, mapper.lookup(createRequest("/other", LOCAL, PARTNER)));
+
+        mapper.unregister("*");
+        assertNull("Unregistered handler mapped", mapper.lookup(createRequest("/other", LOCAL, PARTNER)));
+    }
+
+    @Test
+    public void retainRequestBodiesTest() {
+        AS2RequestHandlerMapper mapper = new AS2RequestHandlerMapper();
+        HttpRequestHandler storingHandler = new TestHandler();
+        HttpRequestHandler otherHandler = new TestHandler();
+        mapper.register("/as2", LOCAL, PARTNER, storingHandler);
+        mapper.register("/as2", LOCAL, null, otherHandler);
+        mapper.setRetainRequestBodies(storingHandler, true);
+
+        assertTrue("Body not retained for storing handler", mapper.isRequestBodyRetained(createRequest("/as2", LOCAL, PARTNER)));
+        assertFalse("Body retained for other handler", mapper.isRequestBodyRetained(createRequest("/as2", LOCAL, OTHER_PARTNER)));
+        assertFalse("Body retained for unmapped message", mapper.isRequestBodyRetained(createRequest("/other", LOCAL, PARTNER)));
+
+        mapper.setRetainRequestBodies(storingHandler, false);
+        assertFalse("Body retained after release", mapper.isRequestBodyRetained(createRequest("/as2", LOCAL, PARTNER)));
+    }
+
+    private static HttpRequest createRequest(String uri, String as2To, String as2From) {
+        BasicHttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest("POST", uri);
+        request.addHeader(AS2Header.AS2_TO, as2To);
+        request.addHeader(AS2Header.AS2_FROM, as2From);
+        return request;
+    }
+
+    private static class TestHandler implements HttpRequestHandler {
+        @Override
+        public void handle(HttpRequest request, HttpResponse response, HttpContext context) throws HttpException, IOException {
+        }
+    }
+}
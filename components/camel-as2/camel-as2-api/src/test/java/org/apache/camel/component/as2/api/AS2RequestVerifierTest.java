@@ -0,0 +1,200 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.camel.component.as2.api.entity.AS2DispositionModifier;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.protocol.HttpRequestHandler;
+import org.apache.http.util.EntityUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AS2RequestVerifierTest {
+
+    private static final String PARTNER = "878051556";
+    private static final String LOCAL = "Camel";
+
+    private AS2RequestHandlerMapper mapper;
+    private AS2RequestVerifier verifier;
+
+    @Before
+    public void setUp() {
+        mapper = new AS2RequestHandlerMapper();
+        mapper.register("/", LOCAL, null, new HttpRequestHandler() {
+            @Override
+            public void handle(HttpRequest request, HttpResponse response, HttpContext context) throws HttpException, IOException {
+            }
+        });
+        verifier = new AS2RequestVerifier(mapper);
+    }
+
+    @Test
+    public void namesTest() throws Exception {
+        assertEquals("Unexpected status", HttpStatus.SC_CONTINUE, verify(createRequest(PARTNER, LOCAL, "<1@example.org>", 10)));
+        assertEquals("Unexpected status", HttpStatus.SC_BAD_REQUEST, verify(createRequest(null, LOCAL, "<1@example.org>", 10)));
+        assertEquals("Unexpected status", HttpStatus.SC_NOT_FOUND, verify(createRequest(PARTNER, PARTNER, "<1@example.org>", 10)));
+    }
+
+    @Test
+    public void contentLengthTest() throws Exception {
+        verifier.setMaxContentLength(100);
+        assertEquals("Unexpected status", HttpStatus.SC_CONTINUE, verify(createRequest(PARTNER, LOCAL, "<1@example.org>", 100)));
+        assertEquals("Unexpected status", HttpStatus.SC_REQUEST_TOO_LONG, verify(createRequest(PARTNER, LOCAL, "<1@example.org>", 101)));
+    }
+
+    @Test
+    public void duplicateMessageTest() throws Exception {
+        verifier.setMaxTrackedMessageIds(10);
+        HttpRequest request = createRequest(PARTNER, LOCAL, "<1@example.org>", 10);
+        HttpCoreContext context = HttpCoreContext.adapt(new BasicHttpContext());
+        HttpResponse continueResponse = createContinueResponse();
+        verifier.verify(request, continueResponse, context);
+        assertEquals("Unexpected status", HttpStatus.SC_CONTINUE, continueResponse.getStatusLine().getStatusCode());
+
+        context.setAttribute(HttpCoreContext.HTTP_REQUEST, request);
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+        response.addHeader(AS2Header.CONTENT_TYPE, "multipart/report");
+        response.setEntity(new StringEntity("receipt", StandardCharsets.US_ASCII));
+        verifier.process(response, context);
+
+        HttpResponse duplicateResponse = createContinueResponse();
+        HttpContext duplicateContext = new BasicHttpContext();
+        verifier.verify(createRequest(PARTNER, LOCAL, "<1@example.org>", 10), duplicateResponse, duplicateContext);
+        assertEquals("Unexpected status", HttpStatus.SC_OK, duplicateResponse.getStatusLine().getStatusCode());
+        assertEquals("Unexpected receipt", "receipt", EntityUtils.toString(duplicateResponse.getEntity()));
+        assertEquals("Unexpected content type", "multipart/report", duplicateResponse.getFirstHeader(AS2Header.CONTENT_TYPE).getValue());
+        assertTrue("Duplicate not answered", verifier.answerDuplicate(request, duplicateResponse, duplicateContext));
+        assertEquals("Unexpected duplicates", 1, verifier.getDuplicateCount());
+
+        assertEquals("Unexpected status", HttpStatus.SC_CONTINUE, verify(createRequest(PARTNER, LOCAL, "<2@example.org>", 10)));
+        // message ids are scoped by sender
+        assertEquals("Unexpected status", HttpStatus.SC_CONTINUE, verify(createRequest("other", LOCAL, "<1@example.org>", 10)));
+    }
+
+    @Test
+    public void duplicatePayloadTest() throws Exception {
+        verifier.setMaxTrackedMessageIds(10);
+        verifier.setMatchDuplicatePayload(true);
+        BasicHttpEntityEnclosingRequest request = createRequest(PARTNER, LOCAL, "<1@example.org>", 7);
+        request.setEntity(new StringEntity("payload", StandardCharsets.US_ASCII));
+        HttpCoreContext context = HttpCoreContext.adapt(new BasicHttpContext());
+        context.setAttribute(HttpCoreContext.HTTP_REQUEST, request);
+        assertFalse("Message answered as duplicate", verifier.answerDuplicate(request, createContinueResponse(), context));
+        verifier.process(new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK"), context);
+
+        // payloads are only compared once received
+        assertEquals("Unexpected status", HttpStatus.SC_CONTINUE, verify(createRequest(PARTNER, LOCAL, "<1@example.org>", 7)));
+
+        BasicHttpEntityEnclosingRequest duplicate = createRequest(PARTNER, LOCAL, "<1@example.org>", 7);
+        duplicate.setEntity(new StringEntity("payload", StandardCharsets.US_ASCII));
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+        assertTrue("Duplicate not answered", verifier.answerDuplicate(duplicate, response, new BasicHttpContext()));
+        assertEquals("Unexpected status", HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+
+        BasicHttpEntityEnclosingRequest reused = createRequest(PARTNER, LOCAL, "<1@example.org>", 7);
+        reused.setEntity(new StringEntity("changed", StandardCharsets.US_ASCII));
+        response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+        assertTrue("Reused message id not rejected", verifier.answerDuplicate(reused, response, new BasicHttpContext()));
+        assertEquals("Unexpected status", HttpStatus.SC_CONFLICT, response.getStatusLine().getStatusCode());
+    }
+
+    @Test
+    public void inFlightDuplicateTest() throws Exception {
+        verifier.setMaxTrackedMessageIds(10);
+        verifier.setRetryAfter(7);
+        HttpRequest request = createRequest(PARTNER, LOCAL, "<1@example.org>", 10);
+        HttpCoreContext context = HttpCoreContext.adapt(new BasicHttpContext());
+        verifier.verify(request, createContinueResponse(), context);
+
+        HttpResponse duplicateResponse = createContinueResponse();
+        verifier.verify(createRequest(PARTNER, LOCAL, "<1@example.org>", 10), duplicateResponse, new BasicHttpContext());
+        assertEquals("Unexpected status", HttpStatus.SC_SERVICE_UNAVAILABLE, duplicateResponse.getStatusLine().getStatusCode());
+        assertEquals("Unexpected retry after", "7", duplicateResponse.getFirstHeader(HttpHeaders.RETRY_AFTER).getValue());
+
+        // the original failed: its duplicate is processed
+        verifier.releaseAdmission(context);
+        context = HttpCoreContext.adapt(new BasicHttpContext());
+        HttpResponse response = createContinueResponse();
+        verifier.verify(request, response, context);
+        assertEquals("Unexpected status", HttpStatus.SC_CONTINUE, response.getStatusLine().getStatusCode());
+
+        // a negative MDN is not recorded
+        context.setAttribute(HttpCoreContext.HTTP_REQUEST, request);
+        context.setAttribute(AS2ServerManager.DISPOSITION_MODIFIER, AS2DispositionModifier.ERROR_AUTHENTICATION_FAILED);
+        verifier.process(new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK"), context);
+        assertEquals("Unexpected status", HttpStatus.SC_CONTINUE, verify(createRequest(PARTNER, LOCAL, "<1@example.org>", 10)));
+        assertEquals("Unexpected duplicates", 0, verifier.getDuplicateCount());
+    }
+
+    @Test
+    public void largeMessageLaneTest() throws Exception {
+        verifier.setLargeMessageThreshold(100);
+        assertFalse("Small message in large lane", verifier.isLargeMessage(createRequest(PARTNER, LOCAL, "<1@example.org>", 99)));
+        assertTrue("Large message in small lane", verifier.isLargeMessage(createRequest(PARTNER, LOCAL, "<2@example.org>", 100)));
+
+        BasicHttpContext smallContext = new BasicHttpContext();
+        verifier.verify(createRequest(PARTNER, LOCAL, "<1@example.org>", 99), createContinueResponse(), smallContext);
+        BasicHttpContext largeContext = new BasicHttpContext();
+        verifier.verify(createRequest(PARTNER, LOCAL, "<2@example.org>", 100), createContinueResponse(), largeContext);
+        assertEquals("Unexpected small messages", 1, verifier.getPartnerScheduler().getActiveCount());
+        assertEquals("Unexpected large messages", 1, verifier.getLargeMessageScheduler().getActiveCount());
+
+        verifier.releaseAdmission(smallContext);
+        verifier.releaseAdmission(largeContext);
+        assertEquals("Unexpected small messages", 0, verifier.getPartnerScheduler().getActiveCount());
+        assertEquals("Unexpected large messages", 0, verifier.getLargeMessageScheduler().getActiveCount());
+    }
+
+    private static HttpResponse createContinueResponse() {
+        return new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_CONTINUE, "Continue");
+    }
+
+    private int verify(HttpRequest request) throws HttpException {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_CONTINUE, "Continue");
+        verifier.verify(request, response, new BasicHttpContext());
+        return response.getStatusLine().getStatusCode();
+    }
+
+    private static BasicHttpEntityEnclosingRequest createRequest(String as2From, String as2To, String messageId, long contentLength) {
+        BasicHttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest("POST", "/");
+        if (as2From != null) {
+            request.addHeader(AS2Header.AS2_FROM, as2From);
+        }
+        request.addHeader(AS2Header.AS2_TO, as2To);
+        request.addHeader(AS2Header.MESSAGE_ID, messageId);
+        request.addHeader(AS2Header.CONTENT_LENGTH, Long.toString(contentLength));
+        return request;
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import org.apache.http.Header;
+import org.apache.http.HttpException;
+import org.apache.http.entity.ContentType;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AS2SendProfileTest {
+
+    private static final String REQUEST_URI = "/";
+    private static final String SUBJECT = "Test Case";
+    private static final String FROM = "mrAS@example.org";
+    private static final String AS2_NAME = "878051556";
+    private static final String DISPOSITION_NOTIFICATION_TO = "mrAS@example.org";
+    private static final String[] SIGNED_RECEIPT_MIC_ALGORITHMS = new String[] {"sha1", "md5"};
+    private static final ContentType EDI_MESSAGE_CONTENT_TYPE = ContentType.create(AS2MediaType.APPLICATION_EDIFACT, AS2Charset.US_ASCII);
+
+    @Test
+    public void preparedHeadersTest() throws Exception {
+        AS2SendProfile profile = new AS2SendProfile(REQUEST_URI, SUBJECT, FROM, AS2_NAME, AS2_NAME, AS2MessageStructure.PLAIN,
+                EDI_MESSAGE_CONTENT_TYPE, null, null, null, DISPOSITION_NOTIFICATION_TO, SIGNED_RECEIPT_MIC_ALGORITHMS);
+
+        Header[] as2Headers = profile.getAS2Headers();
+        assertEquals("Unexpected number of AS2 headers", 4, as2Headers.length);
+        assertEquals("Unexpected AS2-To header", AS2_NAME, as2Headers[3].getValue());
+
+        Header[] mdnHeaders = profile.getMDNHeaders();
+        assertEquals("Unexpected number of MDN headers", 2, mdnHeaders.length);
+        assertEquals("Unexpected Disposition-Notification-To header", DISPOSITION_NOTIFICATION_TO, mdnHeaders[0].getValue());
+        assertTrue("Unexpected Disposition-Notification-Options header", mdnHeaders[1].getValue().endsWith(",sha1,md5"));
+        assertEquals("Unexpected MIC algorithm", AS2MicAlgorithm.SHA_1.getJdkAlgorithmName(), profile.getMicJdkAlgorithmName());
+        assertNull("Unexpected signing generator", profile.getSigningGenerator());
+    }
+
+    @Test
+    public void matchesTest() throws Exception {
+        AS2SendProfile profile = new AS2SendProfile(REQUEST_URI, SUBJECT, FROM, AS2_NAME, AS2_NAME, AS2MessageStructure.PLAIN,
+                EDI_MESSAGE_CONTENT_TYPE, null, null, null, null, null);
+
+        assertTrue("Profile does not match its parameters", profile.matches(REQUEST_URI, SUBJECT, FROM, AS2_NAME, AS2_NAME,
+                AS2MessageStructure.PLAIN, ContentType.create(AS2MediaType.APPLICATION_EDIFACT, AS2Charset.US_ASCII),
+                null, null, null, null, null));
+        assertFalse("Profile matches different subject", profile.matches(REQUEST_URI, "Other", FROM, AS2_NAME, AS2_NAME,
+                AS2MessageStructure.PLAIN, EDI_MESSAGE_CONTENT_TYPE, null, null, null, null, null));
+    }
+
+    @Test
+    public void defensiveCopyTest() throws Exception {
+        String[] algorithms = SIGNED_RECEIPT_MIC_ALGORITHMS.clone();
+        AS2SendProfile profile = new AS2SendProfile(REQUEST_URI, SUBJECT, FROM, AS2_NAME, AS2_NAME, AS2MessageStructure.PLAIN,
+                EDI_MESSAGE_CONTENT_TYPE, null, null, null, DISPOSITION_NOTIFICATION_TO, algorithms);
+
+        algorithms[0] = "sha256";
+        profile.getSignedReceiptMicAlgorithms()[1] = "sha256";
+        assertArrayEquals("Profile changed through its arrays", SIGNED_RECEIPT_MIC_ALGORITHMS, profile.getSignedReceiptMicAlgorithms());
+        assertTrue("Profile does not match its parameters", profile.matches(REQUEST_URI, SUBJECT, FROM, AS2_NAME, AS2_NAME, AS2MessageStructure.PLAIN,
+                EDI_MESSAGE_CONTENT_TYPE, null, null, null, DISPOSITION_NOTIFICATION_TO, SIGNED_RECEIPT_MIC_ALGORITHMS));
+    }
+
+    @Test(expected = HttpException.class)
+    public void invalidAS2NameTest() throws Exception {
+        new AS2SendProfile(REQUEST_URI, SUBJECT, FROM, "\"invalid", AS2_NAME, AS2MessageStructure.PLAIN,
+                EDI_MESSAGE_CONTENT_TYPE, null, null, null, null, null);
+    }
+
+    @Test(expected = HttpException.class)
+    public void missingSigningKeyTest() throws Exception {
+        new AS2SendProfile(REQUEST_URI, SUBJECT, FROM, AS2_NAME, AS2_NAME, AS2MessageStructure.SIGNED,
+                EDI_MESSAGE_CONTENT_TYPE, null, null, null, null, null);
+    }
+}
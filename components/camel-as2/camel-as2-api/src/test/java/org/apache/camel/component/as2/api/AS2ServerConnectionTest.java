@@ -0,0 +1,249 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.component.as2.api.AS2ServerConnection.CloseReason;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.entity.ContentType;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.protocol.HttpRequestHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AS2ServerConnectionTest {
+
+    private static final int TARGET_PORT = 8894;
+    private static final int TUNED_PORT = 8895;
+    private static final int DRAINED_PORT = 8896;
+    private static final int CONNECTION_STORM_SIZE = 50;
+    private static final String AS2_NAME = "878051556";
+
+    private AS2ServerConnection server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new AS2ServerConnection("1.1", "TimeoutTestServer", "server.example.org", TARGET_PORT, null, null);
+        server.listen("*", new HttpRequestHandler() {
+            @Override
+            public void handle(HttpRequest request, HttpResponse response, HttpContext context)
+                    throws HttpException, IOException {
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void keepAliveLimitTest() throws Exception {
+        server.setMaxKeepAliveRequests(2);
+        AS2ClientConnectionPool pool = new AS2ClientConnectionPool(1, 1);
+        try {
+            AS2ClientConnection clientConnection = new AS2ClientConnection("1.1", "TimeoutTestClient", "client.example.org", "localhost", TARGET_PORT, pool);
+            for (int i = 0; i < 3; i++) {
+                new AS2ClientManager(clientConnection).send(AS2MessageTest.EDI_MESSAGE, "/", "Test", "test@example.org", AS2_NAME, AS2_NAME,
+                        AS2MessageStructure.PLAIN, ContentType.create(AS2MediaType.APPLICATION_EDIFACT, AS2Charset.US_ASCII),
+                        null, null, null, null, null);
+            }
+        } finally {
+            pool.close();
+        }
+
+        awaitClosedConnections(CloseReason.KEEP_ALIVE_LIMIT, 1);
+    }
+
+    @Test
+    public void idleTimeoutTest() throws Exception {
+        server.setIdleTimeout(200);
+        Socket socket = new Socket("localhost", TARGET_PORT);
+        try {
+            assertEquals("Idle connection not closed", -1, socket.getInputStream().read());
+        } finally {
+            socket.close();
+        }
+
+        awaitClosedConnections(CloseReason.IDLE_TIMEOUT, 1);
+    }
+
+    @Test
+    public void slowClientTest() throws Exception {
+        server.setRequestReadTimeout(500);
+        Socket socket = new Socket("localhost", TARGET_PORT);
+        try {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            out.write("POST / HTTP/1.1\r\nHost: localhost\r\n".getBytes(AS2Charset.US_ASCII));
+            out.flush();
+            // the rest of the headers never arrives: the connection is reset
+            try {
+                assertEquals("Slow connection not closed", -1, in.read());
+            } catch (SocketException e) {
+                // expected
+            }
+        } finally {
+            socket.close();
+        }
+
+        awaitClosedConnections(CloseReason.READ_TIMEOUT, 1);
+    }
+
+    @Test
+    public void chunkedMessageSizeTest() throws Exception {
+        server.getRequestVerifier().setMaxContentLength(16);
+        Socket socket = new Socket("localhost", TARGET_PORT);
+        try {
+            OutputStream out = socket.getOutputStream();
+            // no Content-Length to check before the body is read
+            out.write(("POST / HTTP/1.1\r\nHost: localhost\r\nAS2-From: " + AS2_NAME + "\r\nAS2-To: " + AS2_NAME
+                    + "\r\nContent-Type: application/edifact\r\nTransfer-Encoding: chunked\r\n\r\n").getBytes(AS2Charset.US_ASCII));
+            String chunk = AS2MessageTest.EDI_MESSAGE.substring(0, 64);
+            out.write((Integer.toHexString(chunk.length()) + "\r\n" + chunk + "\r\n0\r\n\r\n").getBytes(AS2Charset.US_ASCII));
+            out.flush();
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), AS2Charset.US_ASCII));
+            String statusLine = in.readLine();
+            assertEquals("Unexpected status", "HTTP/1.1 " + HttpStatus.SC_REQUEST_TOO_LONG, statusLine.substring(0, 12));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void multipleAcceptorsTest() throws Exception {
+        SocketConfig socketConfig = SocketConfig.custom().setBacklogSize(200).setSoReuseAddress(true).build();
+        AS2ServerConnection tunedServer = new AS2ServerConnection("1.1", "TimeoutTestServer", "server.example.org", TUNED_PORT, null, null,
+                null, new AS2TradingPartnerRegistry(), socketConfig, 4);
+        try {
+            Socket[] sockets = new Socket[CONNECTION_STORM_SIZE];
+            for (int i = 0; i < sockets.length; i++) {
+                sockets[i] = new Socket("localhost", TUNED_PORT);
+            }
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+
+            awaitClosedConnections(tunedServer, CloseReason.CLIENT_CLOSED, CONNECTION_STORM_SIZE);
+        } finally {
+            tunedServer.close();
+        }
+    }
+
+    @Test
+    public void drainTest() throws Exception {
+        AS2ServerConnection drainedServer = createSlowServer(500);
+        try {
+            Future<HttpCoreContext> result = sendInBackground();
+            awaitInFlightRequest(drainedServer);
+
+            assertEquals("Unexpected aborted requests", 0, drainedServer.close(5000));
+            HttpResponse response = result.get(5, TimeUnit.SECONDS).getResponse();
+            assertEquals("Unexpected response status", HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+            assertEquals("Connection not closed", HTTP.CONN_CLOSE, response.getFirstHeader(HTTP.CONN_DIRECTIVE).getValue());
+        } finally {
+            drainedServer.close();
+        }
+    }
+
+    @Test
+    public void drainTimeoutTest() throws Exception {
+        AS2ServerConnection drainedServer = createSlowServer(3000);
+        try {
+            sendInBackground();
+            awaitInFlightRequest(drainedServer);
+
+            assertEquals("Unexpected aborted requests", 1, drainedServer.close(200));
+        } finally {
+            drainedServer.close();
+        }
+    }
+
+    private AS2ServerConnection createSlowServer(final long processingTime) throws IOException {
+        AS2ServerConnection slowServer = new AS2ServerConnection("1.1", "TimeoutTestServer", "server.example.org", DRAINED_PORT, null, null);
+        slowServer.listen("*", new HttpRequestHandler() {
+            @Override
+            public void handle(HttpRequest request, HttpResponse response, HttpContext context)
+                    throws HttpException, IOException {
+                try {
+                    Thread.sleep(processingTime);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        return slowServer;
+    }
+
+    private Future<HttpCoreContext> sendInBackground() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            return executor.submit(new Callable<HttpCoreContext>() {
+                @Override
+                public HttpCoreContext call() throws Exception {
+                    AS2ClientConnection clientConnection = new AS2ClientConnection("1.1", "TimeoutTestClient", "client.example.org", "localhost", DRAINED_PORT);
+                    return new AS2ClientManager(clientConnection).send(AS2MessageTest.EDI_MESSAGE, "/", "Test", "test@example.org", AS2_NAME, AS2_NAME,
+                            AS2MessageStructure.PLAIN, ContentType.create(AS2MediaType.APPLICATION_EDIFACT, AS2Charset.US_ASCII),
+                            null, null, null, null, null);
+                }
+            });
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void awaitInFlightRequest(AS2ServerConnection server) throws InterruptedException {
+        for (int i = 0; i < 50 && server.getInFlightRequestCount() == 0; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals("Request not in progress", 1, server.getInFlightRequestCount());
+    }
+
+    private void awaitClosedConnections(CloseReason reason, long expected) throws InterruptedException {
+        awaitClosedConnections(server, reason, expected);
+    }
+
+    private static void awaitClosedConnections(AS2ServerConnection server, CloseReason reason, long expected) throws InterruptedException {
+        // connections are counted once their handler thread has finished
+        for (int i = 0; i < 50 && server.getClosedConnectionCount(reason) < expected; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals("Unexpected number of connections closed for " + reason, expected, server.getClosedConnectionCount(reason));
+    }
+}
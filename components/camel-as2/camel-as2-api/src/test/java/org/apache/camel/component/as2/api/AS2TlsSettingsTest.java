@@ -0,0 +1,138 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.entity.ContentType;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.protocol.HttpRequestHandler;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AS2TlsSettingsTest {
+
+    private static final int TARGET_PORT = 8897;
+    private static final String AS2_NAME = "878051556";
+    private static final char[] KEY_PASSWORD = "changeit".toCharArray();
+    private static final String[] PROTOCOLS = {"TLSv1.2"};
+
+    private static SSLContext sslContext;
+
+    private AS2TlsSettings serverTlsSettings;
+    private AS2ServerConnection server;
+
+    @BeforeClass
+    public static void setUpOnce() throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA", "BC");
+        kpg.initialize(2048);
+        KeyPair keyPair = kpg.generateKeyPair();
+        X500Name name = new X500Name("CN=localhost, O=Punkhorn Software, C=US");
+        X509Certificate certificate = new JcaX509CertificateConverter().setProvider("BC").getCertificate(
+                new JcaX509v3CertificateBuilder(name, BigInteger.ONE, new Date(System.currentTimeMillis() - 60000),
+                        new Date(System.currentTimeMillis() + 1000L * 60 * 60 * 24), name, keyPair.getPublic())
+                        .build(new JcaContentSignerBuilder("SHA256withRSA").setProvider("BC").build(keyPair.getPrivate())));
+
+        // the server trusts its own certificate, so does the client
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(null, null);
+        keyStore.setKeyEntry("server", keyPair.getPrivate(), KEY_PASSWORD, new Certificate[] {certificate});
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, KEY_PASSWORD);
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(keyStore);
+
+        sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        serverTlsSettings = new AS2TlsSettings(sslContext, PROTOCOLS, null);
+        server = new AS2ServerConnection("1.1", "TlsTestServer", "server.example.org", TARGET_PORT, null, null,
+                null, new AS2TradingPartnerRegistry(), SocketConfig.DEFAULT, 1, serverTlsSettings);
+        server.listen("*", new HttpRequestHandler() {
+            @Override
+            public void handle(HttpRequest request, HttpResponse response, HttpContext context)
+                    throws HttpException, IOException {
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void sessionResumptionTest() throws Exception {
+        AS2TlsSettings clientTlsSettings = new AS2TlsSettings(sslContext, PROTOCOLS, null);
+
+        // each dedicated connection opens its own socket to the server
+        for (int i = 0; i < 2; i++) {
+            AS2ClientConnection clientConnection = new AS2ClientConnection("1.1", "TlsTestClient", "client.example.org", "localhost", TARGET_PORT,
+                    null, clientTlsSettings);
+            HttpCoreContext context = new AS2ClientManager(clientConnection).send(AS2MessageTest.EDI_MESSAGE, "/", "Test", "test@example.org", AS2_NAME, AS2_NAME,
+                    AS2MessageStructure.PLAIN, ContentType.create(AS2MediaType.APPLICATION_EDIFACT, AS2Charset.US_ASCII),
+                    null, null, null, null, null);
+            assertEquals("Unexpected response status", HttpStatus.SC_OK, context.getResponse().getStatusLine().getStatusCode());
+        }
+
+        awaitHandshakes(clientTlsSettings, 2);
+        assertEquals("Client session not resumed", 1, clientTlsSettings.getResumedHandshakeCount());
+        awaitHandshakes(serverTlsSettings, 2);
+        assertEquals("Server session not resumed", 1, serverTlsSettings.getResumedHandshakeCount());
+        assertEquals("Unexpected resumption ratio", 0.5, serverTlsSettings.getResumptionRatio(), 0.001);
+    }
+
+    private static void awaitHandshakes(AS2TlsSettings tlsSettings, long expected) throws InterruptedException {
+        // handshake listeners are notified asynchronously
+        for (int i = 0; i < 50 && tlsSettings.getHandshakeCount() < expected; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals("Unexpected number of handshakes", expected, tlsSettings.getHandshakeCount());
+    }
+}
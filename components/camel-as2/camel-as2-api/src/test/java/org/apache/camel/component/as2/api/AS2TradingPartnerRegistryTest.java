@@ -0,0 +1,61 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import org.apache.http.HttpException;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class AS2TradingPartnerRegistryTest {
+
+    private static final String PARTNER = "878051556";
+    private static final String LOCAL = "OpenEDI";
+
+    @Test
+    public void resolveTest() throws Exception {
+        AS2TradingPartnerRegistry registry = new AS2TradingPartnerRegistry();
+        AS2TradingPartner partner = new AS2TradingPartner(PARTNER, LOCAL, "localhost", 8080, "/", null, null, null,
+                new String[] {"sha1"});
+        registry.register(partner);
+
+        assertSame("Partner not resolved", partner, registry.resolve(createRequest(PARTNER, LOCAL)));
+        assertNull("Partner resolved for other recipient", registry.resolve(createRequest(PARTNER, "Other")));
+        assertNull("Unknown partner resolved", registry.resolve(createRequest(LOCAL, PARTNER)));
+        assertNull("Unexpected signing generator", partner.getSigningGenerator());
+        assertEquals("Unexpected MIC algorithm", "SHA-1", partner.getMicJdkAlgorithmName());
+
+        assertSame("Partner not unregistered", partner, registry.unregister(PARTNER));
+        assertNull("Unregistered partner resolved", registry.resolve(createRequest(PARTNER, LOCAL)));
+        assertEquals("Unexpected registry size", 0, registry.size());
+    }
+
+    @Test(expected = HttpException.class)
+    public void invalidNameTest() throws Exception {
+        new AS2TradingPartner("invalid name", null, null, null, null, null, null, null, null);
+    }
+
+    private static BasicHttpEntityEnclosingRequest createRequest(String as2From, String as2To) {
+        BasicHttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest("POST", "/");
+        request.addHeader(AS2Header.AS2_FROM, as2From);
+        request.addHeader(AS2Header.AS2_TO, as2To);
+        return request;
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AS2WireCaptureTest {
+
+    @Test
+    public void ringBufferTest() throws Exception {
+        AS2WireCapture capture = new AS2WireCapture(3);
+        capture.setMaxBodySize(4);
+        for (int i = 0; i < 5; i++) {
+            capture.capture(false, createRequest("partnerA", i), new ByteArrayInputStream(("body" + i).getBytes(StandardCharsets.US_ASCII)));
+        }
+        capture.capture(true, new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK"), null);
+
+        List<AS2WireCapture.Entry> entries = capture.getEntries();
+        assertEquals("Unexpected captured messages", 6, capture.getCapturedCount());
+        assertEquals("Unexpected kept messages", 3, entries.size());
+        assertEquals("Unexpected oldest message", "<3@example.org>", entries.get(0).getHeaders()[0].getValue());
+        assertArrayEquals("Body not truncated", "body".getBytes(StandardCharsets.US_ASCII), entries.get(0).getBody());
+        assertTrue("Body not marked truncated", entries.get(0).isTruncated());
+        assertTrue("Response not marked sent", entries.get(2).isSent());
+        assertNull("Unexpected response body", entries.get(2).getBody());
+        assertTrue("Message not dumped", capture.dump().contains("Message-Id: <4@example.org>"));
+
+        capture.clear();
+        assertEquals("Messages not cleared", 0, capture.getEntries().size());
+    }
+
+    @Test
+    public void selectionTest() throws Exception {
+        AS2WireCapture capture = new AS2WireCapture();
+        assertTrue("Exchange not captured", capture.isCaptured(createRequest("partnerA", 1)));
+
+        capture.setPartners(Arrays.asList("partnerB"));
+        assertFalse("Exchange with other partner captured", capture.isCaptured(createRequest("partnerA", 1)));
+        assertTrue("Exchange with partner not captured", capture.isCaptured(createRequest("\"partnerB\"", 1)));
+
+        capture.setSampleRate(0);
+        assertFalse("Exchange captured with zero sample rate", capture.isCaptured(createRequest("partnerB", 1)));
+    }
+
+    @Test
+    public void bodyTapTest() throws Exception {
+        AS2WireCapture capture = new AS2WireCapture();
+        capture.setMaxBodySize(4);
+        byte[] body = "streamed body".getBytes(StandardCharsets.US_ASCII);
+
+        // received: captured once read to its end
+        AS2WireCapture.BodyTap tap = capture.createBodyTap(false, createRequest("partnerA", 1));
+        InputStream in = tap.tap(new ByteArrayEntity(body)).getContent();
+        assertEquals("Unexpected first byte", 's', in.read());
+        assertEquals("Message captured before its body was read", 0, capture.getEntries().size());
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        read.write('s');
+        byte[] buffer = new byte[3];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            read.write(buffer, 0, n);
+        }
+        assertArrayEquals("Body altered by tap", body, read.toByteArray());
+
+        // sent: captured once written
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        capture.createBodyTap(true, new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK")).tap(new ByteArrayEntity(body)).writeTo(written);
+        assertArrayEquals("Body altered by tap", body, written.toByteArray());
+        tap.finish();
+
+        List<AS2WireCapture.Entry> entries = capture.getEntries();
+        assertEquals("Unexpected captured messages", 2, entries.size());
+        for (AS2WireCapture.Entry entry : entries) {
+            assertArrayEquals("Body not truncated", "stre".getBytes(StandardCharsets.US_ASCII), entry.getBody());
+            assertTrue("Body not marked truncated", entry.isTruncated());
+        }
+        assertTrue("Response not marked sent", entries.get(1).isSent());
+    }
+
+    private static HttpRequest createRequest(String as2From, int i) {
+        BasicHttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest("POST", "/receive");
+        request.addHeader(AS2Header.MESSAGE_ID, "<" + i + "@example.org>");
+        request.addHeader(AS2Header.AS2_FROM, as2From);
+        request.addHeader(AS2Header.AS2_TO, "server");
+        return request;
+    }
+}
@@ -25,12 +25,14 @@ import org.apache.camel.component.as2.api.io.AS2SessionInputBuffer;
 import org.apache.camel.component.as2.api.util.EntityUtils;
 import org.apache.camel.component.as2.api.util.HttpMessageUtils;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.HttpVersion;
 import org.apache.http.entity.BasicHttpEntity;
 import org.apache.http.impl.EnglishReasonPhraseCatalog;
 import org.apache.http.impl.io.HttpTransportMetricsImpl;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
 import org.apache.http.message.BasicHttpResponse;
 import org.junit.After;
 import org.junit.Before;
@@ -145,6 +147,16 @@ public class EntityParserTest {
     public static final String[] EXPECTED_WARNING = {"oops-a-warning"};
     public static final String EXPECTED_ENCODED_MESSAGE_DIGEST = "7v7F++fQaNB1sVLFtMRp+dF+eG4=";
     public static final String EXPECTED_DIGEST_ALGORITHM_ID = "sha1";
+
+    public static final String EDI_CONTENT =
+            "UNB+UNOA:1+005435656:1+006415160:1+060515:1434+00000000000778'\n"
+            + "UNH+00000000000117+INVOIC:D:97B:UN'\n"
+            + "UNT+23+00000000000117'\n"
+            + "UNZ+1+00000000000778'";
+
+    public static final String EDI_CONTENT_TYPE = "application/edifact; charset=US-ASCII";
+
+    public static final String EDI_CONTENT_CHARSET_NAME = "US-ASCII";
     
     private static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
     
@@ -193,6 +205,27 @@ public class EntityParserTest {
         assertTrue("Unexpected type for second body part", dispositionNotificationMultipartReportEntity.getPart(1) instanceof AS2MessageDispositionNotificationEntity);
     }
 
+    @Test
+    public void parseApplicationEDIEntityTest() throws Exception {
+        // line breaks are not canonical and the message does not end with one
+        byte[] content = EDI_CONTENT.getBytes(EDI_CONTENT_CHARSET_NAME);
+        HttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest("POST", "/");
+        HttpMessageUtils.setHeaderValue(request, AS2Header.CONTENT_TYPE, EDI_CONTENT_TYPE);
+
+        BasicHttpEntity entity = new BasicHttpEntity();
+        entity.setContentType(EDI_CONTENT_TYPE);
+        entity.setContent(new ByteArrayInputStream(content));
+        entity.setContentLength(content.length);
+        EntityUtils.setMessageEntity(request, entity);
+
+        EntityParser.parseAS2MessageEntity(request);
+        HttpEntity parsedEntity = EntityUtils.getMessageEntity(request);
+        assertTrue("Unexpected type for EDI entity", parsedEntity instanceof ApplicationEDIFACTEntity);
+        ApplicationEDIEntity ediEntity = (ApplicationEDIEntity) parsedEntity;
+        assertArrayEquals("EDI message content not kept as received", content, ediEntity.getEdiMessageContent());
+        assertEquals("Unexpected EDI message", EDI_CONTENT, ediEntity.getEdiMessage());
+    }
+
     @Test
     public void parseTextPlainBodyTest() throws Exception {
         
@@ -16,17 +16,72 @@
  */
 package org.apache.camel.component.as2;
 
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
 import org.apache.camel.CamelContext;
 import org.apache.camel.Endpoint;
+import org.apache.camel.component.as2.api.AS2ClientConnection;
+import org.apache.camel.component.as2.api.AS2ClientConnectionPool;
+import org.apache.camel.component.as2.api.AS2MDNCorrelationStore;
+import org.apache.camel.component.as2.api.AS2MessageArchive;
+import org.apache.camel.component.as2.api.AS2TlsSettings;
+import org.apache.camel.component.as2.api.AS2TradingPartnerRegistry;
+import org.apache.camel.component.as2.api.AS2WireCapture;
 import org.apache.camel.component.as2.internal.AS2ApiCollection;
 import org.apache.camel.component.as2.internal.AS2ApiName;
+import org.apache.camel.component.as2.internal.AS2ConnectionHelper;
+import org.apache.camel.component.as2.internal.AS2ServerConnectionRegistry;
 import org.apache.camel.util.component.AbstractApiComponent;
+import org.apache.camel.util.jsse.SSLContextParameters;
 
 /**
  * Represents the component that manages {@link AS2Endpoint}.
  */
 public class AS2Component extends AbstractApiComponent<AS2ApiName, AS2Configuration, AS2ApiCollection> {
 
+    private AS2MDNCorrelationStore mdnCorrelationStore;
+
+    private String mdnCorrelationFile;
+
+    private AS2TradingPartnerRegistry tradingPartnerRegistry;
+
+    private final AS2ServerConnectionRegistry serverConnectionRegistry = new AS2ServerConnectionRegistry();
+
+    private AS2ClientConnectionPool clientConnectionPool;
+
+    private int maxClientConnections = AS2ClientConnectionPool.DEFAULT_MAX_TOTAL;
+
+    private int maxClientConnectionsPerHost = AS2ClientConnectionPool.DEFAULT_MAX_PER_HOST;
+
+    private ExecutorService warmUpExecutor;
+
+    private AS2MessageArchive messageArchive;
+
+    private String archiveDirectory;
+
+    private boolean archiveCompression;
+
+    private long archiveMaxSegmentSize = AS2MessageArchive.DEFAULT_MAX_SEGMENT_SIZE;
+
+    private AS2WireCapture wireCapture;
+
+    private int wireCaptureSize;
+
+    private double wireCaptureSampleRate = 1.0;
+
+    private int wireCaptureMaxBodySize = AS2WireCapture.DEFAULT_MAX_BODY_SIZE;
+
+    private String wireCapturePartners;
+
+    // by SSL context parameters instance: pooled connections are keyed by settings identity
+    private final Map<SSLContextParameters, AS2TlsSettings> tlsSettings = new IdentityHashMap<SSLContextParameters, AS2TlsSettings>();
+
     public AS2Component() {
         super(AS2Endpoint.class, AS2ApiName.class, AS2ApiCollection.getCollection());
     }
@@ -56,4 +111,299 @@ public class AS2Component extends AbstractApiComponent<AS2ApiName, AS2Configurat
         super.setConfiguration(configuration);
     }
 
+    /**
+     * To use a custom store correlating received MDNs with the messages sent
+     * by this component. By default a store persisted to mdnCorrelationFile
+     * is used if set, else an in memory store. The store is closed when the
+     * component is shut down.
+     */
+    public synchronized void setMdnCorrelationStore(AS2MDNCorrelationStore mdnCorrelationStore) {
+        this.mdnCorrelationStore = mdnCorrelationStore;
+    }
+
+    public synchronized AS2MDNCorrelationStore getMdnCorrelationStore() {
+        if (mdnCorrelationStore == null) {
+            mdnCorrelationStore = mdnCorrelationFile == null ? new AS2MDNCorrelationStore()
+                    : new AS2MDNCorrelationStore(AS2MDNCorrelationStore.DEFAULT_MAX_ENTRIES,
+                            AS2MDNCorrelationStore.DEFAULT_TIME_TO_LIVE, new File(mdnCorrelationFile));
+        }
+        return mdnCorrelationStore;
+    }
+
+    /**
+     * The file the MDN correlation store is persisted to, so that MDNs
+     * received asynchronously after a restart are still matched with the
+     * messages sent before.
+     */
+    public void setMdnCorrelationFile(String mdnCorrelationFile) {
+        this.mdnCorrelationFile = mdnCorrelationFile;
+    }
+
+    public String getMdnCorrelationFile() {
+        return mdnCorrelationFile;
+    }
+
+    /**
+     * To use a custom registry of the trading partners exchanging messages
+     * with this component. Receipts sent to a registered partner are signed
+     * with the signing key of the partner.
+     */
+    public synchronized void setTradingPartnerRegistry(AS2TradingPartnerRegistry tradingPartnerRegistry) {
+        this.tradingPartnerRegistry = tradingPartnerRegistry;
+    }
+
+    public synchronized AS2TradingPartnerRegistry getTradingPartnerRegistry() {
+        if (tradingPartnerRegistry == null) {
+            tradingPartnerRegistry = new AS2TradingPartnerRegistry();
+        }
+        return tradingPartnerRegistry;
+    }
+
+    /**
+     * To use a custom pool for the connections of the send endpoints of this
+     * component. By default a pool limited by maxClientConnections and
+     * maxClientConnectionsPerHost is used.
+     */
+    public synchronized void setClientConnectionPool(AS2ClientConnectionPool clientConnectionPool) {
+        this.clientConnectionPool = clientConnectionPool;
+    }
+
+    public synchronized AS2ClientConnectionPool getClientConnectionPool() {
+        if (clientConnectionPool == null) {
+            clientConnectionPool = new AS2ClientConnectionPool(maxClientConnections, maxClientConnectionsPerHost);
+        }
+        return clientConnectionPool;
+    }
+
+    /**
+     * The maximum number of connections opened by the send endpoints of this
+     * component.
+     */
+    public void setMaxClientConnections(int maxClientConnections) {
+        this.maxClientConnections = maxClientConnections;
+    }
+
+    public int getMaxClientConnections() {
+        return maxClientConnections;
+    }
+
+    /**
+     * The maximum number of connections opened by the send endpoints of this
+     * component to a single host.
+     */
+    public void setMaxClientConnectionsPerHost(int maxClientConnectionsPerHost) {
+        this.maxClientConnectionsPerHost = maxClientConnectionsPerHost;
+    }
+
+    public int getMaxClientConnectionsPerHost() {
+        return maxClientConnectionsPerHost;
+    }
+
+    /**
+     * To use a custom archive keeping the exact bytes of the messages and MDNs
+     * sent and received by the endpoints of this component. By default an
+     * archive is opened in archiveDirectory if set, else messages are not
+     * archived.
+     */
+    public synchronized void setMessageArchive(AS2MessageArchive messageArchive) {
+        this.messageArchive = messageArchive;
+    }
+
+    public synchronized AS2MessageArchive getMessageArchive() {
+        if (messageArchive == null && archiveDirectory != null) {
+            messageArchive = new AS2MessageArchive(new File(archiveDirectory), archiveCompression, archiveMaxSegmentSize);
+        }
+        return messageArchive;
+    }
+
+    /**
+     * The directory of the archive keeping the exact bytes of the messages
+     * and MDNs sent and received by the endpoints of this component.
+     */
+    public void setArchiveDirectory(String archiveDirectory) {
+        this.archiveDirectory = archiveDirectory;
+    }
+
+    public String getArchiveDirectory() {
+        return archiveDirectory;
+    }
+
+    /**
+     * Whether the bodies of archived messages are compressed.
+     */
+    public void setArchiveCompression(boolean archiveCompression) {
+        this.archiveCompression = archiveCompression;
+    }
+
+    public boolean isArchiveCompression() {
+        return archiveCompression;
+    }
+
+    /**
+     * The size in bytes from which the archive appends messages to a new
+     * segment file.
+     */
+    public void setArchiveMaxSegmentSize(long archiveMaxSegmentSize) {
+        this.archiveMaxSegmentSize = archiveMaxSegmentSize;
+    }
+
+    public long getArchiveMaxSegmentSize() {
+        return archiveMaxSegmentSize;
+    }
+
+    /**
+     * To use a custom capture keeping in memory the last messages sent and
+     * received by the endpoints of this component, to be dumped when
+     * diagnosing an exchange. By default a capture is created if
+     * wireCaptureSize is set, else messages are not captured.
+     */
+    public synchronized void setWireCapture(AS2WireCapture wireCapture) {
+        this.wireCapture = wireCapture;
+    }
+
+    public synchronized AS2WireCapture getWireCapture() {
+        if (wireCapture == null && wireCaptureSize > 0) {
+            wireCapture = new AS2WireCapture(wireCaptureSize);
+            wireCapture.setSampleRate(wireCaptureSampleRate);
+            wireCapture.setMaxBodySize(wireCaptureMaxBodySize);
+            if (wireCapturePartners != null) {
+                wireCapture.setPartners(Arrays.asList(wireCapturePartners.trim().split("\\s*,\\s*")));
+            }
+        }
+        return wireCapture;
+    }
+
+    /**
+     * The number of messages kept by the wire capture, the oldest being
+     * discarded first. Messages are not captured if not set.
+     */
+    public void setWireCaptureSize(int wireCaptureSize) {
+        this.wireCaptureSize = wireCaptureSize;
+    }
+
+    public int getWireCaptureSize() {
+        return wireCaptureSize;
+    }
+
+    /**
+     * The fraction of the exchanges captured, from 0 for none to 1 for all.
+     */
+    public void setWireCaptureSampleRate(double wireCaptureSampleRate) {
+        this.wireCaptureSampleRate = wireCaptureSampleRate;
+    }
+
+    public double getWireCaptureSampleRate() {
+        return wireCaptureSampleRate;
+    }
+
+    /**
+     * The size in bytes from which the bodies of captured messages are
+     * truncated.
+     */
+    public void setWireCaptureMaxBodySize(int wireCaptureMaxBodySize) {
+        this.wireCaptureMaxBodySize = wireCaptureMaxBodySize;
+    }
+
+    public int getWireCaptureMaxBodySize() {
+        return wireCaptureMaxBodySize;
+    }
+
+    /**
+     * A comma separated list of the AS2 names of the trading partners whose
+     * exchanges are captured. Exchanges with all partners are captured if not
+     * set.
+     */
+    public void setWireCapturePartners(String wireCapturePartners) {
+        this.wireCapturePartners = wireCapturePartners;
+    }
+
+    public String getWireCapturePartners() {
+        return wireCapturePartners;
+    }
+
+    /**
+     * Returns the settings of the HTTPS transport of a configuration, created
+     * once for each SSL context parameters instance so that the endpoints and
+     * consumers using the same parameters share one SSL context, its sessions
+     * and their pooled connections. The SSL session options of the first
+     * configuration using the parameters apply.
+     *
+     * @param configuration - configuration providing the SSL context parameters.
+     * @return The TLS settings, or <code>null</code> if the configuration has no SSL context parameters.
+     * @throws GeneralSecurityException - Failed to create the SSL context.
+     * @throws IOException - Failed to load keys or certificates.
+     */
+    public synchronized AS2TlsSettings getTlsSettings(AS2Configuration configuration) throws GeneralSecurityException, IOException {
+        SSLContextParameters sslContextParameters = configuration.getSslContextParameters();
+        if (sslContextParameters == null) {
+            return null;
+        }
+        AS2TlsSettings settings = tlsSettings.get(sslContextParameters);
+        if (settings == null) {
+            settings = AS2ConnectionHelper.createTlsSettings(getCamelContext(), configuration);
+            tlsSettings.put(sslContextParameters, settings);
+        }
+        return settings;
+    }
+
+    /**
+     * Opens a connection of <code>clientConnection</code> in the background.
+     */
+    public synchronized void warmUp(final AS2ClientConnection clientConnection) {
+        if (warmUpExecutor == null) {
+            warmUpExecutor = getCamelContext().getExecutorServiceManager().newSingleThreadExecutor(this, "AS2ConnectionWarmUp");
+        }
+        warmUpExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    clientConnection.warmUp();
+                } catch (IOException e) {
+                    log.warn("Failed to warm up connection to {}, connecting when sending: {}", clientConnection.getTargetHost(), e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * @return The server connections shared by the consumers of this component.
+     */
+    public AS2ServerConnectionRegistry getServerConnectionRegistry() {
+        return serverConnectionRegistry;
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        serverConnectionRegistry.close();
+        synchronized (this) {
+            if (warmUpExecutor != null) {
+                getCamelContext().getExecutorServiceManager().shutdownNow(warmUpExecutor);
+                warmUpExecutor = null;
+            }
+            if (clientConnectionPool != null) {
+                // endpoints keep the pool if restarted: only close its idle connections
+                clientConnectionPool.closeIdle(0);
+            }
+        }
+        super.doStop();
+    }
+
+    @Override
+    protected void doShutdown() throws Exception {
+        synchronized (this) {
+            if (clientConnectionPool != null) {
+                clientConnectionPool.close();
+            }
+            if (messageArchive != null) {
+                messageArchive.close();
+            }
+            tlsSettings.clear();
+            // endpoints keep the store if restarted: only closed on shutdown
+            if (mdnCorrelationStore != null) {
+                mdnCorrelationStore.close();
+            }
+        }
+        super.doShutdown();
+    }
+
 }
@@ -20,12 +20,18 @@ import java.security.PrivateKey;
 import java.security.cert.Certificate;
 
 import org.apache.camel.RuntimeCamelException;
+import org.apache.camel.component.as2.api.AS2AsyncMDNDispatcher;
+import org.apache.camel.component.as2.api.AS2MessageIdIndex;
 import org.apache.camel.component.as2.api.AS2MessageStructure;
+import org.apache.camel.component.as2.api.AS2OutboundQueue;
+import org.apache.camel.component.as2.api.AS2PartnerScheduler;
+import org.apache.camel.component.as2.api.AS2ServerConnection;
 import org.apache.camel.component.as2.internal.AS2ApiName;
 import org.apache.camel.spi.Metadata;
 import org.apache.camel.spi.UriParam;
 import org.apache.camel.spi.UriParams;
 import org.apache.camel.spi.UriPath;
+import org.apache.camel.util.jsse.SSLContextParameters;
 import org.apache.http.entity.ContentType;
 
 /**
@@ -105,6 +111,129 @@ public class AS2Configuration {
     @UriParam
     private String[] signedReceiptMicAlgorithms;
     
+    @UriParam(label = "consumer")
+    private String asyncMdnQueueDirectory;
+    
+    @UriParam(label = "consumer", defaultValue = "10")
+    private int asyncMdnMaxAttempts = AS2AsyncMDNDispatcher.DEFAULT_MAX_ATTEMPTS;
+
+    @UriParam(label = "consumer", defaultValue = "100")
+    private int maxConcurrentExchanges = 100;
+
+    @UriParam(label = "consumer", defaultValue = "5")
+    private int retryAfter = 5;
+
+    @UriParam(label = "consumer")
+    private boolean streamEdiMessage;
+
+    @UriParam(label = "consumer", defaultValue = "-1")
+    private long maxMessageSize = -1;
+
+    @UriParam(label = "producer")
+    private boolean warmUpConnection;
+
+    @UriParam(label = "consumer")
+    private boolean rejectDuplicateMessages;
+
+    @UriParam(label = "consumer", defaultValue = "10000")
+    private int duplicateIndexSize = AS2MessageIdIndex.DEFAULT_MAX_ENTRIES;
+
+    @UriParam(label = "consumer", defaultValue = "86400000")
+    private long duplicateWindow = AS2MessageIdIndex.DEFAULT_TIME_TO_LIVE;
+
+    @UriParam(label = "consumer")
+    private String duplicateIndexFile;
+
+    @UriParam(label = "consumer")
+    private boolean matchDuplicatePayload;
+
+    @UriParam(label = "consumer", defaultValue = "30000")
+    private int serverSocketTimeout = AS2ServerConnection.DEFAULT_SOCKET_TIMEOUT;
+
+    @UriParam(label = "consumer", defaultValue = "60000")
+    private int serverIdleTimeout = AS2ServerConnection.DEFAULT_IDLE_TIMEOUT;
+
+    @UriParam(label = "consumer", defaultValue = "300000")
+    private int serverRequestReadTimeout = AS2ServerConnection.DEFAULT_REQUEST_READ_TIMEOUT;
+
+    @UriParam(label = "consumer", defaultValue = "100")
+    private int maxKeepAliveRequests = AS2ServerConnection.DEFAULT_MAX_KEEP_ALIVE_REQUESTS;
+
+    @UriParam(label = "consumer")
+    private int serverBacklog;
+
+    @UriParam(label = "consumer", defaultValue = "1")
+    private int serverAcceptorThreads = 1;
+
+    @UriParam(label = "consumer")
+    private int serverReceiveBufferSize;
+
+    @UriParam(label = "consumer")
+    private int serverSendBufferSize;
+
+    @UriParam(label = "consumer", defaultValue = "true")
+    private boolean serverTcpNoDelay = true;
+
+    @UriParam(label = "consumer", defaultValue = "true")
+    private boolean serverReuseAddress = true;
+
+    @UriParam(label = "consumer", defaultValue = "10000")
+    private long serverDrainTimeout = 10000;
+
+    @UriParam(label = "consumer")
+    private int maxConcurrentMessages;
+
+    @UriParam(label = "consumer")
+    private int maxConcurrentMessagesPerPartner;
+
+    @UriParam(label = "consumer", defaultValue = "30000")
+    private long partnerAdmissionTimeout = AS2PartnerScheduler.DEFAULT_ADMISSION_TIMEOUT;
+
+    @UriParam(label = "consumer", defaultValue = "-1")
+    private long largeMessageThreshold = -1;
+
+    @UriParam(label = "consumer", defaultValue = "2")
+    private int maxConcurrentLargeMessages = 2;
+
+    @UriParam(label = "consumer")
+    private String spillDirectory;
+
+    @UriParam(label = "consumer")
+    private boolean storeAndForward;
+
+    @UriParam(label = "consumer")
+    private String journalDirectory;
+
+    @UriParam(label = "consumer", defaultValue = "5000")
+    private long journalRedeliveryDelay = 5000;
+
+    @UriParam(label = "consumer", defaultValue = "10")
+    private int journalMaxAttempts = 10;
+
+    @UriParam(label = "consumer", defaultValue = "1000")
+    private int journalCapacity = 1000;
+
+    @UriParam(label = "producer")
+    private String outboundQueueDirectory;
+
+    @UriParam(label = "producer", defaultValue = "10")
+    private int outboundMaxAttempts = AS2OutboundQueue.DEFAULT_MAX_ATTEMPTS;
+
+    @UriParam(label = "producer", defaultValue = "1000")
+    private long outboundInitialBackoff = AS2OutboundQueue.DEFAULT_INITIAL_BACKOFF;
+
+    @UriParam(label = "producer", defaultValue = "300000")
+    private long outboundMaxBackoff = AS2OutboundQueue.DEFAULT_MAX_BACKOFF;
+
+    @UriParam(label = "security")
+    private SSLContextParameters sslContextParameters;
+
+    @UriParam(label = "security", defaultValue = "-1")
+    private int sslSessionCacheSize = -1;
+
+    @UriParam(label = "security", defaultValue = "-1")
+    private int sslSessionTimeout = -1;
+    
     /**
      * What kind of operation to perform
      * 
@@ -427,6 +556,831 @@ public class AS2Configuration {
     public void setSignedReceiptMicAlgorithms(String[] signedReceiptMicAlgorithms) {
         this.signedReceiptMicAlgorithms = signedReceiptMicAlgorithms;
     }
-    
-    
+
+    /**
+     * The directory asynchronous MDNs are persisted to until delivered to the
+     * trading partner. If not set, pending asynchronous MDNs are only queued in
+     * memory.
+     * 
+     * @return The asynchronous MDN queue directory.
+     */
+    public String getAsyncMdnQueueDirectory() {
+        return asyncMdnQueueDirectory;
+    }
+
+    /**
+     * The directory asynchronous MDNs are persisted to until delivered to the
+     * trading partner. If not set, pending asynchronous MDNs are only queued in
+     * memory.
+     * 
+     * @param asyncMdnQueueDirectory - the asynchronous MDN queue directory.
+     */
+    public void setAsyncMdnQueueDirectory(String asyncMdnQueueDirectory) {
+        this.asyncMdnQueueDirectory = asyncMdnQueueDirectory;
+    }
+
+    /**
+     * The maximum number of attempts made to deliver an asynchronous MDN.
+     * 
+     * @return The maximum number of delivery attempts.
+     */
+    public int getAsyncMdnMaxAttempts() {
+        return asyncMdnMaxAttempts;
+    }
+
+    /**
+     * The maximum number of attempts made to deliver an asynchronous MDN.
+     * 
+     * @param asyncMdnMaxAttempts - the maximum number of delivery attempts.
+     */
+    public void setAsyncMdnMaxAttempts(int asyncMdnMaxAttempts) {
+        this.asyncMdnMaxAttempts = asyncMdnMaxAttempts;
+    }
+
+    /**
+     * The maximum number of concurrent exchanges
+     * 
+     * @return The maximum number of exchanges processed concurrently by the consumer.
+     */
+    public int getMaxConcurrentExchanges() {
+        return maxConcurrentExchanges;
+    }
+
+    /**
+     * The maximum number of exchanges processed concurrently by the consumer.
+     * Messages received while this many exchanges are in flight are rejected
+     * with a 503 (Service Unavailable) response.
+     * 
+     * @param maxConcurrentExchanges - the maximum number of concurrent exchanges, at least 1.
+     */
+    public void setMaxConcurrentExchanges(int maxConcurrentExchanges) {
+        if (maxConcurrentExchanges < 1) {
+            throw new IllegalArgumentException(String.format("Value '%d' of configuration parameter 'maxConcurrentExchanges' must be at least 1", maxConcurrentExchanges));
+        }
+        this.maxConcurrentExchanges = maxConcurrentExchanges;
+    }
+
+    /**
+     * The Retry-After value
+     * 
+     * @return The number of seconds after which a rejected message may be resent.
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * The number of seconds a trading partner is asked to wait before
+     * resending a message rejected because the consumer is saturated.
+     * 
+     * @param retryAfter - the Retry-After value in seconds.
+     */
+    public void setRetryAfter(int retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Whether the consumer streams the EDI message
+     * 
+     * @return <code>true</code> if the EDI message is set as the exchange body.
+     */
+    public boolean isStreamEdiMessage() {
+        return streamEdiMessage;
+    }
+
+    /**
+     * Whether the consumer sets the received EDI message as a stream cached
+     * exchange body, without decoding it to a string, instead of the HTTP
+     * context. The HTTP context remains available in the CamelAS2Interchange
+     * header.
+     * 
+     * @param streamEdiMessage - <code>true</code> to set the EDI message as the exchange body.
+     */
+    public void setStreamEdiMessage(boolean streamEdiMessage) {
+        this.streamEdiMessage = streamEdiMessage;
+    }
+
+    /**
+     * The maximum message size
+     * 
+     * @return The maximum length in bytes of the body of received messages, or <code>-1</code> for no limit.
+     */
+    public long getMaxMessageSize() {
+        return maxMessageSize;
+    }
+
+    /**
+     * The maximum length in bytes of the body of messages received by the
+     * server connection. Larger messages are rejected with a 413 (Request
+     * Entity Too Large) response, before their body is sent when the trading
+     * partner expects to continue.
+     * 
+     * @param maxMessageSize - the maximum message size, or <code>-1</code> for no limit.
+     */
+    public void setMaxMessageSize(long maxMessageSize) {
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    /**
+     * Whether duplicate messages are rejected
+     * 
+     * @return <code>true</code> if messages with the Message-Id of an accepted message are not processed again.
+     */
+    public boolean isRejectDuplicateMessages() {
+        return rejectDuplicateMessages;
+    }
+
+    /**
+     * Whether the server connection answers messages with the Message-Id of a
+     * recently accepted message with the response and MDN sent to the accepted
+     * message, without processing them again.
+     * 
+     * @param rejectDuplicateMessages - <code>true</code> to not process duplicate messages.
+     */
+    public void setRejectDuplicateMessages(boolean rejectDuplicateMessages) {
+        this.rejectDuplicateMessages = rejectDuplicateMessages;
+    }
+
+    /**
+     * The number of accepted messages recorded to detect duplicates
+     * 
+     * @return The maximum number of messages in the index of accepted messages.
+     */
+    public int getDuplicateIndexSize() {
+        return duplicateIndexSize;
+    }
+
+    /**
+     * The maximum number of accepted messages recorded to detect duplicate
+     * messages, the oldest being evicted first.
+     * 
+     * @param duplicateIndexSize - the number of messages.
+     */
+    public void setDuplicateIndexSize(int duplicateIndexSize) {
+        this.duplicateIndexSize = duplicateIndexSize;
+    }
+
+    /**
+     * The time accepted messages are recorded for
+     * 
+     * @return The time in milliseconds within which a message is detected as duplicate.
+     */
+    public long getDuplicateWindow() {
+        return duplicateWindow;
+    }
+
+    /**
+     * The time in milliseconds an accepted message is recorded for to detect
+     * duplicates of it.
+     * 
+     * @param duplicateWindow - the time.
+     */
+    public void setDuplicateWindow(long duplicateWindow) {
+        this.duplicateWindow = duplicateWindow;
+    }
+
+    /**
+     * The file of the index of accepted messages
+     * 
+     * @return The file the index of accepted messages is persisted to, or <code>null</code> if only kept in memory.
+     */
+    public String getDuplicateIndexFile() {
+        return duplicateIndexFile;
+    }
+
+    /**
+     * The file the index of accepted messages is persisted to, so that
+     * duplicates are detected across restarts. If not set, the index is only
+     * kept in memory.
+     * 
+     * @param duplicateIndexFile - the file.
+     */
+    public void setDuplicateIndexFile(String duplicateIndexFile) {
+        this.duplicateIndexFile = duplicateIndexFile;
+    }
+
+    /**
+     * Whether the payload of duplicate messages is matched
+     * 
+     * @return <code>true</code> if duplicates are compared with the accepted message once received.
+     */
+    public boolean isMatchDuplicatePayload() {
+        return matchDuplicatePayload;
+    }
+
+    /**
+     * Whether a message with the Message-Id of an accepted message is only
+     * answered as duplicate if its payload is the one of the accepted message,
+     * and rejected with a 409 (Conflict) response otherwise. Payloads are
+     * compared once the body is received, rather than before.
+     * 
+     * @param matchDuplicatePayload - <code>true</code> to match payloads.
+     */
+    public void setMatchDuplicatePayload(boolean matchDuplicatePayload) {
+        this.matchDuplicatePayload = matchDuplicatePayload;
+    }
+
+    /**
+     * Whether the producer warms up its connection
+     * 
+     * @return <code>true</code> if a connection is opened when the producer starts.
+     */
+    public boolean isWarmUpConnection() {
+        return warmUpConnection;
+    }
+
+    /**
+     * Whether the producer opens a connection to the target host in the
+     * background when started. By default the connection is opened when the
+     * first message is sent, so that an unreachable trading partner does not
+     * delay the start of the route.
+     * 
+     * @param warmUpConnection - <code>true</code> to open a connection when the producer starts.
+     */
+    public void setWarmUpConnection(boolean warmUpConnection) {
+        this.warmUpConnection = warmUpConnection;
+    }
+
+    /**
+     * The server socket timeout
+     * 
+     * @return The maximum time in milliseconds to wait for data of a request being received.
+     */
+    public int getServerSocketTimeout() {
+        return serverSocketTimeout;
+    }
+
+    /**
+     * The maximum time in milliseconds the server connection waits for data
+     * while receiving a request before closing the connection.
+     * 
+     * @param serverSocketTimeout - the timeout, or <code>0</code> to wait indefinitely.
+     */
+    public void setServerSocketTimeout(int serverSocketTimeout) {
+        this.serverSocketTimeout = serverSocketTimeout;
+    }
+
+    /**
+     * The server idle timeout
+     * 
+     * @return The maximum time in milliseconds a kept alive connection waits for its next request.
+     */
+    public int getServerIdleTimeout() {
+        return serverIdleTimeout;
+    }
+
+    /**
+     * The maximum time in milliseconds a kept alive connection to the server
+     * waits for its next request before it is closed.
+     * 
+     * @param serverIdleTimeout - the timeout, or <code>0</code> to keep idle connections indefinitely.
+     */
+    public void setServerIdleTimeout(int serverIdleTimeout) {
+        this.serverIdleTimeout = serverIdleTimeout;
+    }
+
+    /**
+     * The server request read timeout
+     * 
+     * @return The maximum time in milliseconds to receive the headers and body of a request.
+     */
+    public int getServerRequestReadTimeout() {
+        return serverRequestReadTimeout;
+    }
+
+    /**
+     * The maximum time in milliseconds the server connection takes to receive
+     * the headers and body of a request. Connections of clients sending their
+     * requests more slowly are closed.
+     * 
+     * @param serverRequestReadTimeout - the timeout, or <code>0</code> for no limit.
+     */
+    public void setServerRequestReadTimeout(int serverRequestReadTimeout) {
+        this.serverRequestReadTimeout = serverRequestReadTimeout;
+    }
+
+    /**
+     * The maximum number of keep-alive requests
+     * 
+     * @return The maximum number of requests served by a kept alive connection.
+     */
+    public int getMaxKeepAliveRequests() {
+        return maxKeepAliveRequests;
+    }
+
+    /**
+     * The maximum number of requests the server serves on a kept alive
+     * connection before closing it.
+     * 
+     * @param maxKeepAliveRequests - the number of requests, or <code>0</code> for no limit.
+     */
+    public void setMaxKeepAliveRequests(int maxKeepAliveRequests) {
+        this.maxKeepAliveRequests = maxKeepAliveRequests;
+    }
+
+    /**
+     * The server accept backlog
+     * 
+     * @return The maximum number of connections waiting to be accepted by the server socket.
+     */
+    public int getServerBacklog() {
+        return serverBacklog;
+    }
+
+    /**
+     * The maximum number of incoming connections queued by the server socket
+     * while waiting to be accepted. Connections arriving when the queue is
+     * full are refused.
+     * 
+     * @param serverBacklog - the backlog, or <code>0</code> for the system default.
+     */
+    public void setServerBacklog(int serverBacklog) {
+        this.serverBacklog = serverBacklog;
+    }
+
+    /**
+     * The number of server acceptor threads
+     * 
+     * @return The number of threads accepting connections on the server socket.
+     */
+    public int getServerAcceptorThreads() {
+        return serverAcceptorThreads;
+    }
+
+    /**
+     * The number of threads accepting connections on the server socket.
+     * Several acceptors drain the accept queue faster during connection storms.
+     * 
+     * @param serverAcceptorThreads - the number of acceptor threads.
+     */
+    public void setServerAcceptorThreads(int serverAcceptorThreads) {
+        this.serverAcceptorThreads = serverAcceptorThreads;
+    }
+
+    /**
+     * The server receive buffer size
+     * 
+     * @return The size in bytes of the receive buffer of server sockets.
+     */
+    public int getServerReceiveBufferSize() {
+        return serverReceiveBufferSize;
+    }
+
+    /**
+     * The size in bytes of the receive buffer of server sockets.
+     * 
+     * @param serverReceiveBufferSize - the buffer size, or <code>0</code> for the system default.
+     */
+    public void setServerReceiveBufferSize(int serverReceiveBufferSize) {
+        this.serverReceiveBufferSize = serverReceiveBufferSize;
+    }
+
+    /**
+     * The server send buffer size
+     * 
+     * @return The size in bytes of the send buffer of server sockets.
+     */
+    public int getServerSendBufferSize() {
+        return serverSendBufferSize;
+    }
+
+    /**
+     * The size in bytes of the send buffer of server sockets.
+     * 
+     * @param serverSendBufferSize - the buffer size, or <code>0</code> for the system default.
+     */
+    public void setServerSendBufferSize(int serverSendBufferSize) {
+        this.serverSendBufferSize = serverSendBufferSize;
+    }
+
+    /**
+     * Whether server sockets disable Nagle's algorithm
+     * 
+     * @return <code>true</code> if TCP_NODELAY is set on server sockets.
+     */
+    public boolean isServerTcpNoDelay() {
+        return serverTcpNoDelay;
+    }
+
+    /**
+     * Whether TCP_NODELAY is set on server sockets, so that responses are
+     * sent without delay.
+     * 
+     * @param serverTcpNoDelay - <code>true</code> to set TCP_NODELAY.
+     */
+    public void setServerTcpNoDelay(boolean serverTcpNoDelay) {
+        this.serverTcpNoDelay = serverTcpNoDelay;
+    }
+
+    /**
+     * Whether the server socket reuses its address
+     * 
+     * @return <code>true</code> if SO_REUSEADDR is set on the server socket.
+     */
+    public boolean isServerReuseAddress() {
+        return serverReuseAddress;
+    }
+
+    /**
+     * Whether SO_REUSEADDR is set on the server socket, so that a restarted
+     * server can bind its port while connections of the previous one are
+     * closing.
+     * 
+     * @param serverReuseAddress - <code>true</code> to set SO_REUSEADDR.
+     */
+    public void setServerReuseAddress(boolean serverReuseAddress) {
+        this.serverReuseAddress = serverReuseAddress;
+    }
+
+    /**
+     * The server drain timeout
+     * 
+     * @return The maximum time in milliseconds to wait for requests in progress when the server connection closes.
+     */
+    public long getServerDrainTimeout() {
+        return serverDrainTimeout;
+    }
+
+    /**
+     * The maximum time in milliseconds the server connection waits for the
+     * requests it is processing to finish when it closes. The connection
+     * stops accepting connections at once; requests not answered within the
+     * timeout are aborted.
+     * 
+     * @param serverDrainTimeout - the timeout, or <code>0</code> to abort requests in progress.
+     */
+    public void setServerDrainTimeout(long serverDrainTimeout) {
+        this.serverDrainTimeout = serverDrainTimeout;
+    }
+
+    /**
+     * The SSL context parameters
+     * 
+     * @return The parameters of the HTTPS transport, or <code>null</code> if messages are exchanged over HTTP.
+     */
+    public SSLContextParameters getSslContextParameters() {
+        return sslContextParameters;
+    }
+
+    /**
+     * The parameters of the SSL context used to exchange messages over HTTPS:
+     * keys, trusted certificates, protocols and cipher suites. Messages are
+     * exchanged over HTTP when not set.
+     * 
+     * @param sslContextParameters - the SSL context parameters.
+     */
+    public void setSslContextParameters(SSLContextParameters sslContextParameters) {
+        this.sslContextParameters = sslContextParameters;
+    }
+
+    /**
+     * The SSL session cache size
+     * 
+     * @return The maximum number of TLS sessions cached for resumption.
+     */
+    public int getSslSessionCacheSize() {
+        return sslSessionCacheSize;
+    }
+
+    /**
+     * The maximum number of TLS sessions cached for resumption, so that
+     * reconnecting trading partners avoid full handshakes.
+     * 
+     * @param sslSessionCacheSize - the number of sessions, <code>0</code> for no limit or <code>-1</code> for the default of the SSL context.
+     */
+    public void setSslSessionCacheSize(int sslSessionCacheSize) {
+        this.sslSessionCacheSize = sslSessionCacheSize;
+    }
+
+    /**
+     * The SSL session timeout
+     * 
+     * @return The time in seconds a cached TLS session may be resumed.
+     */
+    public int getSslSessionTimeout() {
+        return sslSessionTimeout;
+    }
+
+    /**
+     * The time in seconds a cached TLS session may be resumed.
+     * 
+     * @param sslSessionTimeout - the timeout, <code>0</code> for no limit or <code>-1</code> for the default of the SSL context.
+     */
+    public void setSslSessionTimeout(int sslSessionTimeout) {
+        this.sslSessionTimeout = sslSessionTimeout;
+    }
+
+    /**
+     * The maximum number of concurrent messages
+     * 
+     * @return The maximum number of received messages processed at once by the server connection.
+     */
+    public int getMaxConcurrentMessages() {
+        return maxConcurrentMessages;
+    }
+
+    /**
+     * The maximum number of received messages processed at once by the
+     * server connection. Waiting messages are admitted fairly between trading
+     * partners as capacity is released.
+     * 
+     * @param maxConcurrentMessages - the number of messages, or <code>0</code> for no limit.
+     */
+    public void setMaxConcurrentMessages(int maxConcurrentMessages) {
+        this.maxConcurrentMessages = maxConcurrentMessages;
+    }
+
+    /**
+     * The maximum number of concurrent messages per partner
+     * 
+     * @return The maximum number of messages of one trading partner processed at once.
+     */
+    public int getMaxConcurrentMessagesPerPartner() {
+        return maxConcurrentMessagesPerPartner;
+    }
+
+    /**
+     * The maximum number of messages of one trading partner, identified by
+     * their AS2-From name, processed at once by the server connection, so
+     * that a partner sending many messages can not starve the others.
+     * 
+     * @param maxConcurrentMessagesPerPartner - the number of messages, or <code>0</code> for no limit.
+     */
+    public void setMaxConcurrentMessagesPerPartner(int maxConcurrentMessagesPerPartner) {
+        this.maxConcurrentMessagesPerPartner = maxConcurrentMessagesPerPartner;
+    }
+
+    /**
+     * The partner admission timeout
+     * 
+     * @return The maximum time in milliseconds a received message waits to be processed.
+     */
+    public long getPartnerAdmissionTimeout() {
+        return partnerAdmissionTimeout;
+    }
+
+    /**
+     * The maximum time in milliseconds a received message waits to be
+     * processed when the concurrency limits are reached. Messages not
+     * admitted in time are rejected with a 503 (Service Unavailable)
+     * response.
+     * 
+     * @param partnerAdmissionTimeout - the timeout.
+     */
+    public void setPartnerAdmissionTimeout(long partnerAdmissionTimeout) {
+        this.partnerAdmissionTimeout = partnerAdmissionTimeout;
+    }
+
+    /**
+     * The large message threshold
+     * 
+     * @return The length in bytes from which received messages are processed in the large message lane.
+     */
+    public long getLargeMessageThreshold() {
+        return largeMessageThreshold;
+    }
+
+    /**
+     * The length in bytes from which received messages are processed in a
+     * separate lane, limited by <code>maxConcurrentLargeMessages</code>, so
+     * that large transfers do not delay small messages. Messages without a
+     * <code>Content-Length</code> are considered large. The bodies of large
+     * messages are written to <code>spillDirectory</code> as they arrive.
+     * 
+     * @param largeMessageThreshold - the length, or <code>-1</code> to process all messages in one lane.
+     */
+    public void setLargeMessageThreshold(long largeMessageThreshold) {
+        this.largeMessageThreshold = largeMessageThreshold;
+    }
+
+    /**
+     * The maximum number of concurrent large messages
+     * 
+     * @return The maximum number of large messages processed at once by the server connection.
+     */
+    public int getMaxConcurrentLargeMessages() {
+        return maxConcurrentLargeMessages;
+    }
+
+    /**
+     * The maximum number of large messages processed at once by the server
+     * connection. Large messages are also limited per partner by
+     * <code>maxConcurrentMessagesPerPartner</code>.
+     * 
+     * @param maxConcurrentLargeMessages - the number of messages, or <code>0</code> for no limit.
+     */
+    public void setMaxConcurrentLargeMessages(int maxConcurrentLargeMessages) {
+        this.maxConcurrentLargeMessages = maxConcurrentLargeMessages;
+    }
+
+    /**
+     * The spill directory
+     * 
+     * @return The directory of the temporary files holding the bodies of large messages.
+     */
+    public String getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * The directory of the temporary files holding the bodies of large
+     * messages while they are received. Defaults to the temporary directory
+     * of the JVM.
+     * 
+     * @param spillDirectory - the directory.
+     */
+    public void setSpillDirectory(String spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Whether the consumer stores and forwards received messages
+     * 
+     * @return <code>true</code> if received messages are journaled and their MDN returned before they are processed.
+     */
+    public boolean isStoreAndForward() {
+        return storeAndForward;
+    }
+
+    /**
+     * Whether the consumer writes a received message to the journal in
+     * <code>journalDirectory</code> and returns its MDN at once, rather than
+     * after the route has processed it. The route is then fed from the
+     * journal in the order messages were received; a message is redelivered
+     * until processed without exception, including after a restart, or
+     * until <code>journalMaxAttempts</code> is reached.
+     * 
+     * @param storeAndForward - <code>true</code> to store and forward received messages.
+     */
+    public void setStoreAndForward(boolean storeAndForward) {
+        this.storeAndForward = storeAndForward;
+    }
+
+    /**
+     * The journal directory
+     * 
+     * @return The directory received messages are journaled to in store and forward mode.
+     */
+    public String getJournalDirectory() {
+        return journalDirectory;
+    }
+
+    /**
+     * The directory received messages are journaled to until processed by
+     * the route in store and forward mode. Each consumer needs its own
+     * directory.
+     * 
+     * @param journalDirectory - the journal directory.
+     */
+    public void setJournalDirectory(String journalDirectory) {
+        this.journalDirectory = journalDirectory;
+    }
+
+    /**
+     * The journal redelivery delay
+     * 
+     * @return The time in milliseconds before a journaled message which failed is redelivered.
+     */
+    public long getJournalRedeliveryDelay() {
+        return journalRedeliveryDelay;
+    }
+
+    /**
+     * The time in milliseconds before a journaled message is redelivered
+     * to the route after it failed to process it.
+     * 
+     * @param journalRedeliveryDelay - the delay.
+     */
+    public void setJournalRedeliveryDelay(long journalRedeliveryDelay) {
+        this.journalRedeliveryDelay = journalRedeliveryDelay;
+    }
+
+    /**
+     * The journal max attempts
+     * 
+     * @return The maximum number of times a journaled message is delivered to the route.
+     */
+    public int getJournalMaxAttempts() {
+        return journalMaxAttempts;
+    }
+
+    /**
+     * The maximum number of times a journaled message is delivered to the
+     * route, after which the message is kept in the journal directory with
+     * the <code>.failed</code> suffix and no longer delivered. A message
+     * which can not be read from the journal is set aside the same way.
+     * 
+     * @param journalMaxAttempts - the maximum number of attempts.
+     */
+    public void setJournalMaxAttempts(int journalMaxAttempts) {
+        if (journalMaxAttempts < 1) {
+            throw new IllegalArgumentException(String.format("Value '%d' of configuration parameter 'journalMaxAttempts' must be at least 1", journalMaxAttempts));
+        }
+        this.journalMaxAttempts = journalMaxAttempts;
+    }
+
+    /**
+     * The journal capacity
+     * 
+     * @return The maximum number of received messages waiting in the journal to be processed.
+     */
+    public int getJournalCapacity() {
+        return journalCapacity;
+    }
+
+    /**
+     * The maximum number of received messages waiting in the journal to be
+     * processed by the route. A message received while the journal is full
+     * is rejected with 503 (Service Unavailable) and a
+     * <code>Retry-After</code> header.
+     * 
+     * @param journalCapacity - the number of messages.
+     */
+    public void setJournalCapacity(int journalCapacity) {
+        if (journalCapacity < 1) {
+            throw new IllegalArgumentException(String.format("Value '%d' of configuration parameter 'journalCapacity' must be at least 1", journalCapacity));
+        }
+        this.journalCapacity = journalCapacity;
+    }
+
+    /**
+     * The outbound queue directory
+     * 
+     * @return The directory of the journal of messages sent by the producer.
+     */
+    public String getOutboundQueueDirectory() {
+        return outboundQueueDirectory;
+    }
+
+    /**
+     * The directory of the journal of the messages sent by the producer. If
+     * set, a message the trading partner can not receive is kept in the
+     * journal and resent later with the same Message-ID, rather than failing
+     * the exchange; the exchange then has the <code>CamelAS2Queued</code>
+     * header set and no response. Each endpoint needs its own directory.
+     * 
+     * @param outboundQueueDirectory - the outbound queue directory.
+     */
+    public void setOutboundQueueDirectory(String outboundQueueDirectory) {
+        this.outboundQueueDirectory = outboundQueueDirectory;
+    }
+
+    /**
+     * The maximum number of attempts to send a queued message
+     * 
+     * @return The maximum number of attempts.
+     */
+    public int getOutboundMaxAttempts() {
+        return outboundMaxAttempts;
+    }
+
+    /**
+     * The maximum number of attempts to send a queued message, after which
+     * the message is kept in the queue directory with the
+     * <code>.failed</code> suffix and no longer resent.
+     * 
+     * @param outboundMaxAttempts - the maximum number of attempts.
+     */
+    public void setOutboundMaxAttempts(int outboundMaxAttempts) {
+        this.outboundMaxAttempts = outboundMaxAttempts;
+    }
+
+    /**
+     * The outbound initial backoff
+     * 
+     * @return The delay in milliseconds before a queued message is first resent.
+     */
+    public long getOutboundInitialBackoff() {
+        return outboundInitialBackoff;
+    }
+
+    /**
+     * The delay in milliseconds before a queued message is first resent. The
+     * delay doubles with each failed attempt, up to
+     * <code>outboundMaxBackoff</code>.
+     * 
+     * @param outboundInitialBackoff - the delay.
+     */
+    public void setOutboundInitialBackoff(long outboundInitialBackoff) {
+        this.outboundInitialBackoff = outboundInitialBackoff;
+    }
+
+    /**
+     * The outbound maximum backoff
+     * 
+     * @return The maximum delay in milliseconds before a queued message is resent.
+     */
+    public long getOutboundMaxBackoff() {
+        return outboundMaxBackoff;
+    }
+
+    /**
+     * The maximum delay in milliseconds before a queued message is resent.
+     * 
+     * @param outboundMaxBackoff - the delay.
+     */
+    public void setOutboundMaxBackoff(long outboundMaxBackoff) {
+        this.outboundMaxBackoff = outboundMaxBackoff;
+    }
+
 }
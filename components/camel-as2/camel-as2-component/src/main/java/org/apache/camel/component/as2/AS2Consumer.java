@@ -16,43 +16,98 @@
  */
 package org.apache.camel.component.as2;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
+import org.apache.camel.component.as2.api.AS2DeferredReceipt;
+import org.apache.camel.component.as2.api.AS2Header;
+import org.apache.camel.component.as2.api.AS2MDNCorrelationStore;
+import org.apache.camel.component.as2.api.AS2MessageJournal;
 import org.apache.camel.component.as2.api.AS2ServerConnection;
 import org.apache.camel.component.as2.api.AS2ServerManager;
+import org.apache.camel.component.as2.api.AS2TradingPartner;
+import org.apache.camel.component.as2.api.entity.AS2DispositionModifier;
+import org.apache.camel.component.as2.api.entity.ApplicationEDIEntity;
 import org.apache.camel.component.as2.api.entity.EntityParser;
+import org.apache.camel.component.as2.api.entity.MultipartSignedEntity;
+import org.apache.camel.component.as2.api.io.AS2BHttpServerConnection;
+import org.apache.camel.component.as2.api.util.EntityUtils;
+import org.apache.camel.component.as2.api.util.HttpMessageUtils;
+import org.apache.camel.component.as2.internal.AS2ApiInvoker;
 import org.apache.camel.component.as2.internal.AS2ApiName;
+import org.apache.camel.component.as2.internal.AS2Constants;
 import org.apache.camel.util.component.AbstractApiConsumer;
 import org.apache.camel.util.component.ApiConsumerHelper;
 import org.apache.camel.util.component.ApiMethod;
-import org.apache.camel.util.component.ApiMethodHelper;
+import org.apache.http.HttpConnection;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpException;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.protocol.HttpExpectationVerifier;
 import org.apache.http.protocol.HttpRequestHandler;
 
 /**
  * The AS2 consumer.
+ *
+ * <p>
+ * By default a received message is processed by the route before its MDN is
+ * returned, the connection waiting on the route. A message requesting an
+ * asynchronous MDN is answered at once instead, its MDN being dispatched once
+ * the route has processed it, or dropped if the route fails. In store and
+ * forward mode the message is instead written to a journal, its MDN returned
+ * at once and the route fed from the journal by a single thread, redelivering
+ * a message until the route processes it without exception or its attempts
+ * are exhausted, when it is set aside in the journal directory. A message
+ * received while the journal is full is rejected with 503 (Service
+ * Unavailable).
+ *
+ * <p>
+ * A signed message whose signature was not made with the certificate
+ * registered for its trading partner is never routed: it is answered with an
+ * MDN reporting <code>error: authentication-failed</code>, or with 403
+ * (Forbidden) if it requests no MDN.
  */
-public class AS2Consumer extends AbstractApiConsumer<AS2ApiName, AS2Configuration> implements HttpRequestHandler {
+public class AS2Consumer extends AbstractApiConsumer<AS2ApiName, AS2Configuration> implements HttpRequestHandler, HttpExpectationVerifier {
     
     private static final String HANDLER_PROPERTY = "handler";
-    private static final String REQUEST_URI_PROPERTY = "requestUri";
+    private static final String REQUEST_URI_PATTERN_PROPERTY = "requestUriPattern";
+    private static final String AS2_TO_PROPERTY = "as2To";
+    private static final String AS2_FROM_PROPERTY = "as2From";
 
-    private AS2ServerConnection as2ServerConnection;
+    private volatile AS2ServerConnection as2ServerConnection;
     
-    private AS2ServerManager apiProxy;
+    private volatile AS2ServerManager apiProxy;
     
     private final ApiMethod apiMethod;
 
     private final Map<String, Object> properties;
 
+    private final Semaphore inFlightExchanges;
+
+    private volatile BlockingQueue<AS2MessageJournal.Entry> journalEntries;
+
+    private volatile AS2MessageJournal journal;
+
+    private ExecutorService journalForwarder;
+
     public AS2Consumer(AS2Endpoint endpoint, Processor processor) {
         super(endpoint, processor);
 
@@ -64,9 +119,12 @@ public class AS2Consumer extends AbstractApiConsumer<AS2ApiName, AS2Configuratio
         properties.putAll(endpoint.getEndpointProperties());
         properties.put(HANDLER_PROPERTY, this);
 
-        as2ServerConnection = endpoint.getAS2ServerConnection();
-        
-        apiProxy = new AS2ServerManager(as2ServerConnection);
+        inFlightExchanges = new Semaphore(endpoint.getConfiguration().getMaxConcurrentExchanges());
+    }
+
+    @Override
+    public AS2Endpoint getEndpoint() {
+        return (AS2Endpoint) super.getEndpoint();
     }
 
     @Override
@@ -76,6 +134,7 @@ public class AS2Consumer extends AbstractApiConsumer<AS2ApiName, AS2Configuratio
     
     @Override
     protected int poll() throws Exception {
+        // messages are pushed to the route by the server connection, see handle()
         return 0;
     }
 
@@ -83,34 +142,374 @@ public class AS2Consumer extends AbstractApiConsumer<AS2ApiName, AS2Configuratio
     protected void doStart() throws Exception {
         super.doStart();
         
+        // share the server connection of the port with the other consumers of the component
+        AS2Component component = getEndpoint().getComponent();
+        as2ServerConnection = component.getServerConnectionRegistry().acquire(getEndpoint().getConfiguration(),
+                component.getTradingPartnerRegistry(),
+                component.getTlsSettings(getEndpoint().getConfiguration()));
+        as2ServerConnection.setArchive(component.getMessageArchive());
+        as2ServerConnection.setWireCapture(component.getWireCapture());
+        apiProxy = new AS2ServerManager(as2ServerConnection);
+
+        if (getEndpoint().getConfiguration().isStoreAndForward()) {
+            // messages are journaled as received: only the messages of this consumer are retained
+            as2ServerConnection.setRetainRequestBodies(this, true);
+            startJournal();
+        }
+
         // invoke the API method to start listening
-        ApiMethodHelper.invokeMethod(apiProxy, apiMethod, properties);
+        AS2ApiInvoker.invokeMethod(apiProxy, apiMethod, properties, getEndpoint().getCamelContext().getTypeConverter());
+
+        // accept connections once configured, if not started by another consumer
+        as2ServerConnection.start();
     }
     
     @Override
     protected void doStop() throws Exception {
-        String requestUri = (String) properties.get(REQUEST_URI_PROPERTY);
-        apiProxy.stopListening(requestUri);
+        if (as2ServerConnection != null) {
+            // only this consumer: another one may have been registered with the same names since
+            as2ServerConnection.stopListening((String) properties.get(REQUEST_URI_PATTERN_PROPERTY),
+                    (String) properties.get(AS2_TO_PROPERTY), (String) properties.get(AS2_FROM_PROPERTY), this);
+            as2ServerConnection.setRetainRequestBodies(this, false);
+            getEndpoint().getComponent().getServerConnectionRegistry().release(as2ServerConnection);
+            as2ServerConnection = null;
+        }
+        stopJournal();
 
         super.doStop();
     }
 
+    private void startJournal() {
+        String directory = getEndpoint().getConfiguration().getJournalDirectory();
+        if (directory == null) {
+            throw new IllegalArgumentException("Parameter 'journalDirectory' required in store and forward mode");
+        }
+        journalEntries = new LinkedBlockingQueue<AS2MessageJournal.Entry>(getEndpoint().getConfiguration().getJournalCapacity());
+        journal = new AS2MessageJournal(new File(directory));
+        // messages received but not processed before the consumer was stopped or crashed
+        final List<AS2MessageJournal.Entry> entries = journal.getEntries();
+        if (!entries.isEmpty()) {
+            log.info("Recovering {} messages from {}", entries.size(), journal.getDirectory());
+        }
+        journalForwarder = getEndpoint().getCamelContext().getExecutorServiceManager().newSingleThreadExecutor(this, "AS2JournalForwarder");
+        journalForwarder.submit(new Runnable() {
+            @Override
+            public void run() {
+                forwardJournal(entries);
+            }
+        });
+    }
+
+    private void stopJournal() {
+        if (journalForwarder != null) {
+            getEndpoint().getCamelContext().getExecutorServiceManager().shutdownNow(journalForwarder);
+            journalForwarder = null;
+        }
+        journal = null;
+    }
+
+    /**
+     * Rejects messages before their body is sent while the route is saturated.
+     */
+    @Override
+    public void verify(HttpRequest request, HttpResponse response, HttpContext context) throws HttpException {
+        if (inFlightExchanges.availablePermits() == 0) {
+            log.debug("Rejecting message before body: {} exchanges in flight", getEndpoint().getConfiguration().getMaxConcurrentExchanges());
+            response.setStatusCode(HttpStatus.SC_SERVICE_UNAVAILABLE);
+            response.setHeader(HttpHeaders.RETRY_AFTER, Integer.toString(getEndpoint().getConfiguration().getRetryAfter()));
+        }
+    }
+
     @Override
     public void handle(HttpRequest request, HttpResponse response, HttpContext context)
             throws HttpException, IOException {
+        // the context is shared by the requests of a connection
+        context.removeAttribute(AS2ServerManager.DEFERRED_RECEIPT);
+        context.removeAttribute(AS2ServerManager.DISPOSITION_MODIFIER);
+        // Apply backpressure rather than queuing messages while the route is saturated
+        if (!inFlightExchanges.tryAcquire()) {
+            log.debug("Rejecting message: {} exchanges in flight", getEndpoint().getConfiguration().getMaxConcurrentExchanges());
+            response.setStatusCode(HttpStatus.SC_SERVICE_UNAVAILABLE);
+            response.setHeader(HttpHeaders.RETRY_AFTER, Integer.toString(getEndpoint().getConfiguration().getRetryAfter()));
+            return;
+        }
+        boolean released = true;
         try {
+            AS2MessageJournal journal = this.journal;
+            Boolean signatureVerified = null;
             if (request instanceof HttpEntityEnclosingRequest) {
                 EntityParser.parseAS2MessageEntity(request);
+                AS2TradingPartner partner = getEndpoint().getComponent().getTradingPartnerRegistry().resolve(request);
+                context.setAttribute(AS2ServerManager.TRADING_PARTNER, partner);
+                context.setAttribute(AS2ServerManager.TRADING_PARTNER_REQUEST, request);
+                signatureVerified = verifySignature(request, partner);
+                if (Boolean.FALSE.equals(signatureVerified)) {
+                    log.warn("Rejecting message from {}: signature not made with its registered certificate", partner.getAs2Name());
+                    if (HttpMessageUtils.getHeaderValue(request, AS2Header.DISPOSITION_NOTIFICATION_TO) == null) {
+                        response.setStatusCode(HttpStatus.SC_FORBIDDEN);
+                        return;
+                    }
+                    // neither stored nor routed: the MDN reports the failure
+                    context.setAttribute(AS2ServerManager.DISPOSITION_MODIFIER, AS2DispositionModifier.ERROR_AUTHENTICATION_FAILED);
+                    context.setAttribute(AS2ServerManager.SIGNING_CERTIFICATE_CHAIN, getEndpoint().getConfiguration().getSigningCertificateChain());
+                    context.setAttribute(AS2ServerManager.SIGNING_PRIVATE_KEY, getEndpoint().getConfiguration().getSigningPrivateKey());
+                    apiProxy.handleMDNResponse((HttpEntityEnclosingRequest)request, response, context, "MDN Response", "Camel AS2 Server Endpoint");
+                    return;
+                }
+                if (journal != null) {
+                    // the MDN acknowledges the message: it must be on disk before the MDN is sent
+                    try {
+                        AS2MessageJournal.Entry entry = journal.append((HttpEntityEnclosingRequest) request, getReceivedBody(context));
+                        if (!journalEntries.offer(entry)) {
+                            journal.remove(entry);
+                            log.debug("Rejecting message: {} messages waiting in {}", journalEntries.size(), journal.getDirectory());
+                            response.setStatusCode(HttpStatus.SC_SERVICE_UNAVAILABLE);
+                            response.setHeader(HttpHeaders.RETRY_AFTER, Integer.toString(getEndpoint().getConfiguration().getRetryAfter()));
+                            return;
+                        }
+                        log.debug("Stored message in {} of {}", entry, journal.getDirectory());
+                    } catch (IOException e) {
+                        log.warn("Failed to store message in {}: {}", journal.getDirectory(), e.getMessage());
+                        response.setStatusCode(HttpStatus.SC_SERVICE_UNAVAILABLE);
+                        response.setHeader(HttpHeaders.RETRY_AFTER, Integer.toString(getEndpoint().getConfiguration().getRetryAfter()));
+                        return;
+                    }
+                }
+                // MDNs are signed with the key of this endpoint unless the partner has its own
+                context.setAttribute(AS2ServerManager.SIGNING_CERTIFICATE_CHAIN, getEndpoint().getConfiguration().getSigningCertificateChain());
+                context.setAttribute(AS2ServerManager.SIGNING_PRIVATE_KEY, getEndpoint().getConfiguration().getSigningPrivateKey());
                 // TODO derive last to parameters from configuration.
                 apiProxy.handleMDNResponse((HttpEntityEnclosingRequest)request, response, context, "MDN Response", "Camel AS2 Server Endpoint");
+                if (journal != null) {
+                    // the route is fed from the journal
+                    return;
+                }
+                if (isAsyncMDNRequested(request)) {
+                    // the response does not depend on the route: do not hold the connection
+                    final Exchange exchange = createExchange(request, context, signatureVerified);
+                    final AS2DeferredReceipt deferredReceipt = new AS2DeferredReceipt();
+                    context.setAttribute(AS2ServerManager.DEFERRED_RECEIPT, deferredReceipt);
+                    released = false;
+                    getAsyncProcessor().process(exchange, new AsyncCallback() {
+                        @Override
+                        public void done(boolean doneSync) {
+                            try {
+                                if (exchange.getException() != null) {
+                                    getExceptionHandler().handleException("Error processing AS2 message, MDN not sent", exchange, exchange.getException());
+                                }
+                                log.debug("Processed {} for {}", exchange, as2ServerConnection);
+                                deferredReceipt.complete(exchange.getException() == null);
+                            } finally {
+                                inFlightExchanges.release();
+                            }
+                        }
+                    });
+                    return;
+                }
+            }
+
+            Exchange exchange = createExchange(request, context, signatureVerified);
+            process(exchange);
+
+            if (exchange.getException() != null) {
+                getExceptionHandler().handleException("Error processing AS2 message", exchange, exchange.getException());
+                response.setStatusCode(HttpStatus.SC_INTERNAL_SERVER_ERROR);
+            }
+            log.debug("Processed {} for {}", exchange, as2ServerConnection);
+        } finally {
+            if (released) {
+                inFlightExchanges.release();
             }
-            // Convert HTTP context to exchange and process
-            log.debug("Processed {} event for {}", ApiConsumerHelper.getResultsProcessed(this, context, false),
-                    as2ServerConnection);
-        } catch (Exception e) {
-            log.info("Received exception consuming AS2 message: ", e);
         }
-        
     }
-    
+
+    private static boolean isAsyncMDNRequested(HttpRequest request) {
+        return HttpMessageUtils.getHeaderValue(request, AS2Header.DISPOSITION_NOTIFICATION_TO) != null
+                && HttpMessageUtils.getHeaderValue(request, AS2Header.RECEIPT_DELIVERY_OPTION) != null;
+    }
+
+    /**
+     * Verifies the signature of a received message against the certificate
+     * registered for its trading partner.
+     *
+     * @return Whether the signature was made with the registered certificate,
+     *         or <code>null</code> if the message is not signed or no
+     *         certificate is registered.
+     */
+    private static Boolean verifySignature(HttpRequest request, AS2TradingPartner partner) {
+        if (partner == null || partner.getSignatureVerifier() == null) {
+            return null;
+        }
+        HttpEntity entity = EntityUtils.getMessageEntity(request);
+        if (!(entity instanceof MultipartSignedEntity)) {
+            return null;
+        }
+        return ((MultipartSignedEntity) entity).isValid(partner.getSignatureVerifier());
+    }
+
+    /**
+     * Creates the exchange of a received message, once its entity is parsed,
+     * its trading partner resolved and its signature verified.
+     */
+    private Exchange createExchange(HttpRequest request, HttpContext context, Boolean signatureVerified) {
+        Exchange exchange = getEndpoint().createExchange();
+        if (request instanceof HttpEntityEnclosingRequest) {
+            AS2TradingPartner partner = (AS2TradingPartner) context.getAttribute(AS2ServerManager.TRADING_PARTNER);
+            if (partner != null) {
+                exchange.getIn().setHeader(AS2Constants.AS2_TRADING_PARTNER, partner);
+            }
+            if (signatureVerified != null) {
+                exchange.getIn().setHeader(AS2Constants.AS2_SIGNATURE_VERIFIED, signatureVerified);
+            }
+            AS2MDNCorrelationStore.Correlation correlation = getEndpoint().getComponent().getMdnCorrelationStore().resolve(request);
+            if (correlation != null) {
+                log.debug("Received MDN for message {} sent to {} after {} ms", new Object[] {
+                    correlation.getOutboundMessage().getMessageId(), correlation.getOutboundMessage().getPartner(),
+                    correlation.getRoundTripTime()});
+                context.setAttribute(AS2ServerManager.MDN_CORRELATION, correlation);
+                exchange.getIn().setHeader(AS2Constants.AS2_MDN_CORRELATION, correlation);
+                // as for a synchronous MDN received by a producer
+                Boolean micVerified = correlation.isMicVerified();
+                if (micVerified != null) {
+                    exchange.getIn().setHeader(AS2Constants.AS2_MIC_VERIFIED, micVerified);
+                }
+            }
+        }
+
+        // Convert HTTP context to exchange
+        Object body = context;
+        if (getEndpoint().getConfiguration().isStreamEdiMessage()) {
+            ApplicationEDIEntity ediEntity = getEdiEntity(request);
+            if (ediEntity != null) {
+                body = AS2Converter.toStreamCache(ediEntity);
+            }
+        }
+        exchange.getIn().setBody(body);
+        exchange.getIn().setHeader(AS2Constants.AS2_INTERCHANGE, context);
+        return exchange;
+    }
+
+    /**
+     * Feeds the route with the messages of the journal, in the order they
+     * were received: first the messages recovered from the journal, then the
+     * messages received since. A message is removed from the journal once the
+     * route has processed it without exception, and redelivered otherwise
+     * until its attempts are exhausted.
+     */
+    private void forwardJournal(List<AS2MessageJournal.Entry> recoveredEntries) {
+        try {
+            for (AS2MessageJournal.Entry entry : recoveredEntries) {
+                if (!isRunAllowed()) {
+                    return;
+                }
+                forwardWithRedelivery(entry);
+            }
+            while (isRunAllowed()) {
+                forwardWithRedelivery(journalEntries.take());
+            }
+        } catch (InterruptedException e) {
+            // consumer stopped: messages still in the journal are delivered on next start
+        }
+    }
+
+    private void forwardWithRedelivery(AS2MessageJournal.Entry entry) throws InterruptedException {
+        long redeliveryDelay = getEndpoint().getConfiguration().getJournalRedeliveryDelay();
+        int maxAttempts = getEndpoint().getConfiguration().getJournalMaxAttempts();
+        for (int attempt = 1; !forward(entry); attempt++) {
+            if (attempt >= maxAttempts) {
+                log.error("Failed to deliver {} of {} in {} attempts, setting it aside", new Object[] {entry, journal.getDirectory(), attempt});
+                journal.reject(entry);
+                return;
+            }
+            Thread.sleep(redeliveryDelay);
+        }
+    }
+
+    private boolean forward(AS2MessageJournal.Entry entry) throws InterruptedException {
+        HttpEntityEnclosingRequest request;
+        try {
+            request = journal.read(entry);
+            EntityParser.parseAS2MessageEntity(request);
+        } catch (IOException | HttpException e) {
+            // never readable: set aside for inspection
+            log.error("Failed to read {} of {}, setting it aside: {}", new Object[] {entry, journal.getDirectory(), e.getMessage()});
+            journal.reject(entry);
+            return true;
+        }
+
+        HttpCoreContext context = HttpCoreContext.create();
+        context.setAttribute(HttpCoreContext.HTTP_REQUEST, request);
+        AS2TradingPartner partner = getEndpoint().getComponent().getTradingPartnerRegistry().resolve(request);
+        context.setAttribute(AS2ServerManager.TRADING_PARTNER, partner);
+        Exchange exchange;
+        try {
+            exchange = createExchange(request, context, verifySignature(request, partner));
+            process(exchange);
+        } catch (HttpException e) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+            log.warn("Failed to deliver {} of {}, redelivering: {}", new Object[] {entry, journal.getDirectory(), e.getMessage()});
+            return false;
+        } catch (RuntimeException e) {
+            log.warn("Failed to deliver {} of {}, redelivering: {}", new Object[] {entry, journal.getDirectory(), e.getMessage()});
+            return false;
+        }
+
+        if (exchange.getException() != null) {
+            getExceptionHandler().handleException("Error processing AS2 message from journal, redelivering", exchange, exchange.getException());
+            return false;
+        }
+        journal.remove(entry);
+        log.debug("Processed {} for {}", exchange, entry);
+        return true;
+    }
+
+    /**
+     * @return The body of the current request as received: the parsed entity
+     *         is not written back byte for byte, which would break its signature.
+     */
+    private static byte[] getReceivedBody(HttpContext context) throws IOException {
+        HttpConnection connection = HttpCoreContext.adapt(context).getConnection();
+        byte[] body = connection instanceof AS2BHttpServerConnection ? ((AS2BHttpServerConnection) connection).getRequestBody() : null;
+        if (body == null) {
+            throw new IOException("Body of message not retained as received");
+        }
+        return body;
+    }
+
+    private static ApplicationEDIEntity getEdiEntity(HttpRequest request) {
+        HttpEntity entity = EntityUtils.getMessageEntity(request);
+        if (entity instanceof ApplicationEDIEntity) {
+            return (ApplicationEDIEntity) entity;
+        } else if (entity instanceof MultipartSignedEntity) {
+            return ((MultipartSignedEntity) entity).getSignedDataEntity();
+        }
+        return null;
+    }
+
+    /**
+     * Processes <code>exchange</code>, waiting until the route has completed
+     * it: the response carries its outcome.
+     */
+    private void process(Exchange exchange) throws HttpException {
+        final CountDownLatch done = new CountDownLatch(1);
+        boolean doneSync = getAsyncProcessor().process(exchange, new AsyncCallback() {
+            @Override
+            public void done(boolean doneSync) {
+                done.countDown();
+            }
+        });
+        if (doneSync) {
+            return;
+        }
+        try {
+            // The response can only be sent once the route has completed the exchange
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HttpException("Interrupted while processing AS2 message", e);
+        }
+    }
+
 }
@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import org.apache.camel.Converter;
+import org.apache.camel.StreamCache;
+import org.apache.camel.component.as2.api.entity.ApplicationEDIEntity;
+import org.apache.camel.component.as2.api.entity.MultipartSignedEntity;
+import org.apache.camel.converter.stream.InputStreamCache;
+
+/**
+ * Type converters exposing the EDI message carried by AS2 entities without
+ * decoding it to a string.
+ */
+@Converter
+public final class AS2Converter {
+
+    private AS2Converter() {
+    }
+
+    @Converter
+    public static InputStream toInputStream(ApplicationEDIEntity entity) {
+        return entity.getEdiMessageStream();
+    }
+
+    @Converter
+    public static byte[] toByteArray(ApplicationEDIEntity entity) {
+        return entity.getEdiMessageContent().clone();
+    }
+
+    @Converter
+    public static ByteBuffer toByteBuffer(ApplicationEDIEntity entity) {
+        return ByteBuffer.wrap(entity.getEdiMessageContent()).asReadOnlyBuffer();
+    }
+
+    @Converter
+    public static StreamCache toStreamCache(ApplicationEDIEntity entity) {
+        return new InputStreamCache(entity.getEdiMessageContent());
+    }
+
+    @Converter
+    public static InputStream toInputStream(MultipartSignedEntity entity) {
+        ApplicationEDIEntity signedDataEntity = entity.getSignedDataEntity();
+        return signedDataEntity == null ? null : toInputStream(signedDataEntity);
+    }
+
+    @Converter
+    public static byte[] toByteArray(MultipartSignedEntity entity) {
+        ApplicationEDIEntity signedDataEntity = entity.getSignedDataEntity();
+        return signedDataEntity == null ? null : toByteArray(signedDataEntity);
+    }
+
+    @Converter
+    public static ByteBuffer toByteBuffer(MultipartSignedEntity entity) {
+        ApplicationEDIEntity signedDataEntity = entity.getSignedDataEntity();
+        return signedDataEntity == null ? null : toByteBuffer(signedDataEntity);
+    }
+
+    @Converter
+    public static StreamCache toStreamCache(MultipartSignedEntity entity) {
+        ApplicationEDIEntity signedDataEntity = entity.getSignedDataEntity();
+        return signedDataEntity == null ? null : toStreamCache(signedDataEntity);
+    }
+}
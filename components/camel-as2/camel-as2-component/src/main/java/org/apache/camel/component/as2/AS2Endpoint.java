@@ -18,6 +18,7 @@ package org.apache.camel.component.as2;
 
 import java.io.IOException;
 import java.net.UnknownHostException;
+import java.security.GeneralSecurityException;
 import java.util.Map;
 
 import org.apache.camel.Consumer;
@@ -26,9 +27,10 @@ import org.apache.camel.Producer;
 import org.apache.camel.RuntimeCamelException;
 import org.apache.camel.component.as2.api.AS2ClientConnection;
 import org.apache.camel.component.as2.api.AS2ClientManager;
-import org.apache.camel.component.as2.api.AS2ServerConnection;
-import org.apache.camel.component.as2.api.AS2ServerManager;
+import org.apache.camel.component.as2.api.AS2OutboundQueue;
+import org.apache.camel.component.as2.api.AS2SendProfile;
 import org.apache.camel.component.as2.internal.AS2ApiCollection;
+import org.apache.camel.component.as2.internal.AS2ApiInvoker;
 import org.apache.camel.component.as2.internal.AS2ApiName;
 import org.apache.camel.component.as2.internal.AS2ConnectionHelper;
 import org.apache.camel.component.as2.internal.AS2Constants;
@@ -53,7 +55,11 @@ public class AS2Endpoint extends AbstractApiEndpoint<AS2ApiName, AS2Configuratio
     
     private AS2ClientConnection as2ClientConnection;
 
-    private AS2ServerConnection as2ServerConnection;
+    private AS2OutboundQueue outboundQueue;
+
+    private volatile AS2SendProfile sendProfile;
+
+    private volatile boolean sendProfileCreated;
 
     public AS2Endpoint(String uri, AS2Component component,
                          AS2ApiName apiName, String methodName, AS2Configuration endpointConfiguration) {
@@ -61,12 +67,39 @@ public class AS2Endpoint extends AbstractApiEndpoint<AS2ApiName, AS2Configuratio
 
     }
     
+    @Override
+    public AS2Component getComponent() {
+        return (AS2Component) super.getComponent();
+    }
+
     public AS2ClientConnection getAS2ClientConnection() {
         return as2ClientConnection;
     }
 
-    public AS2ServerConnection getAS2ServerConnection() {
-        return as2ServerConnection;
+    /**
+     * @return The queue of the messages sent by this endpoint, or <code>null</code> if messages are sent directly.
+     */
+    public AS2OutboundQueue getOutboundQueue() {
+        return outboundQueue;
+    }
+
+    /**
+     * Returns the send profile prepared from the endpoint configuration.
+     * 
+     * @return The send profile or <code>null</code> if the endpoint configuration does not define a complete profile.
+     */
+    public AS2SendProfile getSendProfile() {
+        if (!sendProfileCreated) {
+            synchronized (this) {
+                if (!sendProfileCreated) {
+                    if (apiName == AS2ApiName.SEND) {
+                        sendProfile = AS2ApiInvoker.createSendProfile(getEndpointProperties(), getCamelContext().getTypeConverter());
+                    }
+                    sendProfileCreated = true;
+                }
+            }
+        }
+        return sendProfile;
     }
 
     public Producer createProducer() throws Exception {
@@ -95,14 +128,13 @@ public class AS2Endpoint extends AbstractApiEndpoint<AS2ApiName, AS2Configuratio
 
     @Override
     protected void afterConfigureProperties() {
-        // create HTTP connection eagerly, a good way to validate configuration
+        // create client connection eagerly, a good way to validate configuration: HTTP connections
+        // are opened from the component pool when first used and server connections are shared
+        // by consumers while they are started, see AS2Consumer
         switch (apiName) {
         case SEND:
             createAS2ClientConnection();
             break;
-        case LISTEN:
-            createAS2ServerConnection();
-            break;
         default:
             break;
         }
@@ -127,13 +159,19 @@ public class AS2Endpoint extends AbstractApiEndpoint<AS2ApiName, AS2Configuratio
         return name;
     }
 
+    @Override
+    protected void doStop() throws Exception {
+        if (outboundQueue != null) {
+            // queued messages are resent when the producer is started again
+            outboundQueue.stop();
+        }
+        super.doStop();
+    }
+
     private void createApiProxy(ApiMethod method, Map<String, Object> args) {
         switch (apiName) {
         case SEND:
-            apiProxy = new AS2ClientManager(getAS2ClientConnection());
-            break;
-        case LISTEN:
-            apiProxy = new AS2ServerManager(getAS2ServerConnection());
+            apiProxy = new AS2ClientManager(getAS2ClientConnection(), getComponent().getMdnCorrelationStore(), outboundQueue);
             break;
         default:
             throw new IllegalArgumentException("Invalid API name " + apiName);
@@ -142,7 +180,17 @@ public class AS2Endpoint extends AbstractApiEndpoint<AS2ApiName, AS2Configuratio
     
     private void createAS2ClientConnection() {
         try {
-            as2ClientConnection = AS2ConnectionHelper.createAS2ClientConnection(configuration);
+            as2ClientConnection = AS2ConnectionHelper.createAS2ClientConnection(configuration, getComponent().getClientConnectionPool(),
+                    getComponent().getTlsSettings(configuration));
+            as2ClientConnection.setArchive(getComponent().getMessageArchive());
+            as2ClientConnection.setWireCapture(getComponent().getWireCapture());
+            outboundQueue = AS2ConnectionHelper.createOutboundQueue(as2ClientConnection, configuration);
+            if (outboundQueue != null) {
+                // synchronous MDNs of resent messages are matched like those of messages sent at once
+                outboundQueue.setCorrelationStore(getComponent().getMdnCorrelationStore());
+            }
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeCamelException("Client TLS setup failed", e);
         } catch (UnknownHostException e) {
             throw new RuntimeCamelException(String.format("Client HTTP connection failed: Unknown target host '%s'",
                     configuration.getTargetHostname()));
@@ -150,13 +198,5 @@ public class AS2Endpoint extends AbstractApiEndpoint<AS2ApiName, AS2Configuratio
             throw new RuntimeCamelException("Client HTTP connection failed", e);
         }
     }
-    
-    private void createAS2ServerConnection() {
-        try {
-            as2ServerConnection = AS2ConnectionHelper.createAS2ServerConnection(configuration);
-        } catch (IOException e) {
-            throw new RuntimeCamelException("Server HTTP connection failed", e);
-        }
-    }
 
 }
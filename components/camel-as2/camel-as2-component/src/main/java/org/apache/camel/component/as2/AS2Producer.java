@@ -16,9 +16,19 @@
  */
 package org.apache.camel.component.as2;
 
+import java.util.Map;
+
+import org.apache.camel.CamelExchangeException;
+import org.apache.camel.Exchange;
+import org.apache.camel.RuntimeCamelException;
+import org.apache.camel.component.as2.api.AS2ClientManager;
+import org.apache.camel.component.as2.internal.AS2ApiInvoker;
 import org.apache.camel.component.as2.internal.AS2ApiName;
+import org.apache.camel.component.as2.internal.AS2Constants;
 import org.apache.camel.component.as2.internal.AS2PropertiesHelper;
 import org.apache.camel.util.component.AbstractApiProducer;
+import org.apache.camel.util.component.ApiMethod;
+import org.apache.http.protocol.HttpCoreContext;
 
 /**
  * The AS2 producer.
@@ -28,4 +38,42 @@ public class AS2Producer extends AbstractApiProducer<AS2ApiName, AS2Configuratio
     public AS2Producer(AS2Endpoint endpoint) {
         super(endpoint, AS2PropertiesHelper.getHelper());
     }
+
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+
+        AS2Endpoint endpoint = (AS2Endpoint) getEndpoint();
+        if (endpoint.getOutboundQueue() != null) {
+            endpoint.getOutboundQueue().start();
+        }
+        if (endpoint.getConfiguration().isWarmUpConnection() && endpoint.getAS2ClientConnection() != null) {
+            endpoint.getComponent().warmUp(endpoint.getAS2ClientConnection());
+        }
+    }
+
+    @Override
+    protected Object doInvokeMethod(ApiMethod method, Map<String, Object> properties) throws RuntimeCamelException {
+        AS2Endpoint endpoint = (AS2Endpoint) getEndpoint();
+        return AS2ApiInvoker.invokeMethod(endpoint.getApiProxy(method, properties), method, properties,
+                endpoint.getCamelContext().getTypeConverter(), endpoint.getSendProfile());
+    }
+
+    @Override
+    protected void interceptResult(Object methodResult, Exchange resultExchange) {
+        if (methodResult instanceof HttpCoreContext) {
+            Boolean micVerified = ((HttpCoreContext) methodResult).getAttribute(AS2ClientManager.MIC_VERIFIED, Boolean.class);
+            if (micVerified != null) {
+                resultExchange.getOut().setHeader(AS2Constants.AS2_MIC_VERIFIED, micVerified);
+                if (!micVerified) {
+                    // the partner did not receive the content sent: the exchange fails with the response set
+                    resultExchange.setException(new CamelExchangeException("MIC returned in MDN does not match sent message", resultExchange));
+                }
+            }
+            Boolean queued = ((HttpCoreContext) methodResult).getAttribute(AS2ClientManager.QUEUED, Boolean.class);
+            if (queued != null) {
+                resultExchange.getOut().setHeader(AS2Constants.AS2_QUEUED, queued);
+            }
+        }
+    }
 }
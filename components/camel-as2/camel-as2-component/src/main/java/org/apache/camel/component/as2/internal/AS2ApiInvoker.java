@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.internal;
+
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.util.Map;
+
+import org.apache.camel.RuntimeCamelException;
+import org.apache.camel.TypeConverter;
+import org.apache.camel.component.as2.api.AS2ClientManager;
+import org.apache.camel.component.as2.api.AS2MessageStructure;
+import org.apache.camel.component.as2.api.AS2SendProfile;
+import org.apache.camel.component.as2.api.AS2ServerManager;
+import org.apache.camel.util.component.ApiMethod;
+import org.apache.camel.util.component.ApiMethodHelper;
+import org.apache.http.HttpException;
+import org.apache.http.entity.ContentType;
+import org.apache.http.protocol.HttpRequestHandler;
+
+/**
+ * Invokes the AS2 API methods with typed calls on the API proxies instead of
+ * reflectively through {@link ApiMethodHelper}. Methods without a typed
+ * invoker fall back to {@link ApiMethodHelper#invokeMethod(Object, ApiMethod, Map)}.
+ */
+public final class AS2ApiInvoker {
+
+    private static final String SEND_METHOD = "send";
+    private static final String LISTEN_METHOD = "listen";
+
+    private AS2ApiInvoker() {
+    }
+
+    public static Object invokeMethod(Object proxy, ApiMethod method, Map<String, Object> properties,
+                                      TypeConverter typeConverter) throws RuntimeCamelException {
+        return invokeMethod(proxy, method, properties, typeConverter, null);
+    }
+
+    /**
+     * Invokes <code>method</code>, sending messages with <code>sendProfile</code>
+     * when the send arguments match the ones it was created with.
+     */
+    public static Object invokeMethod(Object proxy, ApiMethod method, Map<String, Object> properties,
+                                      TypeConverter typeConverter, AS2SendProfile sendProfile) throws RuntimeCamelException {
+        if (proxy instanceof AS2ClientManager && SEND_METHOD.equals(method.getName())) {
+            try {
+                if (sendProfile != null && matches(sendProfile, properties, typeConverter)) {
+                    return ((AS2ClientManager) proxy).sendMessage(
+                            argument(properties, "ediMessage", String.class, typeConverter), sendProfile);
+                }
+                return ((AS2ClientManager) proxy).send(
+                        argument(properties, "ediMessage", String.class, typeConverter),
+                        argument(properties, "requestUri", String.class, typeConverter),
+                        argument(properties, "subject", String.class, typeConverter),
+                        argument(properties, "from", String.class, typeConverter),
+                        argument(properties, "as2From", String.class, typeConverter),
+                        argument(properties, "as2To", String.class, typeConverter),
+                        argument(properties, "as2MessageStructure", AS2MessageStructure.class, typeConverter),
+                        argument(properties, "ediMessageContentType", ContentType.class, typeConverter),
+                        argument(properties, "ediMessageTransferEncoding", String.class, typeConverter),
+                        argument(properties, "signingCertificateChain", Certificate[].class, typeConverter),
+                        argument(properties, "signingPrivateKey", PrivateKey.class, typeConverter),
+                        argument(properties, "dispositionNotificationTo", String.class, typeConverter),
+                        argument(properties, "signedReceiptMicAlgorithms", String[].class, typeConverter));
+            } catch (HttpException e) {
+                throw new RuntimeCamelException(String.format("Error invoking %s with %s: %s",
+                        method.getName(), properties, e.getMessage()), e);
+            }
+        } else if (proxy instanceof AS2ServerManager && LISTEN_METHOD.equals(method.getName())) {
+            ((AS2ServerManager) proxy).listen(
+                    argument(properties, "requestUriPattern", String.class, typeConverter),
+                    argument(properties, "as2To", String.class, typeConverter),
+                    argument(properties, "as2From", String.class, typeConverter),
+                    argument(properties, "handler", HttpRequestHandler.class, typeConverter));
+            return null;
+        }
+        return ApiMethodHelper.invokeMethod(proxy, method, properties);
+    }
+
+    /**
+     * Creates the send profile for the send arguments in <code>properties</code>.
+     *
+     * @return The send profile or <code>null</code> if the arguments are incomplete or invalid.
+     */
+    public static AS2SendProfile createSendProfile(Map<String, Object> properties, TypeConverter typeConverter) {
+        try {
+            return new AS2SendProfile(
+                    argument(properties, "requestUri", String.class, typeConverter),
+                    argument(properties, "subject", String.class, typeConverter),
+                    argument(properties, "from", String.class, typeConverter),
+                    argument(properties, "as2From", String.class, typeConverter),
+                    argument(properties, "as2To", String.class, typeConverter),
+                    argument(properties, "as2MessageStructure", AS2MessageStructure.class, typeConverter),
+                    argument(properties, "ediMessageContentType", ContentType.class, typeConverter),
+                    argument(properties, "ediMessageTransferEncoding", String.class, typeConverter),
+                    argument(properties, "signingCertificateChain", Certificate[].class, typeConverter),
+                    argument(properties, "signingPrivateKey", PrivateKey.class, typeConverter),
+                    argument(properties, "dispositionNotificationTo", String.class, typeConverter),
+                    argument(properties, "signedReceiptMicAlgorithms", String[].class, typeConverter));
+        } catch (HttpException | RuntimeException e) {
+            // messages are then sent without profile, failing if the arguments are still invalid
+            return null;
+        }
+    }
+
+    private static boolean matches(AS2SendProfile sendProfile, Map<String, Object> properties, TypeConverter typeConverter) {
+        return sendProfile.matches(
+                argument(properties, "requestUri", String.class, typeConverter),
+                argument(properties, "subject", String.class, typeConverter),
+                argument(properties, "from", String.class, typeConverter),
+                argument(properties, "as2From", String.class, typeConverter),
+                argument(properties, "as2To", String.class, typeConverter),
+                argument(properties, "as2MessageStructure", AS2MessageStructure.class, typeConverter),
+                argument(properties, "ediMessageContentType", ContentType.class, typeConverter),
+                argument(properties, "ediMessageTransferEncoding", String.class, typeConverter),
+                argument(properties, "signingCertificateChain", Certificate[].class, typeConverter),
+                argument(properties, "signingPrivateKey", PrivateKey.class, typeConverter),
+                argument(properties, "dispositionNotificationTo", String.class, typeConverter),
+                argument(properties, "signedReceiptMicAlgorithms", String[].class, typeConverter));
+    }
+
+    private static <T> T argument(Map<String, Object> properties, String name, Class<T> type,
+                                  TypeConverter typeConverter) {
+        Object value = properties.get(name);
+        if (value == null || type.isInstance(value)) {
+            return type.cast(value);
+        }
+        T converted = typeConverter.convertTo(type, value);
+        if (converted == null) {
+            throw new IllegalArgumentException(String.format("Argument %s of type %s can not be converted to %s",
+                    name, value.getClass().getName(), type.getName()));
+        }
+        return converted;
+    }
+}
@@ -16,22 +16,32 @@
  */
 package org.apache.camel.component.as2.internal;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.UnknownHostException;
-import java.util.HashMap;
+import java.security.GeneralSecurityException;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
+import org.apache.camel.CamelContext;
 import org.apache.camel.component.as2.AS2Configuration;
+import org.apache.camel.component.as2.api.AS2AsyncMDNDispatcher;
 import org.apache.camel.component.as2.api.AS2ClientConnection;
+import org.apache.camel.component.as2.api.AS2ClientConnectionPool;
+import org.apache.camel.component.as2.api.AS2MessageIdIndex;
+import org.apache.camel.component.as2.api.AS2OutboundQueue;
+import org.apache.camel.component.as2.api.AS2PartnerScheduler;
+import org.apache.camel.component.as2.api.AS2RequestVerifier;
 import org.apache.camel.component.as2.api.AS2ServerConnection;
+import org.apache.camel.component.as2.api.AS2TlsSettings;
+import org.apache.camel.component.as2.api.AS2TradingPartnerRegistry;
+import org.apache.http.config.SocketConfig;
 
 /**
  * Utility class for creating AS2 connections.
  */
 public final class AS2ConnectionHelper {
     
-    private static Map<Integer, AS2ServerConnection> serverConnections = new HashMap<Integer, AS2ServerConnection>(); 
-    
     /**
      * Prevent instantiation
      */
@@ -42,32 +52,192 @@ public final class AS2ConnectionHelper {
      * Create an AS2 client connection.
      * 
      * @param configuration - configuration used to configure connection.
+     * @param connectionPool - the pool of the HTTP connections carrying messages, opened when first used.
+     * @return The AS2 client connection.
+     * @throws UnknownHostException Failed to establish connection due to unknown host.
+     * @throws IOException - Failed to establish connection.
+     */
+    public static AS2ClientConnection createAS2ClientConnection(AS2Configuration configuration, AS2ClientConnectionPool connectionPool) throws UnknownHostException, IOException {
+        return createAS2ClientConnection(configuration, connectionPool, null);
+    }
+
+    /**
+     * Create an AS2 client connection.
+     * 
+     * @param configuration - configuration used to configure connection.
+     * @param connectionPool - the pool of the HTTP connections carrying messages, opened when first used.
+     * @param tlsSettings - the settings of the HTTPS transport, or <code>null</code> to send messages over HTTP.
      * @return The AS2 client connection.
      * @throws UnknownHostException Failed to establish connection due to unknown host.
      * @throws IOException - Failed to establish connection.
      */
-    public static AS2ClientConnection createAS2ClientConnection(AS2Configuration configuration) throws UnknownHostException, IOException {
+    public static AS2ClientConnection createAS2ClientConnection(AS2Configuration configuration, AS2ClientConnectionPool connectionPool, AS2TlsSettings tlsSettings) throws UnknownHostException, IOException {
         return new AS2ClientConnection(configuration.getAs2Version(), configuration.getUserAgent(), configuration.getClientFqdn(),
-                configuration.getTargetHostname(), configuration.getTargetPortNumber());
+                configuration.getTargetHostname(), configuration.getTargetPortNumber(), connectionPool, tlsSettings);
+    }
+
+    /**
+     * Create the outbound queue of an AS2 client connection.
+     * 
+     * @param clientConnection - the connection sending the queued messages.
+     * @param configuration - configuration providing the queue directory and retry settings.
+     * @return The outbound queue, or <code>null</code> if the configuration has no outbound queue directory.
+     */
+    public static AS2OutboundQueue createOutboundQueue(AS2ClientConnection clientConnection, AS2Configuration configuration) {
+        if (configuration.getOutboundQueueDirectory() == null) {
+            return null;
+        }
+        AS2OutboundQueue outboundQueue = new AS2OutboundQueue(clientConnection, new File(configuration.getOutboundQueueDirectory()));
+        outboundQueue.setMaxAttempts(configuration.getOutboundMaxAttempts());
+        outboundQueue.setInitialBackoff(configuration.getOutboundInitialBackoff());
+        outboundQueue.setMaxBackoff(configuration.getOutboundMaxBackoff());
+        return outboundQueue;
+    }
+
+    /**
+     * Create the settings of the HTTPS transport of a configuration. Endpoints
+     * share the settings created by {@link org.apache.camel.component.as2.AS2Component#getTlsSettings(AS2Configuration)}.
+     * 
+     * @param camelContext - the context resolving the SSL context parameters.
+     * @param configuration - configuration providing the SSL context parameters.
+     * @return The TLS settings, or <code>null</code> if the configuration has no SSL context parameters.
+     * @throws GeneralSecurityException - Failed to create the SSL context.
+     * @throws IOException - Failed to load keys or certificates.
+     */
+    public static AS2TlsSettings createTlsSettings(CamelContext camelContext, AS2Configuration configuration) throws GeneralSecurityException, IOException {
+        if (configuration.getSslContextParameters() == null) {
+            return null;
+        }
+        // protocols and cipher suites are applied by the SSL context created from the parameters
+        AS2TlsSettings tlsSettings = new AS2TlsSettings(configuration.getSslContextParameters().createSSLContext(camelContext));
+        if (configuration.getSslSessionCacheSize() >= 0) {
+            tlsSettings.setSessionCacheSize(configuration.getSslSessionCacheSize());
+        }
+        if (configuration.getSslSessionTimeout() >= 0) {
+            tlsSettings.setSessionTimeout(configuration.getSslSessionTimeout());
+        }
+        return tlsSettings;
     }
     
     /**
      * Create an AS2 server connection.
      * 
+     * <p>Server connections are shared by the consumers of a component through
+     * its {@link AS2ServerConnectionRegistry}.
+     * 
      * @param configuration - configuration used to configure connection.
+     * @param tradingPartnerRegistry - the trading partners known to the connection.
      * @return The AS2 server connection.
      * @throws IOException 
      */
-    public static AS2ServerConnection createAS2ServerConnection(AS2Configuration configuration) throws IOException {
-        synchronized (serverConnections) {
-            AS2ServerConnection serverConnection = serverConnections.get(configuration.getServerPortNumber());
-            if (serverConnection == null) {
-                serverConnection = new AS2ServerConnection(configuration.getAs2Version(), configuration.getServer(),
-                        configuration.getServerFqdn(), configuration.getServerPortNumber(),
-                        configuration.getSigningCertificateChain(), configuration.getSigningPrivateKey());
-                serverConnections.put(configuration.getServerPortNumber(), serverConnection);
-            }
-            return serverConnection;
+    public static AS2ServerConnection createAS2ServerConnection(AS2Configuration configuration, AS2TradingPartnerRegistry tradingPartnerRegistry) throws IOException {
+        return createAS2ServerConnection(configuration, tradingPartnerRegistry, null);
+    }
+
+    /**
+     * Create an AS2 server connection.
+     * 
+     * @param configuration - configuration used to configure connection.
+     * @param tradingPartnerRegistry - the trading partners known to the connection.
+     * @param tlsSettings - the settings of the HTTPS transport, or <code>null</code> to listen for HTTP requests.
+     * @return The AS2 server connection, accepting connections once started.
+     * @throws IOException 
+     */
+    public static AS2ServerConnection createAS2ServerConnection(AS2Configuration configuration, AS2TradingPartnerRegistry tradingPartnerRegistry, AS2TlsSettings tlsSettings) throws IOException {
+        // MDN signing keys are applied per consumer, see AS2Consumer
+        SocketConfig socketConfig = SocketConfig.custom()
+                .setBacklogSize(configuration.getServerBacklog())
+                .setRcvBufSize(configuration.getServerReceiveBufferSize())
+                .setSndBufSize(configuration.getServerSendBufferSize())
+                .setTcpNoDelay(configuration.isServerTcpNoDelay())
+                .setSoReuseAddress(configuration.isServerReuseAddress())
+                .build();
+        AS2ServerConnection serverConnection = new AS2ServerConnection(configuration.getAs2Version(), configuration.getServer(),
+                configuration.getServerFqdn(), configuration.getServerPortNumber(), null, null,
+                createAsyncMDNDispatcher(configuration), tradingPartnerRegistry, socketConfig, configuration.getServerAcceptorThreads(), tlsSettings, false);
+        AS2RequestVerifier requestVerifier = serverConnection.getRequestVerifier();
+        requestVerifier.setMaxContentLength(configuration.getMaxMessageSize());
+        if (configuration.isRejectDuplicateMessages()) {
+            File indexFile = configuration.getDuplicateIndexFile() == null ? null : new File(configuration.getDuplicateIndexFile());
+            requestVerifier.setMessageIdIndex(new AS2MessageIdIndex(configuration.getDuplicateIndexSize(),
+                    configuration.getDuplicateWindow(), indexFile));
+            requestVerifier.setMatchDuplicatePayload(configuration.isMatchDuplicatePayload());
+        }
+        requestVerifier.setRetryAfter(configuration.getRetryAfter());
+        AS2PartnerScheduler partnerScheduler = requestVerifier.getPartnerScheduler();
+        partnerScheduler.setMaxConcurrentRequests(configuration.getMaxConcurrentMessages());
+        partnerScheduler.setMaxConcurrentRequestsPerPartner(configuration.getMaxConcurrentMessagesPerPartner());
+        partnerScheduler.setAdmissionTimeout(configuration.getPartnerAdmissionTimeout());
+        requestVerifier.setLargeMessageThreshold(configuration.getLargeMessageThreshold());
+        AS2PartnerScheduler largeMessageScheduler = requestVerifier.getLargeMessageScheduler();
+        largeMessageScheduler.setMaxConcurrentRequests(configuration.getMaxConcurrentLargeMessages());
+        largeMessageScheduler.setMaxConcurrentRequestsPerPartner(configuration.getMaxConcurrentMessagesPerPartner());
+        largeMessageScheduler.setAdmissionTimeout(configuration.getPartnerAdmissionTimeout());
+        if (configuration.getSpillDirectory() != null) {
+            serverConnection.setSpillDirectory(new File(configuration.getSpillDirectory()));
         }
+        serverConnection.setSocketTimeout(configuration.getServerSocketTimeout());
+        serverConnection.setIdleTimeout(configuration.getServerIdleTimeout());
+        serverConnection.setRequestReadTimeout(configuration.getServerRequestReadTimeout());
+        serverConnection.setMaxKeepAliveRequests(configuration.getMaxKeepAliveRequests());
+        return serverConnection;
+    }
+    
+    /**
+     * Returns the settings of a configuration applying to a whole server
+     * connection, and so to all the consumers sharing it.
+     * 
+     * @param configuration - configuration used to configure connection.
+     * @return The settings, by option name.
+     */
+    public static Map<String, Object> getServerConnectionSettings(AS2Configuration configuration) {
+        // keep in line with createAS2ServerConnection and createTlsSettings
+        Map<String, Object> settings = new LinkedHashMap<String, Object>();
+        settings.put("as2Version", configuration.getAs2Version());
+        settings.put("server", configuration.getServer());
+        settings.put("serverFqdn", configuration.getServerFqdn());
+        settings.put("serverBacklog", configuration.getServerBacklog());
+        settings.put("serverReceiveBufferSize", configuration.getServerReceiveBufferSize());
+        settings.put("serverSendBufferSize", configuration.getServerSendBufferSize());
+        settings.put("serverTcpNoDelay", configuration.isServerTcpNoDelay());
+        settings.put("serverReuseAddress", configuration.isServerReuseAddress());
+        settings.put("serverAcceptorThreads", configuration.getServerAcceptorThreads());
+        settings.put("serverSocketTimeout", configuration.getServerSocketTimeout());
+        settings.put("serverIdleTimeout", configuration.getServerIdleTimeout());
+        settings.put("serverRequestReadTimeout", configuration.getServerRequestReadTimeout());
+        settings.put("serverDrainTimeout", configuration.getServerDrainTimeout());
+        settings.put("maxKeepAliveRequests", configuration.getMaxKeepAliveRequests());
+        settings.put("asyncMdnQueueDirectory", configuration.getAsyncMdnQueueDirectory());
+        settings.put("asyncMdnMaxAttempts", configuration.getAsyncMdnMaxAttempts());
+        settings.put("maxMessageSize", configuration.getMaxMessageSize());
+        settings.put("rejectDuplicateMessages", configuration.isRejectDuplicateMessages());
+        settings.put("duplicateIndexFile", configuration.getDuplicateIndexFile());
+        settings.put("duplicateIndexSize", configuration.getDuplicateIndexSize());
+        settings.put("duplicateWindow", configuration.getDuplicateWindow());
+        settings.put("matchDuplicatePayload", configuration.isMatchDuplicatePayload());
+        settings.put("retryAfter", configuration.getRetryAfter());
+        settings.put("maxConcurrentMessages", configuration.getMaxConcurrentMessages());
+        settings.put("maxConcurrentMessagesPerPartner", configuration.getMaxConcurrentMessagesPerPartner());
+        settings.put("maxConcurrentLargeMessages", configuration.getMaxConcurrentLargeMessages());
+        settings.put("partnerAdmissionTimeout", configuration.getPartnerAdmissionTimeout());
+        settings.put("largeMessageThreshold", configuration.getLargeMessageThreshold());
+        settings.put("spillDirectory", configuration.getSpillDirectory());
+        settings.put("sslContextParameters", configuration.getSslContextParameters());
+        settings.put("sslSessionCacheSize", configuration.getSslSessionCacheSize());
+        settings.put("sslSessionTimeout", configuration.getSslSessionTimeout());
+        return settings;
+    }
+
+    /**
+     * Create the dispatcher delivering asynchronous MDNs for a server connection.
+     * 
+     * @param configuration - configuration used to configure dispatcher.
+     * @return The asynchronous MDN dispatcher.
+     */
+    private static AS2AsyncMDNDispatcher createAsyncMDNDispatcher(AS2Configuration configuration) {
+        File queueDirectory = configuration.getAsyncMdnQueueDirectory() == null ? null : new File(configuration.getAsyncMdnQueueDirectory());
+        AS2AsyncMDNDispatcher dispatcher = new AS2AsyncMDNDispatcher(configuration.getServer(), queueDirectory);
+        dispatcher.setMaxAttempts(configuration.getAsyncMdnMaxAttempts());
+        return dispatcher;
     }
 }
@@ -26,4 +26,24 @@ public interface AS2Constants {
 
     // thread profile name for this component
     String THREAD_PROFILE_NAME = "CamelAS2";
+
+    // header indicating whether the MIC returned in an MDN matches the sent message; a producer exchange fails if not,
+    // an asynchronous MDN received by a consumer is left to the route
+    String AS2_MIC_VERIFIED = "CamelAS2MicVerified";
+
+    // header containing the HTTP context of a received message
+    String AS2_INTERCHANGE = "CamelAS2Interchange";
+
+    // header containing the correlation of a received MDN with the message it acknowledges
+    String AS2_MDN_CORRELATION = "CamelAS2MdnCorrelation";
+
+    // header containing the registered trading partner sending a received message
+    String AS2_TRADING_PARTNER = "CamelAS2TradingPartner";
+
+    // header indicating whether the signature of a received message was made by its registered trading partner;
+    // messages whose signature was not are rejected before reaching the route
+    String AS2_SIGNATURE_VERIFIED = "CamelAS2SignatureVerified";
+
+    // header indicating that a sent message was queued for resending rather than received by the trading partner
+    String AS2_QUEUED = "CamelAS2Queued";
 }
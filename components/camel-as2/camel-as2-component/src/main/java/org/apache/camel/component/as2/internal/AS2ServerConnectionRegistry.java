@@ -0,0 +1,174 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.camel.component.as2.AS2Configuration;
+import org.apache.camel.component.as2.api.AS2ServerConnection;
+import org.apache.camel.component.as2.api.AS2TlsSettings;
+import org.apache.camel.component.as2.api.AS2TradingPartnerRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The AS2 server connections of a component, shared by the consumers
+ * listening on the same port.
+ *
+ * <p>A connection is opened when the first consumer listening on its port
+ * acquires it and closed when the last one releases it. Settings of the
+ * connection, such as its AS2 version or maximum message size, are those of
+ * the consumer opening it: a consumer with different connection settings
+ * fails to acquire it. Settings applying to the messages of a consumer, such
+ * as the key signing their MDNs, are applied by the consumer. A connection
+ * accepts connections once started by a consumer, see {@link AS2ServerConnection#start()},
+ * so that the consumer opening it applies its settings first.
+ */
+public class AS2ServerConnectionRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AS2ServerConnectionRegistry.class);
+
+    private static final class SharedConnection {
+        private final AS2ServerConnection connection;
+        private final Map<String, Object> settings;
+        private final long drainTimeout;
+        private int references;
+
+        SharedConnection(AS2ServerConnection connection, Map<String, Object> settings, long drainTimeout) {
+            this.connection = connection;
+            this.settings = settings;
+            this.drainTimeout = drainTimeout;
+        }
+
+        void close() {
+            int aborted = connection.close(drainTimeout);
+            if (aborted > 0) {
+                LOG.warn("Aborted {} requests in progress when closing server connection {}", aborted, connection);
+            }
+        }
+    }
+
+    private final Map<Integer, SharedConnection> connections = new HashMap<Integer, SharedConnection>();
+
+    /**
+     * Acquires the server connection listening on the port of a configuration, opening it if needed.
+     * 
+     * @param configuration - configuration used to configure the connection if opened.
+     * @param tradingPartnerRegistry - the trading partners known to the connection if opened.
+     * @return The AS2 server connection, not started if opened.
+     * @throws IOException if the connection can not be opened.
+     */
+    public AS2ServerConnection acquire(AS2Configuration configuration, AS2TradingPartnerRegistry tradingPartnerRegistry) throws IOException {
+        return acquire(configuration, tradingPartnerRegistry, null);
+    }
+
+    /**
+     * Acquires the server connection listening on the port of a configuration, opening it if needed.
+     * 
+     * @param configuration - configuration used to configure the connection if opened.
+     * @param tradingPartnerRegistry - the trading partners known to the connection if opened.
+     * @param tlsSettings - the settings of the HTTPS transport of the connection if opened, or <code>null</code> for HTTP.
+     * @return The AS2 server connection, not started if opened.
+     * @throws IOException if the connection can not be opened.
+     * @throws IllegalArgumentException if the connection is open with other connection settings.
+     */
+    public synchronized AS2ServerConnection acquire(AS2Configuration configuration, AS2TradingPartnerRegistry tradingPartnerRegistry, AS2TlsSettings tlsSettings) throws IOException {
+        Map<String, Object> settings = AS2ConnectionHelper.getServerConnectionSettings(configuration);
+        SharedConnection shared = connections.get(configuration.getServerPortNumber());
+        if (shared == null) {
+            shared = new SharedConnection(AS2ConnectionHelper.createAS2ServerConnection(configuration, tradingPartnerRegistry, tlsSettings),
+                    settings, configuration.getServerDrainTimeout());
+            connections.put(configuration.getServerPortNumber(), shared);
+        } else {
+            checkSettings(configuration.getServerPortNumber(), shared.settings, settings);
+        }
+        shared.references++;
+        return shared.connection;
+    }
+
+    private static void checkSettings(int port, Map<String, Object> connectionSettings, Map<String, Object> settings) {
+        StringBuilder conflicts = new StringBuilder();
+        for (Map.Entry<String, Object> setting : settings.entrySet()) {
+            Object connectionValue = connectionSettings.get(setting.getKey());
+            if (!Objects.equals(connectionValue, setting.getValue())) {
+                conflicts.append(conflicts.length() == 0 ? "" : ", ").append(setting.getKey())
+                        .append(" (").append(setting.getValue()).append(" instead of ").append(connectionValue).append(')');
+            }
+        }
+        if (conflicts.length() > 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Server connection on port %d already open with other settings: %s", port, conflicts));
+        }
+    }
+
+    /**
+     * Releases a server connection, closing it if no longer used. The
+     * requests being processed by a closed connection are given the drain
+     * timeout of the consumer which opened it to finish.
+     * 
+     * @param connection - the acquired connection.
+     */
+    public void release(AS2ServerConnection connection) {
+        SharedConnection unused = null;
+        synchronized (this) {
+            Iterator<SharedConnection> it = connections.values().iterator();
+            while (it.hasNext()) {
+                SharedConnection shared = it.next();
+                if (shared.connection == connection) {
+                    if (--shared.references == 0) {
+                        it.remove();
+                        unused = shared;
+                    }
+                    break;
+                }
+            }
+        }
+        // drain outside the lock so that other consumers may start and stop meanwhile
+        if (unused != null) {
+            LOG.debug("Closing unused server connection {}", connection);
+            unused.close();
+        }
+    }
+
+    /**
+     * @return The number of consumers using the connection listening on <code>port</code>.
+     */
+    public synchronized int getReferenceCount(int port) {
+        SharedConnection shared = connections.get(port);
+        return shared == null ? 0 : shared.references;
+    }
+
+    /**
+     * Closes all connections.
+     */
+    public void close() {
+        List<SharedConnection> closed;
+        synchronized (this) {
+            closed = new ArrayList<SharedConnection>(connections.values());
+            connections.clear();
+        }
+        for (SharedConnection shared : closed) {
+            shared.close();
+        }
+    }
+}
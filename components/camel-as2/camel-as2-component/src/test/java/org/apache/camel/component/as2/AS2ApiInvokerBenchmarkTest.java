@@ -0,0 +1,138 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2;
+
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.camel.TypeConverter;
+import org.apache.camel.component.as2.api.AS2Charset;
+import org.apache.camel.component.as2.api.AS2ClientManager;
+import org.apache.camel.component.as2.api.AS2MediaType;
+import org.apache.camel.component.as2.api.AS2MessageStructure;
+import org.apache.camel.component.as2.internal.AS2ApiInvoker;
+import org.apache.camel.component.as2.internal.AS2ClientManagerApiMethod;
+import org.apache.camel.test.junit4.CamelTestSupport;
+import org.apache.camel.util.component.ApiMethod;
+import org.apache.camel.util.component.ApiMethodHelper;
+import org.apache.http.HttpException;
+import org.apache.http.entity.ContentType;
+import org.apache.http.protocol.HttpCoreContext;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the per exchange overhead of invoking {@link AS2ClientManager#send}
+ * reflectively and through {@link AS2ApiInvoker}. Only run when the system
+ * property <code>camel.as2.benchmark</code> is <code>true</code>.
+ */
+public class AS2ApiInvokerBenchmarkTest extends CamelTestSupport {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AS2ApiInvokerBenchmarkTest.class);
+
+    private static final int WARMUP_ITERATIONS = 20000;
+    private static final int ITERATIONS = 200000;
+
+    @BeforeClass
+    public static void assumeBenchmarksEnabled() {
+        Assume.assumeTrue("Benchmarks not enabled", Boolean.getBoolean("camel.as2.benchmark"));
+    }
+
+    @Test
+    public void sendInvocationBenchmark() throws Exception {
+        StubClientManager proxy = new StubClientManager();
+        ApiMethod method = findMethod("send");
+        Map<String, Object> properties = createSendProperties();
+        TypeConverter typeConverter = context.getTypeConverter();
+
+        assertSame("Unexpected reflective result", proxy.result, ApiMethodHelper.invokeMethod(proxy, method, properties));
+        assertSame("Unexpected typed result", proxy.result, AS2ApiInvoker.invokeMethod(proxy, method, properties, typeConverter));
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            ApiMethodHelper.invokeMethod(proxy, method, properties);
+            AS2ApiInvoker.invokeMethod(proxy, method, properties, typeConverter);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            ApiMethodHelper.invokeMethod(proxy, method, properties);
+        }
+        long reflective = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            AS2ApiInvoker.invokeMethod(proxy, method, properties, typeConverter);
+        }
+        long typed = System.nanoTime() - start;
+
+        LOG.info("send invocation overhead: reflective {} ns/exchange, typed {} ns/exchange",
+                reflective / ITERATIONS, typed / ITERATIONS);
+        assertEquals("Unexpected number of invocations", 2 * (1 + WARMUP_ITERATIONS + ITERATIONS), proxy.invocations);
+    }
+
+    private static ApiMethod findMethod(String name) {
+        for (AS2ClientManagerApiMethod method : AS2ClientManagerApiMethod.values()) {
+            if (name.equals(method.getName())) {
+                return method;
+            }
+        }
+        throw new IllegalArgumentException("Unknown method " + name);
+    }
+
+    private static Map<String, Object> createSendProperties() {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("ediMessage", "UNB+UNOA:1+005435656:1+006415160:1+060515:1434+00000000000778'");
+        properties.put("requestUri", "/");
+        properties.put("subject", "Test Case");
+        properties.put("from", "mrAS@example.org");
+        properties.put("as2From", "878051556");
+        properties.put("as2To", "878051556");
+        properties.put("as2MessageStructure", AS2MessageStructure.PLAIN);
+        properties.put("ediMessageContentType", ContentType.create(AS2MediaType.APPLICATION_EDIFACT, AS2Charset.US_ASCII));
+        properties.put("ediMessageTransferEncoding", null);
+        properties.put("signingCertificateChain", null);
+        properties.put("signingPrivateKey", null);
+        properties.put("dispositionNotificationTo", "mrAS@example.org");
+        properties.put("signedReceiptMicAlgorithms", new String[] {"sha1"});
+        return properties;
+    }
+
+    private static class StubClientManager extends AS2ClientManager {
+        private final HttpCoreContext result = HttpCoreContext.create();
+        private int invocations;
+
+        StubClientManager() {
+            super(null);
+        }
+
+        @Override
+        public HttpCoreContext send(String ediMessage, String requestUri, String subject, String from, String as2From,
+                                    String as2To, AS2MessageStructure as2MessageStructure,
+                                    ContentType ediMessageContentType, String ediMessageTransferEncoding,
+                                    Certificate[] signingCertificateChain, PrivateKey signingPrivateKey,
+                                    String dispositionNotificationTo, String[] signedReceiptMicAlgorithms)
+                throws HttpException {
+            invocations++;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2;
+
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.camel.TypeConverter;
+import org.apache.camel.component.as2.api.AS2Charset;
+import org.apache.camel.component.as2.api.AS2ClientManager;
+import org.apache.camel.component.as2.api.AS2MediaType;
+import org.apache.camel.component.as2.api.AS2MessageStructure;
+import org.apache.camel.component.as2.internal.AS2ApiInvoker;
+import org.apache.camel.component.as2.internal.AS2ClientManagerApiMethod;
+import org.apache.camel.test.junit4.CamelTestSupport;
+import org.apache.camel.util.component.ApiMethod;
+import org.apache.camel.util.component.ApiMethodHelper;
+import org.apache.http.HttpException;
+import org.apache.http.entity.ContentType;
+import org.apache.http.protocol.HttpCoreContext;
+import org.junit.Test;
+
+/**
+ * Checks that {@link AS2ApiInvoker} invokes {@link AS2ClientManager#send} with
+ * the same arguments as the reflective invocation it replaces.
+ */
+public class AS2ApiInvokerTest extends CamelTestSupport {
+
+    @Test
+    public void sendInvocationTest() throws Exception {
+        StubClientManager proxy = new StubClientManager();
+        ApiMethod method = findMethod("send");
+        Map<String, Object> properties = createSendProperties();
+        TypeConverter typeConverter = context.getTypeConverter();
+
+        assertSame("Unexpected reflective result", proxy.result, ApiMethodHelper.invokeMethod(proxy, method, properties));
+        Object[] reflectiveArguments = proxy.arguments;
+        assertSame("Unexpected typed result", proxy.result, AS2ApiInvoker.invokeMethod(proxy, method, properties, typeConverter));
+        Object[] typedArguments = proxy.arguments;
+
+        assertNotSame("Method not invoked twice", reflectiveArguments, typedArguments);
+        assertArrayEquals("Unexpected typed arguments", reflectiveArguments, typedArguments);
+    }
+
+    private static ApiMethod findMethod(String name) {
+        for (AS2ClientManagerApiMethod method : AS2ClientManagerApiMethod.values()) {
+            if (name.equals(method.getName())) {
+                return method;
+            }
+        }
+        throw new IllegalArgumentException("Unknown method " + name);
+    }
+
+    private static Map<String, Object> createSendProperties() {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("ediMessage", "UNB+UNOA:1+005435656:1+006415160:1+060515:1434+00000000000778'");
+        properties.put("requestUri", "/");
+        properties.put("subject", "Test Case");
+        properties.put("from", "mrAS@example.org");
+        properties.put("as2From", "878051556");
+        properties.put("as2To", "878051556");
+        properties.put("as2MessageStructure", AS2MessageStructure.PLAIN);
+        properties.put("ediMessageContentType", ContentType.create(AS2MediaType.APPLICATION_EDIFACT, AS2Charset.US_ASCII));
+        properties.put("ediMessageTransferEncoding", null);
+        properties.put("signingCertificateChain", null);
+        properties.put("signingPrivateKey", null);
+        properties.put("dispositionNotificationTo", "mrAS@example.org");
+        properties.put("signedReceiptMicAlgorithms", new String[] {"sha1"});
+        return properties;
+    }
+
+    private static class StubClientManager extends AS2ClientManager {
+        private final HttpCoreContext result = HttpCoreContext.create();
+        private Object[] arguments;
+
+        StubClientManager() {
+            super(null);
+        }
+
+        @Override
+        public HttpCoreContext send(String ediMessage, String requestUri, String subject, String from, String as2From,
+                                    String as2To, AS2MessageStructure as2MessageStructure,
+                                    ContentType ediMessageContentType, String ediMessageTransferEncoding,
+                                    Certificate[] signingCertificateChain, PrivateKey signingPrivateKey,
+                                    String dispositionNotificationTo, String[] signedReceiptMicAlgorithms)
+                throws HttpException {
+            arguments = new Object[] {
+                ediMessage, requestUri, subject, from, as2From, as2To, as2MessageStructure, ediMessageContentType,
+                ediMessageTransferEncoding, signingCertificateChain, signingPrivateKey, dispositionNotificationTo,
+                signedReceiptMicAlgorithms
+            };
+            return result;
+        }
+    }
+}
@@ -17,11 +17,17 @@
 package org.apache.camel.component.as2;
 
 import java.io.IOException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.cert.Certificate;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.camel.builder.RouteBuilder;
 import org.apache.camel.component.as2.api.AS2Charset;
+import org.apache.camel.component.as2.api.AS2ClientManager;
 import org.apache.camel.component.as2.api.AS2Constants;
 import org.apache.camel.component.as2.api.AS2Header;
 import org.apache.camel.component.as2.api.AS2MediaType;
@@ -43,6 +49,7 @@ import org.apache.http.HttpResponse;
 import org.apache.http.entity.ContentType;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.protocol.HttpRequestHandler;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -165,6 +172,45 @@ public class AS2ClientManagerIntegrationTest extends AbstractAS2TestSupport {
         assertEquals("Unexpected content type in second body part of report",
                 ContentType.create(AS2MimeType.MESSAGE_DISPOSITION_NOTIFICATION, AS2Charset.US_ASCII).toString(),
                 secondPart.getContentTypeValue());
+
+        assertNotNull("Missing expected MIC", result.getAttribute(AS2ClientManager.EXPECTED_MIC));
+        // no MIC algorithms requested: the MDN carries no MIC to verify
+        assertNull("Unexpected MIC verification", result.getAttribute(AS2ClientManager.MIC_VERIFIED));
+    }
+
+    @Test
+    public void signedMessageSendTest() throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA", "BC");
+        kpg.initialize(1024, new SecureRandom());
+        String issueDN = "O=Punkhorn Software, C=US";
+        KeyPair issueKP = kpg.generateKeyPair();
+        String signingDN = "CN=William J. Collins, E=punkhornsw@gmail.com, O=Punkhorn Software, C=US";
+        KeyPair signingKP = kpg.generateKeyPair();
+        Certificate[] certificateChain = {
+            Utils.makeCertificate(signingKP, signingDN, issueKP, issueDN), Utils.makeCertificate(issueKP, issueDN, issueKP, issueDN)
+        };
+
+        final Map<String, Object> headers = new HashMap<String, Object>();
+        headers.put("CamelAS2.ediMessage", EDI_MESSAGE);
+        headers.put("CamelAS2.requestUri", REQUEST_URI);
+        headers.put("CamelAS2.subject", SUBJECT);
+        headers.put("CamelAS2.from", FROM);
+        headers.put("CamelAS2.as2From", AS2_NAME);
+        headers.put("CamelAS2.as2To", AS2_NAME);
+        headers.put("CamelAS2.as2MessageStructure", AS2MessageStructure.SIGNED);
+        headers.put("CamelAS2.ediMessageContentType", ContentType.create(AS2MediaType.APPLICATION_EDIFACT, AS2Charset.US_ASCII));
+        headers.put("CamelAS2.ediMessageTransferEncoding", null);
+        headers.put("CamelAS2.signingCertificateChain", certificateChain);
+        headers.put("CamelAS2.signingPrivateKey", signingKP.getPrivate());
+        headers.put("CamelAS2.dispositionNotificationTo", "mrAS2@example.com");
+        headers.put("CamelAS2.signedReceiptMicAlgorithms", new String[] {"sha1", "md5"});
+
+        final org.apache.http.protocol.HttpCoreContext result = requestBodyAndHeaders("direct://SEND", null, headers);
+
+        assertNotNull("send result", result);
+        assertNotNull("Missing expected MIC", result.getAttribute(AS2ClientManager.EXPECTED_MIC));
+        assertEquals("Returned MIC not verified", Boolean.TRUE, result.getAttribute(AS2ClientManager.MIC_VERIFIED));
     }
 
     @BeforeClass
@@ -0,0 +1,52 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.camel.StreamCache;
+import org.apache.camel.component.as2.api.AS2Charset;
+import org.apache.camel.component.as2.api.entity.ApplicationEDIFACTEntity;
+import org.apache.camel.test.junit4.CamelTestSupport;
+import org.apache.camel.util.IOHelper;
+import org.junit.Test;
+
+public class AS2ConverterTest extends CamelTestSupport {
+
+    private static final String EDI_MESSAGE = "UNB+UNOA:1+005435656:1+006415160:1+060515:1434+00000000000778'\r\n"
+            + "UNZ+1+00000000000778'";
+
+    @Test
+    public void convertEDIEntityTest() throws Exception {
+        ApplicationEDIFACTEntity entity = new ApplicationEDIFACTEntity(EDI_MESSAGE.getBytes(StandardCharsets.US_ASCII),
+                AS2Charset.US_ASCII, null, true);
+
+        InputStream is = context.getTypeConverter().mandatoryConvertTo(InputStream.class, entity);
+        assertEquals("Unexpected stream content", EDI_MESSAGE, IOHelper.loadText(is).trim());
+
+        byte[] bytes = context.getTypeConverter().mandatoryConvertTo(byte[].class, entity);
+        assertEquals("Unexpected content", EDI_MESSAGE, new String(bytes, StandardCharsets.US_ASCII));
+
+        ByteBuffer buffer = context.getTypeConverter().mandatoryConvertTo(ByteBuffer.class, entity);
+        assertEquals("Unexpected buffer size", EDI_MESSAGE.length(), buffer.remaining());
+
+        StreamCache cache = context.getTypeConverter().mandatoryConvertTo(StreamCache.class, entity);
+        assertEquals("Unexpected cache size", EDI_MESSAGE.length(), cache.length());
+    }
+}
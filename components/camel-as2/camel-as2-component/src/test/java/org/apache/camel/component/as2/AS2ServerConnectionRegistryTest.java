@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2;
+
+import org.apache.camel.component.as2.api.AS2ServerConnection;
+import org.apache.camel.component.as2.api.AS2TradingPartnerRegistry;
+import org.apache.camel.component.as2.internal.AS2ServerConnectionRegistry;
+import org.apache.camel.test.junit4.CamelTestSupport;
+import org.junit.Test;
+
+public class AS2ServerConnectionRegistryTest extends CamelTestSupport {
+
+    private static final int SERVER_PORT = 8890;
+
+    @Test
+    public void referenceCountTest() throws Exception {
+        AS2Configuration configuration = new AS2Configuration();
+        configuration.setServerPortNumber(Integer.toString(SERVER_PORT));
+        AS2TradingPartnerRegistry partners = new AS2TradingPartnerRegistry();
+        AS2ServerConnectionRegistry registry = new AS2ServerConnectionRegistry();
+
+        AS2ServerConnection first = registry.acquire(configuration, partners);
+        AS2ServerConnection second = registry.acquire(configuration, partners);
+        assertSame("Connection not shared", first, second);
+        assertEquals("Unexpected reference count", 2, registry.getReferenceCount(SERVER_PORT));
+
+        registry.release(first);
+        assertEquals("Unexpected reference count", 1, registry.getReferenceCount(SERVER_PORT));
+        assertNotNull("Connection closed while used", first.getRequestVerifier());
+
+        registry.release(second);
+        assertEquals("Unexpected reference count", 0, registry.getReferenceCount(SERVER_PORT));
+        assertNull("Unused connection not closed", first.getRequestVerifier());
+
+        // the port is free again once the connection is closed
+        AS2ServerConnection reopened = registry.acquire(configuration, partners);
+        assertNotSame("Closed connection reused", first, reopened);
+        registry.close();
+    }
+
+    @Test
+    public void conflictingSettingsTest() throws Exception {
+        AS2Configuration configuration = new AS2Configuration();
+        configuration.setServerPortNumber(Integer.toString(SERVER_PORT));
+        AS2Configuration otherConfiguration = new AS2Configuration();
+        otherConfiguration.setServerPortNumber(Integer.toString(SERVER_PORT));
+        otherConfiguration.setMaxMessageSize(1024);
+        AS2TradingPartnerRegistry partners = new AS2TradingPartnerRegistry();
+        AS2ServerConnectionRegistry registry = new AS2ServerConnectionRegistry();
+
+        registry.acquire(configuration, partners);
+        try {
+            registry.acquire(otherConfiguration, partners);
+            fail("Connection shared with other settings");
+        } catch (IllegalArgumentException e) {
+            assertTrue("Conflicting setting not reported: " + e.getMessage(), e.getMessage().contains("maxMessageSize"));
+        } finally {
+            registry.close();
+        }
+        assertEquals("Unexpected reference count", 0, registry.getReferenceCount(SERVER_PORT));
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.http.pool.PoolStats;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the time to start a context with many AS2 endpoints sending to a
+ * trading partner which can not be reached. Only run when the system property
+ * <code>camel.as2.benchmark</code> is <code>true</code>.
+ */
+public class AS2StartupBenchmarkTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AS2StartupBenchmarkTest.class);
+
+    private static final int ENDPOINTS = 500;
+    // non routable address: connecting blocks until the connect timeout
+    private static final String UNREACHABLE_HOST = "10.255.255.1";
+
+    @BeforeClass
+    public static void assumeBenchmarksEnabled() {
+        Assume.assumeTrue("Benchmarks not enabled", Boolean.getBoolean("camel.as2.benchmark"));
+    }
+
+    @Test
+    public void startupBenchmark() throws Exception {
+        CamelContext camelContext = new DefaultCamelContext();
+        AS2Component component = new AS2Component(camelContext);
+        camelContext.addComponent("as2", component);
+        camelContext.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() throws Exception {
+                for (int i = 0; i < ENDPOINTS; i++) {
+                    from("direct://SEND" + i).to("as2://client/send?targetHostname=" + UNREACHABLE_HOST
+                            + "&targetPortNumber=" + (4080 + i % 10) + "&requestUri=/partner" + i);
+                }
+            }
+        });
+
+        long start = System.nanoTime();
+        camelContext.start();
+        long elapsed = System.nanoTime() - start;
+        try {
+            LOG.info("Started context with {} AS2 endpoints in {} ms", ENDPOINTS, elapsed / 1000000);
+            assertEquals("Unexpected number of routes", ENDPOINTS, camelContext.getRoutes().size());
+            PoolStats stats = component.getClientConnectionPool().getTotalStats();
+            assertEquals("Connections opened at startup", 0, stats.getAvailable() + stats.getLeased() + stats.getPending());
+        } finally {
+            camelContext.stop();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.as2;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.as2.api.AS2Charset;
+import org.apache.camel.component.as2.api.AS2ClientConnection;
+import org.apache.camel.component.as2.api.AS2ClientManager;
+import org.apache.camel.component.as2.api.AS2Header;
+import org.apache.camel.component.as2.api.AS2MediaType;
+import org.apache.camel.component.as2.api.AS2MessageJournal;
+import org.apache.camel.component.as2.api.AS2MessageStructure;
+import org.apache.camel.component.as2.api.entity.ApplicationEDIEntity;
+import org.apache.camel.component.as2.internal.AS2ApiCollection;
+import org.apache.camel.component.as2.internal.AS2ServerManagerApiMethod;
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test class for the store and forward mode of the AS2 consumer.
+ */
+public class AS2StoreAndForwardIntegrationTest extends AbstractAS2TestSupport {
+
+    private static final String PATH_PREFIX = AS2ApiCollection.getCollection().getApiName(AS2ServerManagerApiMethod.class).getName();
+
+    private static final String TARGET_HOST = "localhost";
+    private static final int TARGET_PORT = 8893;
+    private static final String REQUEST_URI = "/journal";
+    private static final String AS2_NAME = "878051556";
+    private static final String RECOVERED_MESSAGE_ID = "<recovered@example.org>";
+
+    private static final String EDI_MESSAGE = "UNB+UNOA:1+005435656:1+006415160:1+060515:1434+00000000000778'\n"
+            + "UNH+00000000000117+INVOIC:D:97B:UN'\n"
+            + "UNT+23+00000000000117'\n"
+            + "UNZ+1+00000000000778'";
+
+    private static final AtomicBoolean FAILING = new AtomicBoolean();
+
+    private static File journalDirectory;
+
+    @BeforeClass
+    public static void setUpJournal() throws Exception {
+        journalDirectory = Files.createTempDirectory("as2-journal").toFile();
+        // message acknowledged but not processed before the previous run stopped
+        BasicHttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest("POST", REQUEST_URI);
+        request.addHeader(AS2Header.MESSAGE_ID, RECOVERED_MESSAGE_ID);
+        request.addHeader(AS2Header.AS2_FROM, AS2_NAME);
+        request.addHeader(AS2Header.AS2_TO, AS2_NAME);
+        request.addHeader(AS2Header.CONTENT_TYPE, AS2MediaType.APPLICATION_EDIFACT + "; charset=US-ASCII");
+        byte[] body = EDI_MESSAGE.getBytes(StandardCharsets.US_ASCII);
+        request.setEntity(new ByteArrayEntity(body));
+        new AS2MessageJournal(journalDirectory).append(request, body);
+    }
+
+    @AfterClass
+    public static void tearDownJournal() {
+        File[] files = journalDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        journalDirectory.delete();
+    }
+
+    @Test
+    public void restartRecoveryTest() throws Exception {
+        MockEndpoint journaled = getMockEndpoint("mock:journaled");
+        journaled.expectedMessageCount(1);
+        journaled.setResultWaitTime(TimeUnit.MILLISECONDS.convert(30, TimeUnit.SECONDS));
+        journaled.assertIsSatisfied();
+
+        // the message journaled before the consumer started is delivered as written
+        HttpEntityEnclosingRequest recovered = getRequest(journaled.getExchanges().get(0));
+        assertEquals("Unexpected message", RECOVERED_MESSAGE_ID, recovered.getFirstHeader(AS2Header.MESSAGE_ID).getValue());
+        assertTrue("Unexpected entity type", recovered.getEntity() instanceof ApplicationEDIEntity);
+        assertEquals("Unexpected body", EDI_MESSAGE, ((ApplicationEDIEntity) recovered.getEntity()).getEdiMessage());
+
+        // a message the route fails to process stays in the journal across a restart
+        FAILING.set(true);
+        MockEndpoint attempts = getMockEndpoint("mock:attempts");
+        attempts.reset();
+        attempts.expectedMessageCount(1);
+        attempts.setResultWaitTime(TimeUnit.MILLISECONDS.convert(30, TimeUnit.SECONDS));
+        journaled.reset();
+        journaled.expectedMessageCount(1);
+        journaled.setResultWaitTime(TimeUnit.MILLISECONDS.convert(30, TimeUnit.SECONDS));
+
+        AS2ClientConnection clientConnection = new AS2ClientConnection("1.1", "Camel AS2 Endpoint", "example.org", TARGET_HOST, TARGET_PORT);
+        new AS2ClientManager(clientConnection).send(EDI_MESSAGE, REQUEST_URI, "Test Case", "mrAS@example.org", AS2_NAME, AS2_NAME,
+                AS2MessageStructure.PLAIN, ContentType.create(AS2MediaType.APPLICATION_EDIFACT, AS2Charset.US_ASCII), null, null, null,
+                null, null);
+        attempts.assertIsSatisfied();
+
+        context.stopRoute("journal");
+        assertEquals("Failed message not kept in journal", 1, new AS2MessageJournal(journalDirectory).getEntries().size());
+        FAILING.set(false);
+        context.startRoute("journal");
+
+        journaled.assertIsSatisfied();
+        assertEquals("Processed message kept in journal", 0, new AS2MessageJournal(journalDirectory).getEntries().size());
+    }
+
+    private static HttpEntityEnclosingRequest getRequest(Exchange exchange) {
+        HttpContext context = exchange.getIn().getBody(HttpContext.class);
+        return (HttpEntityEnclosingRequest) HttpCoreContext.adapt(context).getRequest();
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        return new RouteBuilder() {
+            public void configure() {
+                // redelivery delayed beyond the test: only a restart delivers a failed message again
+                from("as2://" + PATH_PREFIX + "/listen?requestUriPattern=" + REQUEST_URI + "&serverPortNumber=" + TARGET_PORT
+                        + "&storeAndForward=true&journalRedeliveryDelay=600000&journalDirectory=" + journalDirectory.getPath())
+                    .routeId("journal")
+                    .to("mock:attempts")
+                    .process(new Processor() {
+                        @Override
+                        public void process(Exchange exchange) throws Exception {
+                            if (FAILING.get()) {
+                                throw new IllegalStateException("Route failing");
+                            }
+                        }
+                    })
+                    .to("mock:journaled");
+            }
+        };
+    }
+}